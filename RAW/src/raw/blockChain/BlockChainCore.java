@@ -15,12 +15,14 @@
  *******************************************************************************/
 package raw.blockChain;
 
+import java.math.BigDecimal;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutorService;
 
 import raw.blockChain.api.Block;
 import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.services.miner.Miner;
 import raw.blockChain.services.thickNode.ThickNode;
@@ -67,6 +69,30 @@ public interface BlockChainCore {
 	 */
 	public BlockHeader getBlockHeaderByNumber(long blockNumber);
 	
+	/**
+	 * This method will try to find the hash of a {@link BlockHeader} given its block number in BlockChain.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the {@link HashValue} of the {@link BlockHeader} if existent or <tt>null</tt> otherwise
+	 */
+	public HashValue getBlockHashByNumber(long blockNumber);
+	
+	/**
+	 * This method will try to find the timestamp of a {@link BlockHeader} given its block number in BlockChain.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the timestamp of the {@link BlockHeader} if existent or -1 otherwise
+	 */
+	public long getBlockTimestampByNumber(long blockNumber);
+	
+	/**
+	 * This method will try to find the difficulty of a {@link BlockHeader} given its block number in BlockChain.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the difficulty of the {@link BlockHeader} if existent or <tt>null</tt> otherwise
+	 */
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber);
+	
 	/**
 	 * This method will try to find a complete {@link Block} given its block number in BlockChain.
 	 * 
@@ -28,4 +28,26 @@ public interface BlockChainConstants {
 	public int MAXIMUM_TIMESTAMP_OFFSET = 1 * 60 * 60 * 1000; // 1 hour in milliseconds.
 	
 	public int SOCKETS_MILLISECONDS_TIMEOUT = 30 * 1000;
+	
+	public int CONNECT_MILLISECONDS_TIMEOUT = 5 * 1000;
+	
+	/**
+	 * The first block number whose header can be a fixed layout (version 2) one:
+	 * nodes not knowing that layout reject such headers, so the switch is rolled out
+	 * in two steps. Nodes accepting version 2 headers from this block on are released
+	 * first, with the activation not scheduled; once most of the network runs them, a
+	 * release sets this to a block number far enough in the future (a few difficulty
+	 * adjustment periods) for the remaining nodes to upgrade. Miners build version 2
+	 * headers from this block on, version 1 headers are accepted at any height.
+	 */
+	public long FIXED_LAYOUT_ACTIVATION_BLOCK = Long.MAX_VALUE; // not scheduled yet
+	
+	/**
+	 * The first seed block number whose transactions are binary encoded (version 2) ones.
+	 * Those transactions hash differently, so blocks containing them are rejected by
+	 * older nodes: as for {@link BlockChainConstants#FIXED_LAYOUT_ACTIVATION_BLOCK}, this
+	 * is scheduled only once most of the network accepts them. Before this block new
+	 * transactions are version 1 ones, and blocks with version 2 transactions are invalid.
+	 */
+	public long BINARY_TRANSACTIONS_ACTIVATION_BLOCK = Long.MAX_VALUE; // not scheduled yet
 }
@@ -15,6 +15,8 @@
  *******************************************************************************/
 package raw.blockChain.api;
 
+import java.util.List;
+
 /**
  * Objects extending this class will work
  * to find the next viable {@link Block} to be submitted
@@ -39,6 +41,31 @@ public interface BlockMiner {
 	 */
 	public void findNextBlock(BlockHeader previousBlock);
 	
+	/**
+	 * Move the ongoing search (if any) to a block following <tt>previousBlock</tt>
+	 * made of the transactions currently submitted via {@link BlockMiner#pushTransaction(Transaction)}.
+	 * Unlike halting the search and calling {@link BlockMiner#findNextBlock(BlockHeader)} again,
+	 * the running computation is kept: it switches to the new template atomically.
+	 * Nothing changes if <tt>previousBlock</tt> is older than the header being mined.
+	 * 
+	 * @param previousBlock the {@link BlockHeader} of the previous block
+	 * @return <tt>false</tt> if no search is ongoing, so that {@link BlockMiner#findNextBlock(BlockHeader)} should be called
+	 */
+	public boolean updateTemplate(BlockHeader previousBlock);
+	
+	/**
+	 * As {@link BlockMiner#updateTemplate(BlockHeader)}, first replacing the submitted
+	 * transactions with <tt>newTransactions</tt>: concurrent callers never mix their
+	 * transactions, nor move the search to a template made of another caller's ones.
+	 * If <tt>previousBlock</tt> is older than the header being mined, the submitted
+	 * transactions are left untouched as well.
+	 * 
+	 * @param previousBlock the {@link BlockHeader} of the previous block
+	 * @param newTransactions the transactions of the new template
+	 * @return <tt>false</tt> if no search is ongoing, so that {@link BlockMiner#findNextBlock(BlockHeader)} should be called
+	 */
+	public boolean updateTemplate(BlockHeader previousBlock, List<Transaction> newTransactions);
+	
 	/**
 	 * Register a new {@link BlockMinerListener} to whom a newly found
 	 * {@link Block} will be notified.
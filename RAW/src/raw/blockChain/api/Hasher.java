@@ -15,6 +15,7 @@
  *******************************************************************************/
 package raw.blockChain.api;
 
+import java.util.ArrayList;
 
 /**
  * Utility class to compute hashes.
@@ -35,6 +36,17 @@ public interface Hasher {
 	 */
 	public HashValue hashTransaction(Transaction transaction);
 	
+	/**
+	 * Digest a list of {@link Transaction}s in a single pass.
+	 * This should be preferred to repeated invocations of
+	 * {@link Hasher#hashTransaction(Transaction)} when
+	 * all the leaves of a merkle tree are to be hashed.
+	 * 
+	 * @param transactions the input {@link Transaction}s
+	 * @return the {@link HashValue}s of <tt>transactions</tt>, in the same order
+	 */
+	public ArrayList<HashValue> hashTransactions(ArrayList<Transaction> transactions);
+	
 	/**
 	 * Hashes (or re-hashes) one or more {@link HashValue}s.
 	 * 
@@ -43,6 +55,20 @@ public interface Hasher {
 	 */
 	public HashValue hashHashes(HashValue ... hashValues);
 	
+	/**
+	 * Hashes the concatenation of two hashes stored in byte arrays,
+	 * as {@link Hasher#hashHashes(HashValue...)} would do with two
+	 * {@link HashValue}s, writing the result in <tt>output</tt>.
+	 * 
+	 * @param left the array holding the left hash
+	 * @param leftOffset the position of <tt>left</tt> where the hash starts
+	 * @param right the array holding the right hash
+	 * @param rightOffset the position of <tt>right</tt> where the hash starts
+	 * @param output the array receiving the {@link Hasher#hashLength()} bytes of the digest
+	 * @param outputOffset the position of <tt>output</tt> where the digest starts
+	 */
+	public void hashHashes(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] output, int outputOffset);
+	
 	/**
 	 * Hashes an header represented ad {@link BlockHeader}.
 	 * 
@@ -59,6 +85,16 @@ public interface Hasher {
 	 */
 	public HashValue hashBytes(byte[] bytes);
 	
+	/**
+	 * Hashes a range of a byte array.
+	 * 
+	 * @param bytes the input byte array
+	 * @param offset the first byte to be hashed
+	 * @param length the number of bytes to be hashed
+	 * @return the digested {@link HashValue}
+	 */
+	public HashValue hashBytes(byte[] bytes, int offset, int length);
+	
 	/**
 	 * @return the number of bytes of an hash generated by {@link Hasher}
 	 */
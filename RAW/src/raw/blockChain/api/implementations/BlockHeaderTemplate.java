@@ -0,0 +1,107 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ *
+ */
+package raw.blockChain.api.implementations;
+
+import java.io.IOException;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.exceptions.IllegalBlockHeaderBytesRepresentation;
+import raw.blockChain.exceptions.IncompleteBuilderSettingsException;
+
+/**
+ * A pre-serialized {@link BlockHeader} to be used while searching for a valid nonce.
+ * The hashable bytes of the header are computed once when the template is built:
+ * trying a new nonce only patches the 4 nonce bytes in place and digests the
+ * buffer with the thread's {@link HashingEngine}, so that no object is allocated
+ * inside the mining loop. A real {@link BlockHeader} is built only through
+ * {@link BlockHeaderTemplate#buildHeader(int)}, i.e. when a winning nonce is found.<br>
+ * <br>
+ * Objects of this class are <b>not</b> thread safe: each mining thread should use its own.
+ *
+ * @author vic
+ *
+ */
+public class BlockHeaderTemplate {
+
+	private Builder builder;
+
+	private byte[] hashable;
+	private int nonceOffset;
+
+	private byte[] hash;
+
+	/**
+	 * Serialize the header described by <tt>builder</tt>. Every field of
+	 * <tt>builder</tt> but the nonce must be set. Subsequent changes to
+	 * <tt>builder</tt> are <b>not</b> reflected by this template.
+	 *
+	 * @param builder a {@link Builder} with every field but the nonce set
+	 * @throws IncompleteBuilderSettingsException if <tt>builder</tt> is missing some fields
+	 */
+	public BlockHeaderTemplate(Builder builder) throws IncompleteBuilderSettingsException {
+		this.builder = builder;
+
+		DefaultBlockHeader header = (DefaultBlockHeader) buildHeader(0);
+		hashable = header.getHashableBytes();
+		nonceOffset = header.nonceOffset();
+		hash = new byte[HashingEngine.HASH_LENGTH];
+	}
+
+	/**
+	 * Compute the hash of this template's header with the given <tt>nonce</tt>.
+	 * The returned array is reused by the next invocation of this method: callers
+	 * must copy it if they need to keep it.
+	 *
+	 * @param nonce the nonce to be tried
+	 * @return the (reused) byte array holding the header hash
+	 */
+	public byte[] hashWithNonce(int nonce){
+		hashable[nonceOffset] = (byte) (nonce >>> 24);
+		hashable[nonceOffset + 1] = (byte) (nonce >>> 16);
+		hashable[nonceOffset + 2] = (byte) (nonce >>> 8);
+		hashable[nonceOffset + 3] = (byte) nonce;
+
+		HashingEngine.get().hash(hashable, 0, hashable.length, hash, 0);
+		return hash;
+	}
+
+	/**
+	 * Build the {@link BlockHeader} this template refers to with
+	 * the given <tt>nonce</tt>.
+	 *
+	 * @param nonce the nonce to be set in the header
+	 * @return a new {@link BlockHeader}
+	 * @throws IncompleteBuilderSettingsException if the underlying {@link Builder} is missing some fields
+	 */
+	public BlockHeader buildHeader(int nonce) throws IncompleteBuilderSettingsException{
+		builder.setNonce(nonce);
+		try {
+			return builder.build();
+		} catch (IOException e) {
+			// these can be risen only building from bytes.
+			throw new IllegalStateException(e.getMessage(), e);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		} catch (IllegalBlockHeaderBytesRepresentation e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+}
@@ -21,12 +21,20 @@ package raw.blockChain.api.implementations;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import raw.blockChain.api.BlockChainConstants;
 import raw.blockChain.api.BlockHeader;
 import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Hasher;
@@ -39,7 +47,28 @@ import com.google.common.io.ByteStreams;
 /**
  * Implementation of {@link BlockHeader} interface. You can instantiate new
  * {@link DefaultBlockHeader} objects {@link DefaultBlockHeader#hash()} using its
- * {@link DefaultIntermediateValuesBuilder}.
+ * {@link DefaultIntermediateValuesBuilder}.<br>
+ * <br>
+ * Headers of version {@link DefaultBlockHeader#FIXED_LAYOUT_VERSION} (or newer) are
+ * hashed and transported with a fixed size layout (big endian):
+ * <pre>
+ * offset  length  field
+ *      0       4  version
+ *      4       1  blockchain name length (bytes)
+ *      5      32  blockchain name (UTF-8, zero padded)
+ *     37      64  previous block hash
+ *    101      64  merkle root
+ *    165       8  block number
+ *    173       8  timestamp
+ *    181       8  difficulty (unscaled value at scale {@link DefaultBlockHeader#DIFFICULTY_SCALE})
+ *    189       4  nonce
+ *    193       1  miner signature length (chars)
+ *    194     100  miner signature (UTF-16, zero padded)
+ *    294      64  header hash (only in {@link DefaultBlockHeader#getBytes()})
+ * </pre>
+ * The first {@link DefaultBlockHeader#HASHABLE_LENGTH} bytes are the ones hashed.
+ * Version 1 headers keep their variable size representations, so that their
+ * hashes do not change.
  * 
  * @author vic
  *
@@ -50,6 +79,55 @@ public class DefaultBlockHeader implements BlockHeader {
 	 * random generated serial
 	 */
 	private static final long serialVersionUID = -3675472816391063218L;
+	
+	/**
+	 * The version of the headers built by the miner from block
+	 * {@link BlockChainConstants#FIXED_LAYOUT_ACTIVATION_BLOCK} on. The {@link Builder}
+	 * keeps building version 1 headers unless told otherwise.
+	 */
+	public static final int CURRENT_VERSION = 2;
+	
+	/**
+	 * Headers of this version (or newer) use the fixed size layout.
+	 */
+	public static final int FIXED_LAYOUT_VERSION = 2;
+	
+	/**
+	 * The number of decimal digits of the difficulty of fixed layout headers.
+	 */
+	public static final int DIFFICULTY_SCALE = 8;
+	
+	/**
+	 * The maximum length (in chars) of a miner signature.
+	 */
+	public static final int SIGNATURE_CHARS = 50;
+	
+	private static final int HASH_LENGTH = HashingEngine.HASH_LENGTH;
+	private static final int CHAIN_NAME_BYTES = 32;
+	
+	private static final int CHAIN_NAME_OFFSET = Integer.SIZE / Byte.SIZE;
+	private static final int PREV_HASH_OFFSET = CHAIN_NAME_OFFSET + 1 + CHAIN_NAME_BYTES;
+	private static final int MERKLE_ROOT_OFFSET = PREV_HASH_OFFSET + HASH_LENGTH;
+	private static final int BLOCK_NUMBER_OFFSET = MERKLE_ROOT_OFFSET + HASH_LENGTH;
+	private static final int TIMESTAMP_OFFSET = BLOCK_NUMBER_OFFSET + Long.SIZE / Byte.SIZE;
+	private static final int DIFFICULTY_OFFSET = TIMESTAMP_OFFSET + Long.SIZE / Byte.SIZE;
+	
+	/**
+	 * The position of the nonce in the hashable bytes of fixed layout headers.
+	 */
+	public static final int NONCE_OFFSET = DIFFICULTY_OFFSET + Long.SIZE / Byte.SIZE;
+	
+	private static final int SIGNATURE_OFFSET = NONCE_OFFSET + Integer.SIZE / Byte.SIZE;
+	
+	/**
+	 * The number of hashable bytes of fixed layout headers.
+	 */
+	public static final int HASHABLE_LENGTH = SIGNATURE_OFFSET + 1 + 2 * SIGNATURE_CHARS;
+	
+	/**
+	 * The number of bytes returned by {@link DefaultBlockHeader#getBytes()} for fixed layout headers.
+	 */
+	public static final int ENCODED_LENGTH = HASHABLE_LENGTH + HASH_LENGTH;
 
 	private final int headerVersion;
 	
@@ -84,19 +162,85 @@ public class DefaultBlockHeader implements BlockHeader {
 		this.blockNumber = builder.blockNumber;
 		this.timestamp = builder.timestamp;
 
-		this.difficulty = builder.difficulty;
+		this.difficulty = difficultyForVersion(builder.difficulty, headerVersion);
 		this.nonce = builder.nonce;
 		
 		this.minerSignature = builder.minerSignature;
 		
+		if(headerVersion >= FIXED_LAYOUT_VERSION){
+			checkFixedLayoutFields();
+		}
+		
 		if(builder.hash != null){
-			hash();
+			if(builder.fixedLayoutBytes != null){
+				// hash the received bytes as they are, no need to encode them again.
+				this.blockHash = DefaultHasher.getHasher().hashBytes(builder.fixedLayoutBytes, 0, HASHABLE_LENGTH);
+			} else {
+				hash();
+			}
 			if(! this.blockHash.equals(builder.hash)){
 				throw new IllegalBlockHeaderBytesRepresentation("The constructed hash does not match with a computed one.");
 			}
 		}
 	}
 
+	private void checkFixedLayoutFields() throws IllegalBlockHeaderBytesRepresentation {
+		if(blockChainName.getBytes(StandardCharsets.UTF_8).length > CHAIN_NAME_BYTES){
+			throw new IllegalBlockHeaderBytesRepresentation("Blockchain name "+blockChainName+" does not fit a version "+headerVersion+" header.");
+		}
+		if(prevBlockHash.toByteArray().length != HASH_LENGTH || merkleRoot.toByteArray().length != HASH_LENGTH){
+			throw new IllegalBlockHeaderBytesRepresentation("Version "+headerVersion+" headers need "+HASH_LENGTH+" bytes hashes.");
+		}
+		if(difficulty.unscaledValue().bitLength() >= Long.SIZE){
+			throw new IllegalBlockHeaderBytesRepresentation("Difficulty "+difficulty+" does not fit a version "+headerVersion+" header.");
+		}
+	}
+	
+	/**
+	 * Fixed layout headers are valid only from block {@link BlockChainConstants#FIXED_LAYOUT_ACTIVATION_BLOCK} on.
+	 * 
+	 * @param blockNumber a block number
+	 * @return the highest header version valid for block <tt>blockNumber</tt>
+	 */
+	public static int maxVersionAt(long blockNumber){
+		if(blockNumber < BlockChainConstants.FIXED_LAYOUT_ACTIVATION_BLOCK){
+			return FIXED_LAYOUT_VERSION - 1;
+		}
+		return CURRENT_VERSION;
+	}
+	
+	/**
+	 * The fixed layout has room for {@link DefaultBlockHeader#CHAIN_NAME_BYTES} bytes of blockchain name:
+	 * chains with longer names keep using version 1 headers, as all the chains do
+	 * before {@link BlockChainConstants#FIXED_LAYOUT_ACTIVATION_BLOCK}.
+	 * 
+	 * @param blockChainName the name of a blockchain
+	 * @param blockNumber the number of the block being built
+	 * @return the version of the header to be built for block <tt>blockNumber</tt> of <tt>blockChainName</tt>
+	 */
+	public static int versionForChain(String blockChainName, long blockNumber){
+		if(blockChainName.getBytes(StandardCharsets.UTF_8).length > CHAIN_NAME_BYTES){
+			return FIXED_LAYOUT_VERSION - 1;
+		}
+		return maxVersionAt(blockNumber);
+	}
+	
+	/**
+	 * Headers of version {@link DefaultBlockHeader#FIXED_LAYOUT_VERSION} (or newer) store
+	 * difficulties with {@link DefaultBlockHeader#DIFFICULTY_SCALE} decimal digits: this
+	 * method returns <tt>difficulty</tt> as it is stored in a header of version <tt>headerVersion</tt>.
+	 * 
+	 * @param difficulty a difficulty
+	 * @param headerVersion a header version
+	 * @return <tt>difficulty</tt> as stored by a header of version <tt>headerVersion</tt>
+	 */
+	public static BigDecimal difficultyForVersion(BigDecimal difficulty, int headerVersion){
+		if(difficulty == null || headerVersion < FIXED_LAYOUT_VERSION){
+			return difficulty;
+		}
+		return difficulty.setScale(DIFFICULTY_SCALE, RoundingMode.HALF_EVEN);
+	}
+
 	/**
 	 * This class can be used to set up a {@link DefaultBlockHeader} object and will
 	 * validate its parameters before instantiating one.
@@ -108,6 +252,7 @@ public class DefaultBlockHeader implements BlockHeader {
 		private boolean buildFromBytes;
 
 		private byte[] bytes;
+		private byte[] fixedLayoutBytes;
 
 		private int headerVersion = 1;
 		
@@ -213,8 +358,8 @@ public class DefaultBlockHeader implements BlockHeader {
 		public Builder setMinerSignature(String minerSignature){
 			buildFromBytes = false;
 			this.minerSignature = minerSignature;
-			if(this.minerSignature.length() > 50){
-				this.minerSignature = this.minerSignature.substring(0, 50);
+			if(this.minerSignature.length() > SIGNATURE_CHARS){
+				this.minerSignature = this.minerSignature.substring(0, SIGNATURE_CHARS);
 			}
 			minerSignatureSet = true;
 			return this;
@@ -222,34 +367,46 @@ public class DefaultBlockHeader implements BlockHeader {
 
 		public BlockHeader build() throws IncompleteBuilderSettingsException,
 				IOException, ClassNotFoundException, IllegalBlockHeaderBytesRepresentation {
+			fixedLayoutBytes = null;
 			if (buildFromBytes) {
+				if(bytes.length >= CHAIN_NAME_OFFSET && ByteBuffer.wrap(bytes).getInt(0) >= FIXED_LAYOUT_VERSION){
+					// java serialization streams start with a negative int (0xACED0005).
+					parseFixedLayout();
+					return new DefaultBlockHeader(this);
+				}
 				
 				ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
 				ObjectInputStream ois = new ObjectInputStream(bais);
 				
 				byte[] hash;
 				
-				hash = (byte[]) ois.readObject();
-				this.hash = new DefaultHashValue(hash);
-				this.headerVersion = (Integer) ois.readObject();
-				this.blockChainName = (String) ois.readObject();
-				hash = (byte[]) ois.readObject();
-				this.prevBlockHash = new DefaultHashValue(hash);
-				hash = (byte[]) ois.readObject();
-				this.merkleRoot = new DefaultHashValue(hash);
-				this.blockNumber = (Long) ois.readObject();
-				this.timestamp = (Long) ois.readObject();
-				this.difficulty = (BigDecimal) ois.readObject();
-				this.nonce = (Integer) ois.readObject();
-				this.minerSignature = (String) ois.readObject();
-				
-				ois.close();
-				bais.close();
+				try {
+					hash = (byte[]) ois.readObject();
+					this.hash = new DefaultHashValue(hash);
+					this.headerVersion = (Integer) ois.readObject();
+					this.blockChainName = (String) ois.readObject();
+					hash = (byte[]) ois.readObject();
+					this.prevBlockHash = new DefaultHashValue(hash);
+					hash = (byte[]) ois.readObject();
+					this.merkleRoot = new DefaultHashValue(hash);
+					this.blockNumber = (Long) ois.readObject();
+					this.timestamp = (Long) ois.readObject();
+					this.difficulty = (BigDecimal) ois.readObject();
+					this.nonce = (Integer) ois.readObject();
+					this.minerSignature = (String) ois.readObject();
+				} catch (ClassCastException | NullPointerException e) {
+					// a field of the wrong type (or a missing primitive one).
+					throw new IllegalBlockHeaderBytesRepresentation("Malformed version 1 header: "+e);
+				} finally {
+					ois.close();
+					bais.close();
+				}
 				
 				DefaultBlockHeader header = new DefaultBlockHeader(this);
 				return header;
 			}
 
+			hash = null;
 			boolean builderProperlySet = true;
 			StringBuilder errorMsg = new StringBuilder(
 					"Some fields are not initializated: ");
@@ -294,6 +451,49 @@ public class DefaultBlockHeader implements BlockHeader {
 
 			return new DefaultBlockHeader(this);
 		}
+		
+		/**
+		 * Read the fields of a fixed layout header straight from <tt>bytes</tt>.
+		 */
+		private void parseFixedLayout() throws IllegalBlockHeaderBytesRepresentation {
+			if(bytes.length != ENCODED_LENGTH){
+				throw new IllegalBlockHeaderBytesRepresentation("Version 2 headers are "+ENCODED_LENGTH+" bytes long, not "+bytes.length+".");
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			
+			headerVersion = buffer.getInt(0);
+			int nameLength = bytes[CHAIN_NAME_OFFSET] & 0xff;
+			int signatureLength = bytes[SIGNATURE_OFFSET] & 0xff;
+			if(nameLength > CHAIN_NAME_BYTES || signatureLength > SIGNATURE_CHARS){
+				throw new IllegalBlockHeaderBytesRepresentation("Malformed version "+headerVersion+" header.");
+			}
+			// padding must be zeroed: otherwise different bytes would describe the same header.
+			if(!isZeroed(CHAIN_NAME_OFFSET + 1 + nameLength, PREV_HASH_OFFSET) ||
+					!isZeroed(SIGNATURE_OFFSET + 1 + 2 * signatureLength, HASHABLE_LENGTH)){
+				throw new IllegalBlockHeaderBytesRepresentation("Malformed version "+headerVersion+" header.");
+			}
+			
+			blockChainName = new String(bytes, CHAIN_NAME_OFFSET + 1, nameLength, StandardCharsets.UTF_8);
+			prevBlockHash = new DefaultHashValue(Arrays.copyOfRange(bytes, PREV_HASH_OFFSET, PREV_HASH_OFFSET + HASH_LENGTH));
+			merkleRoot = new DefaultHashValue(Arrays.copyOfRange(bytes, MERKLE_ROOT_OFFSET, MERKLE_ROOT_OFFSET + HASH_LENGTH));
+			blockNumber = buffer.getLong(BLOCK_NUMBER_OFFSET);
+			timestamp = buffer.getLong(TIMESTAMP_OFFSET);
+			difficulty = BigDecimal.valueOf(buffer.getLong(DIFFICULTY_OFFSET), DIFFICULTY_SCALE);
+			nonce = buffer.getInt(NONCE_OFFSET);
+			minerSignature = new String(bytes, SIGNATURE_OFFSET + 1, 2 * signatureLength, StandardCharsets.UTF_16BE);
+			hash = new DefaultHashValue(Arrays.copyOfRange(bytes, HASHABLE_LENGTH, ENCODED_LENGTH));
+			
+			fixedLayoutBytes = bytes;
+		}
+		
+		private boolean isZeroed(int from, int to){
+			for (int i = from; i < to; i++) {
+				if(bytes[i] != 0){
+					return false;
+				}
+			}
+			return true;
+		}
 	}
 
 	/*
@@ -334,7 +534,7 @@ public class DefaultBlockHeader implements BlockHeader {
 		if (blockHash != null) {
 			return blockHash;
 		}
-		Hasher hasher = new DefaultHasher();
+		Hasher hasher = DefaultHasher.getHasher();
 		blockHash = hasher.hashBlockHeader(this);
 		return blockHash;
 	}
@@ -399,6 +599,11 @@ public class DefaultBlockHeader implements BlockHeader {
 
 	@Override
 	public byte[] getBytes() throws IOException {
+		if(headerVersion >= FIXED_LAYOUT_VERSION){
+			byte[] bytes = Arrays.copyOf(getHashableBytes(), ENCODED_LENGTH);
+			System.arraycopy(hash().toByteArray(), 0, bytes, HASHABLE_LENGTH, HASH_LENGTH);
+			return bytes;
+		}
 //		ByteArrayDataOutput bado = ByteStreams.newDataOutput();
 //
 //		bado.write(hash().toByteArray());
@@ -429,6 +634,9 @@ public class DefaultBlockHeader implements BlockHeader {
 
 	@Override
 	public byte[] getHashableBytes() {
+		if(headerVersion >= FIXED_LAYOUT_VERSION){
+			return fixedLayoutHashableBytes();
+		}
 		ByteArrayDataOutput bado = ByteStreams.newDataOutput();
 
 		bado.writeInt(headerVersion);
@@ -444,6 +652,83 @@ public class DefaultBlockHeader implements BlockHeader {
 		return bado.toByteArray();
 	}
 
+	private byte[] fixedLayoutHashableBytes(){
+		ByteBuffer buffer = ByteBuffer.allocate(HASHABLE_LENGTH);
+		
+		buffer.putInt(headerVersion);
+		byte[] name = blockChainName.getBytes(StandardCharsets.UTF_8);
+		buffer.put((byte) name.length);
+		buffer.put(name);
+		buffer.position(PREV_HASH_OFFSET);
+		buffer.put(prevBlockHash.toByteArray());
+		buffer.put(merkleRoot.toByteArray());
+		buffer.putLong(blockNumber);
+		buffer.putLong(timestamp);
+		buffer.putLong(difficulty.unscaledValue().longValue());
+		buffer.putInt(nonce);
+		buffer.put((byte) minerSignature.length());
+		for (int i = 0; i < minerSignature.length(); i++) {
+			buffer.putChar(minerSignature.charAt(i));
+		}
+		
+		return buffer.array();
+	}
+	
+	/**
+	 * @return the position of the nonce in {@link DefaultBlockHeader#getHashableBytes()}
+	 */
+	protected int nonceOffset(){
+		if(headerVersion >= FIXED_LAYOUT_VERSION){
+			return NONCE_OFFSET;
+		}
+		// the nonce is followed only by the miner signature written as chars.
+		return getHashableBytes().length - Integer.SIZE / Byte.SIZE - (2 * minerSignature.length());
+	}
+	
+	/**
+	 * Fixed layout headers are serialized as their {@link DefaultBlockHeader#getBytes()}
+	 * rather than field by field.
+	 * 
+	 * @return the object to be actually serialized
+	 * @throws ObjectStreamException if the header cannot be encoded
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		if(headerVersion >= FIXED_LAYOUT_VERSION){
+			try {
+				return new EncodedBlockHeader(getBytes());
+			} catch (IOException e) {
+				InvalidObjectException invalid = new InvalidObjectException(e.getMessage());
+				invalid.initCause(e);
+				throw invalid;
+			}
+		}
+		return this;
+	}
+	
+	/**
+	 * Serialized form of fixed layout {@link DefaultBlockHeader}s.
+	 */
+	private static class EncodedBlockHeader implements Serializable {
+		
+		private static final long serialVersionUID = 4410946364209957146L;
+		
+		private final byte[] bytes;
+		
+		public EncodedBlockHeader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+		
+		private Object readResolve() throws ObjectStreamException {
+			try {
+				return new Builder(bytes).build();
+			} catch (IncompleteBuilderSettingsException | IOException | ClassNotFoundException | IllegalBlockHeaderBytesRepresentation e) {
+				InvalidObjectException invalid = new InvalidObjectException(e.getMessage());
+				invalid.initCause(e);
+				throw invalid;
+			}
+		}
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if ((!(obj instanceof BlockHeader)) || obj == null ){
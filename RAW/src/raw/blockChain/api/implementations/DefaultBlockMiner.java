@@ -19,11 +19,14 @@
 package raw.blockChain.api.implementations;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import raw.blockChain.api.Block;
 import raw.blockChain.api.BlockHeader;
@@ -33,9 +36,17 @@ import raw.blockChain.api.BlockMinerTask;
 import raw.blockChain.api.Transaction;
 import raw.concurrent.RAWExecutors;
 import raw.logger.Log;
+import raw.settings.BlockChainProperties;
+import raw.settings.ModuleProperty;
+import raw.settings.PropertiesManager;
 
 /**
  * Default implementation of {@link BlockMiner} interface.
+ * The search is split among {@link BlockChainProperties#getMinerWorkers()}
+ * parallel {@link DefaultBlockMinerTask}s, each one working on a disjoint
+ * range of the nonce space. Running tasks share a {@link MiningTemplateSlot}:
+ * new transactions or a new previous header reach them through
+ * {@link DefaultBlockMiner#updateTemplate(BlockHeader)} without halting them.
  * 
  * @author vic
  *
@@ -43,35 +54,48 @@ import raw.logger.Log;
 public class DefaultBlockMiner implements BlockMiner {
 	
 	private ExecutorService pool;
-	private Future<Block> miningTaskFuture;
+	private ArrayList<Future<Block>> miningTaskFutures;
 	
 	private boolean isMining;
 	
 	private BlockHeader miningPrevHeader;
 	
-	private BlockMinerTask miningTask;
+	private MiningTemplateSlot miningTemplates;
+	
+	private final MiningMetrics metrics;
+	private volatile long searchStartNanos;
+	
+	private final ArrayList<BlockMinerTask> miningTasks;
 	
 	private ArrayList<BlockMinerListener> listeners;
 	
-	private ArrayList<Transaction> transactions;
+	private final LinkedHashSet<Transaction> transactions;
 	
 	private String mySignature;
 	
 	private Log log;
 	
 	public DefaultBlockMiner(String minerSignature) {
-		pool = RAWExecutors.newCachedThreadPool();
-		listeners = new ArrayList<BlockMinerListener>();
-		transactions = new ArrayList<Transaction>();
-		mySignature = minerSignature;
-		log = Log.getLogger();
+		this(RAWExecutors.newCachedThreadPool(), minerSignature);
 	}
 	
 	public DefaultBlockMiner(ExecutorService pool, String minerSignature) {
+		this(pool, minerSignature, new MiningMetrics());
+	}
+	
+	/**
+	 * @param pool the {@link ExecutorService} running the mining tasks
+	 * @param minerSignature the signature of this miner
+	 * @param metrics the {@link MiningMetrics} updated by this miner and its tasks
+	 */
+	public DefaultBlockMiner(ExecutorService pool, String minerSignature, MiningMetrics metrics) {
 		this.pool = pool;
 		listeners = new ArrayList<BlockMinerListener>();
-		transactions = new ArrayList<Transaction>();
+		miningTasks = new ArrayList<BlockMinerTask>();
+		miningTaskFutures = new ArrayList<Future<Block>>();
+		transactions = new LinkedHashSet<Transaction>();
 		mySignature = minerSignature;
+		this.metrics = metrics;
 		log = Log.getLogger();
 	}
 
@@ -82,31 +106,107 @@ public class DefaultBlockMiner implements BlockMiner {
 	public void findNextBlock(BlockHeader previousBlock) {
 		if(isMining){
 			if(miningPrevHeader != null && previousBlock.getBlockNumber() > miningPrevHeader.getBlockNumber()){
-				//task to be sumbitted is better than the one going on.
+				//task to be sumbitted is better than the one going on: running tasks can switch to it.
 				log.verboseDebug("Miner already running on block "+miningPrevHeader.getBlockNumber()+" and received task for previous block "+previousBlock.getBlockNumber());
-				haltBlockMining();
+				if(updateTemplate(previousBlock)){
+					return;
+				}
 			} else {
 				//the task requested is already ongoing or older than the one going on. abort this.
 				log.verboseDebug("Miner appears to be mining. Received request to mine after "+previousBlock.getBlockNumber()+". My prev header is: "+miningPrevHeader);
 				return;
 			}
 		}
-		BlockMinerTask newBlockSearch = new DefaultBlockMinerTask(previousBlock, transactions, this, mySignature);
-		log.debug("Submitting a new mining task for previous block "+previousBlock);
-		miningPrevHeader = previousBlock;
-		miningTaskFuture = pool.submit(newBlockSearch);
-		try {
-			miningTaskFuture.get(1, TimeUnit.NANOSECONDS);
-		} catch (InterruptedException e) {
-			log.exception(e);
-		} catch (ExecutionException e) {
-			log.exception(e);
-		} catch (TimeoutException e) {
-			log.debug("Task has started and is on its own.");
+		BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
+		int workers = Math.max(1, properties.getMinerWorkers());
+		AtomicBoolean computeFlag = new AtomicBoolean(true);
+		
+		synchronized (miningTasks) {			
+			log.debug("Submitting "+workers+" new mining tasks for previous block "+previousBlock);
+			miningPrevHeader = previousBlock;
+			searchStartNanos = System.nanoTime();
+			miningTemplates = new MiningTemplateSlot(currentTemplate(previousBlock), workers, true);
+			for(int i = 0; i < workers; i++){
+				BlockMinerTask newBlockSearch = new DefaultBlockMinerTask(miningTemplates, this, mySignature, i, workers, computeFlag);
+				Future<Block> miningTaskFuture = pool.submit(newBlockSearch);
+				try {
+					miningTaskFuture.get(1, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					log.exception(e);
+				} catch (ExecutionException e) {
+					log.exception(e);
+				} catch (TimeoutException e) {
+					log.debug("Task "+i+" has started and is on its own.");
+				}
+				miningTasks.add(newBlockSearch);
+				miningTaskFutures.add(miningTaskFuture);
+			}
+			log.debug("Mining has begun!");
+			isMining = true;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see raw.blockChain.api.BlockMiner#updateTemplate(raw.blockChain.api.BlockHeader)
+	 */
+	@Override
+	public boolean updateTemplate(BlockHeader previousBlock) {
+		synchronized (miningTasks) {
+			if(!isMining){
+				return false;
+			}
+			if(previousBlock.getBlockNumber() < miningPrevHeader.getBlockNumber()){
+				log.verboseDebug("Miner already running on block "+miningPrevHeader.getBlockNumber()+". Ignoring template for previous block "+previousBlock.getBlockNumber());
+				return true;
+			}
+			if(!previousBlock.equals(miningPrevHeader)){
+				searchStartNanos = System.nanoTime();
+			}
+			miningPrevHeader = previousBlock;
+			miningTemplates.set(currentTemplate(previousBlock));
+			log.debug("Mining template updated for previous block "+previousBlock.getBlockNumber());
+			return true;
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.api.BlockMiner#updateTemplate(raw.blockChain.api.BlockHeader, java.util.List)
+	 */
+	@Override
+	public boolean updateTemplate(BlockHeader previousBlock, List<Transaction> newTransactions) {
+		synchronized (miningTasks) {
+			if(isMining && previousBlock.getBlockNumber() < miningPrevHeader.getBlockNumber()){
+				log.verboseDebug("Miner already running on block "+miningPrevHeader.getBlockNumber()+". Ignoring transactions for previous block "+previousBlock.getBlockNumber());
+				return true;
+			}
+			synchronized (transactions) {
+				transactions.clear();
+				transactions.addAll(newTransactions);
+			}
+			return updateTemplate(previousBlock);
+		}
+	}
+	
+	private MiningTemplate currentTemplate(BlockHeader previousBlock){
+		synchronized (transactions) {
+			return new MiningTemplate(previousBlock, transactions);
+		}
+	}
+	
+	/**
+	 * @return the {@link MiningMetrics} of this miner
+	 */
+	public MiningMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * @return the nanoseconds the last mining template took to reach every worker, or -1 if not available
+	 */
+	public long getLastTemplateSwitchNanos() {
+		synchronized (miningTasks) {
+			return miningTemplates == null ? -1 : miningTemplates.getLastSwitchNanos();
 		}
-		miningTask = newBlockSearch;
-		log.debug("Mining has begun!");
-		isMining = true;
 	}
 
 	/* (non-Javadoc)
@@ -129,8 +229,11 @@ public class DefaultBlockMiner implements BlockMiner {
 	 */
 	@Override
 	public void pushTransaction(Transaction newTransaction) {
-		if(!transactions.contains(newTransaction)){
-			transactions.add(newTransaction);
+		boolean added;
+		synchronized (transactions) {
+			added = transactions.add(newTransaction);
+		}
+		if(added){
 			log.debug("Added new transaction to list: "+newTransaction);
 		}
 	}
@@ -140,23 +243,26 @@ public class DefaultBlockMiner implements BlockMiner {
 	 */
 	@Override
 	public void haltBlockMining() {
-		if(miningTask != null){
-		synchronized (miningTask) {			
-				log.debug("Signalling to task: halt requested.");
-				if(miningTask != null){					
+		synchronized (miningTasks) {
+			if(!miningTasks.isEmpty()){
+				log.debug("Signalling to tasks: halt requested.");
+				for(BlockMinerTask miningTask : miningTasks){					
 					miningTask.stop();
 				}
-				miningTask = null;
-				miningTaskFuture = null;
+				miningTasks.clear();
+				miningTaskFutures.clear();
 				miningPrevHeader = null;
 				isMining = false;
+			} else {
+				log.verboseDebug("No task is ongoing. Nothing to do.");
 			}
-		} else {
-			log.verboseDebug("No task is ongoing. Nothing to do.");
 		}
 	}
 	
 	protected void signalBlockIsFound(Block block){
+		long now = System.nanoTime();
+		metrics.blockFound(now - searchStartNanos);
+		searchStartNanos = now;
 		synchronized (listeners) {			
 			for(BlockMinerListener listener : listeners){
 				listener.notifyNewBlock(block);
@@ -169,7 +275,9 @@ public class DefaultBlockMiner implements BlockMiner {
 	 */
 	@Override
 	public void clearTransactions() {
-		transactions.clear();		
+		synchronized (transactions) {
+			transactions.clear();
+		}
 	}
 
 	/* (non-Javadoc)
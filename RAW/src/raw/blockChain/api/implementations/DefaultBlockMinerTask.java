@@ -18,24 +18,21 @@
  */
 package raw.blockChain.api.implementations;
 
-import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import raw.blockChain.api.Block;
 import raw.blockChain.api.BlockHeader;
 import raw.blockChain.api.BlockMiner;
 import raw.blockChain.api.BlockMinerTask;
-import raw.blockChain.api.HashValue;
-import raw.blockChain.api.Hasher;
-import raw.blockChain.api.Merkler;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
-import raw.blockChain.exceptions.IllegalBlockHeaderBytesRepresentation;
-import raw.blockChain.exceptions.IncompleteBuilderSettingsException;
 import raw.logger.Log;
 import raw.settings.BlockChainProperties;
 import raw.settings.ModuleProperty;
@@ -51,31 +48,99 @@ import static raw.blockChain.api.implementations.utils.BlockUtils.*;
 public class DefaultBlockMinerTask extends BlockMinerTask {
 	
 	private Log log;
-	private Merkler merkler;
-	private Hasher hasher;
 	
 	private Random rand;
 	
-	private boolean compute;
+	private AtomicBoolean compute;
+	
+	private MiningTemplateSlot templates;
+	
+	private long nonceRangeStart;
+	private long nonceRangeLength;
+	
+	private int workerIndex;
 	
 	private DefaultBlockMiner father;
 	
+	private MiningMetrics metrics;
+	
 	private String blockChainName;
 	
 	private String mySignature;
 
 	public DefaultBlockMinerTask(BlockHeader previousBlockHeader,ArrayList<Transaction> candidateTransactions, BlockMiner father, String minerSignature) throws IllegalArgumentException {
-		super(previousBlockHeader, candidateTransactions);
+		this(previousBlockHeader, candidateTransactions, father, minerSignature, 0, 1, new AtomicBoolean(true));
+	}
+	
+	/**
+	 * Build a task which is one of <tt>workersNumber</tt> parallel workers searching
+	 * for the same block. The 32 bit nonce space is split in <tt>workersNumber</tt>
+	 * disjoint ranges and this task will only try the nonces of the range number
+	 * <tt>workerIndex</tt>: whenever its range is exhausted the task rolls the
+	 * timestamp, swaps two transactions (updating the merkle root incrementally)
+	 * and starts again on the same range.<br>
+	 * All the workers should share the same <tt>computeFlag</tt>: the first worker
+	 * finding a block clears it (halting all the others) and is the only one
+	 * signaling the new block. Each worker should receive its own copy of the
+	 * candidate transactions, as the list is shuffled while mining.
+	 * 
+	 * @param previousBlockHeader the header of previous {@link Block}
+	 * @param candidateTransactions the set of transactions to be used for the new {@link Block}
+	 * @param father the {@link BlockMiner} to be notified of a new block
+	 * @param minerSignature the signature of this miner
+	 * @param workerIndex the index (starting from 0) of this worker
+	 * @param workersNumber the total number of workers
+	 * @param computeFlag the flag shared among all workers. If <tt>false</tt> workers stop.
+	 * @throws IllegalArgumentException if parameters are <tt>null</tt> or <tt>workerIndex</tt> is not in [0, <tt>workersNumber</tt>)
+	 */
+	public DefaultBlockMinerTask(BlockHeader previousBlockHeader,ArrayList<Transaction> candidateTransactions, BlockMiner father, String minerSignature, int workerIndex, int workersNumber, AtomicBoolean computeFlag) throws IllegalArgumentException {
+		this(new MiningTemplateSlot(new MiningTemplate(previousBlockHeader, checkNotNull(candidateTransactions)), 1, false), father, minerSignature, workerIndex, workersNumber, computeFlag);
+	}
+	
+	/**
+	 * Build a task which is one of <tt>workersNumber</tt> parallel workers mining
+	 * the templates set in <tt>templates</tt>. The nonce space is split as in
+	 * {@link DefaultBlockMinerTask#DefaultBlockMinerTask(BlockHeader, ArrayList, BlockMiner, String, int, int, AtomicBoolean)}.<br>
+	 * Whenever a new template is set the task moves to it between two nonces:
+	 * the header builder is kept (difficulty and block number are recomputed only
+	 * for a new previous header), the merkle tree is extended in place when the new
+	 * transactions are a superset of the ones being mined and the nonce search
+	 * resumes from where it was.<br>
+	 * If <tt>templates</tt> is persistent, the task does not end when a block is found:
+	 * it waits for the next template until <tt>computeFlag</tt> is cleared.
+	 * 
+	 * @param templates the slot shared by all the workers
+	 * @param father the {@link BlockMiner} to be notified of a new block
+	 * @param minerSignature the signature of this miner
+	 * @param workerIndex the index (starting from 0) of this worker
+	 * @param workersNumber the total number of workers
+	 * @param computeFlag the flag shared among all workers. If <tt>false</tt> workers stop.
+	 * @throws IllegalArgumentException if parameters are <tt>null</tt> or <tt>workerIndex</tt> is not in [0, <tt>workersNumber</tt>)
+	 */
+	public DefaultBlockMinerTask(MiningTemplateSlot templates, BlockMiner father, String minerSignature, int workerIndex, int workersNumber, AtomicBoolean computeFlag) throws IllegalArgumentException {
+		super(checkNotNull(templates).get().getPreviousBlockHeader(), new ArrayList<Transaction>(templates.get().getTransactions()));
+		if(computeFlag == null || workersNumber < 1 || workerIndex < 0 || workerIndex >= workersNumber){
+			throw new IllegalArgumentException();
+		}
 		
 		log = Log.getLogger();
 		
 		BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
-		merkler = new DefaultMerkler(properties.getMerkleCacheSize());
-		hasher = new DefaultHasher();
+		// workers are built together: the index keeps their seeds (and thus their searches) apart.
+		rand = new Random(System.nanoTime() ^ (0x9E3779B97F4A7C15L * (workerIndex + 1)));
 		
-		rand = new Random(System.currentTimeMillis());
+		compute = computeFlag;
+		this.templates = templates;
+		this.workerIndex = workerIndex;
 		
-		compute = true;
+		long nonceSpace = 1L << Integer.SIZE;
+		long rangeLength = nonceSpace / workersNumber;
+		nonceRangeStart = Integer.MIN_VALUE + (workerIndex * rangeLength);
+		if(workerIndex == workersNumber - 1){
+			nonceRangeLength = nonceSpace - (workerIndex * rangeLength);
+		} else {
+			nonceRangeLength = rangeLength;
+		}
 		
 		blockChainName = properties.getBlockChainName();
 		
@@ -83,10 +148,19 @@ public class DefaultBlockMinerTask extends BlockMinerTask {
 		
 		if(father instanceof DefaultBlockMiner){
 			this.father = (DefaultBlockMiner) father;
+			metrics = this.father.getMetrics();
 		}
 		else{
 			this.father = null;
+			metrics = null;
+		}
+	}
+	
+	private static <T> T checkNotNull(T object) throws IllegalArgumentException {
+		if(object == null){
+			throw new IllegalArgumentException();
 		}
+		return object;
 	}
 
 	/* (non-Javadoc)
@@ -96,95 +170,181 @@ public class DefaultBlockMinerTask extends BlockMinerTask {
 	public Block call() throws Exception {
 		log.debug("Starting this task.");
 		
-		BigDecimal difficulty = nextDifficulty(getPreviousBlockHeader());
-		HashValue target = targetMaskFromDifficulty(difficulty);
-				
-		Builder baseBlockHeaderBluilder = new Builder();
-		baseBlockHeaderBluilder.setBlockChainName(blockChainName).
-		setBlockNumber(nextBlockNumber(getPreviousBlockHeader())).
-		setDifficulty(difficulty).
-		setPrevBlockHash(getPreviousBlockHeader().hash()).
+		Builder blockHeaderBluilder = new Builder();
+		blockHeaderBluilder.setBlockChainName(blockChainName).
 		setMinerSignature(mySignature);
-		
-		boolean found = false;
+		int headerVersion = 0;
 		
 		Block foundBlock = null;
 		
+		BlockHeader previousHeader = null;
+		Target target = null;
+		IncrementalMerkleTree merkleTree = null;
+		long offset = (rand.nextLong() & Long.MAX_VALUE) % nonceRangeLength;
+		log.debug("Extracted first nonce = "+(nonceRangeStart + offset));
+		
+		MiningTemplate template = templates.get();
+		
 		log.debug("beginning miner loop...");
-		while(compute && !found){
-			Collections.shuffle(getCandidateTransactions());
-			HashValue merkleRoot = merkler.getMerkleRoot(getCandidateTransactions());
-			Builder blockHeaderBluilder = baseBlockHeaderBluilder;
-			
-			long timestamp = System.currentTimeMillis();
-			TimeZone timeZone = TimeZone.getDefault();
-			timestamp = timestamp - timeZone.getOffset(timestamp);
-			
-			blockHeaderBluilder.setTimestamp(timestamp).
-			setMerkleRoot(merkleRoot);
-			
-			HashValue headerHash = null;
-			
-			int startingNonce = rand.nextInt();
-			log.debug("Extracted first nonce = "+startingNonce);
-			for(int nonce=startingNonce; nonce < Integer.MAX_VALUE; nonce++){
-				if(!compute){
-					break;
+		while(compute.get()){
+			long buildStart = System.nanoTime();
+			if(previousHeader == null || !previousHeader.equals(template.getPreviousBlockHeader())){
+				previousHeader = template.getPreviousBlockHeader();
+				long blockNumber = nextBlockNumber(previousHeader);
+				// version 2 headers are mined only once activated.
+				headerVersion = DefaultBlockHeader.versionForChain(blockChainName, blockNumber);
+				if(headerVersion < DefaultBlockHeader.maxVersionAt(blockNumber)){
+					log.debug("Blockchain name "+blockChainName+" is too long for version "+DefaultBlockHeader.CURRENT_VERSION+" headers: mining version "+headerVersion+" headers.");
 				}
-				headerHash = tryThisNonce(nonce, blockHeaderBluilder);
-				HashValue masked = headerHash.maskWith(target);
-				if(headerHash.equals(masked)){
-					log.info("YAY! found a block header: "+headerHash.toHexString());
-					foundBlock = new DefaultBlock(blockHeaderBluilder.build(), getCandidateTransactions());
-					found = true;
-					break;
+				// the difficulty as it is stored by the header being mined.
+				BigDecimal difficulty = DefaultBlockHeader.difficultyForVersion(nextDifficulty(previousHeader), headerVersion);
+				target = targetFromDifficulty(difficulty);
+				blockHeaderBluilder.setHeaderVersion(headerVersion).
+				setBlockNumber(blockNumber).
+				setDifficulty(difficulty).
+				setPrevBlockHash(previousHeader.hash());
+			}
+			merkleTree = treeFor(template.getTransactions(), merkleTree);
+			long switchNanos = templates.adopted(template);
+			if(metrics != null){
+				metrics.templateBuilt(System.nanoTime() - buildStart);
+				if(switchNanos >= 0){
+					metrics.templateSwitched(switchNanos);
 				}
 			}
-			if(!found){
-				for(int nonce=Integer.MIN_VALUE; nonce<startingNonce; nonce++){
-					if(!compute){
+			long hashed = 0;
+			long reportStart = System.nanoTime();
+			
+			boolean switched = false;
+			boolean firstRound = true;
+			while(compute.get() && !switched && !template.isSolved()){
+				if(!firstRound){
+					// a new transactions order is enough for a new root: only two paths are rehashed.
+					merkleTree.swap(rand.nextInt(merkleTree.size()), rand.nextInt(merkleTree.size()));
+					offset = (rand.nextLong() & Long.MAX_VALUE) % nonceRangeLength;
+				}
+				firstRound = false;
+				
+				long timestamp = System.currentTimeMillis();
+				TimeZone timeZone = TimeZone.getDefault();
+				timestamp = timestamp - timeZone.getOffset(timestamp);
+				
+				blockHeaderBluilder.setTimestamp(timestamp).
+				setMerkleRoot(merkleTree.root());
+				
+				BlockHeaderTemplate headerTemplate = new BlockHeaderTemplate(blockHeaderBluilder);
+				
+				long tried;
+				for(tried = 0; tried < nonceRangeLength && compute.get() && !template.isSolved(); tried++){
+					if(templates.get() != template){
+						// the nonce search goes on from here on the new template.
+						switched = true;
 						break;
 					}
-					headerHash = tryThisNonce(nonce, blockHeaderBluilder);
-					HashValue masked = headerHash.maskWith(target);
-					if(headerHash.equals(masked)){
-						log.info("YAY! found a block header: "+headerHash.toHexString());
-						foundBlock = new DefaultBlock(blockHeaderBluilder.build(), getCandidateTransactions());
-						found = true;
+					int nonce = (int) (nonceRangeStart + offset);
+					if(target.meets(headerTemplate.hashWithNonce(nonce))){
+						if(claim(template)){
+							BlockHeader foundHeader = headerTemplate.buildHeader(nonce);
+							log.info("YAY! found a block header: "+foundHeader.hash().toHexString());
+							foundBlock = new DefaultBlock(foundHeader, merkleTree.getTransactions());
+							if(father != null){
+								father.signalBlockIsFound(foundBlock);
+							}
+						}
 						break;
 					}
+					offset++;
+					if(offset == nonceRangeLength){
+						offset = 0;
+					}
+					if(++hashed == MiningMetrics.HASHES_PER_REPORT){
+						reportStart = reportHashes(hashed, reportStart);
+						hashed = 0;
+					}
+				}
+				if(tried == nonceRangeLength && metrics != null){
+					metrics.nonceRangeExhausted();
 				}
 			}
-		}
-		if(father != null && found){
-			father.signalBlockIsFound(foundBlock);
+			reportHashes(hashed, reportStart);
+			if(!templates.isPersistent() && template.isSolved()){
+				break;
+			}
+			if(!switched){
+				template = templates.awaitNext(template, compute);
+			} else {
+				template = templates.get();
+			}
 		}
 		return foundBlock;
 	}
+	
+	/**
+	 * Claim the block found on <tt>template</tt>: only the first worker claiming it
+	 * wins, and (unless the templates are persistent) halts all the others.
+	 * 
+	 * @return <tt>true</tt> if this worker is the first (and only) one to find a block on <tt>template</tt>
+	 */
+	boolean claim(MiningTemplate template){
+		return template.solve() && (templates.isPersistent() || compute.compareAndSet(true, false));
+	}
+	
+	/**
+	 * @return the first nonce of the range searched by this worker
+	 */
+	long getNonceRangeStart(){
+		return nonceRangeStart;
+	}
+	
+	/**
+	 * @return how many nonces the range searched by this worker holds
+	 */
+	long getNonceRangeLength(){
+		return nonceRangeLength;
+	}
+	
+	/**
+	 * Report to the metrics (if any) <tt>hashed</tt> hashes computed since <tt>since</tt>.
+	 * 
+	 * @return the time of this report
+	 */
+	private long reportHashes(long hashed, long since){
+		long now = System.nanoTime();
+		if(metrics != null && hashed > 0){
+			metrics.hashesComputed(workerIndex, hashed, now - since);
+		}
+		return now;
+	}
+	
+	/**
+	 * Build the merkle tree of <tt>transactions</tt>, reusing <tt>current</tt> when
+	 * it holds a subset of them: in that case only the missing ones are appended.
+	 */
+	private IncrementalMerkleTree treeFor(List<Transaction> transactions, IncrementalMerkleTree current){
+		if(current != null && current.size() <= transactions.size()){
+			HashSet<Transaction> mined = new HashSet<Transaction>(current.getTransactions());
+			HashSet<Transaction> wanted = new HashSet<Transaction>(transactions);
+			if(mined.size() == current.size() && wanted.containsAll(mined)){
+				for(Transaction transaction : transactions){
+					if(!mined.contains(transaction)){
+						current.append(transaction);
+					}
+				}
+				return current;
+			}
+		}
+		ArrayList<Transaction> shuffled = new ArrayList<Transaction>(transactions);
+		Collections.shuffle(shuffled, rand);
+		return new IncrementalMerkleTree(shuffled);
+	}
 
 	/* (non-Javadoc)
 	 * @see raw.blockChain.BlockMinerTask#stop()
 	 */
 	@Override
 	public void stop() {
-		compute = false;
-	}
-	
-	private HashValue tryThisNonce(int nonce, Builder headerBuilder){
-		headerBuilder.setNonce(nonce);
-		HashValue computedHash = null;
-		try {
-			computedHash = hasher.hashBlockHeader(headerBuilder.build());
-		} catch (ClassNotFoundException e) {
-			log.exception(e);
-		} catch (IncompleteBuilderSettingsException e) {
-			log.exception(e);
-		} catch (IOException e) {
-			log.exception(e);
-		} catch (IllegalBlockHeaderBytesRepresentation e) {
-			log.exception(e);
-		}
-		return computedHash;
+		compute.set(false);
+		templates.wakeUp();
 	}
 
 }
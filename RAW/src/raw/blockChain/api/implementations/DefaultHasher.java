@@ -18,8 +18,8 @@
  */
 package raw.blockChain.api.implementations;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 
 import raw.blockChain.api.BlockHeader;
 import raw.blockChain.api.HashValue;
@@ -27,25 +27,33 @@ import raw.blockChain.api.Hasher;
 import raw.blockChain.api.Transaction;
 import raw.logger.Log;
 
-import com.google.common.hash.HashFunction;
-import com.google.common.hash.Hashing;
-
 /**
- * Implementation of {@link Hasher} interface.
+ * Implementation of {@link Hasher} interface.<br>
+ * The hashes of {@link DefaultTransaction}s are computed once
+ * and then cached into the transactions themselves.<br>
+ * <br>
+ * The digests are computed by the {@link HashingEngine} of the calling thread:
+ * objects of this class hold no state and are thread safe, hence
+ * {@link DefaultHasher#getHasher()} should be preferred to building new ones.
  * 
  * @author vic
  *
  */
 public class DefaultHasher implements Hasher {
 	
-	private HashFunction digester;
+	private static final DefaultHasher SHARED = new DefaultHasher();
 	
 	private Log log;
 	
 	public DefaultHasher() {
 		log = Log.getLogger();
-		
-		digester = Hashing.sha512();
+	}
+	
+	/**
+	 * @return a {@link DefaultHasher} shared by every caller
+	 */
+	public static DefaultHasher getHasher(){
+		return SHARED;
 	}
 
 	/* (non-Javadoc)
@@ -53,13 +61,55 @@ public class DefaultHasher implements Hasher {
 	 */
 	@Override
 	public HashValue hashTransaction(Transaction transaction) {
+		HashValue cached = cachedHash(transaction);
+		if(cached != null){
+			return cached;
+		}
+		HashValue hash = hashBytes(transactionBytes(transaction));
+		cacheHash(transaction, hash);
+		return hash;
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.api.Hasher#hashTransactions(java.util.ArrayList)
+	 */
+	@Override
+	public ArrayList<HashValue> hashTransactions(ArrayList<Transaction> transactions) {
+		ArrayList<HashValue> hashes = new ArrayList<HashValue>(transactions.size());
+		HashingEngine engine = HashingEngine.get();
+		for (Transaction transaction : transactions) {
+			HashValue hash = cachedHash(transaction);
+			if(hash == null){
+				byte[] bytes = transactionBytes(transaction);
+				hash = new DefaultHashValue(engine.hash(bytes, 0, bytes.length));
+				cacheHash(transaction, hash);
+			}
+			hashes.add(hash);
+		}
+		return hashes;
+	}
+	
+	private byte[] transactionBytes(Transaction transaction){
 		byte[] bytesEquivalent = null;
 		try {
 			bytesEquivalent = transaction.getBytes();
 		} catch (IOException e) {
 			log.exception(e);
 		}
-		return hashBytes(bytesEquivalent);
+		return bytesEquivalent;
+	}
+	
+	private HashValue cachedHash(Transaction transaction){
+		if(transaction instanceof DefaultTransaction){
+			return ((DefaultTransaction) transaction).getCachedHash();
+		}
+		return null;
+	}
+	
+	private void cacheHash(Transaction transaction, HashValue hash){
+		if(transaction instanceof DefaultTransaction){
+			((DefaultTransaction) transaction).setCachedHash(hash);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -70,30 +120,41 @@ public class DefaultHasher implements Hasher {
 		if( hashValues.length == 1 ){
 			return hashBytes(hashValues[0].toByteArray());
 		}
+		HashingEngine engine = HashingEngine.get();
 		byte[] previous = null;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		for (HashValue hashValue : hashValues) {
 			if( previous == null){
 				previous = hashValue.toByteArray();
 			}
 			else{
-				baos.reset();
-				try {
-					baos.write(previous);
-					baos.write(hashValue.toByteArray());
-				} catch (IOException e) {
-					log.exception(e);
+				byte[] next = hashValue.toByteArray();
+				if(previous.length == HashingEngine.HASH_LENGTH && next.length == HashingEngine.HASH_LENGTH){
+					byte[] digest = new byte[HashingEngine.HASH_LENGTH];
+					engine.hashPair(previous, 0, next, 0, digest, 0);
+					previous = digest;
+				} else {
+					byte[] concatenation = new byte[previous.length + next.length];
+					System.arraycopy(previous, 0, concatenation, 0, previous.length);
+					System.arraycopy(next, 0, concatenation, previous.length, next.length);
+					previous = engine.hash(concatenation, 0, concatenation.length);
 				}
-				previous = digestBytes(baos.toByteArray());
 			}
 		}
 		
 		return new DefaultHashValue(previous);
 	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.api.Hasher#hashHashes(byte[], int, byte[], int, byte[], int)
+	 */
+	@Override
+	public void hashHashes(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] output, int outputOffset) {
+		HashingEngine.get().hashPair(left, leftOffset, right, rightOffset, output, outputOffset);
+	}
 
 	@Override
 	public int hashLength() {
-		return digester.bits() / 8;
+		return HashingEngine.HASH_LENGTH;
 	}
 
 	/* (non-Javadoc)
@@ -112,13 +173,15 @@ public class DefaultHasher implements Hasher {
 	 */
 	@Override
 	public HashValue hashBytes(byte[] bytes) {
-		return new DefaultHashValue(digestBytes(bytes));
+		return hashBytes(bytes, 0, bytes.length);
 	}
 	
-	private byte[] digestBytes(byte[] bytes){
-		byte[] retVal = digester.hashBytes(bytes).asBytes();
-		retVal = digester.hashBytes(retVal).asBytes();
-		return retVal;
+	/* (non-Javadoc)
+	 * @see raw.blockChain.api.Hasher#hashBytes(byte[], int, int)
+	 */
+	@Override
+	public HashValue hashBytes(byte[] bytes, int offset, int length) {
+		return new DefaultHashValue(HashingEngine.get().hash(bytes, offset, length));
 	}
 
 }
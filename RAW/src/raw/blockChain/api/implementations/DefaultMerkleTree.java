@@ -19,150 +19,253 @@
 package raw.blockChain.api.implementations;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import raw.blockChain.api.HashValue;
-import raw.blockChain.api.Hasher;
 import raw.blockChain.api.Merkler;
+import raw.blockChain.api.Merkler.IntermediateValue;
 import raw.blockChain.api.Transaction;
+import raw.dht.DhtID;
 
 /**
  * This class is designed to be used by {@link DefaultMerkler} implementation of {@link Merkler}.
- * It should not be used for any other purpose...
+ * It should not be used for any other purpose...<br>
+ * <br>
+ * The tree is stored level by level: every level is a single byte array
+ * packing the hashes of its nodes from left to right (level 0 holds
+ * the leaves, level {@link DefaultMerkleTree#height()} the root). The sons of the node
+ * <tt>i</tt> at level <tt>l</tt> are the nodes <tt>2i</tt> and <tt>2i+1</tt> at level <tt>l-1</tt>,
+ * thus any path in the tree can be followed by index arithmetic.
  * 
  * @author vic
  *
  */
 public class DefaultMerkleTree {
 	private int treeHeight;
+	private int hashLength;
 	
-	private LeafNode leftmostLeaf;
-	private LeafNode rightmostLeaf;
+	private byte[][] levels;
 	
-	private RootNode root;
+	private Transaction[] transactions;
+	private volatile HashMap<DhtID, Integer> leafIndexes;
 	
 	protected DefaultMerkleTree(ArrayList<Transaction> leafTransactions) {
+		this(leafTransactions, null, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Build the tree of <tt>leafTransactions</tt>. If there are at least <tt>parallelThreshold</tt>
+	 * transactions the subtrees are computed in parallel by <tt>pool</tt>, each subtree
+	 * task being split until it covers less than <tt>parallelThreshold</tt> leaves.
+	 * 
+	 * @param leafTransactions the transactions of the tree
+	 * @param pool the {@link ForkJoinPool} computing subtrees, if <tt>null</tt> the tree is built sequentially
+	 * @param parallelThreshold the minimum number of leaves of a subtree to be split in parallel tasks
+	 */
+	protected DefaultMerkleTree(ArrayList<Transaction> leafTransactions, ForkJoinPool pool, int parallelThreshold) {
 		if (leafTransactions.size() == 1) {
 			treeHeight = 1;
 		} else {
 			treeHeight = ceilLogBase2(leafTransactions.size());
 		}
-
-		root = iterativeTreeCreation(treeHeight);
+		transactions = leafTransactions.toArray(new Transaction[leafTransactions.size()]);
+		hashLength = HashingEngine.HASH_LENGTH;
+		
+		levels = new byte[treeHeight + 1][];
+		for (int level = 0; level <= treeHeight; level++) {
+			levels[level] = new byte[(1 << (treeHeight - level)) * hashLength];
+		}
+		
+		if(pool == null || transactions.length < parallelThreshold){
+			new SubtreeTask(treeHeight, 0, Integer.MAX_VALUE).compute();
+		} else {
+			pool.invoke(new SubtreeTask(treeHeight, 0, parallelThreshold));
+		}
+	}
+	
+	/**
+	 * Computes the hashes of the subtree rooted in a node. Subtrees
+	 * covering at least <tt>threshold</tt> leaves are split in two
+	 * tasks (one for each son) and joined by hashing the two sons.
+	 * Different tasks write disjoint ranges of the levels.
+	 */
+	private class SubtreeTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = -3062493001599562081L;
 		
-		Node runningNode = root;
-		while(!(runningNode instanceof LeafNode)){
-			runningNode = runningNode.getLeftSon();
-		}
-		leftmostLeaf = (LeafNode) runningNode;
-		LeafNode runningLeaf = leftmostLeaf;
-		while(runningLeaf.getRightNieghbor() != null){
-			runningLeaf = (LeafNode) runningLeaf.getRightNieghbor();
-		}// tree is built up and set. now lets fill it.
-		rightmostLeaf = runningLeaf;
-		runningLeaf = leftmostLeaf;
-		Transaction lastTransaction = null;
-		for (Iterator<Transaction> iterator = leafTransactions.iterator(); iterator.hasNext();) {
-			lastTransaction = iterator.next();
-			runningLeaf.setTransaction(lastTransaction);
-			runningLeaf = (LeafNode) runningLeaf.getRightNieghbor();
-		}
-		while(runningLeaf != null){
-			runningLeaf.setTransaction(lastTransaction);
-			runningLeaf = (LeafNode) runningLeaf.getRightNieghbor();
-		}//now all leaves should have they hash. now fill all the other hashes
-		runningNode = leftmostLeaf.getFather();
-		Node leftmostRunningNode = runningNode;
-		Hasher hasher = new DefaultHasher();
-		while(!(runningNode instanceof RootNode)){
-			HashValue leftHash = runningNode.getLeftSon().getHash();
-			HashValue rightHash = runningNode.getRightSon().getHash();
-			runningNode.setHash(hasher.hashHashes(leftHash, rightHash));
-			if(runningNode.getRightNieghbor() != null){
-				runningNode = runningNode.getRightNieghbor();
+		private int level;
+		private int index;
+		private int threshold;
+		
+		public SubtreeTask(int level, int index, int threshold) {
+			this.level = level;
+			this.index = index;
+			this.threshold = threshold;
+		}
+		
+		@Override
+		protected void compute() {
+			HashingEngine engine = HashingEngine.get();
+			if(level > 1 && (1 << level) >= threshold){
+				invokeAll(new SubtreeTask(level - 1, 2 * index, threshold), new SubtreeTask(level - 1, 2 * index + 1, threshold));
+				hashSons(engine, level, index);
+				return;
 			}
-			else{
-				runningNode = leftmostRunningNode.getFather();
-				leftmostRunningNode = runningNode;
+			
+			int firstLeaf = index << level;
+			int lastLeaf = ((index + 1) << level) - 1;
+			hashLeaves(firstLeaf, lastLeaf);
+			for (int fatherLevel = 1; fatherLevel <= level; fatherLevel++) {
+				int last = lastLeaf >> fatherLevel;
+				for (int i = firstLeaf >> fatherLevel; i <= last; i++) {
+					hashSons(engine, fatherLevel, i);
+				}
 			}
 		}
-		HashValue leftHash = root.getLeftSon().getHash();
-		HashValue rightHash = root.getRightSon().getHash();
-		root.setHash(hasher.hashHashes(leftHash, rightHash));
 	}
 	
-	private RootNode iterativeTreeCreation(int height){
-		int numberOfLeaves = (int) Math.pow(2, height);
-		LeafNode firstLeaf = null;
-		LeafNode prevLeaf = null;
-		for (int i = 0; i < numberOfLeaves; i++) {
-			LeafNode leaf = new LeafNode();
-			if(i == 0){
-				firstLeaf = leaf;
+	private void hashLeaves(int firstLeaf, int lastLeaf){
+		byte[] leaves = levels[0];
+		int leaf = firstLeaf;
+		if(firstLeaf < transactions.length){
+			int lastTransaction = Math.min(lastLeaf, transactions.length - 1);
+			ArrayList<Transaction> hashed = new ArrayList<Transaction>(lastTransaction - firstLeaf + 1);
+			for (int i = firstLeaf; i <= lastTransaction; i++) {
+				hashed.add(transactions[i]);
 			}
-			leaf.setLeftNieghbor(prevLeaf);
-			if(prevLeaf != null){
-				prevLeaf.setRightNieghbor(leaf);
+			for (HashValue hash : DefaultHasher.getHasher().hashTransactions(hashed)) {
+				System.arraycopy(hash.toByteArray(), 0, leaves, leaf * hashLength, hashLength);
+				leaf++;
 			}
-			prevLeaf = leaf;
-		} //done with all the leaves
-		Node firstNode = null;
-		Node prevNode = null;
-		Node prevLevelFirstNode = firstLeaf;
-		Node prevLevelRunningNode = firstLeaf;
-		while( prevLevelFirstNode.getLevel() < height -1){
-			while(prevLevelRunningNode != null){
-				//level creation
-				Node sonL = prevLevelRunningNode;
-				Node sonR = prevLevelRunningNode.getRightNieghbor();
-				Node node = new Node(sonL, sonR);
-				if(firstNode == null){
-					firstNode = node;
-				}
-				node.setLeftNieghbor(prevNode);
-				if(prevNode != null){
-					prevNode.setRightNieghbor(node);
-				}
-				prevNode = node;
-				prevLevelRunningNode = sonR.getRightNieghbor();
+		}
+		if(leaf <= lastLeaf){
+			// missing leaves are filled with the last transaction.
+			byte[] padding = DefaultHasher.getHasher().hashTransaction(transactions[transactions.length - 1]).toByteArray();
+			for (; leaf <= lastLeaf; leaf++) {
+				System.arraycopy(padding, 0, leaves, leaf * hashLength, hashLength);
 			}
-			prevLevelFirstNode = firstNode;
-			prevLevelRunningNode = firstNode;
-			firstNode = null;
-			prevNode = null;			
 		}
-		RootNode root = new RootNode(prevLevelFirstNode, prevLevelFirstNode.getRightNieghbor());
-		return root;
 	}
 	
-	protected HashValue root() {
-		return this.root.getHash();
+	private void hashSons(HashingEngine engine, int level, int index){
+		// as in DefaultHasher#hashHashes(left, right)
+		byte[] sons = levels[level - 1];
+		engine.hashPair(sons, 2 * index * hashLength, sons, (2 * index + 1) * hashLength, levels[level], index * hashLength);
 	}
 	
-	protected RootNode getRootNode() {
-		return this.root;
+	protected HashValue root() {
+		return hash(treeHeight, 0);
 	}
 	
 	protected int height(){
 		return treeHeight;
 	}
 	
-private LeafNode getLeftmostLeaf() {
-		return leftmostLeaf;
+	/**
+	 * @param level a level of this tree (0 for the leaves)
+	 * @return the number of nodes at <tt>level</tt>
+	 */
+	protected int width(int level){
+		return levels[level].length / hashLength;
 	}
-
-	private LeafNode getRightmostLeaf() {
-		return rightmostLeaf;
+	
+	/**
+	 * @param level a level of this tree (0 for the leaves)
+	 * @param index the position of a node in <tt>level</tt> (0 for the leftmost one)
+	 * @return the {@link HashValue} of the node
+	 */
+	protected HashValue hash(int level, int index){
+		byte[] hash = new byte[hashLength];
+		System.arraycopy(levels[level], index * hashLength, hash, 0, hashLength);
+		return new DefaultHashValue(hash);
+	}
+	
+	/**
+	 * @param leafIndex the position of a leaf
+	 * @return the {@link Transaction} stored in the leaf
+	 */
+	protected Transaction transaction(int leafIndex){
+		if(leafIndex >= transactions.length){
+			return transactions[transactions.length - 1];
+		}
+		return transactions[leafIndex];
+	}
+	
+	/**
+	 * Check whether this tree was built on exactly the (ordered)
+	 * transactions of <tt>leafTransactions</tt>.
+	 *
+	 * @param leafTransactions a list of {@link Transaction}s
+	 * @return <tt>true</tt> if the leaves of this tree store <tt>leafTransactions</tt>
+	 */
+	protected boolean isBuiltOn(List<Transaction> leafTransactions){
+		if(leafTransactions.size() != transactions.length){
+			return false;
+		}
+		for (int i = 0; i < transactions.length; i++) {
+			Transaction transaction = leafTransactions.get(i);
+			if(transaction != transactions[i] && !transactions[i].equals(transaction)){
+				return false;
+			}
+		}
+		return true;
 	}
 
-//	private int floorLogBase2(int argument){
-//		double log = Math.log(argument) / Math.log(2);
-//		return (int) Math.floor(log);
-//	}
+	/**
+	 * Search for the leftmost leaf storing <tt>transaction</tt>.
+	 * 
+	 * @param transaction a {@link Transaction}
+	 * @return the position of the leaf storing <tt>transaction</tt> or -1 if it is not in this tree
+	 */
+	protected int indexOf(Transaction transaction){
+		HashMap<DhtID, Integer> indexes = leafIndexes;
+		if(indexes == null){
+			// built once, on the first search. Concurrent searches may build it twice.
+			indexes = new HashMap<DhtID, Integer>(transactions.length * 2);
+			for (int i = transactions.length - 1; i >= 0; i--) {
+				indexes.put(transactions[i].getDhtID(), i);
+			}
+			leafIndexes = indexes;
+		}
+		Integer index = indexes.get(transaction.getDhtID());
+		if(index == null){
+			return -1;
+		}
+		if(transactions[index].equals(transaction)){
+			return index;
+		}
+		// same DhtID in more transactions: fall back to a scan.
+		for (int i = index + 1; i < transactions.length; i++) {
+			if(transactions[i].equals(transaction)){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compute the list of {@link IntermediateValue}s that, together with the
+	 * transaction in the leaf <tt>leafIndex</tt>, lead to the root of this tree.
+	 * 
+	 * @param leafIndex the position of a leaf
+	 * @return the sibling hashes from the leaf level up to the root's sons
+	 */
+	protected ArrayList<IntermediateValue> intermediateValues(int leafIndex){
+		ArrayList<IntermediateValue> values = new ArrayList<IntermediateValue>(treeHeight);
+		int index = leafIndex;
+		for (int level = 0; level < treeHeight; level++) {
+			int sibling = index ^ 1;
+			values.add(new DefaultIntermediateValue(hash(level, sibling), sibling < index));
+			index = index / 2;
+		}
+		return values;
+	}
 	
 	private int ceilLogBase2(int argument){
-		double log = Math.log(argument) / Math.log(2);
-		return (int) Math.ceil(log);
+		return Integer.SIZE - Integer.numberOfLeadingZeros(argument - 1);
 	}
 	
 	@Override
@@ -181,132 +284,6 @@ private LeafNode getLeftmostLeaf() {
 		DefaultMerkleTree other = (DefaultMerkleTree) obj;
 		return root().equals(other.root());
 	}
-
-	private class Node{
-		private int level;
-		
-		private Node father;
-		private Node leftSon;
-		private Node rightSon;
-		
-		private Node leftNieghbor;
-		private Node rightNieghbor;
-		
-		private HashValue hash;
-		
-		public Node() {
-			// Auto-generated constructor stub
-		}
-		
-		public Node(Node leftSon, Node rightSon) {
-			if(leftSon.level != rightSon.level){
-				throw new IllegalArgumentException("Left and right son node should be at the same level!");
-			}
-			setLeftSon(leftSon);
-			setRightSon(rightSon);
-			
-			setLevel(leftSon.getLevel() + 1);
-			
-			leftSon.setFather(this);
-			rightSon.setFather(this);;
-			
-//			leftSon.setRightNieghbor(rightSon);
-//			rightSon.setLeftNieghbor(leftSon);
-		}
-
-		public int getLevel() {
-			return level;
-		}
-
-		public void setLevel(int level) {
-			this.level = level;
-		}
-
-		public Node getFather() {
-			return father;
-		}
-
-		public void setFather(Node father) {
-			this.father = father;
-		}
-
-		public Node getLeftSon() {
-			return leftSon;
-		}
-
-		public void setLeftSon(Node leftSon) {
-			this.leftSon = leftSon;
-		}
-
-		public Node getRightSon() {
-			return rightSon;
-		}
-
-		public void setRightSon(Node rightSon) {
-			this.rightSon = rightSon;
-		}
-
-		public void setLeftNieghbor(Node leftNieghbor) {
-			this.leftNieghbor = leftNieghbor;
-		}
-
-		public Node getLeftNieghbor() {
-			return leftNieghbor;
-		}
-
-		public Node getRightNieghbor() {
-			return rightNieghbor;
-		}
-
-		public void setRightNieghbor(Node rightNieghbor) {
-			this.rightNieghbor = rightNieghbor;
-		}
-
-		public HashValue getHash() {
-			return hash;
-		}
-
-		public void setHash(HashValue hash) {
-			this.hash = hash;
-		}
-	}
-	
-	private class LeafNode extends Node{
-	
-		private Transaction transaction;
-		
-		public LeafNode() {
-			setLevel(0);
-		}
-
-		public void setTransaction(Transaction transaction) {
-			this.transaction = transaction;
-			Hasher hasher = new DefaultHasher();
-			setHash(hasher.hashTransaction(this.transaction));
-		}
-
-		public Transaction getTransaction() {
-			return transaction;
-		}
-	}
-	
-	private class RootNode extends Node{
-		public RootNode(Node leftSon, Node rightSon) {
-			if(leftSon.getLevel() != rightSon.getLevel()){
-				throw new IllegalArgumentException("Left and right son node should be at the same level!");
-			}
-			setLeftSon(leftSon);
-			setRightSon(rightSon);
-			
-			setLevel(leftSon.getLevel()+1);
-			
-			leftSon.setFather(this);
-			rightSon.setFather(this);
-			
-			leftSon.setRightNieghbor(rightSon);
-			rightSon.setLeftNieghbor(leftSon);
-		}
-	}
 	
 	/**
 	 * Objects of this class should be used to
@@ -317,7 +294,8 @@ private LeafNode getLeftmostLeaf() {
 	 */
 	public static class TreeCursor{
 		private DefaultMerkleTree tree;
-		private Node current;
+		private int level;
+		private int index;
 		
 		/**
 		 * Construct a node cursor to traverse a given tree.
@@ -331,56 +309,59 @@ private LeafNode getLeftmostLeaf() {
 				throw new IllegalArgumentException("A valid tree should be provided.");
 			}
 			this.tree = tree;
-			this.current = tree.getLeftmostLeaf();
+			setCursorAsLeftmostLeaf();
 		}
 		
 		/**
 		 * Set the cursor position at the root node.
 		 */
 		public void setCursorAtRoot(){
-			this.current = tree.getRootNode();
+			level = tree.height();
+			index = 0;
 		}
 		
 		/**
 		 * Set the cursor position at the leftmost leaf.
 		 */
 		public void setCursorAsLeftmostLeaf(){
-			this.current = tree.getLeftmostLeaf();
+			level = 0;
+			index = 0;
 		}
 		
 		/**
 		 * Set the cursor position at the rightmost leaf.
 		 */
 		public void setCursorAsRightmostLeaf(){
-			this.current = tree.getRightmostLeaf();
+			level = 0;
+			index = tree.width(0) - 1;
 		}
 		
 		/**
 		 * @return <tt> true</tt> if this {@link TreeCursor} is on a leaf node
 		 */
 		public boolean isLeaf(){
-			return (current instanceof LeafNode);
+			return level == 0;
 		}
 		
 		/**
 		 * @return <tt> true</tt> if this {@link TreeCursor} is on a the root node
 		 */
 		public boolean isRoot(){
-			return (current instanceof RootNode);
+			return level == tree.height();
 		}
 		
 		/**
 		 * @return <tt> true</tt> if this {@link TreeCursor} is on a node that has a node to its right 
 		 */
 		public boolean hasRightNeighbor(){
-			return (current.getRightNieghbor() != null);
+			return index < tree.width(level) - 1;
 		}
 		
 		/**
 		 * @return <tt> true</tt> if this {@link TreeCursor} is on a node that has a node to its left
 		 */
 		public boolean hasLeftNeighbor(){
-			return (current.getLeftNieghbor() != null);
+			return index > 0;
 		}
 		
 		/**
@@ -390,7 +371,8 @@ private LeafNode getLeftmostLeaf() {
 			if(isRoot()){
 				return false;
 			}
-			current = current.getFather();
+			level++;
+			index = index / 2;
 			return true;
 		}
 		
@@ -401,7 +383,8 @@ private LeafNode getLeftmostLeaf() {
 			if(isLeaf()){
 				return false;
 			}
-			current = current.getLeftSon();
+			level--;
+			index = 2 * index;
 			return true;
 		}
 		
@@ -412,7 +395,8 @@ private LeafNode getLeftmostLeaf() {
 			if(isLeaf()){
 				return false;
 			}
-			current = current.getRightSon();
+			level--;
+			index = 2 * index + 1;
 			return true;
 		}
 		
@@ -420,10 +404,10 @@ private LeafNode getLeftmostLeaf() {
 		 * @return <tt>true</tt> if this {@link TreeCursor} was "moved" to the left brother node. <tt>false</tt> otherwise.
 		 */
 		public boolean moveToLeft(){
-			if(current.getLeftNieghbor() == null){
+			if(!hasLeftNeighbor()){
 				return false;
 			}
-			current = current.getLeftNieghbor();
+			index--;
 			return true;
 		}
 		
@@ -431,10 +415,10 @@ private LeafNode getLeftmostLeaf() {
 		 * @return <tt>true</tt> if this {@link TreeCursor} was "moved" to the right brother node. <tt>false</tt> otherwise.
 		 */
 		public boolean moveToRight(){
-			if(current.getRightNieghbor() == null){
+			if(!hasRightNeighbor()){
 				return false;
 			}
-			current = current.getRightNieghbor();
+			index++;
 			return true;
 		}
 		
@@ -446,7 +430,7 @@ private LeafNode getLeftmostLeaf() {
 		 */
 		public Transaction getTransaction(){
 			if(isLeaf()){
-				return ((LeafNode) current).getTransaction();
+				return tree.transaction(index);
 			}
 			return null;
 		}
@@ -461,7 +445,7 @@ private LeafNode getLeftmostLeaf() {
 			if(isLeaf()){
 				return null;
 			}
-			return current.getHash();
+			return tree.hash(level, index);
 		}
 		
 		/**
@@ -471,7 +455,7 @@ private LeafNode getLeftmostLeaf() {
 			if(isRoot()){
 				return null;
 			}
-			return current.getFather().getHash();
+			return tree.hash(level + 1, index / 2);
 		}
 	}
 
@@ -19,14 +19,18 @@
 package raw.blockChain.api.implementations;
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import raw.blockChain.api.Block;
 import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Hasher;
 import raw.blockChain.api.Merkler;
 import raw.blockChain.api.Transaction;
-import raw.blockChain.api.implementations.DefaultMerkleTree.TreeCursor;
 import raw.blockChain.exceptions.TransactionNotPresentException;
+import raw.concurrent.RAWExecutors;
+import raw.settings.BlockChainProperties;
+import raw.settings.ModuleProperty;
+import raw.settings.PropertiesManager;
 
 /**
  * Implementation of {@link Merkler}
@@ -36,20 +40,44 @@ import raw.blockChain.exceptions.TransactionNotPresentException;
  */
 public class DefaultMerkler implements Merkler {
 	
+	/**
+	 * Shared by all the {@link DefaultMerkler}s building large trees.
+	 */
+	private static final ForkJoinPool MERKLE_POOL = RAWExecutors.newForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
 	private int cacheSize;
 	private DefaultMerklerMap merkleTreesCache;
 	
+	private ForkJoinPool pool;
+	private int parallelThreshold;
+	
 	/**
 	 * Build an instance of {@link Merkler}.
 	 * This hasher keeps track of the last <tt>cacheSize</tt> most
 	 * requested Merkle trees avoiding recomputation.
+	 * Trees of at least {@link BlockChainProperties#getParallelMerkleThreshold()}
+	 * transactions are computed in parallel.
 	 * 
 	 * @param cacheSize the number of most asked Merkle trees kept in cache 
 	 */
 	public DefaultMerkler(int cacheSize) {
+		this(cacheSize, MERKLE_POOL, ((BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN)).getParallelMerkleThreshold());
+	}
+	
+	/**
+	 * Build an instance of {@link Merkler} computing the trees of at least
+	 * <tt>parallelThreshold</tt> transactions with <tt>pool</tt>.
+	 * 
+	 * @param cacheSize the number of most asked Merkle trees kept in cache 
+	 * @param pool the {@link ForkJoinPool} used to compute large trees, if <tt>null</tt> trees are computed sequentially
+	 * @param parallelThreshold the minimum number of transactions of a tree computed in parallel
+	 */
+	public DefaultMerkler(int cacheSize, ForkJoinPool pool, int parallelThreshold) {
 		this.cacheSize = cacheSize;
 		merkleTreesCache = new DefaultMerklerMap(this.cacheSize);
-	}	
+		this.pool = pool;
+		this.parallelThreshold = parallelThreshold;
+	}
 
 	/* (non-Javadoc)
 	 * @see raw.blockChain.interfaces.Merkler#getMerkleRoot(java.util.ArrayList)
@@ -58,7 +86,7 @@ public class DefaultMerkler implements Merkler {
 	public HashValue getMerkleRoot(ArrayList<Transaction> transactions) {
 		DefaultMerkleTree tree = merkleTreesCache.search(transactions);
 		if(tree == null){
-			tree = new DefaultMerkleTree(transactions);
+			tree = new DefaultMerkleTree(transactions, pool, parallelThreshold);
 			merkleTreesCache.put(transactions, tree);
 		}
 		return tree.root();
@@ -74,7 +102,7 @@ public class DefaultMerkler implements Merkler {
 			String msg = "Transaciton "+transaction+" is not the base transaction for this compact representation";
 			throw new TransactionNotPresentException(msg);
 		}
-		Hasher hasher = new DefaultHasher();
+		Hasher hasher = DefaultHasher.getHasher();
 		HashValue prevHash = hasher.hashTransaction(transaction);
 		IntermediateValue nextValue = compactRepresentation.popNextHash();
 		while(nextValue != null){
@@ -93,116 +121,36 @@ public class DefaultMerkler implements Merkler {
 	public IntermediateValues getIntermediateValues(Transaction transaction,
 			Block containerBlock) throws TransactionNotPresentException {
 		ArrayList<Transaction> tansactions = containerBlock.getTransactions();
-		DefaultMerkleTree tree = merkleTreesCache.search(tansactions);
+		HashValue previousBlock = containerBlock.getHeader().previousBlock();
+		DefaultMerkleTree tree = merkleTreesCache.search(previousBlock, tansactions);
 		if(tree == null){
-			tree = new DefaultMerkleTree(tansactions);
+			tree = new DefaultMerkleTree(tansactions, pool, parallelThreshold);
+			// proofs are usually asked for several transactions of the same block.
+			merkleTreesCache.put(previousBlock, tansactions, tree);
+		}
+		int leafIndex = tree.indexOf(transaction);
+		if(leafIndex < 0){
+			throw new TransactionNotPresentException("DefaultTransaction "+transaction+" is not in block #"+containerBlock.getHeader().getBlockNumber());
 		}
 		DefaultIntermediateValuesBuilder intermediateBuilder = new DefaultIntermediateValuesBuilder(transaction, containerBlock.getHeader().getBlockNumber());
-		TreeCursor cursor = new TreeCursor(tree);
-		while(!(cursor.getTransaction().equals(transaction))){
-			boolean moved = cursor.moveToRight();
-			if(!moved){
-				//the transactions are over and we did not find what we were searching for.
-				throw new TransactionNotPresentException("DefaultTransaction "+transaction+" is not in block #"+containerBlock.getHeader().getBlockNumber());
-			}
-		}//now cursor is on "transaction" node.
-		IntermediateValue nextValue = nextValue(cursor);
-		while(nextValue != null){
+		for (IntermediateValue nextValue : tree.intermediateValues(leafIndex)) {
 			intermediateBuilder.pushNextHash(nextValue);
-			nextValue = nextValue(cursor);
 		}
 		return intermediateBuilder.build();
 	}
+
+	/**
+	 * @return the number of Merkle trees found in this {@link DefaultMerkler}'s cache
+	 */
+	public long getCacheHitCount(){
+		return merkleTreesCache.getHitCount();
+	}
 	
 	/**
-	 * Return the next {@link IntermediateValue} to be put in the {@link IntermediateValues} list.
-	 * If <tt>cursor</tt> refers to the root node and no more {@link IntermediateValue} are needed
-	 * this method returns null.<br>
-	 * <b>NOTE:</b> if an {@link IntermediateValue} is returned <tt>cursor</tt> is moved to the father node's position.
-	 * 
-	 * @param cursor a {@link TreeCursor} traversing a {@link DefaultMerkleTree}
-	 * @return the next {@link IntermediateValue} from the current position.
+	 * @return the number of Merkle trees that had to be computed as they were not in cache
 	 */
-	private IntermediateValue nextValue(TreeCursor cursor){
-		IntermediateValue desiredValue = null;
-		if(!cursor.isRoot()){
-			boolean isLeftPaired;
-			HashValue nextValue;
-			if(!cursor.hasLeftNeighbor()){
-				/*
-				 * This node has no neighbors to its left.
-				 * Thus the desired brother node is to its right. 
-				 */
-				isLeftPaired = false;
-				cursor.moveToRight();
-				if(!cursor.isLeaf()){
-					nextValue = cursor.getHashValue();
-				}
-				else{
-					Hasher hasher = new DefaultHasher();
-					nextValue = hasher.hashTransaction(cursor.getTransaction());
-				}
-			}
-			else{
-				if(!cursor.hasRightNeighbor()){
-					/*
-					 * This node has no neighbors to its right.
-					 * Thus the desired brother node is to its left. 
-					 */
-					isLeftPaired = true;
-					cursor.moveToLeft();
-					if(!cursor.isLeaf()){
-						nextValue = cursor.getHashValue();
-					}
-					else{
-						Hasher hasher = new DefaultHasher();
-						nextValue = hasher.hashTransaction(cursor.getTransaction());
-					}
-				}
-				else{					
-					/*
-					 * So we are not on an "edge node".
-					 * We will guess that the desired node is the one to the right
-					 * and we check that. If not we'll just revert to the left one.
-					 */
-					HashValue startingNodeFatherHash = cursor.getFatherHash();
-					cursor.moveToRight();
-					if(startingNodeFatherHash.equals(cursor.getFatherHash())){
-						/*
-						 * the guess was correct. cursor is on the 
-						 * desired node. 
-						 */
-						isLeftPaired = false;
-						if(!cursor.isLeaf()){
-							nextValue = cursor.getHashValue();
-						}
-						else{
-							Hasher hasher = new DefaultHasher();
-							nextValue = hasher.hashTransaction(cursor.getTransaction());
-						}
-					}
-					else{
-						/*
-						 * The guess was wrong.
-						 * Go back to the left brother of the original node.
-						 */
-						isLeftPaired = true;
-						cursor.moveToLeft();//back to the "starting node"
-						cursor.moveToLeft();//hopping to the desired one
-						if(!cursor.isLeaf()){
-							nextValue = cursor.getHashValue();
-						}
-						else{
-							Hasher hasher = new DefaultHasher();
-							nextValue = hasher.hashTransaction(cursor.getTransaction());
-						}
-					}
-				}
-			}
-			desiredValue = new DefaultIntermediateValue(nextValue, isLeftPaired); //here is the value to be returned
-			cursor.moveToFather(); // up one step
-		}
-		return desiredValue;
+	public long getCacheMissCount(){
+		return merkleTreesCache.getMissCount();
 	}
 
 }
@@ -19,27 +19,46 @@
 package raw.blockChain.api.implementations;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
 
+import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
 
 /**
  * This class implements a map to be used as chache by {@link DefaultMerkler}.
  * 
- * It should not be used for any other purpose.
+ * It should not be used for any other purpose.<br>
+ * <br>
+ * Records are keyed by a {@link Fingerprint} of the transactions list (its size
+ * and a few sampled transactions) so that a lookup does not hash the whole list: a
+ * record is returned only if its tree turns out to be built on the very same
+ * transactions (see {@link DefaultMerkleTree#isBuiltOn(java.util.List)}). Records of
+ * the transactions of a block are also indexed by the hash of the previous block,
+ * which picks the candidate tree without sampling the list. When the map is
+ * full the least recently used record is evicted.<br>
+ * <br>
+ * Objects of this class are thread safe. The lock guards the records and their
+ * access order only: the candidate trees are compared with the transactions
+ * after releasing it, so that concurrent lookups do not wait for each other.
  * 
  * @author vic
  *
  */
 public class DefaultMerklerMap {
 	
-	private int size;
+	private static final int SAMPLES = 8;
 	
-	private HashMap<ArrayList<Transaction>, DefaultMerkleTree> records;
-	private HashMap<DefaultMerkleTree, ArrayList<Transaction>> reverseRecords;
-	private ArrayList<Counter> recordsCount;
+	private final int size;
 	
+	private final LinkedHashMap<Fingerprint, Record> records;
+	private final HashMap<HashValue, Record> byPreviousBlock;
+	
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+	private final AtomicLong evictions;
 	
 	/**
 	 * Build a {@link DefaultMerklerMap} with a capacity of <tt>size</tt> elements.
@@ -50,10 +69,24 @@ public class DefaultMerklerMap {
 	protected DefaultMerklerMap(int size) {
 		this.size = size;
 		
-		records = new HashMap<ArrayList<Transaction>, DefaultMerkleTree>();
-		reverseRecords = new HashMap<DefaultMerkleTree, ArrayList<Transaction>>();
-		
-		recordsCount = new ArrayList<DefaultMerklerMap.Counter>();
+		// access ordered: the eldest entry is the least recently used one.
+		records = new LinkedHashMap<Fingerprint, Record>(16, 0.75f, true) {
+			private static final long serialVersionUID = -4431581374384217532L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<Fingerprint, Record> eldest) {
+				if(size() <= DefaultMerklerMap.this.size){
+					return false;
+				}
+				forget(eldest.getValue());
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+		byPreviousBlock = new HashMap<HashValue, Record>();
+		hits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		evictions = new AtomicLong(0);
 	}
 	
 	/**
@@ -64,19 +97,40 @@ public class DefaultMerklerMap {
 	 * @return the {@link DefaultMerkleTree} that was built on the same transactions specified by <tt>transactionsList</tt> or <tt>null</tt> if it is not present
 	 */
 	protected DefaultMerkleTree search(ArrayList<Transaction> trasnactionsList){
-		if(isContained(trasnactionsList)){
-			DefaultMerkleTree returnableTree = records.get(trasnactionsList);
-			for(int i = 0; i <recordsCount.size(); i++){
-				if(recordsCount.get(i).compareTree(returnableTree)){
-					recordsCount.get(i).increment();
-				}
-				else{
-					recordsCount.get(i).decrement();
-				}
+		return search(null, trasnactionsList);
+	}
+	
+	/**
+	 * As {@link DefaultMerklerMap#search(ArrayList)} for the transactions of a block
+	 * built on <tt>previousBlock</tt>.
+	 * 
+	 * @param previousBlock the hash of the block preceding the one of <tt>trasnactionsList</tt> (may be <tt>null</tt>)
+	 * @param trasnactionsList a list of {@link Transaction}s
+	 * @return the {@link DefaultMerkleTree} that was built on the same transactions specified by <tt>transactionsList</tt> or <tt>null</tt> if it is not present
+	 */
+	protected DefaultMerkleTree search(HashValue previousBlock, ArrayList<Transaction> trasnactionsList){
+		Fingerprint fingerprint = new Fingerprint(trasnactionsList);
+		Record byBlock = null;
+		Record byFingerprint;
+		synchronized (this) {
+			if(previousBlock != null){
+				byBlock = byPreviousBlock.get(previousBlock);
 			}
-			return returnableTree;			
-		} 
-		return null;
+			// this also keeps the access order of the records.
+			byFingerprint = records.get(fingerprint);
+		}
+		Record record = null;
+		if(byBlock != null && byBlock.tree.isBuiltOn(trasnactionsList)){
+			record = byBlock;
+		} else if(byFingerprint != null && byFingerprint != byBlock && byFingerprint.tree.isBuiltOn(trasnactionsList)){
+			record = byFingerprint;
+		}
+		if(record == null){
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return record.tree;
 	}
 	
 	/**
@@ -87,88 +141,147 @@ public class DefaultMerklerMap {
 	 * @param tree a {@link DefaultMerkleTree} record
 	 */
 	protected void put(ArrayList<Transaction> transactionsList, DefaultMerkleTree tree){
-		if(recordsCount.size() == size && !isContained(transactionsList)){
-			/* maximum size reached.
-			 * purge less used record.
-			 */
-			Collections.sort(recordsCount);
-			DefaultMerkleTree lessUsedTree = recordsCount.get(0).tree;
-			ArrayList<Transaction> lessUsedList = reverseRecords.get(lessUsedTree);
-			records.remove(lessUsedList, lessUsedTree);
-			reverseRecords.remove(lessUsedTree, lessUsedList);
-			recordsCount.remove(0);
+		put(null, transactionsList, tree);
+	}
+	
+	/**
+	 * As {@link DefaultMerklerMap#put(ArrayList, DefaultMerkleTree)} for the transactions
+	 * of a block built on <tt>previousBlock</tt>.
+	 * 
+	 * @param previousBlock the hash of the block preceding the one of <tt>transactionsList</tt> (may be <tt>null</tt>)
+	 * @param the list of transactions that created <tt>tree</tt>
+	 * @param tree a {@link DefaultMerkleTree} record
+	 */
+	protected void put(HashValue previousBlock, ArrayList<Transaction> transactionsList, DefaultMerkleTree tree){
+		if(size <= 0){
+			return;
 		}
-		if(!isContained(transactionsList)){
-			Counter counter = new Counter(1, tree);
-			records.put(transactionsList, tree);
-			reverseRecords.put(tree, transactionsList);
-			recordsCount.add(counter);		
+		Fingerprint fingerprint = new Fingerprint(transactionsList);
+		Record existing;
+		synchronized (this) {
+			existing = records.get(fingerprint);
+		}
+		boolean builtOn = existing != null && (existing.tree == tree || existing.tree.isBuiltOn(transactionsList));
+		synchronized (this) {
+			Record record = records.get(fingerprint);
+			if(record == null || record != existing || !builtOn){
+				record = new Record(fingerprint, tree);
+				// a different list with the same fingerprint is simply replaced.
+				Record replaced = records.put(fingerprint, record);
+				if(replaced != null){
+					forget(replaced);
+				}
+			}
+			if(previousBlock != null){
+				if(record.previousBlock != null && !record.previousBlock.equals(previousBlock)){
+					forget(record);
+				}
+				record.previousBlock = previousBlock;
+				byPreviousBlock.put(previousBlock, record);
+			}
 		}
 	}
 	
-	private boolean isContained(ArrayList<Transaction> transactions){
-		return records.containsKey(transactions);
+	/**
+	 * Drop the previous block index entry of <tt>record</tt>, if it still points to it.
+	 */
+	private void forget(Record record){
+		if(record.previousBlock != null && byPreviousBlock.get(record.previousBlock) == record){
+			byPreviousBlock.remove(record.previousBlock);
+		}
 	}
 	
-	protected int size(){
+	protected synchronized int size(){
 		return records.size();
 	}
 	
 	/**
-	 * Helper class to be used to keep track of the frequencies
-	 * of searches about a given record.
+	 * @return the number of searches that found a {@link DefaultMerkleTree}
+	 */
+	public long getHitCount(){
+		return hits.get();
+	}
+	
+	/**
+	 * @return the number of searches that found nothing
+	 */
+	public long getMissCount(){
+		return misses.get();
+	}
+	
+	/**
+	 * @return the number of records purged to make room for new ones
+	 */
+	public long getEvictionCount(){
+		return evictions.get();
+	}
+	
+	/**
+	 * @return the ratio of searches that found a {@link DefaultMerkleTree} (0 if no search was done)
+	 */
+	public double getHitRate(){
+		long hit = hits.get();
+		long total = hit + misses.get();
+		if(total == 0){
+			return 0.0;
+		}
+		return ((double) hit) / total;
+	}
+	
+	/**
+	 * A cached tree with its key and the previous block of its transactions (if known).
 	 * 
 	 * @author vic
 	 *
 	 */
-	private class Counter implements Comparable<Counter>{
-		private double count;
-		private DefaultMerkleTree tree;
-		
-		private final double decrement = 1/3;
+	private static class Record {
+		private final Fingerprint fingerprint;
+		private final DefaultMerkleTree tree;
+		private HashValue previousBlock;
 		
-		public Counter(int count, DefaultMerkleTree tree) {
-			this.count = count;
+		public Record(Fingerprint fingerprint, DefaultMerkleTree tree) {
+			this.fingerprint = fingerprint;
 			this.tree = tree;
 		}
+	}
+	
+	/**
+	 * A cheap key for a list of transactions: its size and the hash codes
+	 * of at most {@link DefaultMerklerMap#SAMPLES} evenly spaced transactions
+	 * (always including the first and the last one).
+	 * 
+	 * @author vic
+	 *
+	 */
+	private static class Fingerprint {
+		private final int listSize;
+		private final int sampled;
 		
-		public void increment() {
-			this.count = this.count + 1f;
-		}
-		
-		public void decrement(){
-			if(this.count > decrement){
-				this.count = this.count - decrement;
-			}
-			else{
-				this.count = 0.0;
+		public Fingerprint(ArrayList<Transaction> transactions) {
+			listSize = transactions.size();
+			int hash = 1;
+			if(listSize > 0){
+				int step = Math.max(1, (listSize - 1) / (SAMPLES - 1));
+				for (int i = 0; i < listSize - 1; i += step) {
+					hash = 31 * hash + transactions.get(i).hashCode();
+				}
+				hash = 31 * hash + transactions.get(listSize - 1).hashCode();
 			}
+			sampled = hash;
 		}
 		
-		public boolean compareTree(DefaultMerkleTree tree){
-			return this.tree.equals(tree);
-		}
-
 		@Override
-		public int compareTo(Counter o) {
-			if(this.count - o.count > 0){
-				return 1;
-			}
-			if(this.count - o.count < 0){
-				return -1;
-			}
-			return 0;
+		public int hashCode() {
+			return 31 * listSize + sampled;
 		}
-
+		
 		@Override
 		public boolean equals(Object obj) {
-			if(obj == null){
-				return false;
-			}
-			if(!(obj instanceof Counter)){
+			if(!(obj instanceof Fingerprint)){
 				return false;
 			}
-			return compareTree((((Counter)obj).tree));
+			Fingerprint other = (Fingerprint) obj;
+			return listSize == other.listSize && sampled == other.sampled;
 		}
 	}
 }
@@ -27,6 +27,8 @@ import java.util.Arrays;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockChainConstants;
+import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
 import raw.dht.DhtHasher;
 import raw.dht.DhtID;
@@ -47,23 +49,62 @@ public class DefaultTransaction implements Transaction {
 	 */
 	private static final long serialVersionUID = 126672759222254325L;
 	
-	private DhtID id;
-	private long transactionNonce;
-	private long seedBlockNumber;
-	private PublicKey pubKey;
+	/**
+	 * The version of transactions created before {@link BlockChainConstants#BINARY_TRANSACTIONS_ACTIVATION_BLOCK}.
+	 */
+	public static final int LEGACY_VERSION = 1;
+	
+	/**
+	 * The newest transaction version known by this node: see {@link DefaultTransaction#maxVersionAt(long)}.
+	 */
+	public static final int CURRENT_VERSION = 2;
+	
+	/**
+	 * Transactions of this version (or newer) are hashed and transported
+	 * with the {@link TransactionCodec} layout. Older ones keep the
+	 * java serialization form, so that their hashes (and thus the merkle
+	 * roots of the blocks containing them) do not change.
+	 */
+	public static final int BINARY_ENCODING_VERSION = 2;
+	
+	private final DhtID id;
+	private final long transactionNonce;
+	private final long seedBlockNumber;
+	private final PublicKey pubKey;
 	
 	private final int version;
 	
+	/**
+	 * Lazily computed by {@link DefaultHasher}: a transaction is immutable,
+	 * thus its hash can be computed at most once. Racing threads may
+	 * compute it twice, but they always publish the same value.
+	 */
+	private transient volatile HashValue hash;
+	
 	public DefaultTransaction(DhtID id, long transactionNonce, long seedBlockNumber, PublicKey publicKey) {
-		this(id, transactionNonce, seedBlockNumber, publicKey, 1);
+		this(id, transactionNonce, seedBlockNumber, publicKey, maxVersionAt(seedBlockNumber));
 	}
 	
 	public DefaultTransaction(DhtID id, long transactionNonce, long seedBlockNumber, byte[] publicKeyBytes) {
-		this(id, transactionNonce, seedBlockNumber, publicKeyBytes, 1);
+		this(id, transactionNonce, seedBlockNumber, publicKeyBytes, maxVersionAt(seedBlockNumber));
 	}
 	
 	public DefaultTransaction(DhtID id, long transactionNonce, long seedBlockNumber, String publicKeyHex) {
-		this(id, transactionNonce, seedBlockNumber, publicKeyHex, 1);
+		this(id, transactionNonce, seedBlockNumber, publicKeyHex, maxVersionAt(seedBlockNumber));
+	}
+	
+	/**
+	 * Binary encoded transactions hash differently from the serialized ones, thus they are
+	 * valid only from seed block {@link BlockChainConstants#BINARY_TRANSACTIONS_ACTIVATION_BLOCK} on.
+	 * 
+	 * @param blockNumber a block number
+	 * @return the highest transaction version valid for seed (or container) block <tt>blockNumber</tt>
+	 */
+	public static int maxVersionAt(long blockNumber){
+		if(blockNumber < BlockChainConstants.BINARY_TRANSACTIONS_ACTIVATION_BLOCK){
+			return LEGACY_VERSION;
+		}
+		return CURRENT_VERSION;
 	}
 	
 	public DefaultTransaction(DhtID id, long transactionNonce, long seedBlockNumber, byte[] publicKeyBytes, int version) {
@@ -123,6 +164,9 @@ public class DefaultTransaction implements Transaction {
 
 	@Override
 	public byte[] getBytes() throws IOException {
+		if(version >= BINARY_ENCODING_VERSION){
+			return TransactionCodec.encode(this);
+		}
 		ByteArrayOutputStream baos = new ByteArrayOutputStream();
 		ObjectOutputStream oos = new ObjectOutputStream(baos);
 		oos.writeObject(this);
@@ -135,6 +179,20 @@ public class DefaultTransaction implements Transaction {
 		return retVal;
 	}
 
+	/**
+	 * @return the hash of this transaction if it was already computed, <tt>null</tt> otherwise
+	 */
+	HashValue getCachedHash() {
+		return hash;
+	}
+	
+	/**
+	 * @param hash the hash of this transaction as computed by a {@link DefaultHasher}
+	 */
+	void setCachedHash(HashValue hash) {
+		this.hash = hash;
+	}
+	
 	@Override
 	public boolean equals(Object obj) {
 		if(!(obj instanceof Transaction)){
@@ -150,6 +208,10 @@ public class DefaultTransaction implements Transaction {
 		if(this.seedBlockNumber != compared.getCreationSeedNumber()){
 			return false;
 		}
+		// the version determines the hashed bytes: copies of different versions are different leaves.
+		if(this.version != compared.getVersion()){
+			return false;
+		}
 		if(pubKey == null){
 			if(compared.getPublicKey() == null){
 				return true;
@@ -189,7 +251,7 @@ public class DefaultTransaction implements Transaction {
 	 * @return a special invalid {@link Transaction}
 	 */
 	public static Transaction getNullTransaction() {
-		DhtHasher hasher = new DefaultDhtHasher();
+		DhtHasher hasher = DefaultDhtHasher.getHasher();
 		byte[] zeros = new byte[hasher.hashLength()];
 		Arrays.fill(zeros, (byte)0);
 		DhtID id = new DefaultDhtID(zeros);
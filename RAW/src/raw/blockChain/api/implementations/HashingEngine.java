@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ *
+ */
+package raw.blockChain.api.implementations;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import raw.blockChain.api.Hasher;
+
+/**
+ * The double SHA-512 used by {@link DefaultHasher}, working on byte ranges
+ * and writing into caller supplied buffers.<br>
+ * <br>
+ * Every thread gets its own engine through {@link HashingEngine#get()}, so that
+ * the {@link MessageDigest} and the scratch buffer of the first round are
+ * allocated once per thread instead of once per hash. An engine must not be
+ * handed to other threads.
+ * 
+ * @author vic
+ *
+ */
+public final class HashingEngine {
+	
+	/**
+	 * The number of bytes of an hash, as in {@link Hasher#hashLength()}.
+	 */
+	public static final int HASH_LENGTH = 64;
+	
+	private static final ThreadLocal<HashingEngine> ENGINES = new ThreadLocal<HashingEngine>(){
+		@Override
+		protected HashingEngine initialValue() {
+			return new HashingEngine();
+		}
+	};
+	
+	private MessageDigest digest;
+	private byte[] firstRound;
+	
+	private HashingEngine() {
+		try {
+			digest = MessageDigest.getInstance("SHA-512");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+		firstRound = new byte[HASH_LENGTH];
+	}
+	
+	/**
+	 * @return the {@link HashingEngine} of the calling thread
+	 */
+	public static HashingEngine get(){
+		return ENGINES.get();
+	}
+	
+	/**
+	 * Double digest <tt>length</tt> bytes of <tt>input</tt> starting from <tt>offset</tt>
+	 * writing the {@link HashingEngine#HASH_LENGTH} bytes of the hash in <tt>output</tt>
+	 * starting from <tt>outputOffset</tt>.
+	 * 
+	 * @param input the bytes to be hashed
+	 * @param offset the first byte of <tt>input</tt> to be hashed
+	 * @param length the number of bytes to be hashed
+	 * @param output the array receiving the hash
+	 * @param outputOffset the position of <tt>output</tt> where the hash starts
+	 */
+	public void hash(byte[] input, int offset, int length, byte[] output, int outputOffset){
+		digest.update(input, offset, length);
+		secondRound(output, outputOffset);
+	}
+	
+	/**
+	 * As {@link HashingEngine#hash(byte[], int, int, byte[], int)}, allocating the output.
+	 * 
+	 * @param input the bytes to be hashed
+	 * @param offset the first byte of <tt>input</tt> to be hashed
+	 * @param length the number of bytes to be hashed
+	 * @return a new array holding the hash
+	 */
+	public byte[] hash(byte[] input, int offset, int length){
+		byte[] output = new byte[HASH_LENGTH];
+		hash(input, offset, length, output, 0);
+		return output;
+	}
+	
+	/**
+	 * Double digest the concatenation of two hashes (i.e. a node of a
+	 * merkle tree from its sons). The output may overlap the inputs.
+	 * 
+	 * @param left the array holding the left hash
+	 * @param leftOffset the position of <tt>left</tt> where the hash starts
+	 * @param right the array holding the right hash
+	 * @param rightOffset the position of <tt>right</tt> where the hash starts
+	 * @param output the array receiving the hash
+	 * @param outputOffset the position of <tt>output</tt> where the hash starts
+	 */
+	public void hashPair(byte[] left, int leftOffset, byte[] right, int rightOffset, byte[] output, int outputOffset){
+		digest.update(left, leftOffset, HASH_LENGTH);
+		digest.update(right, rightOffset, HASH_LENGTH);
+		secondRound(output, outputOffset);
+	}
+	
+	private void secondRound(byte[] output, int outputOffset){
+		try {
+			// MessageDigest#digest() resets the digest: it can be reused right away.
+			digest.digest(firstRound, 0, HASH_LENGTH);
+			digest.update(firstRound);
+			digest.digest(output, outputOffset, HASH_LENGTH);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e.getMessage(), e);
+		}
+	}
+
+}
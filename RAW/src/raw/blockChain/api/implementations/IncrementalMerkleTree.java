@@ -0,0 +1,334 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.api.implementations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.Merkler.IntermediateValue;
+import raw.blockChain.api.Merkler.IntermediateValues;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.exceptions.TransactionNotPresentException;
+import raw.dht.DhtID;
+
+/**
+ * A merkle tree over a list of {@link Transaction}s that can be modified
+ * after being built. Appending a transaction, replacing one or swapping two
+ * of them only recomputes the hashes on the affected leaf-to-root paths
+ * (O(log n) hashes) instead of the whole tree.<br>
+ * Roots are the same computed by {@link DefaultMerkler}: the missing
+ * leaves up to the next power of two are filled with the last transaction.
+ * Subtrees made only of such padding leaves are not stored: at every level
+ * they all share the same hash, which is kept apart.<br>
+ * <br>
+ * Objects of this class are <b>not</b> thread safe.
+ * 
+ * @author vic
+ *
+ */
+public class IncrementalMerkleTree {
+	
+	private Hasher hasher;
+	private int hashLength;
+	
+	private ArrayList<Transaction> transactions;
+	private HashMap<DhtID, Integer> leafIndexes;
+	/**
+	 * <tt>true</tt> if some transactions of this tree share the same {@link DhtID}:
+	 * then {@link IncrementalMerkleTree#leafIndexes} cannot be updated in place.
+	 */
+	private boolean sharedIds;
+	
+	private int treeHeight;
+	private byte[][] levels;
+	private byte[][] paddings;
+	
+	/**
+	 * Build the merkle tree of <tt>leafTransactions</tt>.
+	 * 
+	 * @param leafTransactions a non empty list of {@link Transaction}s
+	 * @throws IllegalArgumentException if <tt>leafTransactions</tt> is empty
+	 */
+	public IncrementalMerkleTree(ArrayList<Transaction> leafTransactions) throws IllegalArgumentException {
+		if(leafTransactions.isEmpty()){
+			throw new IllegalArgumentException("At least a transaction is needed to build a merkle tree.");
+		}
+		hasher = DefaultHasher.getHasher();
+		hashLength = HashingEngine.HASH_LENGTH;
+		
+		transactions = new ArrayList<Transaction>(leafTransactions);
+		treeHeight = heightFor(transactions.size());
+		allocateLevels(treeHeight);
+		
+		int leaf = 0;
+		for (HashValue hash : hasher.hashTransactions(transactions)) {
+			System.arraycopy(hash.toByteArray(), 0, levels[0], leaf * hashLength, hashLength);
+			leaf++;
+		}
+		computePaddings();
+		HashingEngine engine = HashingEngine.get();
+		for (int level = 1; level <= treeHeight; level++) {
+			int stored = lastStored(level);
+			for (int i = 0; i <= stored; i++) {
+				computeNode(engine, level, i);
+			}
+		}
+	}
+	
+	/**
+	 * @return the root of this tree
+	 */
+	public HashValue root(){
+		return hash(treeHeight, 0);
+	}
+	
+	/**
+	 * @return the number of transactions in this tree
+	 */
+	public int size(){
+		return transactions.size();
+	}
+	
+	/**
+	 * @param index the position of a transaction
+	 * @return the {@link Transaction} at <tt>index</tt>
+	 */
+	public Transaction getTransaction(int index){
+		return transactions.get(index);
+	}
+	
+	/**
+	 * @return a copy of the list of transactions of this tree, in leaves order
+	 */
+	public ArrayList<Transaction> getTransactions(){
+		return new ArrayList<Transaction>(transactions);
+	}
+	
+	/**
+	 * Add <tt>transaction</tt> as the rightmost leaf of this tree.
+	 * 
+	 * @param transaction the {@link Transaction} to be appended
+	 */
+	public void append(Transaction transaction){
+		int index = transactions.size();
+		transactions.add(transaction);
+		if(index == (1 << treeHeight)){
+			grow();
+		}
+		if(leafIndexes != null){
+			if(leafIndexes.containsKey(transaction.getDhtID())){
+				sharedIds = true;
+			} else {
+				leafIndexes.put(transaction.getDhtID(), index);
+			}
+		}
+		setLeaf(index, transaction);
+		computePaddings();
+		computePath(index);
+	}
+	
+	/**
+	 * Replace the transaction at <tt>index</tt> with <tt>transaction</tt>.
+	 * 
+	 * @param index the position of the replaced transaction
+	 * @param transaction the new {@link Transaction}
+	 */
+	public void replace(int index, Transaction transaction){
+		transactions.set(index, transaction);
+		leafIndexes = null;
+		setLeaf(index, transaction);
+		if(index == transactions.size() - 1){
+			computePaddings();
+		}
+		computePath(index);
+	}
+	
+	/**
+	 * Swap the transactions at positions <tt>first</tt> and <tt>second</tt>.
+	 * 
+	 * @param first the position of a transaction
+	 * @param second the position of another transaction
+	 */
+	public void swap(int first, int second){
+		if(first == second){
+			return;
+		}
+		Transaction firstTransaction = transactions.get(first);
+		Transaction secondTransaction = transactions.get(second);
+		transactions.set(first, secondTransaction);
+		transactions.set(second, firstTransaction);
+		if(leafIndexes != null){
+			if(sharedIds){
+				leafIndexes = null;
+			} else {
+				leafIndexes.put(firstTransaction.getDhtID(), second);
+				leafIndexes.put(secondTransaction.getDhtID(), first);
+			}
+		}
+		// the leaves just trade places: no transaction is hashed again.
+		byte[] leaf = new byte[hashLength];
+		System.arraycopy(levels[0], first * hashLength, leaf, 0, hashLength);
+		System.arraycopy(levels[0], second * hashLength, levels[0], first * hashLength, hashLength);
+		System.arraycopy(leaf, 0, levels[0], second * hashLength, hashLength);
+		if(Math.max(first, second) == transactions.size() - 1){
+			computePaddings();
+		}
+		computePath(first);
+		computePath(second);
+	}
+	
+	/**
+	 * Search for the leftmost position of <tt>transaction</tt> in this tree.
+	 * 
+	 * @param transaction a {@link Transaction}
+	 * @return the position of <tt>transaction</tt> or -1 if it is not in this tree
+	 */
+	public int indexOf(Transaction transaction){
+		if(leafIndexes == null){
+			leafIndexes = new HashMap<DhtID, Integer>(transactions.size() * 2);
+			for (int i = transactions.size() - 1; i >= 0; i--) {
+				leafIndexes.put(transactions.get(i).getDhtID(), i);
+			}
+			sharedIds = leafIndexes.size() < transactions.size();
+		}
+		Integer index = leafIndexes.get(transaction.getDhtID());
+		if(index == null){
+			return -1;
+		}
+		for (int i = index; i < transactions.size(); i++) {
+			if(transactions.get(i).equals(transaction)){
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Build the compact representation of <tt>transaction</tt> in the block
+	 * numbered <tt>blockNumber</tt>, whose transactions are the ones of this tree.
+	 * 
+	 * @param transaction a {@link Transaction} of this tree
+	 * @param blockNumber the number of the block
+	 * @return the {@link IntermediateValues} leading from <tt>transaction</tt> to the root of this tree
+	 * @throws TransactionNotPresentException if <tt>transaction</tt> is not in this tree
+	 */
+	public IntermediateValues getIntermediateValues(Transaction transaction, long blockNumber) throws TransactionNotPresentException{
+		int index = indexOf(transaction);
+		if(index < 0){
+			throw new TransactionNotPresentException("DefaultTransaction "+transaction+" is not in block #"+blockNumber);
+		}
+		DefaultIntermediateValuesBuilder builder = new DefaultIntermediateValuesBuilder(transaction, blockNumber);
+		for (int level = 0; level < treeHeight; level++) {
+			int sibling = index ^ 1;
+			IntermediateValue value = new DefaultIntermediateValue(hash(level, sibling), sibling < index);
+			builder.pushNextHash(value);
+			index = index / 2;
+		}
+		return builder.build();
+	}
+	
+	private int heightFor(int leaves){
+		if(leaves <= 2){
+			return 1;
+		}
+		return Integer.SIZE - Integer.numberOfLeadingZeros(leaves - 1);
+	}
+	
+	private void allocateLevels(int height){
+		levels = new byte[height + 1][];
+		paddings = new byte[height + 1][];
+		for (int level = 0; level <= height; level++) {
+			levels[level] = new byte[(1 << (height - level)) * hashLength];
+			paddings[level] = new byte[hashLength];
+		}
+	}
+	
+	/**
+	 * Double the number of leaves. The old tree becomes the left
+	 * subtree of the new root.
+	 */
+	private void grow(){
+		byte[][] oldLevels = levels;
+		treeHeight++;
+		allocateLevels(treeHeight);
+		for (int level = 0; level < oldLevels.length; level++) {
+			System.arraycopy(oldLevels[level], 0, levels[level], 0, oldLevels[level].length);
+		}
+	}
+	
+	/**
+	 * @param level a level of this tree
+	 * @return the position of the rightmost node of <tt>level</tt> covering at least a real (not padding) leaf
+	 */
+	private int lastStored(int level){
+		return (transactions.size() - 1) >> level;
+	}
+	
+	private void setLeaf(int index, Transaction transaction){
+		System.arraycopy(hasher.hashTransaction(transaction).toByteArray(), 0, levels[0], index * hashLength, hashLength);
+	}
+	
+	private void computePaddings(){
+		System.arraycopy(levels[0], (transactions.size() - 1) * hashLength, paddings[0], 0, hashLength);
+		HashingEngine engine = HashingEngine.get();
+		for (int level = 1; level <= treeHeight; level++) {
+			engine.hashPair(paddings[level - 1], 0, paddings[level - 1], 0, paddings[level], 0);
+		}
+	}
+	
+	private void computePath(int leafIndex){
+		HashingEngine engine = HashingEngine.get();
+		for (int level = 1; level <= treeHeight; level++) {
+			computeNode(engine, level, leafIndex >> level);
+		}
+	}
+	
+	private void computeNode(HashingEngine engine, int level, int index){
+		int left = 2 * index;
+		int right = left + 1;
+		engine.hashPair(nodeArray(level - 1, left), nodeOffset(level - 1, left), nodeArray(level - 1, right), nodeOffset(level - 1, right), levels[level], index * hashLength);
+	}
+	
+	/**
+	 * @return the array holding the hash of node <tt>index</tt> of <tt>level</tt>
+	 */
+	private byte[] nodeArray(int level, int index){
+		return index <= lastStored(level) ? levels[level] : paddings[level];
+	}
+	
+	/**
+	 * @return the position where the hash of node <tt>index</tt> of <tt>level</tt> starts in {@link IncrementalMerkleTree#nodeArray(int, int)}
+	 */
+	private int nodeOffset(int level, int index){
+		return index <= lastStored(level) ? index * hashLength : 0;
+	}
+	
+	private HashValue hash(int level, int index){
+		byte[] hash = new byte[hashLength];
+		if(index <= lastStored(level)){
+			System.arraycopy(levels[level], index * hashLength, hash, 0, hashLength);
+		} else {
+			System.arraycopy(paddings[level], 0, hash, 0, hashLength);
+		}
+		return new DefaultHashValue(hash);
+	}
+
+}
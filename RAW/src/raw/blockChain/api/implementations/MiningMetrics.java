@@ -0,0 +1,392 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.api.implementations;
+
+import java.util.Arrays;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+
+/**
+ * Counters describing the work of a {@link DefaultBlockMiner}: hash rate of
+ * every worker, exhausted nonce ranges, template build and switch times,
+ * time needed to find a block, time needed to get it accepted and stale blocks.<br>
+ * <br>
+ * Workers and services record events as they happen; readers pull an immutable
+ * {@link MiningMetrics.Snapshot} through {@link MiningMetrics#snapshot()} whenever
+ * they need it. Objects of this class are thread safe: workers report
+ * once every {@link MiningMetrics#HASHES_PER_REPORT} nonces, so that
+ * synchronization does not slow down the mining loop.
+ * 
+ * @author vic
+ *
+ */
+public class MiningMetrics {
+	
+	/**
+	 * The number of nonces a worker tries between two reports.
+	 */
+	public static final int HASHES_PER_REPORT = 1 << 16;
+	
+	private long startNanos;
+	
+	private long[] workerHashes;
+	private long[] workerNanos;
+	private long[] workerHashRates;
+	
+	private long nonceRangesExhausted;
+	
+	private long templatesBuilt;
+	private long templateBuildNanos;
+	private long maxTemplateBuildNanos;
+	private long lastTemplateSwitchNanos;
+	
+	private long blocksFound;
+	private long timeToBlockNanos;
+	private long lastTimeToBlockNanos;
+	
+	private long blocksAccepted;
+	private long acceptanceNanos;
+	private long lastAcceptanceNanos;
+	private long staleBlocks;
+	
+	public MiningMetrics() {
+		startNanos = System.nanoTime();
+		workerHashes = new long[0];
+		workerNanos = new long[0];
+		workerHashRates = new long[0];
+		lastTemplateSwitchNanos = -1;
+		lastTimeToBlockNanos = -1;
+		lastAcceptanceNanos = -1;
+	}
+	
+	/**
+	 * Record <tt>hashes</tt> nonces tried by worker number <tt>worker</tt> in <tt>nanos</tt> nanoseconds.
+	 * 
+	 * @param worker the index of the worker
+	 * @param hashes the number of hashes computed
+	 * @param nanos the time spent computing them
+	 */
+	public synchronized void hashesComputed(int worker, long hashes, long nanos){
+		if(worker >= workerHashes.length){
+			workerHashes = Arrays.copyOf(workerHashes, worker + 1);
+			workerNanos = Arrays.copyOf(workerNanos, worker + 1);
+			workerHashRates = Arrays.copyOf(workerHashRates, worker + 1);
+		}
+		workerHashes[worker] += hashes;
+		workerNanos[worker] += nanos;
+		if(nanos > 0){
+			workerHashRates[worker] = (hashes * 1000000000L) / nanos;
+		}
+	}
+	
+	/**
+	 * Record that a worker tried every nonce of its range with the same header.
+	 */
+	public synchronized void nonceRangeExhausted(){
+		nonceRangesExhausted++;
+	}
+	
+	/**
+	 * Record that a worker prepared a template (header fields and merkle tree) in <tt>nanos</tt> nanoseconds.
+	 * 
+	 * @param nanos the time spent
+	 */
+	public synchronized void templateBuilt(long nanos){
+		templatesBuilt++;
+		templateBuildNanos += nanos;
+		maxTemplateBuildNanos = Math.max(maxTemplateBuildNanos, nanos);
+	}
+	
+	/**
+	 * Record that a template reached every worker <tt>nanos</tt> nanoseconds after its creation.
+	 * 
+	 * @param nanos the switch latency
+	 */
+	public synchronized void templateSwitched(long nanos){
+		lastTemplateSwitchNanos = nanos;
+	}
+	
+	/**
+	 * Record a block found <tt>nanos</tt> nanoseconds after the search on its previous header began.
+	 * 
+	 * @param nanos the time to block
+	 */
+	public synchronized void blockFound(long nanos){
+		blocksFound++;
+		timeToBlockNanos += nanos;
+		lastTimeToBlockNanos = nanos;
+	}
+	
+	/**
+	 * Record a found block accepted <tt>nanos</tt> nanoseconds after it was found.
+	 * 
+	 * @param nanos the time from discovery to acceptance
+	 */
+	public synchronized void blockAccepted(long nanos){
+		blocksAccepted++;
+		acceptanceNanos += nanos;
+		lastAcceptanceNanos = nanos;
+	}
+	
+	/**
+	 * Record a found block that no node accepted.
+	 */
+	public synchronized void blockStale(){
+		staleBlocks++;
+	}
+	
+	/**
+	 * @return the current values of these metrics
+	 */
+	public synchronized Snapshot snapshot(){
+		return new Snapshot(this);
+	}
+	
+	/**
+	 * An immutable copy of {@link MiningMetrics}. Averages are 0 and
+	 * "last" values are -1 when nothing has been recorded yet.
+	 * 
+	 * @author vic
+	 *
+	 */
+	public static final class Snapshot {
+		
+		private final long uptimeNanos;
+		private final long[] workerHashes;
+		private final long[] workerHashRates;
+		private final long[] workerAverageHashRates;
+		private final long nonceRangesExhausted;
+		private final long templatesBuilt;
+		private final long averageTemplateBuildNanos;
+		private final long maxTemplateBuildNanos;
+		private final long lastTemplateSwitchNanos;
+		private final long blocksFound;
+		private final long averageTimeToBlockNanos;
+		private final long lastTimeToBlockNanos;
+		private final long blocksAccepted;
+		private final long averageAcceptanceNanos;
+		private final long lastAcceptanceNanos;
+		private final long staleBlocks;
+		
+		private Snapshot(MiningMetrics metrics) {
+			uptimeNanos = System.nanoTime() - metrics.startNanos;
+			workerHashes = metrics.workerHashes.clone();
+			workerHashRates = metrics.workerHashRates.clone();
+			workerAverageHashRates = new long[workerHashes.length];
+			for(int i = 0; i < workerHashes.length; i++){
+				if(metrics.workerNanos[i] > 0){
+					workerAverageHashRates[i] = (long) (workerHashes[i] / (metrics.workerNanos[i] / 1e9));
+				}
+			}
+			nonceRangesExhausted = metrics.nonceRangesExhausted;
+			templatesBuilt = metrics.templatesBuilt;
+			averageTemplateBuildNanos = average(metrics.templateBuildNanos, templatesBuilt);
+			maxTemplateBuildNanos = metrics.maxTemplateBuildNanos;
+			lastTemplateSwitchNanos = metrics.lastTemplateSwitchNanos;
+			blocksFound = metrics.blocksFound;
+			averageTimeToBlockNanos = average(metrics.timeToBlockNanos, blocksFound);
+			lastTimeToBlockNanos = metrics.lastTimeToBlockNanos;
+			blocksAccepted = metrics.blocksAccepted;
+			averageAcceptanceNanos = average(metrics.acceptanceNanos, blocksAccepted);
+			lastAcceptanceNanos = metrics.lastAcceptanceNanos;
+			staleBlocks = metrics.staleBlocks;
+		}
+		
+		private static long average(long total, long count){
+			return count == 0 ? 0 : total / count;
+		}
+		
+		/**
+		 * @return the nanoseconds elapsed since the metrics were created
+		 */
+		public long getUptimeNanos() {
+			return uptimeNanos;
+		}
+		
+		/**
+		 * @return the number of workers that reported so far
+		 */
+		public int getWorkers() {
+			return workerHashes.length;
+		}
+		
+		/**
+		 * @param worker the index of a worker
+		 * @return the hashes computed by <tt>worker</tt>
+		 */
+		public long getWorkerHashes(int worker) {
+			return workerHashes[worker];
+		}
+		
+		/**
+		 * @param worker the index of a worker
+		 * @return the hashes per second of <tt>worker</tt> in its last report
+		 */
+		public long getWorkerHashRate(int worker) {
+			return workerHashRates[worker];
+		}
+		
+		/**
+		 * @param worker the index of a worker
+		 * @return the hashes per second of <tt>worker</tt> over the time it spent mining
+		 */
+		public long getWorkerAverageHashRate(int worker) {
+			return workerAverageHashRates[worker];
+		}
+		
+		/**
+		 * @return the sum of the last hash rates of all the workers
+		 */
+		public long getHashRate() {
+			long hashRate = 0;
+			for(long workerHashRate : workerHashRates){
+				hashRate += workerHashRate;
+			}
+			return hashRate;
+		}
+		
+		/**
+		 * @return how many times a worker exhausted its nonce range
+		 */
+		public long getNonceRangesExhausted() {
+			return nonceRangesExhausted;
+		}
+		
+		/**
+		 * @return the number of templates prepared by the workers
+		 */
+		public long getTemplatesBuilt() {
+			return templatesBuilt;
+		}
+		
+		/**
+		 * @return the average nanoseconds spent preparing a template
+		 */
+		public long getAverageTemplateBuildNanos() {
+			return averageTemplateBuildNanos;
+		}
+		
+		/**
+		 * @return the maximum nanoseconds spent preparing a template
+		 */
+		public long getMaxTemplateBuildNanos() {
+			return maxTemplateBuildNanos;
+		}
+		
+		/**
+		 * @return the nanoseconds the last template took to reach every worker
+		 */
+		public long getLastTemplateSwitchNanos() {
+			return lastTemplateSwitchNanos;
+		}
+		
+		/**
+		 * @return the number of blocks found
+		 */
+		public long getBlocksFound() {
+			return blocksFound;
+		}
+		
+		/**
+		 * @return the average nanoseconds from the beginning of a search to a block
+		 */
+		public long getAverageTimeToBlockNanos() {
+			return averageTimeToBlockNanos;
+		}
+		
+		/**
+		 * @return the nanoseconds from the beginning of the last successful search to its block
+		 */
+		public long getLastTimeToBlockNanos() {
+			return lastTimeToBlockNanos;
+		}
+		
+		/**
+		 * @return the number of found blocks that have been accepted
+		 */
+		public long getBlocksAccepted() {
+			return blocksAccepted;
+		}
+		
+		/**
+		 * @return the average nanoseconds from discovery to acceptance of a block
+		 */
+		public long getAverageAcceptanceNanos() {
+			return averageAcceptanceNanos;
+		}
+		
+		/**
+		 * @return the nanoseconds from discovery to acceptance of the last accepted block
+		 */
+		public long getLastAcceptanceNanos() {
+			return lastAcceptanceNanos;
+		}
+		
+		/**
+		 * @return the number of found blocks no node accepted
+		 */
+		public long getStaleBlocks() {
+			return staleBlocks;
+		}
+		
+		/**
+		 * @return the fraction of the found (and submitted) blocks that no node accepted
+		 */
+		public double getStaleBlockRate() {
+			long submitted = blocksAccepted + staleBlocks;
+			return submitted == 0 ? 0 : ((double) staleBlocks) / submitted;
+		}
+		
+		/**
+		 * @return these metrics as a {@link JsonObject}
+		 */
+		public JsonObject toJsonObject() {
+			JsonArrayBuilder workers = Json.createArrayBuilder();
+			for(int i = 0; i < workerHashes.length; i++){
+				workers.add(Json.createObjectBuilder().
+						add("worker", i).
+						add("hashes", workerHashes[i]).
+						add("hashRate", workerHashRates[i]).
+						add("averageHashRate", workerAverageHashRates[i]));
+			}
+			return Json.createObjectBuilder().
+					add("uptimeNanos", uptimeNanos).
+					add("hashRate", getHashRate()).
+					add("workers", workers).
+					add("nonceRangesExhausted", nonceRangesExhausted).
+					add("templatesBuilt", templatesBuilt).
+					add("averageTemplateBuildNanos", averageTemplateBuildNanos).
+					add("maxTemplateBuildNanos", maxTemplateBuildNanos).
+					add("lastTemplateSwitchNanos", lastTemplateSwitchNanos).
+					add("blocksFound", blocksFound).
+					add("averageTimeToBlockNanos", averageTimeToBlockNanos).
+					add("lastTimeToBlockNanos", lastTimeToBlockNanos).
+					add("blocksAccepted", blocksAccepted).
+					add("averageAcceptanceNanos", averageAcceptanceNanos).
+					add("lastAcceptanceNanos", lastAcceptanceNanos).
+					add("staleBlocks", staleBlocks).
+					add("staleBlockRate", getStaleBlockRate()).
+					build();
+		}
+		
+	}
+
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.api.implementations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Transaction;
+
+/**
+ * What a {@link DefaultBlockMinerTask} is working on: the header of the
+ * block to be followed and the candidate transactions. Templates are immutable
+ * and are handed to the running workers through a {@link MiningTemplateSlot}.<br>
+ * <br>
+ * As in {@link raw.blockChain.api.BlockMinerTask}, the null transaction is dropped
+ * when other transactions are available; it is used when none is.
+ * 
+ * @author vic
+ *
+ */
+public final class MiningTemplate {
+	
+	private final BlockHeader previousBlockHeader;
+	private final List<Transaction> transactions;
+	private final long creationNanos;
+	
+	private final AtomicBoolean solved;
+	private final AtomicInteger adopters;
+	
+	/**
+	 * @param previousBlockHeader the header of the block to be followed
+	 * @param candidateTransactions the transactions to be mined
+	 * @throws IllegalArgumentException if parameters are <tt>null</tt>
+	 */
+	public MiningTemplate(BlockHeader previousBlockHeader, Collection<Transaction> candidateTransactions) throws IllegalArgumentException {
+		if(previousBlockHeader == null || candidateTransactions == null){
+			throw new IllegalArgumentException();
+		}
+		this.previousBlockHeader = previousBlockHeader;
+		ArrayList<Transaction> candidates = new ArrayList<Transaction>(candidateTransactions);
+		if(candidates.size() > 1){
+			candidates.remove(DefaultTransaction.getNullTransaction());
+		}
+		if(candidates.isEmpty()){
+			candidates.add(DefaultTransaction.getNullTransaction());
+		}
+		transactions = Collections.unmodifiableList(candidates);
+		creationNanos = System.nanoTime();
+		solved = new AtomicBoolean(false);
+		adopters = new AtomicInteger(0);
+	}
+	
+	/**
+	 * @return the header of the block to be followed
+	 */
+	public BlockHeader getPreviousBlockHeader() {
+		return previousBlockHeader;
+	}
+	
+	/**
+	 * @return the (unmodifiable) candidate transactions
+	 */
+	public List<Transaction> getTransactions() {
+		return transactions;
+	}
+	
+	/**
+	 * @return the {@link System#nanoTime()} of creation of this template
+	 */
+	public long getCreationNanos() {
+		return creationNanos;
+	}
+	
+	/**
+	 * Claim the block found on this template: only the first caller succeeds,
+	 * so that a template yields a single block even if many workers share it.
+	 * 
+	 * @return <tt>true</tt> if the caller is the first to solve this template
+	 */
+	public boolean solve() {
+		return solved.compareAndSet(false, true);
+	}
+	
+	/**
+	 * @return <tt>true</tt> if a block has already been found on this template
+	 */
+	public boolean isSolved() {
+		return solved.get();
+	}
+	
+	/**
+	 * @return the number of workers that have moved to this template so far
+	 */
+	public int getAdopters() {
+		return adopters.get();
+	}
+	
+	int adopted() {
+		return adopters.incrementAndGet();
+	}
+
+}
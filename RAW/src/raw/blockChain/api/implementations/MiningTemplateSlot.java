@@ -0,0 +1,141 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.api.implementations;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import raw.logger.Log;
+
+/**
+ * The {@link MiningTemplate} shared by the parallel {@link DefaultBlockMinerTask}s
+ * searching for the same block. Workers check the slot between nonces and move to
+ * a new template as soon as it is {@link MiningTemplateSlot#set(MiningTemplate)},
+ * without being halted and resubmitted.<br>
+ * <br>
+ * A <i>persistent</i> slot keeps its workers alive once a template is solved, waiting
+ * for the next one; otherwise workers return the block they found. For every template
+ * the slot measures the switch latency: the time elapsed from the creation of
+ * the template to its adoption by the last worker.
+ * 
+ * @author vic
+ *
+ */
+public class MiningTemplateSlot {
+	
+	/**
+	 * Idle workers recheck their compute flag at least this often.
+	 */
+	private static final long MAX_WAIT_MILLISECONDS = 1000;
+	
+	private volatile MiningTemplate template;
+	private final int workers;
+	private final boolean persistent;
+	
+	private volatile long lastSwitchNanos;
+	
+	/**
+	 * @param first the first template to be mined
+	 * @param workers the number of workers sharing this slot
+	 * @param persistent if <tt>true</tt> workers wait for a new template after a block is found
+	 * @throws IllegalArgumentException if <tt>first</tt> is <tt>null</tt> or <tt>workers</tt> is less than 1
+	 */
+	public MiningTemplateSlot(MiningTemplate first, int workers, boolean persistent) throws IllegalArgumentException {
+		if(first == null || workers < 1){
+			throw new IllegalArgumentException();
+		}
+		template = first;
+		this.workers = workers;
+		this.persistent = persistent;
+		lastSwitchNanos = -1;
+	}
+	
+	/**
+	 * @return the template workers should be mining
+	 */
+	public MiningTemplate get() {
+		return template;
+	}
+	
+	/**
+	 * Make <tt>newTemplate</tt> the one to be mined, waking up idle workers.
+	 * 
+	 * @param newTemplate the new template
+	 * @throws IllegalArgumentException if <tt>newTemplate</tt> is <tt>null</tt>
+	 */
+	public synchronized void set(MiningTemplate newTemplate) throws IllegalArgumentException {
+		if(newTemplate == null){
+			throw new IllegalArgumentException();
+		}
+		template = newTemplate;
+		notifyAll();
+	}
+	
+	/**
+	 * @return <tt>true</tt> if workers wait for a new template after a block is found
+	 */
+	public boolean isPersistent() {
+		return persistent;
+	}
+	
+	/**
+	 * @return the nanoseconds the last fully adopted template took to reach every worker, or -1 if none did yet
+	 */
+	public long getLastSwitchNanos() {
+		return lastSwitchNanos;
+	}
+	
+	/**
+	 * Called by a worker starting to mine <tt>adopted</tt>.
+	 * 
+	 * @param adopted the template the worker moved to
+	 * @return the switch latency if the caller is the last worker to adopt the template, -1 otherwise
+	 */
+	long adopted(MiningTemplate adopted) {
+		if(adopted.adopted() == workers){
+			lastSwitchNanos = System.nanoTime() - adopted.getCreationNanos();
+			Log.getLogger().verboseDebug("Mining template adopted by "+workers+" workers in "+lastSwitchNanos+" ns.");
+			return lastSwitchNanos;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Wait for a template other than <tt>current</tt> to be set, or for <tt>compute</tt>
+	 * to be cleared.
+	 * 
+	 * @param current the template the caller is done with
+	 * @param compute the compute flag of the caller
+	 * @return the new template, or <tt>current</tt> if <tt>compute</tt> has been cleared
+	 * @throws InterruptedException if the caller is interrupted while waiting
+	 */
+	synchronized MiningTemplate awaitNext(MiningTemplate current, AtomicBoolean compute) throws InterruptedException {
+		while(template == current && compute.get()){
+			wait(MAX_WAIT_MILLISECONDS);
+		}
+		return template;
+	}
+	
+	/**
+	 * Wake up idle workers so that they can check their compute flag.
+	 */
+	synchronized void wakeUp() {
+		notifyAll();
+	}
+
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ *
+ */
+package raw.blockChain.api.implementations;
+
+import raw.blockChain.api.HashValue;
+
+/**
+ * A proof of work target, precomputed from a 0x000FFF... like mask.
+ * An hash meets the target if it is left unchanged by a bitwise AND
+ * with the mask, i.e. <code>hash.equals(hash.maskWith(mask))</code>.<br>
+ * <br>
+ * Only the leading 64 bit words of the mask containing some zero bits are
+ * stored (as their complement, the bits an hash may <b>not</b> have set),
+ * so that {@link Target#meets(byte[])} checks a few words, returns
+ * on the first offending one and allocates nothing.<br>
+ * Objects of this class are immutable and can be shared among threads.
+ *
+ * @author vic
+ *
+ */
+public class Target {
+
+	private static final int WORD_BYTES = Long.SIZE / Byte.SIZE;
+
+	private final HashValue mask;
+
+	private final long[] forbiddenWords;
+
+	/**
+	 * Build a {@link Target} from its mask.
+	 *
+	 * @param mask a 0x000FFF... like {@link HashValue} mask
+	 */
+	public Target(HashValue mask) {
+		this.mask = mask;
+
+		byte[] maskBytes = mask.toByteArray();
+		int words = (maskBytes.length + WORD_BYTES - 1) / WORD_BYTES;
+		long[] allWords = new long[words];
+		int lastForbidden = -1;
+		for(int i = 0; i < words; i++){
+			long forbidden = ~readWord(maskBytes, i * WORD_BYTES);
+			if(maskBytes.length - (i * WORD_BYTES) < WORD_BYTES){
+				// bytes beyond the mask length are not masked at all.
+				forbidden &= ~(-1L >>> ((maskBytes.length - (i * WORD_BYTES)) * Byte.SIZE));
+			}
+			allWords[i] = forbidden;
+			if(forbidden != 0){
+				lastForbidden = i;
+			}
+		}
+		forbiddenWords = new long[lastForbidden + 1];
+		System.arraycopy(allWords, 0, forbiddenWords, 0, forbiddenWords.length);
+	}
+
+	/**
+	 * Check if <tt>hash</tt> meets this {@link Target}.
+	 *
+	 * @param hash an hash as byte array
+	 * @return <tt>true</tt> if <tt>hash</tt> is unchanged by masking it with this target's mask
+	 */
+	public boolean meets(byte[] hash){
+		for(int i = 0; i < forbiddenWords.length; i++){
+			if((readWord(hash, i * WORD_BYTES) & forbiddenWords[i]) != 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * As {@link Target#meets(byte[])}.
+	 *
+	 * @param hash an {@link HashValue}
+	 * @return <tt>true</tt> if <tt>hash</tt> is unchanged by masking it with this target's mask
+	 */
+	public boolean meets(HashValue hash){
+		return meets(hash.toByteArray());
+	}
+
+	/**
+	 * @return the mask this {@link Target} was built from
+	 */
+	public HashValue getMask() {
+		return mask;
+	}
+
+	/**
+	 * Read 8 bytes as a big endian long. Missing bytes (past the
+	 * end of <tt>bytes</tt>) are read as zeros.
+	 */
+	private static long readWord(byte[] bytes, int offset){
+		if(bytes.length - offset >= WORD_BYTES){
+			return ((bytes[offset] & 0xffL) << 56) |
+					((bytes[offset + 1] & 0xffL) << 48) |
+					((bytes[offset + 2] & 0xffL) << 40) |
+					((bytes[offset + 3] & 0xffL) << 32) |
+					((bytes[offset + 4] & 0xffL) << 24) |
+					((bytes[offset + 5] & 0xffL) << 16) |
+					((bytes[offset + 6] & 0xffL) << 8) |
+					(bytes[offset + 7] & 0xffL);
+		}
+		long word = 0;
+		for(int i = 0; i < WORD_BYTES; i++){
+			word = word << Byte.SIZE;
+			if(offset + i < bytes.length){
+				word |= (bytes[offset + i] & 0xffL);
+			}
+		}
+		return word;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(!(obj instanceof Target)){
+			return false;
+		}
+		return mask.equals(((Target) obj).getMask());
+	}
+
+	@Override
+	public int hashCode() {
+		return mask.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return mask.toHexString();
+	}
+
+}
@@ -0,0 +1,127 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ *
+ */
+package raw.blockChain.api.implementations;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+
+import raw.blockChain.api.Transaction;
+import raw.dht.DhtID;
+import raw.dht.implementations.DefaultDhtID;
+import raw.dht.implementations.utils.DhtSigningUtils;
+
+/**
+ * Canonical binary encoding of {@link Transaction}s, used by
+ * {@link DefaultTransaction#getBytes()} (and thus for hashing) and for
+ * transport of transactions whose version is at least
+ * {@link DefaultTransaction#BINARY_ENCODING_VERSION}.<br>
+ * <br>
+ * The layout (big endian) is:
+ * <pre>
+ * version           int    (4 bytes)
+ * DhtID length      short  (2 bytes)
+ * DhtID             bytes
+ * transaction nonce long   (8 bytes)
+ * seed block number long   (8 bytes)
+ * key length        short  (2 bytes, 0 for a <tt>null</tt> key)
+ * public key        bytes  (X.509 encoding)
+ * </pre>
+ *
+ * @author vic
+ *
+ */
+public class TransactionCodec {
+
+	private static final int FIXED_LENGTH = (Integer.SIZE + Short.SIZE + Long.SIZE + Long.SIZE + Short.SIZE) / Byte.SIZE;
+
+	private TransactionCodec() {
+	}
+
+	/**
+	 * Encode a {@link Transaction} as a byte array.
+	 *
+	 * @param transaction the {@link Transaction} to be encoded
+	 * @return the canonical byte representation of <tt>transaction</tt>
+	 */
+	public static byte[] encode(Transaction transaction){
+		byte[] id = transaction.getDhtID().toByteArray();
+		byte[] key = new byte[0];
+		if(transaction.getPublicKey() != null){
+			key = transaction.getPublicKey().getEncoded();
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(FIXED_LENGTH + id.length + key.length);
+		buffer.putInt(transaction.getVersion());
+		buffer.putShort((short) id.length);
+		buffer.put(id);
+		buffer.putLong(transaction.getTransactionNonce());
+		buffer.putLong(transaction.getCreationSeedNumber());
+		buffer.putShort((short) key.length);
+		buffer.put(key);
+
+		return buffer.array();
+	}
+
+	/**
+	 * Rebuild a {@link Transaction} from the bytes returned by
+	 * {@link TransactionCodec#encode(Transaction)}.
+	 *
+	 * @param bytes a byte array representation of a {@link Transaction}
+	 * @return the decoded {@link Transaction}
+	 * @throws IOException if <tt>bytes</tt> are not a valid representation of a {@link Transaction}
+	 */
+	public static Transaction decode(byte[] bytes) throws IOException{
+		if(bytes == null){
+			throw new IOException("Missing transaction bytes.");
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		try {
+			int version = buffer.getInt();
+			if(version < DefaultTransaction.BINARY_ENCODING_VERSION){
+				throw new IOException("Transactions of version "+version+" have no binary encoding.");
+			}
+			byte[] id = new byte[buffer.getShort() & 0xffff];
+			buffer.get(id);
+			long transactionNonce = buffer.getLong();
+			long seedBlockNumber = buffer.getLong();
+			byte[] key = new byte[buffer.getShort() & 0xffff];
+			buffer.get(key);
+			if(buffer.hasRemaining()){
+				throw new IOException("Trailing bytes after an encoded transaction.");
+			}
+
+			DhtID dhtID = new DefaultDhtID(id);
+			PublicKey publicKey = null;
+			if(key.length > 0){
+				publicKey = DhtSigningUtils.regeneratePublicKey(key);
+				if(publicKey == null){
+					throw new IOException("Invalid public key in an encoded transaction.");
+				}
+			}
+			return new DefaultTransaction(dhtID, transactionNonce, seedBlockNumber, publicKey, version);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated transaction bytes.", e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid transaction bytes.", e);
+		}
+	}
+
+}
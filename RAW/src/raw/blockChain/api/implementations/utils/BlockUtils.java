@@ -21,7 +21,9 @@ import java.math.BigInteger;
 import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -40,6 +42,7 @@ import raw.blockChain.api.implementations.DefaultHashValue;
 import raw.blockChain.api.implementations.DefaultHasher;
 import raw.blockChain.api.implementations.DefaultMerkler;
 import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.Target;
 import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
 import raw.blockChain.exceptions.IllegalBlockHeaderBytesRepresentation;
 import raw.blockChain.exceptions.IncompleteBuilderSettingsException;
@@ -60,6 +63,12 @@ import com.google.common.math.BigIntegerMath;
  */
 public class BlockUtils {
 	
+	/**
+	 * Targets depend only on the number of bits their difficulty shifts the maximum
+	 * target by: keyed by that, the cache holds at most one entry per hash bit.
+	 */
+	private static final ConcurrentHashMap<Integer, Target> targetsCache = new ConcurrentHashMap<Integer, Target>();
+	
 	/**
 	 * Return {@link BlockHeader#getBlockNumber()} + 1
 	 * 
@@ -81,24 +90,57 @@ public class BlockUtils {
 	}
 		
 	private static BigDecimal nextDifficulty(BlockHeader header, ArrayList<Block> chainBranch){
-		if(nextBlockNumber(header)%BlockChainConstants.BLOCKS_FOR_DIFFICULTY_ADJUSTMENT != 0 || nextBlockNumber(header) == 0 ){
+		if(!isDifficultyAdjusted(header)){
 			return header.currentDifficulty();
 		}
-		long finalTimestamp = header.timestamp() / 1000;
 
 		long firstOfFrameNumber = header.getBlockNumber() - BlockChainConstants.BLOCKS_FOR_DIFFICULTY_ADJUSTMENT + 1;
-		BlockHeader firstOfFrame;
+		long firstOfFrameTimestamp;
 		if(chainBranch != null && firstOfFrameNumber >= chainBranch.get(0).getHeader().getBlockNumber()){
 			int i = 0;
 			while(chainBranch.get(i).getHeader().getBlockNumber() != firstOfFrameNumber){
 				i++;
 			}
-			firstOfFrame = chainBranch.get(i).getHeader();
+			firstOfFrameTimestamp = chainBranch.get(i).getHeader().timestamp();
 		} else {			
 			BlockChainCore core = DefaultBlockChainCore.getBlockChainCore();
-			firstOfFrame = core.getBlockHeaderByNumber(firstOfFrameNumber);
+			firstOfFrameTimestamp = core.getBlockTimestampByNumber(firstOfFrameNumber);
+		}
+		return adjustedDifficulty(header, firstOfFrameTimestamp);
+	}
+	
+	/**
+	 * As {@link BlockUtils#nextDifficulty(BlockHeader)} looking for difficulty
+	 * adjustments in <tt>headerBranch</tt>, a list of consecutive headers, before
+	 * looking in the chain.
+	 */
+	private static BigDecimal nextDifficultyOnHeaders(BlockHeader header, List<BlockHeader> headerBranch){
+		if(!isDifficultyAdjusted(header)){
+			return header.currentDifficulty();
 		}
-		long firstTimestamp = firstOfFrame.timestamp() / 1000;
+		
+		long firstOfFrameNumber = header.getBlockNumber() - BlockChainConstants.BLOCKS_FOR_DIFFICULTY_ADJUSTMENT + 1;
+		long firstOfFrameTimestamp = -1;
+		if(headerBranch != null && !headerBranch.isEmpty()){
+			long offset = firstOfFrameNumber - headerBranch.get(0).getBlockNumber();
+			if(offset >= 0 && offset < headerBranch.size() && headerBranch.get((int) offset).getBlockNumber() == firstOfFrameNumber){
+				firstOfFrameTimestamp = headerBranch.get((int) offset).timestamp();
+			}
+		}
+		if(firstOfFrameTimestamp < 0){
+			BlockChainCore core = DefaultBlockChainCore.getBlockChainCore();
+			firstOfFrameTimestamp = core.getBlockTimestampByNumber(firstOfFrameNumber);
+		}
+		return adjustedDifficulty(header, firstOfFrameTimestamp);
+	}
+	
+	private static boolean isDifficultyAdjusted(BlockHeader header){
+		return nextBlockNumber(header)%BlockChainConstants.BLOCKS_FOR_DIFFICULTY_ADJUSTMENT == 0 && nextBlockNumber(header) != 0;
+	}
+	
+	private static BigDecimal adjustedDifficulty(BlockHeader header, long firstOfFrameTimestamp){
+		long finalTimestamp = header.timestamp() / 1000;
+		long firstTimestamp = firstOfFrameTimestamp / 1000;
 		
 		BigDecimal coefficient = new BigDecimal(BlockChainConstants.BLOCKS_FOR_DIFFICULTY_ADJUSTMENT
 				* BlockChainConstants.EXPECTED_SECONDS_PER_BLOCK).divide(
@@ -121,17 +163,27 @@ public class BlockUtils {
 	 * @return an {@link HashValue} mask to validate blocks
 	 */
 	public static HashValue targetMaskFromDifficulty(BigDecimal difficulty){
-		int hashLenght = new DefaultHasher().hashLength();
+		return targetMaskFromShifts(targetShifts(difficulty));
+	}
 	
-		int maxTargetLength = (hashLenght*8)-BlockChainConstants.MAX_TARGET_ZERO_BITS;
-		
-		BigInteger integerMaxTarget = (new BigInteger("2")).pow(maxTargetLength).add(new BigInteger("-1"));
-		
+	/**
+	 * @param difficulty a difficulty
+	 * @return the number of bits the maximum target is shifted right by for <tt>difficulty</tt>
+	 */
+	private static int targetShifts(BigDecimal difficulty){
 		BigInteger integerDifficulty = difficulty.
 				setScale(1, RoundingMode.HALF_EVEN).
 				setScale(0, RoundingMode.CEILING).toBigInteger();
 
-		int shifts = BigIntegerMath.log2(integerDifficulty, RoundingMode.CEILING);
+		return BigIntegerMath.log2(integerDifficulty, RoundingMode.CEILING);
+	}
+	
+	private static HashValue targetMaskFromShifts(int shifts){
+		int hashLenght = DefaultHasher.getHasher().hashLength();
+	
+		int maxTargetLength = (hashLenght*8)-BlockChainConstants.MAX_TARGET_ZERO_BITS;
+		
+		BigInteger integerMaxTarget = (new BigInteger("2")).pow(maxTargetLength).add(new BigInteger("-1"));
 		
 		BigInteger integerTarget = integerMaxTarget.shiftRight(shifts);
 		byte[] target = integerTarget.toByteArray();
@@ -149,6 +201,25 @@ public class BlockUtils {
 		return new DefaultHashValue(target);
 	}
 	
+	/**
+	 * As {@link BlockUtils#targetMaskFromDifficulty(BigDecimal)} but returns
+	 * a {@link Target} to be used checking the proof of work of block headers.
+	 * {@link Target}s are computed once and cached: equal difficulties (whatever
+	 * their scale) and difficulties rounding to the same target share the entry.
+	 * 
+	 * @param difficulty the difficulty to convert in a target
+	 * @return a {@link Target} to validate blocks
+	 */
+	public static Target targetFromDifficulty(BigDecimal difficulty){
+		int shifts = targetShifts(difficulty);
+		Target target = targetsCache.get(shifts);
+		if(target == null){
+			target = new Target(targetMaskFromShifts(shifts));
+			targetsCache.put(shifts, target);
+		}
+		return target;
+	}
+	
 	/**
 	 * Validate the internal consistency of a block at the <b>current</b> timestamp.
 	 * 
@@ -228,60 +299,147 @@ public class BlockUtils {
 	 * @return <tt>true</tt> if <tt>candidateBlock</tt> looks to be valid
 	 */
 	public static boolean validateConsecutiveBlocks(Block candidateBlock, Block previousBlock, boolean checkTimestamp, long timestamp, ArrayList<Block> chainBranch){
+		if(!validateBlockContent(candidateBlock)){
+			return false;
+		}
+		
 		BlockHeader header = candidateBlock.getHeader();
-		ArrayList<Transaction> transactions = candidateBlock.getTransactions();
+		BlockHeader previousHeader = previousBlock == null ? null : previousBlock.getHeader();
+		if(!validateBlockLinkage(header, previousHeader, chainBranch)){
+			return false;
+		}
 		
-		Merkler tmpMerkler = new DefaultMerkler(1);
-		HashValue root = tmpMerkler.getMerkleRoot(transactions);
+		if(checkTimestamp){			
+			long currentTimestamp = timestamp;
+			
+			TimeZone timeZone = TimeZone.getDefault();
+			currentTimestamp = currentTimestamp - timeZone.getOffset(currentTimestamp);
+			if(Math.abs(currentTimestamp-header.timestamp()) > BlockChainConstants.MAXIMUM_TIMESTAMP_OFFSET){
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Validate the parts of <tt>candidateBlock</tt> which do not depend on any other
+	 * block: transaction versions, merkle root, header version, blockchain name, header hash and proof of work.
+	 * 
+	 * @param candidateBlock the {@link Block} to validate
+	 * @return <tt>true</tt> if <tt>candidateBlock</tt> is internally consistent
+	 */
+	public static boolean validateBlockContent(Block candidateBlock){
+		return validateBlockContent(candidateBlock, new DefaultMerkler(1));
+	}
+	
+	/**
+	 * As {@link BlockUtils#validateBlockContent(Block)} computing the merkle
+	 * root with the given {@link Merkler}.
+	 * 
+	 * @param candidateBlock the {@link Block} to validate
+	 * @param merkler the {@link Merkler} used to compute the merkle root of <tt>candidateBlock</tt>
+	 * @return <tt>true</tt> if <tt>candidateBlock</tt> is internally consistent
+	 */
+	public static boolean validateBlockContent(Block candidateBlock, Merkler merkler){
+		BlockHeader header = candidateBlock.getHeader();
+		
+		int maxTransactionVersion = DefaultTransaction.maxVersionAt(header.getBlockNumber());
+		for(Transaction transaction : candidateBlock.getTransactions()){
+			if(transaction.getVersion() > maxTransactionVersion){
+				return false;
+			}
+		}
+		
+		HashValue root = merkler.getMerkleRoot(candidateBlock.getTransactions());
 		if(!header.merkleRoot().equals(root)){
 			return false;
 		}
 		
+		return validateHeaderContent(header);
+	}
+	
+	/**
+	 * Validate the parts of <tt>header</tt> which do not depend on any other
+	 * header: version, blockchain name, header hash and proof of work.
+	 * 
+	 * @param header the {@link BlockHeader} to validate
+	 * @return <tt>true</tt> if <tt>header</tt> is internally consistent
+	 */
+	public static boolean validateHeaderContent(BlockHeader header){
+		if(header.getVersion() > DefaultBlockHeader.maxVersionAt(header.getBlockNumber())){
+			return false;
+		}
+		
 		BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
 		String chainName = properties.getBlockChainName();
 		if(!header.getBlockChainName().equals(chainName)){
 			return false;
 		}
 		
-		Hasher hasher = new DefaultHasher();
+		Hasher hasher = DefaultHasher.getHasher();
 		if(!hasher.hashBlockHeader(header).equals(header.hash())){
 			return false;
 		}
 		
-		if(header.getBlockNumber() > 0){
-			if(previousBlock == null){
-				return false;
-			}
-			
-			if(!(header.getBlockNumber() == nextBlockNumber(previousBlock.getHeader()))){
-				return false;
-			}
-			
-			if(!header.previousBlock().equals(previousBlock.getHeader().hash())){
-				return false;
-			}
-			
-			if(!header.currentDifficulty().equals(nextDifficulty(previousBlock.getHeader(), chainBranch))){
-				return false;
-			}
+		return targetFromDifficulty(header.currentDifficulty()).meets(header.hash());
+	}
+	
+	/**
+	 * Check that <tt>header</tt> follows <tt>previousHeader</tt>: block number,
+	 * previous block hash and difficulty. Headers of block number 0 have no previous
+	 * header and always pass this check.
+	 * 
+	 * @param header the {@link BlockHeader} to check
+	 * @param previousHeader the {@link BlockHeader} presumed to be followed by <tt>header</tt>
+	 * @param chainBranch a branch in the chain to search for difficulty adjustments
+	 * @return <tt>true</tt> if <tt>header</tt> is linked to <tt>previousHeader</tt>
+	 */
+	public static boolean validateBlockLinkage(BlockHeader header, BlockHeader previousHeader, ArrayList<Block> chainBranch){
+		if(!isLinkedTo(header, previousHeader)){
+			return false;
 		}
-		
-		HashValue masked = header.hash().maskWith(targetMaskFromDifficulty(header.currentDifficulty()));
-		if(!header.hash().equals(masked)){
+		if(header.getBlockNumber() <= 0){
+			return true;
+		}
+		BigDecimal expectedDifficulty = DefaultBlockHeader.difficultyForVersion(nextDifficulty(previousHeader, chainBranch), header.getVersion());
+		return header.currentDifficulty().equals(expectedDifficulty);
+	}
+	
+	/**
+	 * As {@link BlockUtils#validateBlockLinkage(BlockHeader, BlockHeader, ArrayList)}
+	 * searching for difficulty adjustments in <tt>headerBranch</tt>, a list of consecutive
+	 * headers sorted by block number.
+	 * 
+	 * @param header the {@link BlockHeader} to check
+	 * @param previousHeader the {@link BlockHeader} presumed to be followed by <tt>header</tt>
+	 * @param headerBranch a branch of headers to search for difficulty adjustments
+	 * @return <tt>true</tt> if <tt>header</tt> is linked to <tt>previousHeader</tt>
+	 */
+	public static boolean validateHeaderLinkage(BlockHeader header, BlockHeader previousHeader, List<BlockHeader> headerBranch){
+		if(!isLinkedTo(header, previousHeader)){
+			return false;
+		}
+		if(header.getBlockNumber() <= 0){
+			return true;
+		}
+		BigDecimal expectedDifficulty = DefaultBlockHeader.difficultyForVersion(nextDifficultyOnHeaders(previousHeader, headerBranch), header.getVersion());
+		return header.currentDifficulty().equals(expectedDifficulty);
+	}
+	
+	private static boolean isLinkedTo(BlockHeader header, BlockHeader previousHeader){
+		if(header.getBlockNumber() <= 0){
+			return true;
+		}
+		if(previousHeader == null){
 			return false;
 		}
 		
-		if(checkTimestamp){			
-			long currentTimestamp = timestamp;
-			
-			TimeZone timeZone = TimeZone.getDefault();
-			currentTimestamp = currentTimestamp - timeZone.getOffset(currentTimestamp);
-			if(Math.abs(currentTimestamp-header.timestamp()) > BlockChainConstants.MAXIMUM_TIMESTAMP_OFFSET){
-				return false;
-			}
+		if(!(header.getBlockNumber() == nextBlockNumber(previousHeader))){
+			return false;
 		}
 		
-		return true;
+		return header.previousBlock().equals(previousHeader.hash());
 	}
 	
 	public static Block generateGenesisBlock(String minerSignature){
@@ -289,7 +447,7 @@ public class BlockUtils {
 		transactions.add(DefaultTransaction.getNullTransaction());
 		
 		HashValue root = new DefaultMerkler(1).getMerkleRoot(transactions);
-		byte[] zeros = new byte[new DefaultHasher().hashLength()];
+		byte[] zeros = new byte[DefaultHasher.getHasher().hashLength()];
 		Arrays.fill(zeros, (byte)0);
 		HashValue zeroHash = new DefaultHashValue(zeros);
 		
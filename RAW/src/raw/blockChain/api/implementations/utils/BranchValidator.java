@@ -0,0 +1,193 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations.utils;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Merkler;
+import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.concurrent.RAWExecutors;
+import raw.logger.Log;
+
+/**
+ * Validates branches of consecutive {@link Block}s (e.g. the ones
+ * downloaded while updating the chain) in two stages:
+ * <ol>
+ * <li>the context free checks of {@link BlockUtils#validateBlockContent(Block, Merkler)}
+ * run in parallel over slices of the branch;</li>
+ * <li>the linkage of each block to its predecessor ({@link BlockUtils#validateBlockLinkage(BlockHeader, BlockHeader, ArrayList)})
+ * is checked sequentially, which is cheap once the first stage passed.</li>
+ * </ol>
+ * Validation stops at the first invalid block: the slices still
+ * queued are cancelled and the running ones stop at their next block.
+ * 
+ * @author vic
+ *
+ */
+public class BranchValidator {
+	
+	private static final int SLICES_PER_THREAD = 4;
+	
+	private static BranchValidator validator;
+	
+	private ExecutorService executor;
+	private int parallelism;
+	
+	private Log log;
+	
+	/**
+	 * Build a {@link BranchValidator} running the first stage
+	 * of validation on <tt>executor</tt>.
+	 * 
+	 * @param executor the {@link ExecutorService} validating slices of branches
+	 * @param parallelism the number of threads of <tt>executor</tt>
+	 */
+	public BranchValidator(ExecutorService executor, int parallelism) {
+		this.executor = executor;
+		this.parallelism = Math.max(1, parallelism);
+		log = Log.getLogger();
+	}
+	
+	/**
+	 * @return a shared {@link BranchValidator} using one thread per available processor
+	 */
+	public static synchronized BranchValidator getValidator(){
+		if(validator == null){
+			int threads = Runtime.getRuntime().availableProcessors();
+			validator = new BranchValidator(RAWExecutors.newForkJoinPool(threads), threads);
+		}
+		return validator;
+	}
+	
+	/**
+	 * Validate <tt>branch</tt> as a sequence of consecutive blocks following
+	 * <tt>previousBlock</tt>. The outcome is the same of calling
+	 * {@link BlockUtils#validateConsecutiveBlocks(Block, Block, boolean, long, ArrayList)}
+	 * (without timestamp checks) on every block of the branch in order.
+	 * 
+	 * @param branch the blocks to validate, sorted by block number
+	 * @param previousBlock the {@link Block} presumed to be followed by the first block of <tt>branch</tt> (may be <tt>null</tt> if <tt>branch</tt> starts with block 0)
+	 * @return <tt>true</tt> if every block of <tt>branch</tt> is valid
+	 */
+	public boolean validateBranch(ArrayList<Block> branch, Block previousBlock){
+		if(branch.isEmpty()){
+			return true;
+		}
+		if(!validateContents(branch)){
+			return false;
+		}
+		BlockHeader previousHeader = previousBlock == null ? null : previousBlock.getHeader();
+		for(int i = 0; i < branch.size(); i++){
+			BlockHeader header = branch.get(i).getHeader();
+			// the first block is validated as BlockUtils would do it: looking for the difficulty adjustments in the chain.
+			if(!BlockUtils.validateBlockLinkage(header, previousHeader, i == 0 ? null : branch)){
+				log.verboseDebug("Validation failed!\nvalidating block: "+header+"\nvs block: "+previousHeader);
+				return false;
+			}
+			previousHeader = header;
+		}
+		return true;
+	}
+	
+	private boolean validateContents(ArrayList<Block> branch){
+		int slices = Math.min(branch.size(), parallelism * SLICES_PER_THREAD);
+		if(slices == 1 || parallelism == 1){
+			return new SliceValidation(branch, 0, branch.size(), new AtomicBoolean(false)).call() < 0;
+		}
+		
+		AtomicBoolean failed = new AtomicBoolean(false);
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+		ArrayList<Future<Integer>> futures = new ArrayList<Future<Integer>>(slices);
+		for(int i = 0; i < slices; i++){
+			int from = (int) ((long) branch.size() * i / slices);
+			int to = (int) ((long) branch.size() * (i + 1) / slices);
+			futures.add(completion.submit(new SliceValidation(branch, from, to, failed)));
+		}
+		
+		boolean valid = true;
+		try {
+			for(int i = 0; i < slices && valid; i++){
+				int invalidIndex = completion.take().get();
+				if(invalidIndex >= 0){
+					log.verboseDebug("Validation failed! Invalid block: "+branch.get(invalidIndex).getHeader());
+					valid = false;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.exception(e);
+			Thread.currentThread().interrupt();
+			valid = false;
+		} catch (ExecutionException | CancellationException e) {
+			log.exception(e);
+			valid = false;
+		}
+		
+		if(!valid){
+			failed.set(true);
+			for(Future<Integer> future : futures){
+				future.cancel(false);
+			}
+		}
+		return valid;
+	}
+	
+	/**
+	 * Checks the content of the blocks in <tt>[from, to)</tt>
+	 * returning the index of the first invalid one, or -1.
+	 */
+	private static class SliceValidation implements Callable<Integer> {
+		
+		private ArrayList<Block> branch;
+		private int from;
+		private int to;
+		private AtomicBoolean failed;
+		
+		public SliceValidation(ArrayList<Block> branch, int from, int to, AtomicBoolean failed) {
+			this.branch = branch;
+			this.from = from;
+			this.to = to;
+			this.failed = failed;
+		}
+
+		@Override
+		public Integer call() {
+			// blocks are already validated in parallel: build their trees sequentially.
+			Merkler merkler = new DefaultMerkler(1, null, 0);
+			for(int i = from; i < to; i++){
+				if(failed.get()){
+					return -1;
+				}
+				if(!BlockUtils.validateBlockContent(branch.get(i), merkler)){
+					failed.set(true);
+					return i;
+				}
+			}
+			return -1;
+		}
+		
+	}
+
+}
@@ -22,6 +22,8 @@ import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.api.implementations.DefaultHashValue;
 import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.Target;
 import raw.dht.DhtHasher;
 import raw.dht.DhtID;
 import raw.dht.implementations.utils.DhtUtils;
@@ -29,6 +31,8 @@ import raw.logger.Log;
 
 public class TransactionUtils {
 	
+	private static final Target TRANSACTION_TARGET = new Target(getTarget());
+	
 	/**
 	 * This method checks if a {@link Transaction}
 	 * is valid within a certain seed epoch. A reference
@@ -52,6 +56,10 @@ public class TransactionUtils {
 			Log.getLogger().debug("Block number does not identify a seed block.");
 			return false;
 		}
+		if(hasher == null){
+			Log.getLogger().debug("Seed block "+seedNumber+" is not in the chain.");
+			return false;
+		}
 		return isValid(transaction, hasher);
 	}
 	
@@ -59,6 +67,7 @@ public class TransactionUtils {
 	 * As {@link TransactionUtils#isValid(Transaction, BlockChainCore)} but,
 	 * instead of requesting a reference to a {@link BlockChainCore} to reconstruct
 	 * a valid {@link DhtHasher}, an explicit hasher instance is required.
+	 * Transactions whose version is not yet active at their seed block are not valid.
 	 * 
 	 * @param transaction the {@link Transaction} to be evaluated
 	 * @param hasher a {@link DhtHasher} instance
@@ -68,19 +77,19 @@ public class TransactionUtils {
 		if(transaction == null){
 			return false;
 		}
+		if(transaction.getVersion() > DefaultTransaction.maxVersionAt(transaction.getCreationSeedNumber())){
+			return false;
+		}
 		return isValid(transaction.getDhtID(), transaction.getTransactionNonce(), hasher);
 	}
 	
 	public static boolean isValid(DhtID id, long nonce, DhtHasher hasher){
 		DhtID hashed = hasher.hashDhtIDwithLongNonce(id, nonce);
-		HashValue converted = new DefaultHashValue(hashed.toByteArray());
-		HashValue target = getTarget();
-		HashValue masked = converted.maskWith(target);
-		return converted.equals(masked);
+		return TRANSACTION_TARGET.meets(hashed.toByteArray());
 	}
 	
 	private static byte[] fixedTargetBytes(){
-		byte[] target = new byte[(new DefaultHasher()).hashLength()];
+		byte[] target = new byte[DefaultHasher.getHasher().hashLength()];
 		Arrays.fill(target, (byte) 0xff);
 		target[0] = (byte) 0x00;
 		target[1] = (byte) 0x00;
@@ -18,6 +18,7 @@
  */
 package raw.blockChain.services;
 
+import java.math.BigDecimal;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 
@@ -79,6 +80,30 @@ public interface CommonNode {
 	 */
 	public BlockHeader getBlockHeaderByNumber(long blockNumber);
 	
+	/**
+	 * This method will try to find the hash of a {@link BlockHeader} given its block number in BlockChain.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the {@link HashValue} of the {@link BlockHeader} if existent or <tt>null</tt> otherwise
+	 */
+	public HashValue getBlockHashByNumber(long blockNumber);
+	
+	/**
+	 * This method will try to find the timestamp of a {@link BlockHeader} given its block number in BlockChain.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the timestamp of the {@link BlockHeader} if existent or -1 otherwise
+	 */
+	public long getBlockTimestampByNumber(long blockNumber);
+	
+	/**
+	 * This method will try to find the difficulty of a {@link BlockHeader} given its block number in BlockChain.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the difficulty of the {@link BlockHeader} if existent or <tt>null</tt> otherwise
+	 */
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber);
+	
 	/**
 	 * Check if a given {@link Transaction} is contained in the block identified 
 	 * by a given {@link BlockHeader}.
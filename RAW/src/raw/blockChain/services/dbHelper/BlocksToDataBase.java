@@ -15,6 +15,7 @@
  *******************************************************************************/
 package raw.blockChain.services.dbHelper;
 
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
@@ -106,6 +107,33 @@ public interface BlocksToDataBase {
 	 */
 	public BlockHeader getBlockHeaderByNumber(long blockNumber);
 	
+	/**
+	 * This method will try to find the hash of a {@link BlockHeader} given its block number in BlockChain,
+	 * without loading the whole header when possible.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the {@link HashValue} of the {@link BlockHeader} if existent or <tt>null</tt> otherwise
+	 */
+	public HashValue getBlockHashByNumber(long blockNumber);
+	
+	/**
+	 * This method will try to find the timestamp of a {@link BlockHeader} given its block number in BlockChain,
+	 * without loading the whole header when possible.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the timestamp of the {@link BlockHeader} if existent or -1 otherwise
+	 */
+	public long getBlockTimestampByNumber(long blockNumber);
+	
+	/**
+	 * This method will try to find the difficulty of a {@link BlockHeader} given its block number in BlockChain,
+	 * without loading the whole header when possible.
+	 * 
+	 * @param blockNumber the number of the desired {@link BlockHeader}
+	 * @return the difficulty of the {@link BlockHeader} if existent or <tt>null</tt> otherwise
+	 */
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber);
+	
 	/**
 	 * This method will try to find a {@link Block} given its block number in BlockChain.
 	 * 
@@ -35,7 +35,11 @@ import com.j256.ormlite.table.DatabaseTable;
 /**
  * This {@link BlockHeader} implementation is to be used
  * <b>SPECIFICALLY</b> to store {@link BlockHeader}s into
- * the database.
+ * the database.<br>
+ * <br>
+ * Headers are stored field by field whatever their version: blocks are
+ * looked up by number and by hash, which need columns of their own. The fixed
+ * size layout of version 2 headers is the one they are hashed and sent with.
  * 
  * @author vic
  *
@@ -18,6 +18,7 @@
  */
 package raw.blockChain.services.dbHelper.implementations;
 
+import java.math.BigDecimal;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
@@ -31,14 +32,13 @@ import raw.blockChain.api.Block;
 import raw.blockChain.api.BlockCompactRepresentation;
 import raw.blockChain.api.BlockHeader;
 import raw.blockChain.api.HashValue;
-import raw.blockChain.api.Merkler;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.api.Merkler.IntermediateValue;
 import raw.blockChain.api.Merkler.IntermediateValues;
 import raw.blockChain.api.implementations.DefaultBlock;
 import raw.blockChain.api.implementations.DefaultBlockCompactRepresentation;
 import raw.blockChain.api.implementations.DefaultIntermediateValuesBuilder;
-import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.blockChain.api.implementations.IncrementalMerkleTree;
 import raw.blockChain.api.implementations.utils.BlockUtils;
 import raw.blockChain.exceptions.TransactionNotPresentException;
 import raw.blockChain.services.CommonNode;
@@ -53,6 +53,7 @@ import raw.settings.BlockChainProperties;
 import raw.settings.ModuleProperty;
 import raw.settings.PropertiesManager;
 
+import com.j256.ormlite.dao.CloseableIterator;
 import com.j256.ormlite.dao.Dao;
 import com.j256.ormlite.misc.TransactionManager;
 import com.j256.ormlite.stmt.QueryBuilder;
@@ -75,6 +76,18 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 	
 	private Log log;
 	
+	/*
+	 * thin nodes usually ask the compact representations of many transactions
+	 * of the same (latest) blocks: the tree of the last requested block is kept.
+	 */
+	private HashValue compactTreeBlockHash;
+	private IncrementalMerkleTree compactTree;
+	
+	/*
+	 * mirrors the stored headers: loaded on open() and updated on every store and delete.
+	 */
+	private HeaderChainIndex headerIndex;
+	
 	public DefaultBlockToDataBase(CommonNode owner) {
 		this.owner = owner;
 		BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
@@ -82,8 +95,10 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 		database = DBManager.getDBManager();
 		
 		log = Log.getLogger();
+		
+		headerIndex = new HeaderChainIndex();
 	}
-
+	
 	/* (non-Javadoc)
 	 * @see raw.blockChain.services.thickNode.BlocksToDataBase#storeOnDataBase(raw.blockChain.api.Block)
 	 */
@@ -98,6 +113,7 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 		
 		try {
 			atomifier.callInTransaction(new AtomicBlockStore(block));
+			headerIndex.put(block.getHeader());
 		} catch (SQLException e) {
 			if(e instanceof SQLIntegrityConstraintViolationException){
 				log.verboseDebug("Possibly duplicated block. Aborting store. (Block: "+block.getHeader()+")");
@@ -172,6 +188,7 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 	@Override
 	public void storeHeaderOnDataBase(BlockHeader header) throws SQLException {
 		storeAndReturnHeaderOnDataBase(header);
+		headerIndex.put(header);
 	}
 	
 	/**
@@ -246,12 +263,17 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 			return null;
 		}
 		
-		Merkler merkler = new DefaultMerkler(1);
 		IntermediateValues computatedIntermediateValues = null;
-		try {
-			computatedIntermediateValues = merkler.getIntermediateValues(transaction, originalBlock);
-		} catch (TransactionNotPresentException e) {
-			log.exception(e);
+		synchronized (this) {
+			if(compactTree == null || !compactTreeBlockHash.equals(header.hash())){
+				compactTree = new IncrementalMerkleTree(originalBlock.getTransactions());
+				compactTreeBlockHash = header.hash();
+			}
+			try {
+				computatedIntermediateValues = compactTree.getIntermediateValues(transaction, header.getBlockNumber());
+			} catch (TransactionNotPresentException e) {
+				log.exception(e);
+			}
 		}
 		
 		BlockCompactRepresentation compactRepresentation = new DefaultBlockCompactRepresentation(header, transaction, computatedIntermediateValues);
@@ -359,6 +381,58 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 	@Override
 	public void open() {
 		database.startDB(dbName);
+		loadHeaderIndex();
+	}
+	
+	private void loadHeaderIndex(){
+		headerIndex.clear();
+		Dao<DataBaseBlockHeader, Integer> headerDao = null;
+		try {
+			headerDao = database.getDAO(dbName, DataBaseBlockHeader.class);
+		} catch (SQLException e) {
+			log.exception(e);
+			return;
+		} catch (NoSuchDatabaseException e) {
+			log.exception(e);
+			return;
+		} catch (DataBaseNotRunning e) {
+			log.exception(e);
+			return;
+		}
+		
+		CloseableIterator<DataBaseBlockHeader> rows = null;
+		try {
+			QueryBuilder<DataBaseBlockHeader, Integer> lastBuilder = headerDao.queryBuilder();
+			lastBuilder.orderBy(DataBaseBlockHeader.BLOCK_NUMBER_FIELD_NAME, false).limit(1L);
+			DataBaseBlockHeader last = headerDao.queryForFirst(lastBuilder.prepare());
+			if(last == null){
+				return;
+			}
+			long firstRecent = last.getBlockNumber() - HeaderChainIndex.RECENT_HEADERS + 1;
+			
+			// rows are streamed, and keyed by their stored hash: no header is hashed again.
+			QueryBuilder<DataBaseBlockHeader, Integer> builder = headerDao.queryBuilder();
+			builder.orderBy(DataBaseBlockHeader.BLOCK_NUMBER_FIELD_NAME, true);
+			rows = headerDao.iterator(builder.prepare());
+			while(rows.hasNext()){
+				DataBaseBlockHeader dbHeader = rows.next();
+				if(dbHeader.getBlockNumber() >= firstRecent){
+					headerIndex.put(dbHeader.getPlainBlockHeader(), dbHeader.hash());
+				} else {
+					headerIndex.putSummary(dbHeader, dbHeader.hash());
+				}
+			}
+		} catch (SQLException | IllegalStateException e) {
+			// the iterator wraps the SQLExceptions thrown while moving to the next row.
+			log.exception(e);
+			headerIndex.clear();
+			return;
+		} finally {
+			if(rows != null){
+				rows.closeQuietly();
+			}
+		}
+		log.verboseDebug("Header index loaded: "+headerIndex.size()+" headers, last #"+headerIndex.getTopBlockNumber()+".");
 	}
 
 	/* (non-Javadoc)
@@ -372,6 +446,10 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 	@Override
 	public BlockHeader getLastBlockHeaderInChain(boolean generateGenesis) {
 		log.verboseDebug("Last BlockHeader asked.");
+		BlockHeader indexed = headerIndex.getTopHeader();
+		if(indexed != null){
+			return indexed;
+		}
 		Dao<DataBaseBlockHeader, Integer> headerDao = null;
 		try {
 			headerDao = database.getDAO(dbName, DataBaseBlockHeader.class);
@@ -422,6 +500,15 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 	 */
 	@Override
 	public BlockHeader getBlockHeaderByNumber(long blockNumber) {
+		BlockHeader indexed = headerIndex.getHeader(blockNumber);
+		if(indexed != null){
+			return indexed;
+		}
+		if(headerIndex.getTopBlockNumber() >= 0 && blockNumber > headerIndex.getTopBlockNumber()){
+			// every store goes through the index: such a block is not in the database yet.
+			return null;
+		}
+		// only the HeaderChainIndex.RECENT_HEADERS most recent headers are kept in memory.
 		DataBaseBlockHeader found = getDBHeaderByNubmber(blockNumber);
 		if(found == null){
 			return null;
@@ -429,6 +516,54 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 		return found.getPlainBlockHeader();
 	}
 	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.dbHelper.BlocksToDataBase#getBlockHashByNumber(long)
+	 */
+	@Override
+	public HashValue getBlockHashByNumber(long blockNumber) {
+		HashValue indexed = headerIndex.getHash(blockNumber);
+		if(indexed != null){
+			return indexed;
+		}
+		BlockHeader header = getBlockHeaderByNumber(blockNumber);
+		if(header == null){
+			return null;
+		}
+		return header.hash();
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.dbHelper.BlocksToDataBase#getBlockTimestampByNumber(long)
+	 */
+	@Override
+	public long getBlockTimestampByNumber(long blockNumber) {
+		long indexed = headerIndex.getTimestamp(blockNumber);
+		if(indexed >= 0){
+			return indexed;
+		}
+		BlockHeader header = getBlockHeaderByNumber(blockNumber);
+		if(header == null){
+			return -1;
+		}
+		return header.timestamp();
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.dbHelper.BlocksToDataBase#getBlockDifficultyByNumber(long)
+	 */
+	@Override
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber) {
+		BigDecimal indexed = headerIndex.getDifficulty(blockNumber);
+		if(indexed != null){
+			return indexed;
+		}
+		BlockHeader header = getBlockHeaderByNumber(blockNumber);
+		if(header == null){
+			return null;
+		}
+		return header.currentDifficulty();
+	}
+	
 	private DataBaseBlockHeader getDBHeaderByNubmber(long blockNumber){
 		Dao<DataBaseBlockHeader, Integer> headerDao = null;
 		try {
@@ -616,6 +751,7 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 		}
 		try {
 			atomifier.callInTransaction(new AtomicBlockDelete(header));
+			headerIndex.remove(header.getBlockNumber());
 		} catch (SQLException e) {
 			log.exception(e);
 		}
@@ -678,6 +814,9 @@ public class DefaultBlockToDataBase implements BlocksToDataBase {
 		} catch (SQLException e) {
 			return false;
 		}
+		for(Block block : blocksBulk){
+			headerIndex.remove(block.getHeader().getBlockNumber());
+		}
 
 		return true;
 	}
@@ -0,0 +1,284 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ *
+ */
+package raw.blockChain.services.dbHelper.implementations;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import raw.blockChain.api.BlockChainConstants;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.implementations.DefaultHashValue;
+import raw.blockChain.api.implementations.HashingEngine;
+
+/**
+ * An in-memory index of the {@link BlockHeader}s stored in the database,
+ * addressed by block number.<br>
+ * <br>
+ * For every block number the index keeps the header hash (packed in a single
+ * byte array), which is all the DHT needs of its seed blocks, its timestamp
+ * and its difficulty, which is all the difficulty retargeting needs. Consecutive
+ * blocks with equal difficulties share one {@link BigDecimal} instance. Whole
+ * {@link BlockHeader}s are kept only for the latest {@link HeaderChainIndex#RECENT_HEADERS}
+ * block numbers, which cover most of the lookups done validating and mining
+ * new blocks: older headers must be read from the database.<br>
+ * <br>
+ * Objects of this class are thread safe.
+ * 
+ * @author vic
+ *
+ */
+public class HeaderChainIndex {
+	
+	/**
+	 * The number of most recent block numbers whose {@link BlockHeader} is kept in memory.
+	 */
+	public static final int RECENT_HEADERS = 2 * BlockChainConstants.BLOCKS_FOR_DIFFICULTY_ADJUSTMENT + 64;
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int HASH_LENGTH = HashingEngine.HASH_LENGTH;
+	
+	private byte[] hashes;
+	private long[] timestamps;
+	private BigDecimal[] difficulties;
+	private boolean[] present;
+	
+	private BlockHeader[] recentHeaders;
+	
+	private long topBlockNumber;
+	private int indexed;
+	
+	public HeaderChainIndex() {
+		allocate(INITIAL_CAPACITY);
+		recentHeaders = new BlockHeader[RECENT_HEADERS];
+		topBlockNumber = -1;
+		indexed = 0;
+	}
+	
+	private void allocate(int capacity){
+		hashes = new byte[capacity * HASH_LENGTH];
+		timestamps = new long[capacity];
+		difficulties = new BigDecimal[capacity];
+		present = new boolean[capacity];
+	}
+	
+	/**
+	 * Add (or replace) the entry for the block number of <tt>header</tt>.
+	 * 
+	 * @param header a {@link BlockHeader} just stored
+	 */
+	public synchronized void put(BlockHeader header){
+		store(header.getBlockNumber(), header.hash(), header, true);
+	}
+	
+	/**
+	 * As {@link HeaderChainIndex#put(BlockHeader)} when the hash of
+	 * <tt>header</tt> is already known (e.g. read from the database).
+	 * 
+	 * @param header a stored {@link BlockHeader}
+	 * @param hash the hash of <tt>header</tt>
+	 */
+	public synchronized void put(BlockHeader header, HashValue hash){
+		store(header.getBlockNumber(), hash, header, true);
+	}
+	
+	/**
+	 * As {@link HeaderChainIndex#put(BlockHeader, HashValue)} keeping only the hash,
+	 * timestamp and difficulty of <tt>header</tt>, for blocks too old for their
+	 * {@link BlockHeader} to be kept in memory.
+	 * 
+	 * @param header a stored {@link BlockHeader}
+	 * @param hash the hash of <tt>header</tt>
+	 */
+	public synchronized void putSummary(BlockHeader header, HashValue hash){
+		store(header.getBlockNumber(), hash, header, false);
+	}
+	
+	private void store(long blockNumber, HashValue hash, BlockHeader header, boolean keepHeader){
+		if(blockNumber < 0 || blockNumber >= Integer.MAX_VALUE){
+			return;
+		}
+		int index = (int) blockNumber;
+		if(index >= present.length){
+			grow(index + 1);
+		}
+		if(!present[index]){
+			indexed++;
+			present[index] = true;
+		}
+		System.arraycopy(hash.toByteArray(), 0, hashes, index * HASH_LENGTH, HASH_LENGTH);
+		timestamps[index] = header.timestamp();
+		difficulties[index] = shared(index, header.currentDifficulty());
+		
+		if(blockNumber > topBlockNumber){
+			topBlockNumber = blockNumber;
+		}
+		BlockHeader previous = recentHeaders[index % RECENT_HEADERS];
+		if(!keepHeader){
+			// a stale header of this block number must not outlive its replacement.
+			if(previous != null && previous.getBlockNumber() == blockNumber){
+				recentHeaders[index % RECENT_HEADERS] = null;
+			}
+			return;
+		}
+		// an old header must not evict the recent one sharing its slot.
+		if(blockNumber > topBlockNumber - RECENT_HEADERS || previous == null || previous.getBlockNumber() <= blockNumber){
+			recentHeaders[index % RECENT_HEADERS] = header;
+		}
+	}
+	
+	/**
+	 * @return an instance equal to <tt>difficulty</tt> already stored for a block next to <tt>index</tt>, or <tt>difficulty</tt>
+	 */
+	private BigDecimal shared(int index, BigDecimal difficulty){
+		if(index > 0 && difficulty.equals(difficulties[index - 1])){
+			return difficulties[index - 1];
+		}
+		if(index + 1 < difficulties.length && difficulty.equals(difficulties[index + 1])){
+			return difficulties[index + 1];
+		}
+		return difficulty;
+	}
+	
+	private void grow(int minimumCapacity){
+		int capacity = present.length;
+		while(capacity < minimumCapacity){
+			capacity = capacity * 2;
+		}
+		hashes = Arrays.copyOf(hashes, capacity * HASH_LENGTH);
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		difficulties = Arrays.copyOf(difficulties, capacity);
+		present = Arrays.copyOf(present, capacity);
+	}
+	
+	/**
+	 * Drop the entry for <tt>blockNumber</tt> (e.g. when its block is
+	 * deleted on a chain reorganization).
+	 * 
+	 * @param blockNumber the number of a deleted block
+	 */
+	public synchronized void remove(long blockNumber){
+		if(!isIndexed(blockNumber)){
+			return;
+		}
+		int index = (int) blockNumber;
+		present[index] = false;
+		difficulties[index] = null;
+		if(recentHeaders[index % RECENT_HEADERS] != null && recentHeaders[index % RECENT_HEADERS].getBlockNumber() == blockNumber){
+			recentHeaders[index % RECENT_HEADERS] = null;
+		}
+		indexed--;
+		while(topBlockNumber >= 0 && !present[(int) topBlockNumber]){
+			topBlockNumber--;
+		}
+	}
+	
+	/**
+	 * Drop every entry.
+	 */
+	public synchronized void clear(){
+		allocate(INITIAL_CAPACITY);
+		Arrays.fill(recentHeaders, null);
+		topBlockNumber = -1;
+		indexed = 0;
+	}
+	
+	private boolean isIndexed(long blockNumber){
+		return blockNumber >= 0 && blockNumber <= topBlockNumber && present[(int) blockNumber];
+	}
+	
+	/**
+	 * @param blockNumber a block number
+	 * @return <tt>true</tt> if there is an entry for <tt>blockNumber</tt>
+	 */
+	public synchronized boolean contains(long blockNumber){
+		return isIndexed(blockNumber);
+	}
+	
+	/**
+	 * @return the greatest indexed block number or -1 if the index is empty
+	 */
+	public synchronized long getTopBlockNumber(){
+		return topBlockNumber;
+	}
+	
+	/**
+	 * @return the number of indexed block numbers
+	 */
+	public synchronized int size(){
+		return indexed;
+	}
+	
+	/**
+	 * @param blockNumber a block number
+	 * @return the hash of the header of block <tt>blockNumber</tt> or <tt>null</tt> if it is not indexed
+	 */
+	public synchronized HashValue getHash(long blockNumber){
+		if(!isIndexed(blockNumber)){
+			return null;
+		}
+		int offset = (int) blockNumber * HASH_LENGTH;
+		return new DefaultHashValue(Arrays.copyOfRange(hashes, offset, offset + HASH_LENGTH));
+	}
+	
+	/**
+	 * @param blockNumber a block number
+	 * @return the timestamp of block <tt>blockNumber</tt> or -1 if it is not indexed
+	 */
+	public synchronized long getTimestamp(long blockNumber){
+		if(!isIndexed(blockNumber)){
+			return -1;
+		}
+		return timestamps[(int) blockNumber];
+	}
+	
+	/**
+	 * @param blockNumber a block number
+	 * @return the difficulty of block <tt>blockNumber</tt> or <tt>null</tt> if it is not indexed
+	 */
+	public synchronized BigDecimal getDifficulty(long blockNumber){
+		if(!isIndexed(blockNumber)){
+			return null;
+		}
+		return difficulties[(int) blockNumber];
+	}
+	
+	/**
+	 * @param blockNumber a block number
+	 * @return the {@link BlockHeader} of block <tt>blockNumber</tt> or <tt>null</tt> if it is not indexed or not among the {@link HeaderChainIndex#RECENT_HEADERS} most recent ones
+	 */
+	public synchronized BlockHeader getHeader(long blockNumber){
+		if(!isIndexed(blockNumber)){
+			return null;
+		}
+		BlockHeader header = recentHeaders[(int) (blockNumber % RECENT_HEADERS)];
+		if(header == null || header.getBlockNumber() != blockNumber){
+			return null;
+		}
+		return header;
+	}
+	
+	/**
+	 * @return the {@link BlockHeader} with the greatest indexed block number or <tt>null</tt> if the index is empty
+	 */
+	public synchronized BlockHeader getTopHeader(){
+		return getHeader(topBlockNumber);
+	}
+
+}
@@ -18,6 +18,7 @@
  */
 package raw.blockChain.services.implementations;
 
+import java.math.BigDecimal;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
@@ -29,6 +30,7 @@ import java.util.concurrent.TimeoutException;
 import raw.blockChain.BlockChainCore;
 import raw.blockChain.api.Block;
 import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.services.miner.Miner;
 import raw.blockChain.services.miner.implementations.DefaultMiner;
@@ -235,6 +237,48 @@ public class DefaultBlockChainCore implements BlockChainCore {
 		return header;
 	}
 
+	/* (non-Javadoc)
+	 * @see raw.blockChain.BlockChainCore#getBlockHashByNumber(long)
+	 */
+	@Override
+	public HashValue getBlockHashByNumber(long blockNumber) {
+		HashValue hash;
+		if(properties.isThickClientIsOn()){
+			hash = thickNode.getBlockHashByNumber(blockNumber);
+		} else {
+			hash = thinNode.getBlockHashByNumber(blockNumber);
+		}
+		return hash;
+	}
+
+	/* (non-Javadoc)
+	 * @see raw.blockChain.BlockChainCore#getBlockTimestampByNumber(long)
+	 */
+	@Override
+	public long getBlockTimestampByNumber(long blockNumber) {
+		long timestamp;
+		if(properties.isThickClientIsOn()){
+			timestamp = thickNode.getBlockTimestampByNumber(blockNumber);
+		} else {
+			timestamp = thinNode.getBlockTimestampByNumber(blockNumber);
+		}
+		return timestamp;
+	}
+
+	/* (non-Javadoc)
+	 * @see raw.blockChain.BlockChainCore#getBlockDifficultyByNumber(long)
+	 */
+	@Override
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber) {
+		BigDecimal difficulty;
+		if(properties.isThickClientIsOn()){
+			difficulty = thickNode.getBlockDifficultyByNumber(blockNumber);
+		} else {
+			difficulty = thinNode.getBlockDifficultyByNumber(blockNumber);
+		}
+		return difficulty;
+	}
+
 	/* (non-Javadoc)
 	 * @see raw.blockChain.BlockChainCore#getBlockByNumber(long)
 	 */
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+import raw.logger.Log;
+
+/**
+ * Sends the same message to many nodes at once: every send runs on its own
+ * task of the given {@link ExecutorService}, through a {@link PeerConnectionPool}
+ * and within a per node deadline, so that an unresponsive node only delays
+ * (at most by the deadline) the notification to itself.<br>
+ * <br>
+ * {@link Broadcaster#broadcast(Collection, Object, Outcomes)} returns as soon as
+ * the sends are dispatched; the result of each one is then reported to the
+ * given {@link Outcomes}.
+ * 
+ * @author vic
+ *
+ */
+public class Broadcaster {
+	
+	public static final int DEFAULT_DEADLINE_MILLISECONDS = 5 * 1000;
+	
+	/**
+	 * Receives the result of the send to each node of a broadcast.
+	 * Methods are called by the sending threads.
+	 * 
+	 * @author vic
+	 *
+	 */
+	public interface Outcomes {
+		
+		/**
+		 * @param address the node which received the message
+		 */
+		public void delivered(InetSocketAddress address);
+		
+		/**
+		 * @param address the node which did not receive the message
+		 * @param cause why the send failed
+		 */
+		public void failed(InetSocketAddress address, IOException cause);
+		
+	}
+	
+	private final PeerConnectionPool connections;
+	private final ExecutorService workers;
+	private final int deadlineMilliseconds;
+	
+	/**
+	 * @param connections the connections to the nodes
+	 * @param workers the executor running the sends
+	 */
+	public Broadcaster(PeerConnectionPool connections, ExecutorService workers) {
+		this(connections, workers, DEFAULT_DEADLINE_MILLISECONDS);
+	}
+	
+	/**
+	 * @param connections the connections to the nodes
+	 * @param workers the executor running the sends
+	 * @param deadlineMilliseconds how long the send to a single node (connection included) may take
+	 */
+	public Broadcaster(PeerConnectionPool connections, ExecutorService workers, int deadlineMilliseconds) {
+		this.connections = connections;
+		this.workers = workers;
+		this.deadlineMilliseconds = deadlineMilliseconds;
+	}
+	
+	/**
+	 * Send <tt>message</tt> to every node in <tt>addresses</tt>, without waiting for the sends.
+	 * 
+	 * @param addresses the receiving nodes
+	 * @param message the message
+	 * @param outcomes notified of the result of each send (may be <tt>null</tt>)
+	 * @return the number of dispatched sends
+	 */
+	public int broadcast(Collection<InetSocketAddress> addresses, final Object message, final Outcomes outcomes) {
+		int dispatched = 0;
+		for(final InetSocketAddress address : addresses){
+			Runnable sender = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						connections.send(address, message, deadlineMilliseconds);
+					} catch (IOException e) {
+						Log.getLogger().verboseDebug("Broadcast of "+message.getClass().getSimpleName()+" to "+address+" failed: "+e.getMessage());
+						if(outcomes != null){
+							outcomes.failed(address, e);
+						}
+						return;
+					}
+					if(outcomes != null){
+						outcomes.delivered(address);
+					}
+				}
+			};
+			try {
+				workers.execute(sender);
+				dispatched++;
+			} catch (RejectedExecutionException e) {
+				Log.getLogger().debug("Cannot dispatch the broadcast to "+address+": "+e.getMessage());
+			}
+		}
+		return dispatched;
+	}
+	
+	/**
+	 * @return how long the send to a single node may take
+	 */
+	public int getDeadlineMilliseconds() {
+		return deadlineMilliseconds;
+	}
+
+}
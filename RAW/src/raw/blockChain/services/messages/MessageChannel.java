@@ -0,0 +1,470 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.io.CountingOutputStream;
+
+import raw.blockChain.api.BlockChainConstants;
+import raw.logger.Log;
+
+/**
+ * A connection over which messages are exchanged, either framed by
+ * {@link WireProtocol} or (with peers not speaking it) as a plain Java
+ * serialization stream.<br>
+ * <br>
+ * The connecting side opens with the {@link WireProtocol} preamble: a legacy
+ * peer fails reading it as a serialization stream header and drops the connection,
+ * which is then opened again in legacy mode. The outcome is remembered for
+ * each peer address, so that only the first connection pays the negotiation:
+ * afterwards messages to a framing peer are sent right after the preamble and the
+ * peer acknowledgment is only checked before reading a reply.<br>
+ * <br>
+ * A dropped connection does not prove the peer is a legacy one (it may have been
+ * restarting, or just upgraded): such peers are sent legacy messages for
+ * {@link MessageChannel#LEGACY_RETRY_MILLISECONDS} only, then the negotiation is
+ * tried again. Peers replying with a serialization stream header are legacy for good.
+ * 
+ * @author vic
+ *
+ */
+public class MessageChannel implements Closeable {
+	
+	private static final Set<InetSocketAddress> framingPeers = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+	/**
+	 * For how long a peer dropping the negotiation is considered a legacy one.
+	 */
+	public static final int LEGACY_RETRY_MILLISECONDS = 10 * 60 * 1000;
+	
+	private static final short SERIALIZATION_STREAM_MAGIC = (short) 0xaced;
+	
+	/**
+	 * Legacy peers, with the time (in milliseconds) when the negotiation is to be tried again.
+	 */
+	private static final ConcurrentHashMap<InetSocketAddress, Long> legacyPeers = new ConcurrentHashMap<InetSocketAddress, Long>();
+	
+	/**
+	 * Settable by tests.
+	 */
+	static long legacyRetryMillis = LEGACY_RETRY_MILLISECONDS;
+	private static final ConcurrentHashMap<InetSocketAddress, Byte> peerVersions = new ConcurrentHashMap<InetSocketAddress, Byte>();
+	
+	private static final int PREAMBLE_LENGTH = 5;
+	
+	private final Socket sock;
+	private final InetSocketAddress peer;
+	private final boolean framed;
+	private byte version;
+	private boolean acknowledgmentPending;
+	
+	private final BufferedInputStream input;
+	private final CountingOutputStream counter;
+	private DataInputStream in;
+	private DataOutputStream out;
+	private ObjectInputStream ois;
+	private ObjectOutputStream oos;
+	
+	private MessageChannel(Socket sock, InetSocketAddress peer, boolean framed, BufferedInputStream input) throws IOException {
+		this.sock = sock;
+		this.peer = peer;
+		this.framed = framed;
+		version = WireProtocol.VERSION;
+		this.input = input;
+		counter = new CountingOutputStream(sock.getOutputStream());
+		if(framed){
+			in = new DataInputStream(input);
+			out = new DataOutputStream(new BufferedOutputStream(counter));
+		}
+	}
+	
+	/**
+	 * Connect to <tt>address</tt>, negotiating the framing if this is the
+	 * first connection to it.
+	 * 
+	 * @param address the address of the other node
+	 * @return a {@link MessageChannel} connected to <tt>address</tt>
+	 * @throws IOException if a connection cannot be opened
+	 */
+	public static MessageChannel connect(InetSocketAddress address) throws IOException {
+		return connect(address, BlockChainConstants.CONNECT_MILLISECONDS_TIMEOUT, BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
+	}
+	
+	/**
+	 * As {@link MessageChannel#connect(InetSocketAddress)}, giving up if the connection
+	 * cannot be established (and the framing negotiated) within <tt>millisecondsTimeout</tt>.
+	 * 
+	 * @param address the address of the other node
+	 * @param millisecondsTimeout the connection (and negotiation) timeout
+	 * @return a {@link MessageChannel} connected to <tt>address</tt>
+	 * @throws IOException if a connection cannot be opened
+	 */
+	public static MessageChannel connect(InetSocketAddress address, int millisecondsTimeout) throws IOException {
+		return connect(address, millisecondsTimeout, millisecondsTimeout);
+	}
+	
+	private static MessageChannel connect(InetSocketAddress address, int connectTimeout, int negotiationTimeout) throws IOException {
+		if(isLegacy(address)){
+			return open(address, false, connectTimeout);
+		}
+		MessageChannel channel = open(address, true, connectTimeout);
+		Socket sock = channel.sock;
+		try {
+			channel.out.writeInt(WireProtocol.MAGIC);
+			channel.out.writeByte(WireProtocol.VERSION);
+			channel.out.flush();
+		} catch (IOException e) {
+			sock.close();
+			throw e;
+		}
+		channel.acknowledgmentPending = true;
+		if(framingPeers.contains(address)){
+			return channel;
+		}
+		try {
+			sock.setSoTimeout(negotiationTimeout);
+			if(channel.repliesSerialized()){
+				sock.close();
+				Log.getLogger().verboseDebug(address+" replied with a serialization stream: falling back to serialization.");
+				markLegacy(address, Long.MAX_VALUE);
+				return open(address, false, connectTimeout);
+			}
+			channel.readAcknowledgment();
+			sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
+			framingPeers.add(address);
+			return channel;
+		} catch (SocketTimeoutException e) {
+			sock.close();
+			throw e;
+		} catch (EOFException | SocketException e) {
+			sock.close();
+			Log.getLogger().verboseDebug(address+" dropped the wire protocol negotiation: falling back to serialization for a while.");
+			markLegacy(address, System.currentTimeMillis() + legacyRetryMillis);
+			return open(address, false, connectTimeout);
+		} catch (IOException e) {
+			sock.close();
+			throw e;
+		}
+	}
+	
+	private static boolean isLegacy(InetSocketAddress address){
+		Long retryAt = legacyPeers.get(address);
+		if(retryAt == null){
+			return false;
+		}
+		if(System.currentTimeMillis() >= retryAt){
+			legacyPeers.remove(address, retryAt);
+			return false;
+		}
+		return true;
+	}
+	
+	private static void markLegacy(InetSocketAddress address, long retryAt){
+		legacyPeers.put(address, retryAt);
+		peerVersions.remove(address);
+	}
+	
+	/**
+	 * Look, without consuming them, at the first bytes the other side replied
+	 * with to the preamble.
+	 * 
+	 * @return <tt>true</tt> if they are a serialization stream header
+	 * @throws IOException if nothing can be read
+	 */
+	private boolean repliesSerialized() throws IOException {
+		input.mark(2);
+		int first = input.read();
+		int second = input.read();
+		input.reset();
+		if(first < 0 || second < 0){
+			throw new EOFException("Connection closed by "+peer+" during the negotiation.");
+		}
+		return (short) ((first << 8) | second) == SERIALIZATION_STREAM_MAGIC;
+	}
+	
+	/**
+	 * Wrap a connection accepted by a listening socket, looking at the first
+	 * bytes sent by the other side to pick the framing.
+	 * 
+	 * @param sock an accepted {@link Socket}
+	 * @return a {@link MessageChannel} over <tt>sock</tt>
+	 * @throws IOException if the first bytes cannot be read
+	 */
+	public static MessageChannel accept(Socket sock) throws IOException {
+		BufferedInputStream input = new BufferedInputStream(sock.getInputStream());
+		input.mark(PREAMBLE_LENGTH);
+		DataInputStream preamble = new DataInputStream(input);
+		boolean framed = preamble.readInt() == WireProtocol.MAGIC;
+		MessageChannel channel = new MessageChannel(sock, (InetSocketAddress) sock.getRemoteSocketAddress(), framed, input);
+		if(framed){
+			channel.version = (byte) Math.min(preamble.readByte(), WireProtocol.VERSION);
+			channel.out.writeInt(WireProtocol.MAGIC);
+			channel.out.writeByte(channel.version);
+			channel.out.flush();
+		} else {
+			input.reset();
+			channel.ois = new ObjectInputStream(input);
+		}
+		return channel;
+	}
+	
+	/**
+	 * Wrap a connection whose framing was already agreed (or detected) by a {@link SelectorListener}.
+	 * 
+	 * @param sock a connected {@link Socket}, in blocking mode
+	 * @param framed <tt>true</tt> if the messages are framed
+	 * @param version the negotiated version
+	 * @param received the bytes already read from <tt>sock</tt> and not consumed yet
+	 * @return a {@link MessageChannel} over <tt>sock</tt>
+	 * @throws IOException if the streams of <tt>sock</tt> cannot be opened
+	 */
+	static MessageChannel adopt(Socket sock, boolean framed, byte version, byte[] received) throws IOException {
+		InputStream socketInput = sock.getInputStream();
+		if(received.length > 0){
+			socketInput = new SequenceInputStream(new ByteArrayInputStream(received), socketInput);
+		}
+		MessageChannel channel = new MessageChannel(sock, (InetSocketAddress) sock.getRemoteSocketAddress(), framed, new BufferedInputStream(socketInput));
+		channel.version = version;
+		return channel;
+	}
+	
+	private static MessageChannel open(InetSocketAddress address, boolean framed, int connectTimeout) throws IOException {
+		Socket sock = new Socket();
+		try {
+			sock.connect(address, connectTimeout);
+			sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
+			return new MessageChannel(sock, address, framed, new BufferedInputStream(sock.getInputStream()));
+		} catch (IOException e) {
+			sock.close();
+			throw e;
+		}
+	}
+	
+	private void readAcknowledgment() throws IOException {
+		acknowledgmentPending = false;
+		if(in.readInt() != WireProtocol.MAGIC){
+			throw new IOException("Invalid wire protocol acknowledgment from "+peer);
+		}
+		byte acknowledged = in.readByte();
+		if(acknowledged < 1 || acknowledged > WireProtocol.VERSION){
+			throw new IOException("Unsupported wire protocol version from "+peer+": "+acknowledged);
+		}
+		version = acknowledged;
+		peerVersions.put(peer, acknowledged);
+	}
+	
+	/**
+	 * @param address the address of another node
+	 * @return the {@link WireProtocol} version last acknowledged by <tt>address</tt>
+	 * or 0 if no framed connection to it has been opened yet (or it does not speak the framed protocol)
+	 */
+	public static byte getKnownVersion(InetSocketAddress address) {
+		Byte known = peerVersions.get(address);
+		return known == null ? 0 : known;
+	}
+	
+	/**
+	 * Read the other side acknowledgment now, if it is still pending.
+	 * 
+	 * @throws IOException if the acknowledgment is not valid
+	 */
+	void awaitAcknowledgment() throws IOException {
+		if(framed && acknowledgmentPending){
+			try {
+				readAcknowledgment();
+			} catch (IOException e) {
+				framingPeers.remove(peer);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Check, without waiting for data, that an idle connection can still be used:
+	 * the other side must not have closed it nor sent anything unsolicited.
+	 * 
+	 * @return <tt>true</tt> if the connection looks usable
+	 */
+	boolean isAlive() {
+		if(sock.isClosed() || sock.isInputShutdown() || sock.isOutputShutdown()){
+			return false;
+		}
+		int timeout;
+		try {
+			if(input.available() > 0){
+				return false;
+			}
+			timeout = sock.getSoTimeout();
+		} catch (IOException e) {
+			return false;
+		}
+		try {
+			sock.setSoTimeout(1);
+			// either the end of the stream or an unexpected byte.
+			input.read();
+			return false;
+		} catch (SocketTimeoutException e) {
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				sock.setSoTimeout(timeout);
+			} catch (SocketException e) {
+				Log.getLogger().verboseDebug("Cannot restore the timeout of the connection to "+peer);
+			}
+		}
+	}
+	
+	/**
+	 * Take the bytes already received and buffered but not read yet,
+	 * so that the connection can be read by other means.
+	 * 
+	 * @return the buffered bytes
+	 * @throws IOException if the buffered bytes cannot be read
+	 */
+	byte[] drainBuffered() throws IOException {
+		byte[] buffered = new byte[input.available()];
+		new DataInputStream(input).readFully(buffered);
+		return buffered;
+	}
+	
+	/**
+	 * Send a message.
+	 * 
+	 * @param message the message to be sent
+	 * @throws IOException if the message cannot be sent
+	 */
+	public void writeMessage(Object message) throws IOException {
+		if(framed){
+			WireProtocol.writeFrame(message, out);
+			out.flush();
+			return;
+		}
+		if(oos == null){
+			oos = new ObjectOutputStream(counter);
+		}
+		oos.writeObject(message);
+		// every message stands alone: do not keep back references to the objects already sent
+		oos.reset();
+		oos.flush();
+	}
+	
+	/**
+	 * Wait for a message.
+	 * 
+	 * @return the received message
+	 * @throws IOException if no valid message can be read
+	 * @throws ClassNotFoundException if a serialized message is of an unknown class
+	 */
+	public Object readMessage() throws IOException, ClassNotFoundException {
+		if(framed){
+			awaitAcknowledgment();
+			return WireProtocol.readFrame(in);
+		}
+		if(ois == null){
+			ois = new ObjectInputStream(input);
+		}
+		return ois.readObject();
+	}
+	
+	/**
+	 * @return <tt>true</tt> if messages are framed by {@link WireProtocol}, <tt>false</tt> if they are serialized
+	 */
+	public boolean isFramed() {
+		return framed;
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the other side keeps serving messages on this connection
+	 * after the first exchange (that is the negotiated version is at least {@link WireProtocol#PERSISTENT_VERSION})
+	 */
+	public boolean isPersistent() {
+		return framed && version >= WireProtocol.PERSISTENT_VERSION;
+	}
+	
+	/**
+	 * @return the negotiated {@link WireProtocol} version (meaningful if {@link MessageChannel#isFramed()})
+	 */
+	public byte getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return the number of bytes sent over this channel so far
+	 */
+	public long getWrittenBytes() {
+		return counter.getCount();
+	}
+	
+	/**
+	 * @return the underlying {@link Socket}
+	 */
+	public Socket getSocket() {
+		return sock;
+	}
+	
+	/**
+	 * Close the connection. If the other side acknowledgment was never read
+	 * it is consumed first, so that the connection is not reset while the
+	 * other side is still reading the messages sent.
+	 */
+	@Override
+	public void close() throws IOException {
+		if(framed && acknowledgmentPending && !sock.isClosed()){
+			try {
+				sock.shutdownOutput();
+				readAcknowledgment();
+			} catch (IOException e) {
+				Log.getLogger().verboseDebug("No wire protocol acknowledgment from "+peer+" before closing.");
+			}
+		}
+		sock.close();
+	}
+	
+	/**
+	 * Close the connection right away, without waiting for the other side
+	 * acknowledgment: meant to stop (from another thread) a request
+	 * whose reply is no more needed.
+	 * 
+	 * @throws IOException if closing the socket fails
+	 */
+	public void abort() throws IOException {
+		sock.close();
+	}
+
+}
@@ -0,0 +1,63 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Explicit binary encoding of one message type for the
+ * framed wire protocol (see {@link WireProtocol}).
+ * 
+ * @author vic
+ *
+ * @param <T> the type of the encoded messages
+ */
+public interface MessageCodec<T> {
+	
+	/**
+	 * @return the identifier written in the frames carrying messages of this type
+	 */
+	public int getTypeId();
+	
+	/**
+	 * @return the (exact) class of the messages encoded by this codec
+	 */
+	public Class<T> getMessageClass();
+	
+	/**
+	 * Write the payload of <tt>message</tt>.
+	 * 
+	 * @param message the message to be encoded
+	 * @param out the payload stream
+	 * @throws IOException if <tt>message</tt> cannot be encoded
+	 */
+	public void encode(T message, DataOutputStream out) throws IOException;
+	
+	/**
+	 * Rebuild a message from its payload.
+	 * 
+	 * @param in the payload stream
+	 * @return the decoded message
+	 * @throws IOException if the payload is not a valid encoding
+	 */
+	public T decode(DataInputStream in) throws IOException;
+
+}
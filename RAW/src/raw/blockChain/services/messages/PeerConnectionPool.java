@@ -0,0 +1,470 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import raw.logger.Log;
+
+/**
+ * Keeps long lived {@link MessageChannel}s towards the other nodes, so that
+ * pings, notifications and requests do not pay a connection (and a wire
+ * protocol negotiation) each.<br>
+ * <br>
+ * A channel serves one exchange at a time: it is taken from the idle ones of the
+ * peer (or opened) by {@link PeerConnectionPool#request(InetSocketAddress, Object)}
+ * and {@link PeerConnectionPool#send(InetSocketAddress, Object)}, and given back
+ * when the exchange is over, so that concurrent exchanges with the same peer use
+ * different connections. Only channels to peers negotiating a
+ * {@link WireProtocol#PERSISTENT_VERSION} protocol are kept, the others are
+ * closed after their exchange.<br>
+ * <br>
+ * Idle channels are closed after {@link PeerConnectionPool#getIdleMillisecondsTimeout()}
+ * (see {@link PeerConnectionPool#evictIdle()}) and checked before being reused; an exchange
+ * failing on a reused channel before anything was written is repeated once on a new
+ * connection (messages possibly received are never sent twice). After a failed
+ * connection a peer is not contacted again for a delay doubling (up to
+ * {@link PeerConnectionPool#MAX_BACKOFF_MILLISECONDS}) at every further failure.<br>
+ * <br>
+ * {@link PeerConnectionPool#send(InetSocketAddress, Object, int)} bounds the whole
+ * exchange (connection included): a channel still in use when the deadline expires
+ * is closed, so that a peer which does not read cannot block the sender.
+ * 
+ * @author vic
+ *
+ */
+public class PeerConnectionPool implements Closeable {
+	
+	public static final int DEFAULT_MAX_IDLE_PER_PEER = 2;
+	
+	public static final long DEFAULT_IDLE_MILLISECONDS_TIMEOUT = WireProtocol.PERSISTENT_IDLE_MILLISECONDS_TIMEOUT / 2;
+	
+	public static final long MIN_BACKOFF_MILLISECONDS = 1000;
+	
+	public static final long MAX_BACKOFF_MILLISECONDS = 60 * 1000;
+	
+	/**
+	 * Idle channels unused for less than this are reused without checking them.
+	 */
+	private static final long CHECK_AFTER_MILLISECONDS = 1000;
+	
+	private final int maxIdlePerPeer;
+	private final long idleMillisecondsTimeout;
+	private final ConcurrentHashMap<InetSocketAddress, Peer> peers;
+	private ScheduledThreadPoolExecutor watchdog;
+	private volatile boolean closed;
+	
+	private static class IdleChannel {
+		private final MessageChannel channel;
+		private final long since;
+		
+		private IdleChannel(MessageChannel channel) {
+			this.channel = channel;
+			since = System.currentTimeMillis();
+		}
+	}
+	
+	private static class Peer {
+		private final ArrayDeque<IdleChannel> idle = new ArrayDeque<IdleChannel>();
+		private int failures;
+		private long nextAttempt;
+	}
+	
+	/**
+	 * Closes the channel of an exchange still running when its deadline expires.
+	 */
+	private static class Deadline implements Runnable {
+		private final long expiresAt;
+		private MessageChannel channel;
+		private boolean expired;
+		
+		private Deadline(long milliseconds) {
+			expiresAt = System.currentTimeMillis() + milliseconds;
+		}
+		
+		private synchronized void watch(MessageChannel channel) {
+			this.channel = channel;
+			if(expired){
+				closeQuietly(channel);
+			}
+		}
+		
+		/**
+		 * @return <tt>false</tt> if the deadline expired (and the watched channel has been closed)
+		 */
+		private synchronized boolean unwatch() {
+			channel = null;
+			return !expired;
+		}
+		
+		private synchronized boolean isExpired() {
+			return expired;
+		}
+		
+		private int remaining() throws SocketTimeoutException {
+			long remaining = expiresAt - System.currentTimeMillis();
+			if(remaining <= 0){
+				throw new SocketTimeoutException("Deadline expired.");
+			}
+			return (int) remaining;
+		}
+
+		@Override
+		public synchronized void run() {
+			expired = true;
+			closeQuietly(channel);
+		}
+	}
+	
+	public PeerConnectionPool() {
+		this(DEFAULT_MAX_IDLE_PER_PEER, DEFAULT_IDLE_MILLISECONDS_TIMEOUT);
+	}
+	
+	/**
+	 * @param maxIdlePerPeer how many idle channels are kept for each peer
+	 * @param idleMillisecondsTimeout after how long an idle channel is closed
+	 */
+	public PeerConnectionPool(int maxIdlePerPeer, long idleMillisecondsTimeout) {
+		this.maxIdlePerPeer = maxIdlePerPeer;
+		this.idleMillisecondsTimeout = idleMillisecondsTimeout;
+		peers = new ConcurrentHashMap<InetSocketAddress, Peer>();
+		closed = false;
+	}
+	
+	/**
+	 * Send <tt>message</tt> to <tt>address</tt> and wait for its reply.
+	 * 
+	 * @param address the address of the other node
+	 * @param message the request
+	 * @return the message replied
+	 * @throws IOException if the exchange cannot be completed
+	 * @throws ClassNotFoundException if the reply is of an unknown class
+	 */
+	public Object request(InetSocketAddress address, Object message) throws IOException, ClassNotFoundException {
+		return exchange(address, message, true, null);
+	}
+	
+	/**
+	 * Send <tt>message</tt> to <tt>address</tt> without waiting for a reply.
+	 * 
+	 * @param address the address of the other node
+	 * @param message the message
+	 * @throws IOException if the message cannot be sent
+	 */
+	public void send(InetSocketAddress address, Object message) throws IOException {
+		try {
+			exchange(address, message, false, null);
+		} catch (ClassNotFoundException e) {
+			// nothing is read.
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Send <tt>message</tt> to <tt>address</tt> without waiting for a reply,
+	 * giving up if it cannot be connected and written within <tt>deadlineMilliseconds</tt>.
+	 * 
+	 * @param address the address of the other node
+	 * @param message the message
+	 * @param deadlineMilliseconds how long the whole send may take
+	 * @throws SocketTimeoutException if the deadline expires
+	 * @throws IOException if the message cannot be sent
+	 */
+	public void send(InetSocketAddress address, Object message, int deadlineMilliseconds) throws IOException {
+		if(closed){
+			throw new IOException("Connection pool closed.");
+		}
+		Deadline deadline = new Deadline(deadlineMilliseconds);
+		ScheduledFuture<?> timer;
+		try {
+			timer = getWatchdog().schedule(deadline, deadlineMilliseconds, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// closed meanwhile.
+			throw new IOException("Connection pool closed.", e);
+		}
+		try {
+			exchange(address, message, false, deadline);
+		} catch (ClassNotFoundException e) {
+			// nothing is read.
+			throw new IOException(e);
+		} finally {
+			timer.cancel(false);
+		}
+	}
+	
+	private Object exchange(InetSocketAddress address, Object message, boolean waitReply, Deadline deadline) throws IOException, ClassNotFoundException {
+		MessageChannel channel = takeIdle(address);
+		if(channel != null){
+			if(deadline != null){
+				deadline.watch(channel);
+			}
+			long written = channel.getWrittenBytes();
+			try {
+				Object reply = exchangeOn(channel, message, waitReply);
+				release(address, channel, deadline);
+				return reply;
+			} catch (SocketTimeoutException | ClassNotFoundException e) {
+				closeQuietly(channel);
+				throw e;
+			} catch (IOException e) {
+				closeQuietly(channel);
+				checkDeadline(address, deadline, e);
+				if(channel.getWrittenBytes() != written){
+					// the other side may have received (and acted on) the message: it is not sent twice.
+					throw e;
+				}
+				// the other side may have dropped the connection meanwhile: try once on a new one.
+				Log.getLogger().verboseDebug("Pooled connection to "+address+" failed ("+e.getMessage()+"). Reconnecting.");
+			}
+		}
+		channel = open(address, deadline);
+		try {
+			Object reply = exchangeOn(channel, message, waitReply);
+			release(address, channel, deadline);
+			return reply;
+		} catch (IOException e) {
+			closeQuietly(channel);
+			checkDeadline(address, deadline, e);
+			throw e;
+		} catch (ClassNotFoundException e) {
+			closeQuietly(channel);
+			throw e;
+		}
+	}
+	
+	private static void checkDeadline(InetSocketAddress address, Deadline deadline, IOException cause) throws SocketTimeoutException {
+		if(deadline != null && deadline.isExpired()){
+			SocketTimeoutException expired = new SocketTimeoutException("Deadline expired sending to "+address+".");
+			expired.initCause(cause);
+			throw expired;
+		}
+	}
+	
+	private synchronized ScheduledThreadPoolExecutor getWatchdog() throws IOException {
+		if(closed){
+			throw new IOException("Connection pool closed.");
+		}
+		if(watchdog == null){
+			watchdog = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PeerConnectionPool watchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			watchdog.setRemoveOnCancelPolicy(true);
+		}
+		return watchdog;
+	}
+	
+	private static Object exchangeOn(MessageChannel channel, Object message, boolean waitReply) throws IOException, ClassNotFoundException {
+		channel.writeMessage(message);
+		if(waitReply){
+			return channel.readMessage();
+		}
+		return null;
+	}
+	
+	private MessageChannel takeIdle(InetSocketAddress address) {
+		Peer peer = peers.get(address);
+		if(peer == null){
+			return null;
+		}
+		while(true){
+			IdleChannel idle;
+			synchronized (peer) {
+				idle = peer.idle.pollLast();
+			}
+			if(idle == null){
+				return null;
+			}
+			long idleFor = System.currentTimeMillis() - idle.since;
+			if(idleFor < idleMillisecondsTimeout && (idleFor < CHECK_AFTER_MILLISECONDS || idle.channel.isAlive())){
+				return idle.channel;
+			}
+			closeQuietly(idle.channel);
+		}
+	}
+	
+	private MessageChannel open(InetSocketAddress address, Deadline deadline) throws IOException {
+		if(closed){
+			throw new IOException("Connection pool closed.");
+		}
+		Peer peer = getPeer(address);
+		synchronized (peer) {
+			if(System.currentTimeMillis() < peer.nextAttempt){
+				throw new ConnectException("Backing off from "+address+" after "+peer.failures+" failed connections.");
+			}
+		}
+		int timeout = deadline == null ? 0 : deadline.remaining();
+		MessageChannel channel = null;
+		try {
+			if(deadline == null){
+				channel = MessageChannel.connect(address);
+			} else {
+				channel = MessageChannel.connect(address, timeout);
+				deadline.watch(channel);
+			}
+			channel.awaitAcknowledgment();
+		} catch (IOException e) {
+			closeQuietly(channel);
+			synchronized (peer) {
+				peer.failures++;
+				long backoff = MIN_BACKOFF_MILLISECONDS << Math.min(peer.failures - 1, 16);
+				peer.nextAttempt = System.currentTimeMillis() + Math.min(backoff, MAX_BACKOFF_MILLISECONDS);
+			}
+			throw e;
+		}
+		synchronized (peer) {
+			peer.failures = 0;
+			peer.nextAttempt = 0;
+		}
+		return channel;
+	}
+	
+	private Peer getPeer(InetSocketAddress address) {
+		Peer peer = peers.get(address);
+		if(peer == null){
+			Peer newPeer = new Peer();
+			peer = peers.putIfAbsent(address, newPeer);
+			if(peer == null){
+				peer = newPeer;
+			}
+		}
+		return peer;
+	}
+	
+	private void release(InetSocketAddress address, MessageChannel channel, Deadline deadline) {
+		if(closed || !channel.isPersistent() || (deadline != null && !deadline.unwatch())){
+			closeQuietly(channel);
+			return;
+		}
+		Peer peer = getPeer(address);
+		synchronized (peer) {
+			if(peer.idle.size() < maxIdlePerPeer){
+				peer.idle.addLast(new IdleChannel(channel));
+				return;
+			}
+		}
+		closeQuietly(channel);
+	}
+	
+	/**
+	 * Close the channels idle for longer than {@link PeerConnectionPool#getIdleMillisecondsTimeout()}
+	 * and forget the peers with neither channels nor failures. Meant to be called periodically.
+	 */
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+		ArrayList<MessageChannel> expired = new ArrayList<MessageChannel>();
+		for(Iterator<Entry<InetSocketAddress, Peer>> iterator = peers.entrySet().iterator(); iterator.hasNext();){
+			Peer peer = iterator.next().getValue();
+			synchronized (peer) {
+				while(!peer.idle.isEmpty() && now - peer.idle.peekFirst().since >= idleMillisecondsTimeout){
+					expired.add(peer.idle.pollFirst().channel);
+				}
+				if(peer.idle.isEmpty() && peer.failures == 0){
+					iterator.remove();
+				}
+			}
+		}
+		for(MessageChannel channel : expired){
+			closeQuietly(channel);
+		}
+	}
+	
+	/**
+	 * Close the idle channels to <tt>address</tt> and forget its failures.
+	 * 
+	 * @param address the address of a node
+	 */
+	public void forget(InetSocketAddress address) {
+		Peer peer = peers.remove(address);
+		if(peer == null){
+			return;
+		}
+		synchronized (peer) {
+			for(IdleChannel idle : peer.idle){
+				closeQuietly(idle.channel);
+			}
+			peer.idle.clear();
+		}
+	}
+	
+	/**
+	 * @return the number of idle channels currently kept
+	 */
+	public int getIdleConnections() {
+		int count = 0;
+		for(Peer peer : peers.values()){
+			synchronized (peer) {
+				count += peer.idle.size();
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * @return after how long an idle channel is closed
+	 */
+	public long getIdleMillisecondsTimeout() {
+		return idleMillisecondsTimeout;
+	}
+	
+	/**
+	 * Close all the idle channels. Channels in use are closed when given back.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		synchronized (this) {
+			if(watchdog != null){
+				watchdog.shutdownNow();
+			}
+		}
+		for(InetSocketAddress address : new ArrayList<InetSocketAddress>(peers.keySet())){
+			forget(address);
+		}
+	}
+	
+	private static void closeQuietly(MessageChannel channel) {
+		if(channel != null){
+			try {
+				channel.close();
+			} catch (IOException e) {
+				Log.getLogger().verboseDebug("Exception closing a pooled connection: "+e.getMessage());
+			}
+		}
+	}
+
+}
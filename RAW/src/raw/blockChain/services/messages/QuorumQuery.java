@@ -0,0 +1,209 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import raw.logger.Log;
+
+/**
+ * Sends the same request to many nodes at once and collects their replies,
+ * returning as soon as a quorum of them agrees (i.e. as many replies
+ * are {@link Object#equals(Object)}) instead of waiting for every node.
+ * Every request runs on its own task of the given {@link ExecutorService}
+ * and the whole query is bounded by a deadline: when the quorum is reached
+ * (or the deadline expires) the connections to the nodes which have not
+ * replied yet are closed, so that their tasks end right away.<br>
+ * <br>
+ * The latency of a query is thus the one of the <i>quorum-th</i> fastest node,
+ * not the sum of the latencies of all the nodes.
+ * 
+ * @author vic
+ *
+ */
+public class QuorumQuery {
+	
+	public static final int DEFAULT_DEADLINE_MILLISECONDS = 10 * 1000;
+	
+	/**
+	 * Extracts an answer from the reply of a node.
+	 * 
+	 * @author vic
+	 *
+	 * @param <T> the type of the answers
+	 */
+	public interface ReplyParser<T> {
+		
+		/**
+		 * @param reply the message received from a node
+		 * @return the answer in <tt>reply</tt> or <tt>null</tt> if it carries none
+		 */
+		public T parse(Object reply);
+		
+	}
+	
+	private final ExecutorService workers;
+	private final int deadlineMilliseconds;
+	
+	/**
+	 * @param workers the executor running the requests
+	 */
+	public QuorumQuery(ExecutorService workers) {
+		this(workers, DEFAULT_DEADLINE_MILLISECONDS);
+	}
+	
+	/**
+	 * @param workers the executor running the requests
+	 * @param deadlineMilliseconds how long a query may take
+	 */
+	public QuorumQuery(ExecutorService workers, int deadlineMilliseconds) {
+		this.workers = workers;
+		this.deadlineMilliseconds = deadlineMilliseconds;
+	}
+	
+	/**
+	 * The majority of <tt>nodes</tt> nodes.
+	 * 
+	 * @param nodes the number of nodes asked
+	 * @return the number of agreeing answers needed for a quorum
+	 */
+	public static int majority(int nodes){
+		return (nodes / 2) + 1;
+	}
+	
+	/**
+	 * Send <tt>request</tt> to every node in <tt>addresses</tt> and collect the answers until
+	 * <tt>quorum</tt> of them are equal, every node replied or the deadline expired.
+	 * 
+	 * @param addresses the nodes to be asked
+	 * @param request the request message
+	 * @param parser extracts the answers from the replies
+	 * @param quorum the number of equal answers after which the query ends
+	 * @param <T> the type of the answers
+	 * @return the (non <tt>null</tt>) answers received, in arrival order
+	 */
+	public <T> ArrayList<T> ask(Collection<InetSocketAddress> addresses, final Object request, final ReplyParser<T> parser, int quorum) {
+		final Log log = Log.getLogger();
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final Set<MessageChannel> openChannels = ConcurrentHashMap.newKeySet();
+		CompletionService<T> completion = new ExecutorCompletionService<T>(workers);
+		ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+		
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMilliseconds);
+		for(final InetSocketAddress address : addresses){
+			Callable<T> asker = new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					try (MessageChannel channel = MessageChannel.connect(address, deadlineMilliseconds)){
+						openChannels.add(channel);
+						try {
+							if(done.get()){
+								return null;
+							}
+							channel.writeMessage(request);
+							return parser.parse(channel.readMessage());
+						} finally {
+							openChannels.remove(channel);
+						}
+					} catch (IOException e) {
+						if(!done.get()){
+							log.verboseDebug("Request "+request.getClass().getSimpleName()+" to "+address+" failed: "+e.getMessage());
+						}
+						return null;
+					}
+				}
+			};
+			try {
+				futures.add(completion.submit(asker));
+			} catch (RejectedExecutionException e) {
+				log.debug("Cannot dispatch the request to "+address+": "+e.getMessage());
+			}
+		}
+		
+		ArrayList<T> answers = new ArrayList<T>();
+		HashMap<T, Integer> counts = new HashMap<T, Integer>();
+		try {
+			for(int pending = futures.size(); pending > 0; pending--){
+				long remaining = deadline - System.nanoTime();
+				Future<T> replied = remaining > 0 ? completion.poll(remaining, TimeUnit.NANOSECONDS) : null;
+				if(replied == null){
+					log.verboseDebug("Deadline expired with "+pending+" requests pending.");
+					break;
+				}
+				T answer;
+				try {
+					answer = replied.get();
+				} catch (ExecutionException e) {
+					log.exception(e);
+					continue;
+				}
+				if(answer == null){
+					continue;
+				}
+				answers.add(answer);
+				Integer count = counts.get(answer);
+				count = count == null ? 1 : count + 1;
+				counts.put(answer, count);
+				if(count >= quorum){
+					log.verboseDebug("Quorum of "+quorum+" reached with "+(pending - 1)+" requests pending.");
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			log.exception(e);
+			Thread.currentThread().interrupt();
+		} finally {
+			done.set(true);
+			for(Future<T> future : futures){
+				future.cancel(true);
+			}
+			for(MessageChannel channel : openChannels){
+				try {
+					channel.abort();
+				} catch (IOException e) {
+					log.verboseDebug("Troubles closing a straggling request: "+e.getMessage());
+				}
+			}
+		}
+		return answers;
+	}
+	
+	/**
+	 * @return how long a query may take
+	 */
+	public int getDeadlineMilliseconds() {
+		return deadlineMilliseconds;
+	}
+
+}
@@ -0,0 +1,444 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import raw.blockChain.api.BlockChainConstants;
+import raw.concurrent.RAWExecutors;
+import raw.logger.Log;
+
+/**
+ * Serves the connections accepted by a {@link ServerSocketChannel} without
+ * a thread per connection.<br>
+ * <br>
+ * A few I/O threads, each with its own {@link Selector}, accept connections,
+ * answer the {@link WireProtocol} preamble and read frames without blocking; once
+ * a whole frame is received it is decoded on the I/O thread and the connection is
+ * handed, with the decoded message, to a worker of a (bounded) {@link ExecutorService}
+ * where a {@link MessageHandler} serves it through a blocking {@link MessageChannel}
+ * (thus handlers written for blocking connections, even streaming several messages,
+ * work unchanged). When the handler is done a persistent connection goes back to its
+ * I/O thread, waiting for the next message; the others are closed.<br>
+ * <br>
+ * Connections not speaking {@link WireProtocol} (Java serialization streams
+ * have no length prefix) are handed to a worker right away. Connections are closed
+ * if idle for longer than {@link BlockChainConstants#SOCKETS_MILLISECONDS_TIMEOUT}
+ * before their first message or than {@link WireProtocol#PERSISTENT_IDLE_MILLISECONDS_TIMEOUT}
+ * afterwards, and when the workers queue is full.
+ * 
+ * @author vic
+ *
+ */
+public class SelectorListener implements Callable<Void>, Closeable {
+	
+	/**
+	 * Serves the messages received by a {@link SelectorListener}.
+	 * 
+	 * @author vic
+	 *
+	 */
+	public interface MessageHandler {
+		
+		/**
+		 * Serve a message, on a worker thread.
+		 * 
+		 * @param message the received message
+		 * @param channel the connection the message was received from, in blocking mode
+		 * @return <tt>false</tt> if the connection must be closed
+		 */
+		public boolean serve(Object message, MessageChannel channel);
+		
+	}
+	
+	private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+	
+	private static final long IDLE_CHECK_MILLISECONDS = 1000;
+	
+	private final ServerSocketChannel server;
+	private final MessageHandler handler;
+	private final ExecutorService workers;
+	private final IOLoop[] loops;
+	private final AtomicInteger openConnections;
+	private ExecutorService ioPool;
+	private volatile boolean running;
+	private int nextLoop;
+	
+	private Log log;
+	
+	/**
+	 * @param server a bound {@link ServerSocketChannel}
+	 * @param handler the {@link MessageHandler} serving the received messages
+	 * @param ioThreads the number of I/O threads
+	 * @param workers the {@link ExecutorService} running <tt>handler</tt>
+	 * @throws IOException if the selectors cannot be opened
+	 */
+	public SelectorListener(ServerSocketChannel server, MessageHandler handler, int ioThreads, ExecutorService workers) throws IOException {
+		this.server = server;
+		this.handler = handler;
+		this.workers = workers;
+		loops = new IOLoop[Math.max(1, ioThreads)];
+		for(int i = 0; i < loops.length; i++){
+			loops[i] = new IOLoop();
+		}
+		openConnections = new AtomicInteger();
+		running = true;
+		nextLoop = 0;
+		log = Log.getLogger();
+	}
+	
+	/**
+	 * Serve the incoming connections until {@link SelectorListener#close()} is called.
+	 * The first I/O thread (the one accepting connections) is the calling one.
+	 */
+	@Override
+	public Void call() throws Exception {
+		server.configureBlocking(false);
+		server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		ioPool = RAWExecutors.newCachedThreadPool();
+		for(int i = 1; i < loops.length; i++){
+			ioPool.submit(loops[i]);
+		}
+		try {
+			loops[0].call();
+		} finally {
+			ioPool.shutdown();
+		}
+		return null;
+	}
+	
+	/**
+	 * @return the number of connections currently open
+	 */
+	public int getOpenConnections() {
+		return openConnections.get();
+	}
+	
+	/**
+	 * Stop accepting and close all the connections waiting for a message.
+	 * Connections being served are closed when their handler returns.
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		for(IOLoop loop : loops){
+			loop.selector.wakeup();
+		}
+		server.close();
+	}
+	
+	private class Connection {
+		private final SocketChannel socketChannel;
+		private final IOLoop loop;
+		private ByteBuffer buffer;
+		private boolean negotiated;
+		private byte version;
+		private boolean served;
+		private long lastActivity;
+		
+		private Connection(SocketChannel socketChannel, IOLoop loop) {
+			this.socketChannel = socketChannel;
+			this.loop = loop;
+			buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+			negotiated = false;
+			served = false;
+			lastActivity = System.currentTimeMillis();
+		}
+		
+		private void close() {
+			try {
+				socketChannel.close();
+			} catch (IOException e) {
+				log.verboseDebug("Exception closing a connection: "+e.getMessage());
+			}
+			openConnections.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * A connection to be served by a worker, with the message decoded (if framed)
+	 * and the bytes received after it.
+	 */
+	private class Handoff implements Runnable {
+		private final Connection connection;
+		private final Object message;
+		private final byte[] received;
+		
+		private Handoff(Connection connection, Object message, byte[] received) {
+			this.connection = connection;
+			this.message = message;
+			this.received = received;
+		}
+		
+		@Override
+		public void run() {
+			MessageChannel channel = null;
+			try {
+				connection.socketChannel.configureBlocking(true);
+				Socket sock = connection.socketChannel.socket();
+				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
+				channel = MessageChannel.adopt(sock, connection.negotiated, connection.version, received);
+				Object toServe = connection.negotiated ? message : channel.readMessage();
+				if(!handler.serve(toServe, channel) || !channel.isPersistent() || !running){
+					channel.close();
+					openConnections.decrementAndGet();
+					return;
+				}
+				byte[] unread = channel.drainBuffered();
+				connection.socketChannel.configureBlocking(false);
+				connection.buffer = ByteBuffer.allocate(Math.max(INITIAL_BUFFER_SIZE, unread.length));
+				connection.buffer.put(unread);
+				connection.served = true;
+				connection.lastActivity = System.currentTimeMillis();
+				connection.loop.enqueue(connection);
+			} catch (Exception e) {
+				log.verboseDebug("Connection "+connection.socketChannel+" dropped: "+e);
+				connection.close();
+			}
+		}
+	}
+	
+	private class IOLoop implements Callable<Void> {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<Connection> pending;
+		private final ArrayList<Handoff> handoffs;
+		private long lastIdleCheck;
+		
+		private IOLoop() throws IOException {
+			selector = Selector.open();
+			pending = new ConcurrentLinkedQueue<Connection>();
+			handoffs = new ArrayList<Handoff>();
+			lastIdleCheck = System.currentTimeMillis();
+		}
+		
+		private void enqueue(Connection connection) {
+			pending.add(connection);
+			selector.wakeup();
+		}
+
+		@Override
+		public Void call() throws Exception {
+			try {
+				while(running){
+					selector.select(IDLE_CHECK_MILLISECONDS);
+					Connection connection;
+					while((connection = pending.poll()) != null){
+						register(connection);
+					}
+					Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+					while(selected.hasNext()){
+						SelectionKey key = selected.next();
+						selected.remove();
+						if(!key.isValid()){
+							continue;
+						}
+						if(key.isAcceptable()){
+							accept();
+						} else if(key.isReadable()){
+							read((Connection) key.attachment(), key);
+						}
+					}
+					dispatch();
+					long now = System.currentTimeMillis();
+					if(now - lastIdleCheck >= IDLE_CHECK_MILLISECONDS){
+						closeIdle(now);
+						lastIdleCheck = now;
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				log.verboseDebug("Selector closed.");
+			} finally {
+				for(SelectionKey key : selector.keys()){
+					if(key.attachment() instanceof Connection){
+						((Connection) key.attachment()).close();
+					}
+				}
+				selector.close();
+				Connection connection;
+				while((connection = pending.poll()) != null){
+					connection.close();
+				}
+			}
+			return null;
+		}
+		
+		private void accept() {
+			while(true){
+				SocketChannel accepted;
+				try {
+					accepted = server.accept();
+					if(accepted == null){
+						return;
+					}
+					accepted.configureBlocking(false);
+				} catch (IOException e) {
+					log.verboseDebug("Cannot accept a connection: "+e.getMessage());
+					return;
+				}
+				openConnections.incrementAndGet();
+				IOLoop loop = loops[nextLoop];
+				nextLoop = (nextLoop + 1) % loops.length;
+				Connection connection = new Connection(accepted, loop);
+				if(loop == this){
+					register(connection);
+				} else {
+					loop.enqueue(connection);
+				}
+			}
+		}
+		
+		private void register(Connection connection) {
+			try {
+				SelectionKey key = connection.socketChannel.register(selector, SelectionKey.OP_READ, connection);
+				if(connection.buffer.position() > 0){
+					// a message (or part of it) was received while the connection was being served.
+					decode(connection, key);
+				}
+			} catch (IOException | RuntimeException e) {
+				// a malformed message only costs its own connection, never the loop.
+				log.verboseDebug("Cannot register a connection: "+e);
+				connection.close();
+			}
+		}
+		
+		private void read(Connection connection, SelectionKey key) {
+			try {
+				if(connection.socketChannel.read(connection.buffer) < 0){
+					key.cancel();
+					connection.close();
+					return;
+				}
+				connection.lastActivity = System.currentTimeMillis();
+				decode(connection, key);
+			} catch (IOException | RuntimeException e) {
+				// a malformed message only costs its own connection, never the loop.
+				log.verboseDebug("Connection "+connection.socketChannel+" dropped: "+e);
+				key.cancel();
+				connection.close();
+			}
+		}
+		
+		private void decode(Connection connection, SelectionKey key) throws IOException {
+			ByteBuffer buffer = connection.buffer;
+			if(!connection.negotiated){
+				if(buffer.position() < 4){
+					return;
+				}
+				if(buffer.getInt(0) != WireProtocol.MAGIC){
+					// not framed: a worker reads it as a serialization stream.
+					handOff(connection, key, null, 0);
+					return;
+				}
+				if(buffer.position() < 5){
+					return;
+				}
+				connection.version = (byte) Math.min(buffer.get(4), WireProtocol.VERSION);
+				ByteBuffer acknowledgment = ByteBuffer.allocate(5);
+				acknowledgment.putInt(WireProtocol.MAGIC).put(connection.version).flip();
+				connection.socketChannel.write(acknowledgment);
+				if(acknowledgment.hasRemaining()){
+					throw new IOException("Cannot send the wire protocol acknowledgment.");
+				}
+				connection.negotiated = true;
+				buffer.flip();
+				buffer.position(5);
+				buffer.compact();
+			}
+			if(buffer.position() < 4){
+				return;
+			}
+			int length = buffer.getInt(0);
+			if(length < 0 || length > WireProtocol.MAX_FRAME_LENGTH){
+				throw new IOException("Invalid frame length: "+length);
+			}
+			int frameLength = length + 6;
+			if(buffer.position() < frameLength){
+				if(!buffer.hasRemaining()){
+					// grow with the bytes actually received, not with the declared length.
+					ByteBuffer bigger = ByteBuffer.allocate((int) Math.min(2L * buffer.capacity(), frameLength));
+					buffer.flip();
+					bigger.put(buffer);
+					connection.buffer = bigger;
+				}
+				return;
+			}
+			Object message = WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(buffer.array(), 0, frameLength)));
+			handOff(connection, key, message, frameLength);
+		}
+		
+		private void handOff(Connection connection, SelectionKey key, Object message, int consumed) {
+			ByteBuffer buffer = connection.buffer;
+			byte[] received = new byte[buffer.position() - consumed];
+			System.arraycopy(buffer.array(), consumed, received, 0, received.length);
+			connection.buffer = null;
+			// the channel can be switched to blocking mode once deregistered (see dispatch()).
+			key.cancel();
+			handoffs.add(new Handoff(connection, message, received));
+		}
+		
+		private void dispatch() throws IOException {
+			if(handoffs.isEmpty()){
+				return;
+			}
+			// flush the cancelled keys.
+			selector.selectNow();
+			for(Handoff handoff : handoffs){
+				try {
+					workers.execute(handoff);
+				} catch (RejectedExecutionException e) {
+					log.debug("Too many messages waiting to be served. Closing connection.");
+					handoff.connection.close();
+				}
+			}
+			handoffs.clear();
+		}
+		
+		private void closeIdle(long now) {
+			for(SelectionKey key : selector.keys()){
+				if(!(key.attachment() instanceof Connection)){
+					continue;
+				}
+				Connection connection = (Connection) key.attachment();
+				long timeout = connection.served ? WireProtocol.PERSISTENT_IDLE_MILLISECONDS_TIMEOUT : BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT;
+				if(key.isValid() && now - connection.lastActivity > timeout){
+					key.cancel();
+					connection.close();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockHeader;
+import raw.blockChain.api.implementations.DefaultHashValue;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.TransactionCodec;
+import raw.blockChain.exceptions.IllegalBlockHeaderBytesRepresentation;
+import raw.blockChain.exceptions.IncompleteBuilderSettingsException;
+
+/**
+ * Encoding of the fields shared by many messages, used by
+ * the {@link MessageCodec}s. Every method accepts (and gives back)
+ * <tt>null</tt> values.
+ * 
+ * @author vic
+ *
+ */
+public class WireEncoding {
+	
+	private static final byte NULL = 0;
+	private static final byte BINARY = 1;
+	private static final byte SERIALIZED = 2;
+	
+	private WireEncoding() {
+	}
+	
+	public static void writeBytes(byte[] bytes, DataOutputStream out) throws IOException {
+		if(bytes == null){
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	public static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0){
+			return null;
+		}
+		if(length > WireProtocol.MAX_FRAME_LENGTH){
+			throw new IOException("Field length "+length+" exceeds the maximum frame length.");
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+	
+	public static void writeString(String string, DataOutputStream out) throws IOException {
+		out.writeBoolean(string != null);
+		if(string != null){
+			out.writeUTF(string);
+		}
+	}
+	
+	public static String readString(DataInputStream in) throws IOException {
+		if(!in.readBoolean()){
+			return null;
+		}
+		return in.readUTF();
+	}
+	
+	public static void writeHashValue(HashValue hash, DataOutputStream out) throws IOException {
+		writeBytes(hash == null ? null : hash.toByteArray(), out);
+	}
+	
+	public static HashValue readHashValue(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new DefaultHashValue(bytes);
+	}
+	
+	public static void writeAddress(InetSocketAddress address, DataOutputStream out) throws IOException {
+		if(address == null){
+			out.writeByte(NULL);
+		} else if(address.isUnresolved()){
+			out.writeByte(SERIALIZED);
+			out.writeUTF(address.getHostString());
+			out.writeShort(address.getPort());
+		} else {
+			out.writeByte(BINARY);
+			byte[] ip = address.getAddress().getAddress();
+			out.writeByte(ip.length);
+			out.write(ip);
+			out.writeShort(address.getPort());
+		}
+	}
+	
+	public static InetSocketAddress readAddress(DataInputStream in) throws IOException {
+		byte kind = in.readByte();
+		switch (kind) {
+		case NULL:
+			return null;
+		case SERIALIZED:
+			String host = in.readUTF();
+			return InetSocketAddress.createUnresolved(host, in.readUnsignedShort());
+		case BINARY:
+			byte[] ip = new byte[in.readUnsignedByte()];
+			in.readFully(ip);
+			return new InetSocketAddress(InetAddress.getByAddress(ip), in.readUnsignedShort());
+		default:
+			throw new IOException("Unknown address encoding: "+kind);
+		}
+	}
+	
+	public static void writeBlockHeader(BlockHeader header, DataOutputStream out) throws IOException {
+		writeBytes(header == null ? null : header.getBytes(), out);
+	}
+	
+	public static BlockHeader readBlockHeader(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		if(bytes == null){
+			return null;
+		}
+		try {
+			return new DefaultBlockHeader.Builder(bytes).build();
+		} catch (IncompleteBuilderSettingsException | ClassNotFoundException | IllegalBlockHeaderBytesRepresentation e) {
+			throw new IOException("Invalid block header encoding.", e);
+		}
+	}
+	
+	/**
+	 * Transactions of version {@link DefaultTransaction#BINARY_ENCODING_VERSION}
+	 * or greater are written by means of {@link TransactionCodec}, older ones
+	 * are serialized.
+	 */
+	public static void writeTransaction(Transaction transaction, DataOutputStream out) throws IOException {
+		if(transaction == null){
+			out.writeByte(NULL);
+		} else if(transaction.getVersion() >= DefaultTransaction.BINARY_ENCODING_VERSION){
+			out.writeByte(BINARY);
+			writeBytes(TransactionCodec.encode(transaction), out);
+		} else {
+			out.writeByte(SERIALIZED);
+			writeSerialized(transaction, out);
+		}
+	}
+	
+	public static Transaction readTransaction(DataInputStream in) throws IOException {
+		byte kind = in.readByte();
+		switch (kind) {
+		case NULL:
+			return null;
+		case BINARY:
+			byte[] bytes = readBytes(in);
+			if(bytes == null){
+				throw new IOException("Missing bytes of a binary encoded transaction.");
+			}
+			return TransactionCodec.decode(bytes);
+		case SERIALIZED:
+			return readSerialized(in, Transaction.class);
+		default:
+			throw new IOException("Unknown transaction encoding: "+kind);
+		}
+	}
+	
+	public static void writeBlock(Block block, DataOutputStream out) throws IOException {
+		out.writeBoolean(block != null);
+		if(block == null){
+			return;
+		}
+		writeBlockHeader(block.getHeader(), out);
+		ArrayList<Transaction> transactions = block.getTransactions();
+		out.writeInt(transactions.size());
+		for(Transaction transaction : transactions){
+			writeTransaction(transaction, out);
+		}
+	}
+	
+	public static Block readBlock(DataInputStream in) throws IOException {
+		if(!in.readBoolean()){
+			return null;
+		}
+		BlockHeader header = readBlockHeader(in);
+		if(header == null){
+			throw new IOException("Block without header.");
+		}
+		int size = in.readInt();
+		if(size < 0){
+			throw new IOException("Negative number of transactions: "+size);
+		}
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>(Math.min(size, 1024));
+		for(int i = 0; i < size; i++){
+			transactions.add(readTransaction(in));
+		}
+		return new DefaultBlock(header, transactions);
+	}
+	
+	/**
+	 * Fallback for fields without an explicit encoding: <tt>object</tt>
+	 * is written by means of Java serialization.
+	 */
+	public static void writeSerialized(Object object, DataOutputStream out) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(baos)){
+			oos.writeObject(object);
+		}
+		writeBytes(baos.toByteArray(), out);
+	}
+	
+	public static <T> T readSerialized(DataInputStream in, Class<T> type) throws IOException {
+		byte[] bytes = readBytes(in);
+		if(bytes == null){
+			return null;
+		}
+		try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))){
+			return type.cast(ois.readObject());
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Invalid serialized field.", e);
+		}
+	}
+
+}
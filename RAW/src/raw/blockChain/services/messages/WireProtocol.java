@@ -0,0 +1,237 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.messages;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import raw.blockChain.services.miner.messages.types.MinerMessageCodecs;
+import raw.blockChain.services.thickNode.messages.types.ThickNodeMessageCodecs;
+
+/**
+ * Versioned, length prefixed binary framing of the messages exchanged
+ * by thick nodes, thin nodes and miners. A frame is laid out (big endian) as:
+ * <pre>
+ * payload length  int    (4 bytes)
+ * type id         short  (2 bytes)
+ * payload         bytes
+ * </pre>
+ * The payload is written by the {@link MessageCodec} registered for
+ * the exact class of the message; messages without a codec are sent
+ * with type id {@link WireProtocol#SERIALIZED_TYPE_ID} and a Java serialized payload.<br>
+ * <br>
+ * Peers agree on the framing once per connection (see {@link MessageChannel}):
+ * the connecting side sends {@link WireProtocol#MAGIC} followed by its
+ * {@link WireProtocol#VERSION}, a peer understanding it answers the same way.
+ * 
+ * @author vic
+ *
+ */
+public class WireProtocol {
+	
+	/**
+	 * "RAWB": cannot be mistaken for the header of a Java serialization stream.
+	 */
+	public static final int MAGIC = 0x52415742;
+	
+	/**
+	 * The version of the framing (and of the codecs) spoken by this node.
+	 */
+	public static final byte VERSION = 4;
+	
+	/**
+	 * From this version on a node understands block range requests
+	 * (every node speaking the framed protocol does).
+	 */
+	public static final byte RANGE_REQUESTS_VERSION = 1;
+	
+	/**
+	 * From this version on a listening node keeps reading messages from a
+	 * connection until the other side closes it (or it stays idle too long),
+	 * instead of closing it after the first exchange.
+	 */
+	public static final byte PERSISTENT_VERSION = 2;
+	
+	/**
+	 * From this version on a node understands compact block announcements
+	 * (header and short transaction ids) in place of whole blocks.
+	 */
+	public static final byte COMPACT_BLOCKS_VERSION = 3;
+	
+	/**
+	 * From this version on a node understands transaction submissions
+	 * carrying more than one transaction.
+	 */
+	public static final byte BATCHED_TRANSACTIONS_VERSION = 4;
+	
+	/**
+	 * How long a listening node waits for the next message on a persistent
+	 * connection before closing it.
+	 */
+	public static final int PERSISTENT_IDLE_MILLISECONDS_TIMEOUT = 2 * 60 * 1000;
+	
+	/**
+	 * Bigger frames are considered corrupted.
+	 */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+	
+	/**
+	 * Frame payloads are read in buffers starting at this size.
+	 */
+	private static final int READ_CHUNK_LENGTH = 64 * 1024;
+	
+	/**
+	 * Type id of the frames whose payload is a Java serialized message.
+	 */
+	public static final int SERIALIZED_TYPE_ID = 0;
+	
+	private static final HashMap<Class<?>, MessageCodec<?>> codecsByClass = new HashMap<Class<?>, MessageCodec<?>>();
+	private static final HashMap<Integer, MessageCodec<?>> codecsById = new HashMap<Integer, MessageCodec<?>>();
+	
+	static {
+		for(MessageCodec<?> codec : ThickNodeMessageCodecs.getCodecs()){
+			register(codec);
+		}
+		for(MessageCodec<?> codec : MinerMessageCodecs.getCodecs()){
+			register(codec);
+		}
+	}
+	
+	private WireProtocol() {
+	}
+	
+	private static void register(MessageCodec<?> codec){
+		if(codec.getTypeId() <= SERIALIZED_TYPE_ID || codec.getTypeId() > Short.MAX_VALUE){
+			throw new IllegalStateException("Illegal type id "+codec.getTypeId()+" for "+codec.getMessageClass());
+		}
+		if(codecsById.containsKey(codec.getTypeId()) || codecsByClass.containsKey(codec.getMessageClass())){
+			throw new IllegalStateException("Duplicated codec for "+codec.getMessageClass()+" (type id "+codec.getTypeId()+")");
+		}
+		codecsById.put(codec.getTypeId(), codec);
+		codecsByClass.put(codec.getMessageClass(), codec);
+	}
+	
+	/**
+	 * @param messageClass a message class
+	 * @return the {@link MessageCodec} for <tt>messageClass</tt> or <tt>null</tt> if it is sent serialized
+	 */
+	public static MessageCodec<?> getCodec(Class<?> messageClass){
+		return codecsByClass.get(messageClass);
+	}
+	
+	/**
+	 * Write <tt>message</tt> as a single frame.
+	 * 
+	 * @param message the message to be sent
+	 * @param out the stream to write to
+	 * @throws IOException if writing fails
+	 */
+	public static void writeFrame(Object message, DataOutputStream out) throws IOException {
+		@SuppressWarnings("unchecked")
+		MessageCodec<Object> codec = (MessageCodec<Object>) codecsByClass.get(message.getClass());
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream payloadOut = new DataOutputStream(payload);
+		int typeId;
+		if(codec != null){
+			typeId = codec.getTypeId();
+			codec.encode(message, payloadOut);
+		} else {
+			typeId = SERIALIZED_TYPE_ID;
+			try (ObjectOutputStream oos = new ObjectOutputStream(payloadOut)){
+				oos.writeObject(message);
+			}
+		}
+		payloadOut.flush();
+		if(payload.size() > MAX_FRAME_LENGTH){
+			throw new IOException("Message too big to be framed: "+payload.size()+" bytes.");
+		}
+		out.writeInt(payload.size());
+		out.writeShort(typeId);
+		payload.writeTo(out);
+	}
+	
+	/**
+	 * Read <tt>length</tt> bytes, growing the buffer as they arrive: a peer declaring
+	 * a big frame and then stalling does not get the whole frame allocated.
+	 */
+	private static byte[] readPayload(DataInputStream in, int length) throws IOException {
+		byte[] payload = new byte[Math.min(length, READ_CHUNK_LENGTH)];
+		int read = 0;
+		while(read < length){
+			if(read == payload.length){
+				payload = Arrays.copyOf(payload, (int) Math.min(2L * payload.length, length));
+			}
+			int chunk = in.read(payload, read, payload.length - read);
+			if(chunk < 0){
+				throw new EOFException("Frame truncated after "+read+" of "+length+" bytes.");
+			}
+			read += chunk;
+		}
+		return payload;
+	}
+	
+	/**
+	 * Read a single frame.
+	 * 
+	 * @param in the stream to read from
+	 * @return the decoded message
+	 * @throws IOException if reading fails or the frame is not valid
+	 */
+	public static Object readFrame(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0 || length > MAX_FRAME_LENGTH){
+			throw new IOException("Invalid frame length: "+length);
+		}
+		int typeId = in.readUnsignedShort();
+		byte[] payload = readPayload(in, length);
+		DataInputStream payloadIn = new DataInputStream(new ByteArrayInputStream(payload));
+		Object message;
+		if(typeId == SERIALIZED_TYPE_ID){
+			try (ObjectInputStream ois = new ObjectInputStream(payloadIn)){
+				message = ois.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unknown serialized message.", e);
+			}
+		} else {
+			MessageCodec<?> codec = codecsById.get(typeId);
+			if(codec == null){
+				throw new IOException("Unknown message type id: "+typeId);
+			}
+			try {
+				message = codec.decode(payloadIn);
+			} catch (RuntimeException e) {
+				// bytes from a peer must never surface as an unchecked exception.
+				throw new IOException("Invalid payload for message type id "+typeId, e);
+			}
+		}
+		if(payloadIn.available() > 0){
+			throw new IOException("Trailing bytes in a frame of type "+typeId);
+		}
+		return message;
+	}
+
+}
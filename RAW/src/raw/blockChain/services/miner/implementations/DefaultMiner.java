@@ -18,15 +18,15 @@
  */
 package raw.blockChain.services.miner.implementations;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
 import java.util.List;
@@ -35,6 +35,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 
 import raw.blockChain.BlockChainCore;
 import raw.blockChain.api.Block;
@@ -44,7 +45,12 @@ import raw.blockChain.api.BlockMiner;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.api.implementations.DefaultBlockMiner;
 import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.MiningMetrics;
+import raw.blockChain.api.implementations.utils.TransactionUtils;
 import raw.blockChain.services.implementations.DefaultBlockChainCore;
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.messages.PeerConnectionPool;
+import raw.blockChain.services.messages.WireProtocol;
 import raw.blockChain.services.miner.Miner;
 import raw.blockChain.services.miner.messages.MinerMessages;
 import raw.blockChain.services.miner.messages.types.MinerAddressNotification;
@@ -76,7 +82,12 @@ public class DefaultMiner implements Miner {
 	
 	private ArrayList<LocalMinerSeriviceListener> localListeners;
 	
-	private ArrayList<Transaction> transactionsPool;
+	/**
+	 * The maximum number of transactions put in a block.
+	 */
+	public static final int MAX_TEMPLATE_TRANSACTIONS = 10000;
+	
+	private Mempool transactionsPool;
 	
 	private boolean running;
 	
@@ -86,15 +97,29 @@ public class DefaultMiner implements Miner {
 	
 	private BlockChainCore core;
 	
+	private PeerConnectionPool connections;
+	
 	private BlockMiner myMiner;
 	private MinerNullSearchMonitor minerNullTransactionMonitor;
 	
+	private final MiningMetrics metrics;
+	private MinerMetricsServer metricsServer;
+	
 	public DefaultMiner() {
 		log = Log.getLogger();
 		
 		localListeners = new ArrayList<LocalMinerSeriviceListener>();
 		
-		transactionsPool = new ArrayList<Transaction>();
+		connections = new PeerConnectionPool();
+		
+		metrics = new MiningMetrics();
+		
+		transactionsPool = new Mempool(new Predicate<Transaction>() {
+			@Override
+			public boolean test(Transaction transaction) {
+				return TransactionUtils.isValid(transaction, DefaultBlockChainCore.getBlockChainCore());
+			}
+		});
 	}
 
 	/* (non-Javadoc)
@@ -135,9 +160,19 @@ public class DefaultMiner implements Miner {
 		}
 		
 		
-		myMiner = new DefaultBlockMiner(core.getThreadPool(), myAddress.toString());
+		myMiner = new DefaultBlockMiner(core.getThreadPool(), myAddress.toString(), metrics);
 		startNewBlockSearch();
 		
+		if(properties.getMinerMetricsPort() > 0){
+			try {
+				metricsServer = new MinerMetricsServer(properties.getMinerMetricsPort(), core.getThreadPool(), metrics);
+				metricsServer.start();
+				log.info("Mining metrics published on port "+metricsServer.getPort()+MinerMetricsServer.CONTEXT);
+			} catch (IOException e) {
+				log.exception(e);
+			}
+		}
+		
 		ServerSocket listeningSocket = null;
 		try {
 			listeningSocket = new ServerSocket(myAddress.getPort());
@@ -200,63 +235,93 @@ public class DefaultMiner implements Miner {
 			closeIfNotNull(sock);
 			return;
 		}
-		ObjectInputStream ois = null;
-		try {
-			ois = new ObjectInputStream(sock.getInputStream());
-		} catch (IOException e) {
-			log.exception(e);
-		}
-		Object obj = null;
+		MessageChannel channel;
 		try {
-			obj = ois.readObject();
-		} catch (ClassNotFoundException e) {
-			log.exception(e);
+			channel = MessageChannel.accept(sock);
 		} catch (IOException e) {
 			log.exception(e);
 			closeIfNotNull(sock);
 			return;
 		}
-		if(obj instanceof MinerMessages || obj instanceof ThickNodeMessages){
-			if(obj instanceof SubmitTransactionMessage){
-				SubmitTransactionMessage message = (SubmitTransactionMessage) obj;
-				submitTransaction(message.getTransaction());
-			} else if (obj instanceof LastBlockHeaderNotificationMessage){
-				LastBlockHeaderNotificationMessage message = (LastBlockHeaderNotificationMessage) obj;
-				log.verboseDebug("Received a LastBlockNotificationMessage!");
-				newChainHeaderNotified(message.getLastBlockHeader());
-			} else if (obj instanceof CommunicationMessage){
-				CommunicationMessage message = (CommunicationMessage) obj;
-				replyToPing(message, sock);
+		boolean firstMessage = true;
+		while(true){
+			Object obj = null;
+			try {
+				obj = channel.readMessage();
+			} catch (ClassNotFoundException e) {
+				log.exception(e);
+			} catch (EOFException | SocketTimeoutException e) {
+				if(firstMessage){
+					log.exception(e);
+				} else {
+					log.verboseDebug("Persistent connection from "+sock.getRemoteSocketAddress()+" closed or idle.");
+				}
+				break;
+			} catch (IOException e) {
+				log.exception(e);
+				break;
+			}
+			if(obj instanceof MinerMessages || obj instanceof ThickNodeMessages){
+				if(obj instanceof SubmitTransactionMessage){
+					SubmitTransactionMessage message = (SubmitTransactionMessage) obj;
+					for(Transaction transaction : message.getTransactions()){
+						submitTransaction(transaction);
+					}
+				} else if (obj instanceof LastBlockHeaderNotificationMessage){
+					final LastBlockHeaderNotificationMessage message = (LastBlockHeaderNotificationMessage) obj;
+					log.verboseDebug("Received a LastBlockNotificationMessage!");
+					// restarting the search may take a while: do not hold the connection meanwhile.
+					core.getThreadPool().submit(new Runnable() {
+						@Override
+						public void run() {
+							newChainHeaderNotified(message.getLastBlockHeader());
+						}
+					});
+				} else if (obj instanceof CommunicationMessage){
+					CommunicationMessage message = (CommunicationMessage) obj;
+					replyToPing(message, channel);
+				}
+			}
+			if(!channel.isPersistent()){
+				break;
+			}
+			if(firstMessage){
+				firstMessage = false;
+				try {
+					sock.setSoTimeout(WireProtocol.PERSISTENT_IDLE_MILLISECONDS_TIMEOUT);
+				} catch (SocketException e) {
+					log.exception(e);
+					break;
+				}
 			}
 		}
-		try {
-			sock.close();
-		} catch (IOException e) {
-			log.exception(e);
-		}
+		closeIfNotNull(channel);
 	}
 	
 	private void startNewBlockSearch(){
 		BlockHeader lastHeader = core.getLastBlockHeaderInChain();
 		log.verboseDebug("Last header from core: "+lastHeader);
 		if(lastHeader != null){				
-			ArrayList<Transaction> usedTransactions = new ArrayList<Transaction>(transactionsPool);
-			boolean runningOnNullTransaction;
-			if(usedTransactions.size()!= 0){
-				for(Transaction transaction : usedTransactions){
-					myMiner.pushTransaction(transaction);
-				}
-				runningOnNullTransaction = false;
-			} else {
-				myMiner.pushTransaction(DefaultTransaction.getNullTransaction());
-				runningOnNullTransaction = true;
+			ArrayList<Transaction> usedTransactions = transactionsPool.getTemplate(MAX_TEMPLATE_TRANSACTIONS);
+			boolean runningOnNullTransaction = usedTransactions.isEmpty();
+			if(runningOnNullTransaction){
+				usedTransactions.add(DefaultTransaction.getNullTransaction());
 			}
 			log.verboseDebug("Transactions list set up.");
 			
-			myMiner.registerListener(this);
-			myMiner.findNextBlock(lastHeader);
-			log.verboseDebug("Next block search started.");
+			// the transactions are swapped in together with the template: concurrent searches cannot mix them.
+			if(myMiner.updateTemplate(lastHeader, usedTransactions)){
+				log.verboseDebug("Ongoing block search moved to the new template.");
+			} else {
+				myMiner.registerListener(this);
+				myMiner.findNextBlock(lastHeader);
+				log.verboseDebug("Next block search started.");
+			}
 			
+			if(minerNullTransactionMonitor != null){
+				minerNullTransactionMonitor.stop();
+				minerNullTransactionMonitor = null;
+			}
 			if(runningOnNullTransaction){
 				minerNullTransactionMonitor = new MinerNullSearchMonitor(lastHeader);
 				Future<?> monitorFuture = core.getThreadPool().submit(minerNullTransactionMonitor);
@@ -296,13 +361,11 @@ public class DefaultMiner implements Miner {
 
 		@Override
 		public void run() {
-			boolean haltedPreviousTaskOnNullTransactions = false;
+			boolean transactionsForNullSearch = false;
 			while (running) {
 				if(transactionsPool.size()>0){
 					 if(myMiner != null && myMiner.isMining() && myMiner.prevHeaderMining().equals(headerMonitoring)){
-//						 stopBlockSearch();
-						 myMiner.haltBlockMining();
-						 haltedPreviousTaskOnNullTransactions = true;
+						 transactionsForNullSearch = true;
 						 running = false;
 					 }
 				}
@@ -312,7 +375,8 @@ public class DefaultMiner implements Miner {
 					log.exception(e);
 				}
 			}
-			if(haltedPreviousTaskOnNullTransactions){
+			if(transactionsForNullSearch){
+				// the running search switches to the pooled transactions.
 				startNewBlockSearch();
 			}
 		}
@@ -329,28 +393,16 @@ public class DefaultMiner implements Miner {
 	private void notifyExistenceToAllKnownThicks(){
 		MinerAddressNotification notification = new MinerAddressNotification(myAddress);
 		for(InetSocketAddress node : core.getThickNodesList()){
-			Socket sock = null;
-			try {
-				sock = new Socket(node.getAddress(), node.getPort());
-			} catch (IOException e) {
-				log.verboseDebug("Cannot open connection to "+node+".");
-				return;
-			}
-			ObjectOutputStream oos = null;
 			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
+				connections.send(node, notification);
 			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return;
-			}
-			try {
-				oos.writeObject(notification);
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return;
+				log.verboseDebug("Cannot notify my address to "+node+".");
 			}
+		}
+	}
+	
+	private void closeIfNotNull(Socket sock) {
+		if(sock != null){
 			try {
 				sock.close();
 			} catch (IOException e) {
@@ -359,10 +411,10 @@ public class DefaultMiner implements Miner {
 		}
 	}
 	
-	private void closeIfNotNull(Socket sock) {
-		if(sock != null){
+	private void closeIfNotNull(MessageChannel channel) {
+		if(channel != null){
 			try {
-				sock.close();
+				channel.close();
 			} catch (IOException e) {
 				log.exception(e);
 			}
@@ -378,8 +430,19 @@ public class DefaultMiner implements Miner {
 		if(myFinder != null){			
 			myFinder.stop();
 		}
+		if(metricsServer != null){
+			metricsServer.stop();
+		}
+		connections.close();
 		return true;
 	}
+	
+	/**
+	 * @return the current values of the metrics of this miner
+	 */
+	public MiningMetrics.Snapshot getMiningMetrics() {
+		return metrics.snapshot();
+	}
 
 	/* (non-Javadoc)
 	 * @see raw.blockChain.services.miner.Miner#registerListener(raw.blockChain.services.thickNode.LocalMinerSeriviceListener)
@@ -401,8 +464,7 @@ public class DefaultMiner implements Miner {
 	 */
 	@Override
 	public void submitTransaction(Transaction transaction) {
-		if(!transactionsPool.contains(transaction)){
-			transactionsPool.add(transaction);
+		if(transactionsPool.add(transaction)){
 			log.verboseDebug("Added to my pool transaction: "+transaction);
 		}
 	}
@@ -419,131 +481,81 @@ public class DefaultMiner implements Miner {
 	/* (non-Javadoc)
 	 * @see raw.blockChain.api.BlockMinerListener#notifyNewBlock(raw.blockChain.api.Block)
 	 */
-	@SuppressWarnings("resource")
 	@Override
 	public synchronized void notifyNewBlock(Block newBlock) {
+		long foundNanos = System.nanoTime();
+		long acceptanceNanos = -1;
 		List<LocalMinerSeriviceListener> listeners = ImmutableList.copyOf(localListeners);
 		for(LocalMinerSeriviceListener listener : listeners){
-			listener.notifyNewLocalBlock(newBlock);
+			if(listener.notifyNewLocalBlock(newBlock) && acceptanceNanos < 0){
+				acceptanceNanos = System.nanoTime() - foundNanos;
+			}
 		}
 		List<InetSocketAddress> remoteNodes = ImmutableList.copyOf(core.getThickNodesList());
 
 		boolean isBlockAccepted = false;
 		
 		for(InetSocketAddress remoteNode : remoteNodes){
-			Socket sock = null;
-			try {
-				sock = new Socket(remoteNode.getAddress(), remoteNode.getPort());
-			} catch (IOException e4) {
-				log.verboseDebug("Troubles opening a socket to "+remoteNode+". Aborting.");
-				closeIfNotNull(sock);
-				continue;
-			}
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e3) {
-				log.verboseDebug("Troubles opening an OtputStream to "+remoteNode+". Aborting.");
-				closeIfNotNull(sock);
-				continue;
-			}
-			try {
-				oos.writeObject(new SubmitNewBlockMessage(newBlock, myAddress));
-			} catch (IOException e2) {
-				log.verboseDebug("Troubles sending a SubmitNewBlockMessage to "+remoteNode+". Aborting.");
-				closeIfNotNull(sock);
-				continue;
-			} catch (ConcurrentModificationException e){
-				log.exception(e);
-				closeIfNotNull(sock);
-				continue;
-			}
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-				closeIfNotNull(sock);
-				continue;
-			}
-			ObjectInputStream ois = null;
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (IOException e1) {
-				log.verboseDebug("Troubles opening an InputStream to "+remoteNode+". Aborting.");
-				closeIfNotNull(sock);
-				continue;
-			}
 			Object obj = null;
 			try {
-				obj = ois.readObject();
+				obj = connections.request(remoteNode, new SubmitNewBlockMessage(newBlock, myAddress));
 			} catch (ClassNotFoundException e) {
 				log.exception(e);
-				closeIfNotNull(sock);
 				continue;
 			} catch (IOException e) {
-				log.verboseDebug("Troubles reading messages from "+remoteNode+" InputStream. Aborting.");
-				closeIfNotNull(sock);
+				log.verboseDebug("Troubles submitting the new block to "+remoteNode+". Aborting.");
+				continue;
+			} catch (ConcurrentModificationException e){
+				log.exception(e);
 				continue;
 			}
 			if(obj instanceof CommunicationMessage){
 				CommunicationMessage reply = (CommunicationMessage) obj;
 				if(reply.getMessage() == CommunicationMessage.Type.ACCEPTED){
 					isBlockAccepted = true;
+					if(acceptanceNanos < 0){
+						acceptanceNanos = System.nanoTime() - foundNanos;
+					}
 					log.debug("YAY! A remote thick node accepted the new message"+newBlock.getHeader().toString());
 				} else if (reply.getMessage() == CommunicationMessage.Type.REFUSED){
 					isBlockAccepted = false;
 					log.debug("BOO! A remote thick node refused the new message"+newBlock.getHeader().toString());
 				}
 			}
-
 		}
 		if(isBlockAccepted){			
-			transactionsPool.removeAll(newBlock.getTransactions());
+			transactionsPool.removeConfirmed(newBlock.getTransactions());
 		}
-		if(myMiner != null && myMiner.isMining()){
-			if(myMiner.prevHeaderMining().getBlockNumber() <= newBlock.getHeader().getBlockNumber()){
-				myMiner.haltBlockMining();
-			}
+		if(acceptanceNanos >= 0){
+			metrics.blockAccepted(acceptanceNanos);
+		} else {
+			metrics.blockStale();
 		}
+		// the running search (if any) moves to the new template.
 		startNewBlockSearch();
 	}
 
 	private void newChainHeaderNotified(BlockHeader header){
+		Block confirmed = core == null ? null : core.getBlockByNumber(header.getBlockNumber());
+		if(confirmed != null && confirmed.getHeader().hash().equals(header.hash())){
+			int removed = transactionsPool.removeConfirmed(confirmed.getTransactions());
+			log.verboseDebug(removed+" transactions of block "+header.getBlockNumber()+" removed from my pool.");
+		}
 		if(myMiner != null && myMiner.isMining()){
 			if(header.getBlockNumber() >= myMiner.prevHeaderMining().getBlockNumber()+1){
-				log.verboseDebug("Stopping my miner.");
-				if(minerNullTransactionMonitor != null){
-					minerNullTransactionMonitor.stop();
-					while(minerNullTransactionMonitor.isRunning()){
-						log.verboseDebug("Waiting for null monitor to be halted.");
-						try {
-							Thread.sleep(1000);
-						} catch (InterruptedException e) {
-							log.exception(e);
-						}
-					}
-					minerNullTransactionMonitor = null;
-				}
-				myMiner.haltBlockMining();
-				log.verboseDebug("Miner halt requested");
+				// a running null transaction monitor is stopped by the new search.
 				startNewBlockSearch();
+				log.verboseDebug("Miner moved to the new header.");
 			}
 		}
 	}
 	
-	private void replyToPing(CommunicationMessage message, Socket sock){
+	private void replyToPing(CommunicationMessage message, MessageChannel channel){
 		if((message.getMessage() == CommunicationMessage.Type.PING_FROM_THICK) ||(message.getMessage() == CommunicationMessage.Type.PING_FROM_THIN)){
 			CommunicationMessage reply = new CommunicationMessage(CommunicationMessage.Type.PONG);
 			reply.attachInetSocketAddress(myAddress);
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				log.debug("Cannot open a stream to send PONG message. Aborting reply.");
-				return;
-			}
 			try {
-				oos.writeObject(reply);
+				channel.writeMessage(reply);
 			} catch (IOException e) {
 				log.debug("Cannot sent PONG to pinging node. Aborting reply.");
 				return;
@@ -569,79 +581,36 @@ public class DefaultMiner implements Miner {
 					boolean communicationWithNodeWentGood = true;
 					boolean foundNewThickAddress = false;
 					InetSocketAddress newAddress = null;
-					Socket sock = null;
+					Object obj = null;
 					try {
-						sock = new Socket(nodeToAsk.getAddress(), nodeToAsk.getPort());
+						obj = connections.request(nodeToAsk, request);
+					} catch (ClassNotFoundException e1) {
+						communicationWithNodeWentGood = false;
+						log.exception(e1);
 					} catch (IOException e1) {
 						communicationWithNodeWentGood = false;
-						log.verboseDebug("Cannot establish connection to "+nodeToAsk+".");
+						log.verboseDebug("Troubles communicating with "+nodeToAsk+". Skipping.");
 					}
-					if(sock != null){		
-						ObjectOutputStream oos = null;
-						try {
-							oos = new ObjectOutputStream(sock.getOutputStream());
-						} catch (IOException e1) {
-							communicationWithNodeWentGood = false;
-							log.exception(e1);
-						} 
-						if( oos != null){
-							try {
-								oos.writeObject(request);
-							} catch (IOException e1) {
-								communicationWithNodeWentGood = false;
-								log.exception(e1);
-							}
-							try {
-								sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-							} catch (SocketException e1) {
-								log.exception(e1);
-							}
-							ObjectInputStream ois = null;
-							try {
-								ois = new ObjectInputStream(sock.getInputStream());
-							} catch (IOException e1) {
-								communicationWithNodeWentGood = false;
-								log.verboseDebug("Troubles opening input stream. Skipping.");
-							}
-							if( ois != null){								
-								Object obj = null;
-								try {
-									obj = ois.readObject();
-								} catch (ClassNotFoundException e1) {
-									communicationWithNodeWentGood = false;
-									log.exception(e1);
-								} catch (IOException e1) {
-									communicationWithNodeWentGood = false;
-									log.verboseDebug("Troubles reading message from socket. Skipping.");
-								}
-								if((obj != null) && (obj instanceof ThickNodeAddressMessage)){
-									ThickNodeAddressMessage reply = (ThickNodeAddressMessage) obj;
-									if(!reply.isRequest()){
-										InetSocketAddress obtained = reply.getAddress();
-										log.verboseDebug("Recevied from a thick node this address: "+obtained);
-										if(!thickNodesAddress.contains(obtained)){
-											boolean addressOfAListener = false;
-											for(LocalMinerSeriviceListener listener : localListeners){
-												if(obtained.equals(listener.getListenerAddress())){
-													addressOfAListener = true;
-													break;
-												}
-											}
-											if(!addressOfAListener){									
-												thickNodesAddress.add(obtained);
-												foundNewThickAddress = true;
-												newAddress = obtained;
-											}
-										}
+					if((obj != null) && (obj instanceof ThickNodeAddressMessage)){
+						ThickNodeAddressMessage reply = (ThickNodeAddressMessage) obj;
+						if(!reply.isRequest()){
+							InetSocketAddress obtained = reply.getAddress();
+							log.verboseDebug("Recevied from a thick node this address: "+obtained);
+							if(!thickNodesAddress.contains(obtained)){
+								boolean addressOfAListener = false;
+								for(LocalMinerSeriviceListener listener : localListeners){
+									if(obtained.equals(listener.getListenerAddress())){
+										addressOfAListener = true;
+										break;
 									}
 								}
+								if(!addressOfAListener){									
+									thickNodesAddress.add(obtained);
+									foundNewThickAddress = true;
+									newAddress = obtained;
+								}
 							}
 						}
-						try {
-							sock.close();
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
 					}
 					if(!communicationWithNodeWentGood){
 						thickNodesAddress.remove(nodeToAsk); //XXX maybe is a little drastic... but for now just try this way. 
@@ -655,6 +624,7 @@ public class DefaultMiner implements Miner {
 						}
 					}
 				}
+				connections.evictIdle();
 				int sleepTime = NODE_SEARCH_MILLISECONDS_INTERTIME+ (rand.nextInt(NODE_SEARCH_MILLISECONDS_VARIABILITY*2) - NODE_SEARCH_MILLISECONDS_VARIABILITY);
 				log.debug("Node Finder will sleep for "+sleepTime+" ms.");
 				try {
@@ -675,61 +645,24 @@ public class DefaultMiner implements Miner {
 			
 			CommunicationMessage ping = new CommunicationMessage(Type.PING_FROM_MINER);
 			ping.attachInetSocketAddress(myAddress);
-
-			try (Socket sock = new Socket(toBePinged.getAddress(), toBePinged.getPort())){
-				try {
-					ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-					oos.writeObject(ping);						
-				} catch (IOException e) {
-					closeIfNotNull(sock);
-					return false;
-				}
-
-				//wait for a pong.
-				CommunicationMessage reply = null;
-				try {
-					sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-				} catch (SocketException e1) {
-					log.exception(e1);
-				}
-				try {
-					ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
-					try {
-						reply = (CommunicationMessage) ois.readObject();
-					} catch (ClassNotFoundException e) {
-						log.exception(e);
-					}							
-				} catch (IOException e) {
-					closeIfNotNull(sock);
-					return false;
-				}
-				if(reply == null || reply.getMessage() != Type.PONG){
-					closeIfNotNull(sock);
-					return false;
-				} else {
-					InetSocketAddress otherNodeAddress = (InetSocketAddress) reply.getAttachment();
-					if(!otherNodeAddress.equals(toBePinged)){
-						closeIfNotNull(sock);
-						return false;
-					}
-				}
-
-				try {
-					sock.close();
-				} catch (IOException e) {
-					log.exception(e);
-				}
-				return true;
+			//send the ping and wait for a pong.
+			Object reply = null;
+			try {
+				reply = connections.request(toBePinged, ping);
 			} catch (ConnectException e) {
 				log.verboseDebug("Connection refused by "+address+". Aborting.");
 				return false;
-			} catch (Exception e) {
+			} catch (IOException e) {
+				return false;
+			} catch (ClassNotFoundException e) {
 				log.exception(e);
-				for(Throwable t : e.getSuppressed()){
-					log.exception(t);
-				}
 				return false;
 			}
+			if(!(reply instanceof CommunicationMessage) || ((CommunicationMessage) reply).getMessage() != Type.PONG){
+				return false;
+			}
+			InetSocketAddress otherNodeAddress = (InetSocketAddress) ((CommunicationMessage) reply).getAttachment();
+			return toBePinged.equals(otherNodeAddress);
 		}
 		
 	}
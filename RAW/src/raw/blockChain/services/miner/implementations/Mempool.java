@@ -0,0 +1,253 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.miner.implementations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.utils.TransactionUtils;
+import raw.blockChain.services.miner.Miner;
+import raw.dht.DhtID;
+import raw.logger.Log;
+
+/**
+ * The {@link Transaction}s waiting to be mined by a {@link Miner}.<br>
+ * <br>
+ * Transactions are indexed by hash (so duplicates are dropped in constant time)
+ * and by {@link DhtID}: of the transactions of the same id only the one with the
+ * newest creation seed is kept. Transactions must pass a validator (usually their
+ * proof of work check, see {@link TransactionUtils}) before being added.<br>
+ * At most <tt>maxTransactions</tt> are kept, for at most <tt>maxAgeMilliseconds</tt>:
+ * the oldest ones are evicted first. Transactions confirmed in a {@link Block}
+ * are removed with {@link Mempool#removeConfirmed(Collection)}.<br>
+ * <br>
+ * {@link Mempool#getTemplate(int)} returns the (at most <tt>k</tt>) oldest
+ * transactions in O(<tt>k</tt>).
+ * 
+ * @author vic
+ *
+ */
+public class Mempool {
+	
+	public static final int DEFAULT_MAX_TRANSACTIONS = 100000;
+	
+	public static final long DEFAULT_MAX_AGE_MILLISECONDS = 24 * 60 * 60 * 1000;
+	
+	private static class Entry {
+		private final Transaction transaction;
+		private final HashValue hash;
+		private final long arrival;
+		
+		private Entry(Transaction transaction, HashValue hash, long arrival) {
+			this.transaction = transaction;
+			this.hash = hash;
+			this.arrival = arrival;
+		}
+	}
+	
+	private final int maxTransactions;
+	private final long maxAgeMilliseconds;
+	private final Predicate<Transaction> validator;
+	
+	/**
+	 * By hash, in arrival order.
+	 */
+	private final LinkedHashMap<HashValue, Entry> byHash;
+	private final HashMap<DhtID, Entry> byId;
+	
+	private Log log;
+	
+	/**
+	 * @param validator accepts the valid transactions (<tt>null</tt> to accept all of them)
+	 */
+	public Mempool(Predicate<Transaction> validator) {
+		this(DEFAULT_MAX_TRANSACTIONS, DEFAULT_MAX_AGE_MILLISECONDS, validator);
+	}
+	
+	/**
+	 * @param maxTransactions the maximum number of kept transactions
+	 * @param maxAgeMilliseconds after how long a transaction is evicted
+	 * @param validator accepts the valid transactions (<tt>null</tt> to accept all of them)
+	 */
+	public Mempool(int maxTransactions, long maxAgeMilliseconds, Predicate<Transaction> validator) {
+		this.maxTransactions = maxTransactions;
+		this.maxAgeMilliseconds = maxAgeMilliseconds;
+		this.validator = validator;
+		byHash = new LinkedHashMap<HashValue, Entry>();
+		byId = new HashMap<DhtID, Entry>();
+		log = Log.getLogger();
+	}
+	
+	/**
+	 * Add <tt>transaction</tt> if it is valid and it is not superseded
+	 * by a kept transaction (of the same {@link DhtID}).
+	 * 
+	 * @param transaction a submitted {@link Transaction}
+	 * @return <tt>true</tt> if <tt>transaction</tt> has been added
+	 */
+	public boolean add(Transaction transaction){
+		return add(transaction, System.currentTimeMillis());
+	}
+	
+	boolean add(Transaction transaction, long now){
+		if(transaction == null){
+			return false;
+		}
+		HashValue hash = DefaultHasher.getHasher().hashTransaction(transaction);
+		synchronized (this) {
+			if(isSuperseded(transaction, hash)){
+				return false;
+			}
+		}
+		// the (costly) validation is done once the cheap checks have passed, out of the lock.
+		if(validator != null && !validator.test(transaction)){
+			log.verboseDebug("Invalid transaction discarded: "+transaction);
+			return false;
+		}
+		synchronized (this) {
+			evictExpired(now);
+			if(isSuperseded(transaction, hash)){
+				return false;
+			}
+			Entry previous = byId.get(transaction.getDhtID());
+			if(previous != null){
+				log.verboseDebug("Transaction "+previous.transaction+" replaced by "+transaction);
+				remove(previous);
+			}
+			Entry entry = new Entry(transaction, hash, now);
+			byHash.put(hash, entry);
+			byId.put(transaction.getDhtID(), entry);
+			Iterator<Entry> eldest = byHash.values().iterator();
+			while(byHash.size() > maxTransactions){
+				Entry evicted = eldest.next();
+				eldest.remove();
+				byId.remove(evicted.transaction.getDhtID());
+			}
+			return true;
+		}
+	}
+	
+	private boolean isSuperseded(Transaction transaction, HashValue hash){
+		if(byHash.containsKey(hash)){
+			return true;
+		}
+		Entry sameId = byId.get(transaction.getDhtID());
+		return sameId != null && sameId.transaction.getCreationSeedNumber() >= transaction.getCreationSeedNumber();
+	}
+	
+	private void remove(Entry entry){
+		byHash.remove(entry.hash);
+		if(byId.get(entry.transaction.getDhtID()) == entry){
+			byId.remove(entry.transaction.getDhtID());
+		}
+	}
+	
+	/**
+	 * Remove the transactions confirmed in a {@link Block}, together with the
+	 * kept transactions of the same {@link DhtID}s and older (or the same) seeds.
+	 * 
+	 * @param confirmed the transactions of a {@link Block}
+	 * @return the number of removed transactions
+	 */
+	public synchronized int removeConfirmed(Collection<Transaction> confirmed){
+		int removed = 0;
+		for(Transaction transaction : confirmed){
+			Entry entry = byHash.get(DefaultHasher.getHasher().hashTransaction(transaction));
+			if(entry == null){
+				entry = byId.get(transaction.getDhtID());
+				if(entry != null && entry.transaction.getCreationSeedNumber() > transaction.getCreationSeedNumber()){
+					entry = null;
+				}
+			}
+			if(entry != null){
+				remove(entry);
+				removed++;
+			}
+		}
+		return removed;
+	}
+	
+	/**
+	 * @param maxTransactions the maximum number of transactions of the template
+	 * @return the (at most <tt>maxTransactions</tt>) oldest kept transactions, in arrival order
+	 */
+	public ArrayList<Transaction> getTemplate(int maxTransactions){
+		return getTemplate(maxTransactions, System.currentTimeMillis());
+	}
+	
+	synchronized ArrayList<Transaction> getTemplate(int maxTransactions, long now){
+		evictExpired(now);
+		ArrayList<Transaction> template = new ArrayList<Transaction>(Math.min(maxTransactions, byHash.size()));
+		Iterator<Entry> entries = byHash.values().iterator();
+		while(template.size() < maxTransactions && entries.hasNext()){
+			template.add(entries.next().transaction);
+		}
+		return template;
+	}
+	
+	/**
+	 * Evict the transactions older than <tt>maxAgeMilliseconds</tt>.
+	 * 
+	 * @return the number of evicted transactions
+	 */
+	public synchronized int evictExpired(){
+		return evictExpired(System.currentTimeMillis());
+	}
+	
+	synchronized int evictExpired(long now){
+		int evicted = 0;
+		Iterator<Entry> eldest = byHash.values().iterator();
+		while(eldest.hasNext()){
+			Entry entry = eldest.next();
+			if(now - entry.arrival < maxAgeMilliseconds){
+				break;
+			}
+			eldest.remove();
+			if(byId.get(entry.transaction.getDhtID()) == entry){
+				byId.remove(entry.transaction.getDhtID());
+			}
+			evicted++;
+		}
+		return evicted;
+	}
+	
+	/**
+	 * @param transaction a {@link Transaction}
+	 * @return <tt>true</tt> if <tt>transaction</tt> is kept
+	 */
+	public synchronized boolean contains(Transaction transaction){
+		return byHash.containsKey(DefaultHasher.getHasher().hashTransaction(transaction));
+	}
+	
+	/**
+	 * @return the number of kept transactions
+	 */
+	public synchronized int size(){
+		return byHash.size();
+	}
+
+}
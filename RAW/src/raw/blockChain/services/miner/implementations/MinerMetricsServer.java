@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.miner.implementations;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import raw.blockChain.api.implementations.MiningMetrics;
+import raw.logger.Log;
+
+/**
+ * A minimal {@link HttpServer} publishing the {@link MiningMetrics} of a miner:
+ * a <tt>GET</tt> to {@link MinerMetricsServer#CONTEXT} returns the current
+ * {@link MiningMetrics.Snapshot} as a JSON object. Nothing is computed
+ * until somebody asks.
+ * 
+ * @author vic
+ *
+ */
+public class MinerMetricsServer {
+	
+	public static final String CONTEXT = "/metrics";
+	
+	private static final int HTTP_OK_STATUS = 200;
+	private static final int HTTP_BAD_METHOD_STATUS = 405;
+	
+	private HttpServer server;
+	
+	/**
+	 * Build the server, bound to <tt>port</tt>.
+	 * 
+	 * @param port the port to be used (0 for an ephemeral one)
+	 * @param executor {@link Executor} to be used by this server
+	 * @param metrics the {@link MiningMetrics} to be published
+	 * @throws IOException if the server cannot be bound
+	 */
+	public MinerMetricsServer(int port, Executor executor, final MiningMetrics metrics) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext(CONTEXT, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if(!"GET".equals(exchange.getRequestMethod())){
+					exchange.sendResponseHeaders(HTTP_BAD_METHOD_STATUS, -1);
+					exchange.close();
+					return;
+				}
+				byte[] body = metrics.snapshot().toJsonObject().toString().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				exchange.sendResponseHeaders(HTTP_OK_STATUS, body.length);
+				try (OutputStream os = exchange.getResponseBody()){
+					os.write(body);
+				}
+				Log.getLogger().verboseDebug("Mining metrics served to "+exchange.getRemoteAddress());
+			}
+		});
+		server.setExecutor(executor);
+	}
+	
+	/**
+	 * @return the port this server is bound to
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+	
+	/**
+	 * Starts underlying server
+	 */
+	public void start() {
+		server.start();
+	}
+	
+	/**
+	 * Stops underlying server
+	 */
+	public void stop() {
+		server.stop(1);
+	}
+
+}
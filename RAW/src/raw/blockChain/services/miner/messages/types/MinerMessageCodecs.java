@@ -0,0 +1,144 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.miner.messages.types;
+
+import static raw.blockChain.services.messages.WireEncoding.readAddress;
+import static raw.blockChain.services.messages.WireEncoding.readTransaction;
+import static raw.blockChain.services.messages.WireEncoding.writeAddress;
+import static raw.blockChain.services.messages.WireEncoding.writeTransaction;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import raw.blockChain.api.Transaction;
+import raw.blockChain.services.messages.MessageCodec;
+import raw.blockChain.services.messages.WireProtocol;
+import raw.blockChain.services.miner.messages.MinerMessages;
+
+/**
+ * The {@link MessageCodec}s of the {@link MinerMessages}
+ * used by the {@link WireProtocol}. Type ids 32 to 63 are
+ * reserved to this package.
+ * 
+ * @author vic
+ *
+ */
+public class MinerMessageCodecs {
+	
+	private MinerMessageCodecs() {
+	}
+	
+	/**
+	 * @return a codec for every {@link MinerMessages} type
+	 */
+	public static List<MessageCodec<?>> getCodecs(){
+		return ImmutableList.<MessageCodec<?>>of(
+				new MinerAddressNotificationCodec(),
+				new SubmitTransactionCodec());
+	}
+	
+	private static class MinerAddressNotificationCodec implements MessageCodec<MinerAddressNotification> {
+
+		@Override
+		public int getTypeId() {
+			return 32;
+		}
+
+		@Override
+		public Class<MinerAddressNotification> getMessageClass() {
+			return MinerAddressNotification.class;
+		}
+
+		@Override
+		public void encode(MinerAddressNotification message, DataOutputStream out) throws IOException {
+			writeAddress(message.getAddress(), out);
+		}
+
+		@Override
+		public MinerAddressNotification decode(DataInputStream in) throws IOException {
+			return new MinerAddressNotification(readAddress(in));
+		}
+		
+	}
+	
+	private static class SubmitTransactionCodec implements MessageCodec<SubmitTransactionMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 33;
+		}
+
+		@Override
+		public Class<SubmitTransactionMessage> getMessageClass() {
+			return SubmitTransactionMessage.class;
+		}
+
+		/**
+		 * The transactions following the first one are appended (with their count)
+		 * only to batches, so that single transactions are encoded as before
+		 * {@link WireProtocol#BATCHED_TRANSACTIONS_VERSION}.
+		 */
+		@Override
+		public void encode(SubmitTransactionMessage message, DataOutputStream out) throws IOException {
+			writeAddress(message.getAddress(), out);
+			List<Transaction> transactions = message.getTransactions();
+			writeTransaction(transactions.get(0), out);
+			if(transactions.size() > 1){
+				out.writeInt(transactions.size() - 1);
+				for(Transaction transaction : transactions.subList(1, transactions.size())){
+					writeTransaction(transaction, out);
+				}
+			}
+		}
+
+		@Override
+		public SubmitTransactionMessage decode(DataInputStream in) throws IOException {
+			InetSocketAddress address = readAddress(in);
+			Transaction first = readTransaction(in);
+			if(first == null){
+				throw new IOException("Transaction submission without a transaction.");
+			}
+			if(in.available() == 0){
+				return new SubmitTransactionMessage(address, first);
+			}
+			int following = in.readInt();
+			if(following < 1 || following >= SubmitTransactionMessage.MAX_TRANSACTIONS){
+				throw new IOException("Invalid number of transactions: "+(following + 1));
+			}
+			ArrayList<Transaction> transactions = new ArrayList<Transaction>(following + 1);
+			transactions.add(first);
+			for(int i = 0; i < following; i++){
+				Transaction transaction = readTransaction(in);
+				if(transaction == null){
+					throw new IOException("Transaction submission with a missing transaction.");
+				}
+				transactions.add(transaction);
+			}
+			return new SubmitTransactionMessage(address, transactions);
+		}
+		
+	}
+
+}
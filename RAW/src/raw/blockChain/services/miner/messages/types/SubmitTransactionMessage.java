@@ -19,14 +19,21 @@
 package raw.blockChain.services.miner.messages.types;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import raw.blockChain.api.Transaction;
 import raw.blockChain.services.miner.Miner;
+import raw.blockChain.services.messages.WireProtocol;
 import raw.blockChain.services.miner.messages.MinerMessages;
 
 /**
  * A {@link SubmitTransactionMessage} is used to
  * sumbit a {@link Transaction} to a {@link Miner} node.
+ * Nodes speaking (at least) {@link WireProtocol#BATCHED_TRANSACTIONS_VERSION}
+ * can send up to {@link SubmitTransactionMessage#MAX_TRANSACTIONS} transactions
+ * in a single message.
  * 
  * @author vic
  *
@@ -38,13 +45,34 @@ public class SubmitTransactionMessage implements MinerMessages {
 	 */
 	private static final long serialVersionUID = 2150967676305523505L;
 	
+	/**
+	 * The maximum number of transactions sent in a single message.
+	 */
+	public static final int MAX_TRANSACTIONS = 1000;
+	
 	private InetSocketAddress myAddress;
 	private Transaction transaction;
+	private ArrayList<Transaction> transactions;
 
 	public SubmitTransactionMessage(InetSocketAddress myAddress, Transaction transaction) {
 		this.myAddress = myAddress;
 		this.transaction = transaction;
 	}
+	
+	/**
+	 * @param myAddress the address of the sender
+	 * @param transactions the submitted transactions (at least one, at most {@link SubmitTransactionMessage#MAX_TRANSACTIONS})
+	 */
+	public SubmitTransactionMessage(InetSocketAddress myAddress, List<Transaction> transactions) {
+		if(transactions.isEmpty() || transactions.size() > MAX_TRANSACTIONS){
+			throw new IllegalArgumentException("Invalid number of transactions: "+transactions.size());
+		}
+		this.myAddress = myAddress;
+		this.transaction = transactions.get(0);
+		if(transactions.size() > 1){
+			this.transactions = new ArrayList<Transaction>(transactions);
+		}
+	}
 
 	/**
 	 * @return the myAddress
@@ -54,11 +82,21 @@ public class SubmitTransactionMessage implements MinerMessages {
 	}
 
 	/**
-	 * @return the transaction
+	 * @return the (first) transaction
 	 */
 	public Transaction getTransaction() {
 		return transaction;
 	}
 	
+	/**
+	 * @return all the submitted transactions
+	 */
+	public List<Transaction> getTransactions() {
+		if(transactions == null){
+			return Collections.singletonList(transaction);
+		}
+		return Collections.unmodifiableList(transactions);
+	}
+	
 	
 }
@@ -18,32 +18,35 @@
  */
 package raw.blockChain.services.thickNode.implementations;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
 import java.net.ConnectException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.LinkedList;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.lang3.RandomUtils;
 
@@ -53,10 +56,17 @@ import raw.blockChain.api.BlockCompactRepresentation;
 import raw.blockChain.api.BlockHeader;
 import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
 import raw.blockChain.api.implementations.utils.BlockUtils;
+import raw.blockChain.api.implementations.utils.BranchValidator;
 import raw.blockChain.services.dbHelper.BlocksToDataBase;
 import raw.blockChain.services.dbHelper.implementations.DefaultBlockToDataBase;
 import raw.blockChain.services.implementations.DefaultBlockChainCore;
+import raw.blockChain.services.messages.Broadcaster;
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.messages.PeerConnectionPool;
+import raw.blockChain.services.messages.SelectorListener;
+import raw.blockChain.services.messages.WireProtocol;
 import raw.blockChain.services.miner.LocalThickNodeListener;
 import raw.blockChain.services.miner.messages.MinerMessages;
 import raw.blockChain.services.miner.messages.types.MinerAddressNotification;
@@ -65,7 +75,10 @@ import raw.blockChain.services.thickNode.ThickNode;
 import raw.blockChain.services.thickNode.messages.ThickNodeMessages;
 import raw.blockChain.services.thickNode.messages.types.BlockCompactRepresentationRequestMessage;
 import raw.blockChain.services.thickNode.messages.types.BlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockTransactionsRequestMessage;
 import raw.blockChain.services.thickNode.messages.types.CommunicationMessage;
+import raw.blockChain.services.thickNode.messages.types.CompactBlockNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.HeaderChainRequestMessage;
 import raw.blockChain.services.thickNode.messages.types.LastBlockHeaderNotificationMessage;
 import raw.blockChain.services.thickNode.messages.types.LastBlockNotificationMessage;
 import raw.blockChain.services.thickNode.messages.types.MinerNodeAddressMessage;
@@ -76,6 +89,7 @@ import raw.blockChain.services.thickNode.messages.types.TransactionBlockNumberMe
 import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
 import raw.blockChain.services.thickNode.messages.types.CommunicationMessage.Type;
 import raw.blockChain.services.utils.ThickNodeAddressBookFile;
+import raw.concurrent.RAWExecutors;
 import raw.logger.Log;
 import raw.settings.BlockChainProperties;
 import raw.settings.ModuleProperty;
@@ -92,6 +106,29 @@ import com.google.common.collect.ImmutableList;
  */
 public class DefaultThickNode implements ThickNode {
 	
+	/**
+	 * Number of blocks requested at once while looking
+	 * for the fork point with another chain.
+	 */
+	private static final int FORK_SEARCH_RANGE = 32;
+	
+	/**
+	 * Maximum number of missing blocks requested at once
+	 * while checking the chain.
+	 */
+	private static final int SANITY_CHECK_RANGE = 64;
+	
+	/**
+	 * Number of I/O threads of the non blocking listener.
+	 */
+	private static final int SELECTOR_THREADS = 2;
+	
+	/**
+	 * Maximum number of received messages waiting for a
+	 * worker of the non blocking listener.
+	 */
+	private static final int LISTENER_QUEUE_CAPACITY = 1024;
+	
 	private Log log;
 	
 	private BlocksToDataBase database;
@@ -111,7 +148,55 @@ public class DefaultThickNode implements ThickNode {
 	
 	private ExecutorService pool;
 	
-	private Queue<Transaction> forwardedTransactions;
+	private PeerConnectionPool connections;
+	
+	private Broadcaster broadcaster;
+	
+	/**
+	 * A thick node failing to receive a notification is dealt with
+	 * as if it failed to respond to a ping.
+	 */
+	private final Broadcaster.Outcomes thickNodeOutcomes = new Broadcaster.Outcomes() {
+		
+		@Override
+		public void delivered(InetSocketAddress address) {
+			log.verboseDebug("Last block notified to "+address);
+		}
+		
+		@Override
+		public void failed(InetSocketAddress address, IOException cause) {
+			log.debug("Cannot notify last block to "+address+" ("+cause.getMessage()+").");
+			thickNodeNotRespondedToPing(address);
+		}
+	};
+	
+	/**
+	 * A miner failing to receive a notification is forgotten
+	 * as if it failed to respond to a ping.
+	 */
+	private final Broadcaster.Outcomes minerOutcomes = new Broadcaster.Outcomes() {
+		
+		@Override
+		public void delivered(InetSocketAddress address) {
+			log.verboseDebug("Last block header notified to miner "+address);
+		}
+		
+		@Override
+		public void failed(InetSocketAddress address, IOException cause) {
+			log.debug("Cannot notify last block header to miner "+address+" ("+cause.getMessage()+"). Removing it.");
+			synchronized (minerNodes) {
+				minerNodes.remove(address);
+			}
+		}
+	};
+	
+	private RelayFilter relayFilter;
+	
+	private ConcurrentLinkedQueue<Transaction> transactionsToForward;
+	
+	private AtomicBoolean forwardingTransactions;
+	
+	private RecentTransactions recentTransactions;
 	
 	private boolean initialized;
 	
@@ -139,7 +224,13 @@ public class DefaultThickNode implements ThickNode {
 		}
 		BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
 		try {
-			listeningSocket = new ServerSocket(properties.getListeningSocket());
+			if(properties.isSelectorListener()){
+				ServerSocketChannel listeningChannel = ServerSocketChannel.open();
+				listeningChannel.bind(new InetSocketAddress(properties.getListeningSocket()));
+				listeningSocket = listeningChannel.socket();
+			} else {
+				listeningSocket = new ServerSocket(properties.getListeningSocket());
+			}
 		} catch (IOException e) {
 			log.exception(e);
 		}
@@ -155,12 +246,20 @@ public class DefaultThickNode implements ThickNode {
 		otherThickNodes = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
 		maybeOffline = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
 		minerNodes = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
+		
+		connections = new PeerConnectionPool();
 
 		registeredListeners = Collections.synchronizedList(new ArrayList<LocalThickNodeListener>());
 
 		initialized = false;
 		
-		forwardedTransactions = new LinkedList<>();
+		relayFilter = new RelayFilter();
+		
+		transactionsToForward = new ConcurrentLinkedQueue<Transaction>();
+		
+		forwardingTransactions = new AtomicBoolean(false);
+		
+		recentTransactions = new RecentTransactions();
 		
 		updatingChain = false;
 		
@@ -201,6 +300,7 @@ public class DefaultThickNode implements ThickNode {
 		}
 		
 		pool = DefaultBlockChainCore.getBlockChainCore().getThreadPool();
+		broadcaster = new Broadcaster(connections, pool);
 		
 		myPinger = new NodePinger();
 		Future<Void> pingerFuture = pool.submit(myPinger);
@@ -231,88 +331,16 @@ public class DefaultThickNode implements ThickNode {
 					InetSocketAddress nodeToAskUpdate = otherThickNodes.get(rand.nextInt(otherThickNodes.size()));
 					log.verboseDebug("Chain prefetch will be asked to: "+nodeToAskUpdate);
 					Block lastBlockFromNet = null;
-					Socket sock;
-					try {
-						sock = new Socket(nodeToAskUpdate.getAddress(), nodeToAskUpdate.getPort());
-					} catch (IOException e) {
-						log.exception(e);
-						attempt++;
-						continue;
-					}
-					log.verboseDebug("Socket opened.");
-					try {
-						sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-					} catch (SocketException e) {
-						log.exception(e);
-						try {
-							sock.close();
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
-						attempt++;
-						continue;
-					}
-					ObjectOutputStream oos;
-					try {
-						oos = new ObjectOutputStream(sock.getOutputStream());
-					} catch (IOException e) {
-						log.exception(e);
-						try {
-							sock.close();
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
-						attempt++;
-						continue;
-					}
-					log.verboseDebug("Output stream opened.");
 					BlockRequestMessage request = new BlockRequestMessage();
-					try {
-						oos.writeObject(request);
-					} catch (IOException e) {
-						log.exception(e);
-						try {
-							sock.close();
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
-						attempt++;
-						continue;
-					}
-					log.verboseDebug("Request sent ("+request+")");
-					ObjectInputStream ois;
-					try {
-						ois = new ObjectInputStream(sock.getInputStream());
-					} catch (IOException e) {
-						log.exception(e);
-						try {
-							sock.close();
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
-						attempt++;
-						continue;
-					}
-					log.verboseDebug("Input stream opened.");
 					Object received;
 					try {
-						received = ois.readObject();
+						received = connections.request(nodeToAskUpdate, request);
 					} catch (ClassNotFoundException | IOException e) {
 						log.exception(e);
-						try {
-							sock.close();
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
 						attempt++;
 						continue;
 					}
-					log.verboseDebug("Received object on prefetch socket.");
-					try {
-						sock.close();
-					} catch (IOException e) {
-						log.exception(e);
-					}
+					log.verboseDebug("Received reply to prefetch request ("+request+")");
 					if(received instanceof BlockRequestMessage){
 						BlockRequestMessage reply = (BlockRequestMessage) received;
 						if(reply.isPositiveReply()){
@@ -441,6 +469,7 @@ public class DefaultThickNode implements ThickNode {
 		} else {
 			previous = database.getBlockByNumber(startingPoing.getBlockNumber() - 1);
 		}
+		HashMap<Long, Block> prefetched = new HashMap<Long, Block>();
 		while (!previous.equals(last) && santityCheckConditions(limitCheck, blocksToGo)) {
 			if(current == null){
 				log.verboseDebug("Looks like we have a \"hole\" in this copy of the chain.");
@@ -471,8 +500,7 @@ public class DefaultThickNode implements ThickNode {
 					cutChainFromBlock(previous);
 					break;
 				}
-				BlockRequestMessage request = new BlockRequestMessage(previous.getHeader().getBlockNumber()+1);
-				Block retrieved = sendBlockRequest(nodeToAsk, request);
+				Block retrieved = retrieveMissingBlock(nodeToAsk, previous.getHeader().getBlockNumber()+1, last.getHeader().getBlockNumber(), prefetched);
 				if(retrieved == null){
 					log.verboseDebug("Block received from the net is null. Cutting.");
 					cutChainFromBlock(previous);
@@ -564,6 +592,40 @@ public class DefaultThickNode implements ThickNode {
 		log.verboseDebug("Sanity check ended.");
 	}
 	
+	/**
+	 * Retrieve the missing block <tt>blockNumber</tt> from <tt>nodeToAsk</tt>. If the following
+	 * blocks (up to {@link DefaultThickNode#SANITY_CHECK_RANGE}) are missing too they are requested
+	 * at once, and kept in <tt>prefetched</tt> for the next calls.
+	 */
+	private Block retrieveMissingBlock(InetSocketAddress nodeToAsk, long blockNumber, long lastBlockNumber, HashMap<Long, Block> prefetched){
+		Block retrieved = prefetched.remove(blockNumber);
+		if(retrieved != null){
+			return retrieved;
+		}
+		long holeEnd = blockNumber;
+		while(holeEnd < lastBlockNumber && holeEnd - blockNumber + 1 < SANITY_CHECK_RANGE && database.getBlockHeaderByNumber(holeEnd + 1) == null){
+			holeEnd++;
+		}
+		if(holeEnd == blockNumber){
+			return sendBlockRequest(nodeToAsk, new BlockRequestMessage(blockNumber));
+		}
+		log.verboseDebug("Blocks #"+blockNumber+" - #"+holeEnd+" are missing. Asking for them.");
+		UpdatingChainSession session = null;
+		try {
+			session = new UpdatingChainSession(nodeToAsk);
+			for(Block block : session.requestRange(blockNumber, holeEnd)){
+				prefetched.put(block.getHeader().getBlockNumber(), block);
+			}
+		} catch (IOException e) {
+			log.exception(e);
+		} finally {
+			if(session != null){
+				session.close();
+			}
+		}
+		return prefetched.remove(blockNumber);
+	}
+	
 	private void sanityCheckLastBlocks(int numberOfBlocks){
 		log.verboseDebug("Checking last +"+numberOfBlocks+" blocks of the chain");
 		BlockHeader last = database.getLastBlockHeaderInChain(false);
@@ -645,69 +707,24 @@ public class DefaultThickNode implements ThickNode {
 	
 	private Block sendBlockRequest(InetSocketAddress nodeToAsk, BlockRequestMessage request){
 		log.verboseDebug("Sending Block request to "+nodeToAsk+".");
-		try (Socket sock = new Socket(nodeToAsk.getAddress(), nodeToAsk.getPort())) {
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return null;
-			}
-			try {
-				oos.writeObject(request);
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return null;
-			}
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-				closeIfNotNull(sock);
-				return null;
-			}
-			ObjectInputStream ois = null;
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return null;
-			}
-			Object obj = null;
-			try {
-				obj = ois.readObject();
-			} catch (ClassNotFoundException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return null;
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return null;
-			}
-			try {
-				sock.close();
-			} catch (IOException e) {
-				log.exception(e);
-			}
-			Block block = null;
-			if(obj instanceof BlockRequestMessage){
-				BlockRequestMessage reply = (BlockRequestMessage) obj;
-				if(reply.isPositiveReply()){
-					block = reply.getBlock();
-				}
-			}
-			return block;
-		} catch (Exception e) {
+		Object obj = null;
+		try {
+			obj = connections.request(nodeToAsk, request);
+		} catch (ClassNotFoundException e) {
+			log.exception(e);
+			return null;
+		} catch (IOException e) {
 			log.exception(e);
-			for(Throwable t : e.getSuppressed()){
-				log.exception(t);
-			}
 			return null;
 		}
+		Block block = null;
+		if(obj instanceof BlockRequestMessage){
+			BlockRequestMessage reply = (BlockRequestMessage) obj;
+			if(reply.isPositiveReply()){
+				block = reply.getBlock();
+			}
+		}
+		return block;
 	}
 	
 	private void loadOtherNodesFromFile(){
@@ -729,6 +746,7 @@ public class DefaultThickNode implements ThickNode {
 		
 		private boolean listenerRunning;
 		private boolean isStopped;
+		private SelectorListener selectorListener;
 		
 		public NodeListener() {
 			listenerRunning = true;
@@ -738,8 +756,12 @@ public class DefaultThickNode implements ThickNode {
 		@Override
 		public Void call() throws Exception {
 			log.debug("NodeListener has started.");
-			while (listenerRunning) {
-				acceptAndListen();
+			if(listeningSocket.getChannel() != null){
+				listenWithSelector();
+			} else {
+				while (listenerRunning) {
+					acceptAndListen();
+				}
 			}
 			
 			isStopped = true;
@@ -747,6 +769,28 @@ public class DefaultThickNode implements ThickNode {
 			return null;
 		}
 		
+		private void listenWithSelector() throws Exception {
+			BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
+			ExecutorService workers = RAWExecutors.newBoundedThreadPool(properties.getListenerWorkers(), LISTENER_QUEUE_CAPACITY);
+			synchronized (this) {
+				if(!listenerRunning){
+					return;
+				}
+				selectorListener = new SelectorListener(listeningSocket.getChannel(), new SelectorListener.MessageHandler() {
+					@Override
+					public boolean serve(Object message, MessageChannel channel) {
+						return NodeListener.this.serve(message, channel);
+					}
+				}, SELECTOR_THREADS, workers);
+			}
+			log.debug("Listening with a selector on port "+listeningSocket.getLocalPort());
+			try {
+				selectorListener.call();
+			} finally {
+				workers.shutdown();
+			}
+		}
+		
 		private void acceptAndListen(){
 			log.debug("Listening on port "+listeningSocket.getLocalPort());
 			Socket sock;
@@ -803,26 +847,54 @@ public class DefaultThickNode implements ThickNode {
 				closeIfNotNull(sock);
 				return;
 			}
-			ObjectInputStream ois;
+			MessageChannel channel;
 			try {
-				ois = new ObjectInputStream(sock.getInputStream());
+				channel = MessageChannel.accept(sock);
 			} catch (IOException e) {
 				log.exception(e);
 				closeIfNotNull(sock);
 				return;
 			}
-			Object received;
-			try {
-				received = ois.readObject();
-			} catch (ClassNotFoundException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return;
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return;
+			boolean firstMessage = true;
+			boolean keepServing = true;
+			while(keepServing){
+				Object received;
+				try {
+					received = channel.readMessage();
+				} catch (ClassNotFoundException e) {
+					log.exception(e);
+					break;
+				} catch (EOFException | SocketTimeoutException e) {
+					if(firstMessage){
+						log.exception(e);
+					} else {
+						log.verboseDebug("Persistent connection from "+sock.getRemoteSocketAddress()+" closed or idle.");
+					}
+					break;
+				} catch (IOException e) {
+					log.exception(e);
+					break;
+				}
+				keepServing = serve(received, channel) && channel.isPersistent() && listenerRunning;
+				if(keepServing && firstMessage){
+					firstMessage = false;
+					try {
+						sock.setSoTimeout(WireProtocol.PERSISTENT_IDLE_MILLISECONDS_TIMEOUT);
+					} catch (SocketException e) {
+						log.exception(e);
+						break;
+					}
+				}
 			}
+			closeIfNotNull(channel);
+		}
+		
+		/**
+		 * Manage a message received by the listener.
+		 * 
+		 * @return <tt>false</tt> if the message is not valid and the connection should be closed
+		 */
+		private boolean serve(Object received, MessageChannel channel){
 			if(!(received instanceof ThickNodeMessages)){
 				if(received instanceof MinerMessages){
 					if(received instanceof MinerAddressNotification){
@@ -832,36 +904,26 @@ public class DefaultThickNode implements ThickNode {
 						}
 					} else if (received instanceof SubmitTransactionMessage){
 						SubmitTransactionMessage message = (SubmitTransactionMessage) received;
-						if(needsForwarding(message.getTransaction())){							
-							Runnable disseminator = new Runnable() {
-								@Override
-								public void run() {
-									sendTransactionSubmission(message);
-									return;								
-								}
-							};
-							Future<?> disseminatorFuture = pool.submit(disseminator);
-							try {
-								disseminatorFuture.get(1, TimeUnit.NANOSECONDS);
-							} catch (InterruptedException | ExecutionException e) {
-								log.exception(e);
-							} catch (TimeoutException e) {
-								log.verboseDebug("Thread running: forwarding received transaction.");
+						ArrayList<Transaction> toBeForwarded = new ArrayList<Transaction>();
+						for(Transaction transaction : message.getTransactions()){
+							recentTransactions.add(transaction);
+							if(needsForwarding(transaction)){
+								toBeForwarded.add(transaction);
 							}
 						}
+						forwardTransactions(toBeForwarded);
 					}
 				} else {						
 					//this object is not a valid message. we'll just discard it.
-					closeIfNotNull(sock);
-					return;
+					return false;
 				}
 			}
 			if(received instanceof SubmitNewBlockMessage){
 				SubmitNewBlockMessage newBlockMessage = (SubmitNewBlockMessage) received;
-				manageSubmission(newBlockMessage, sock);
+				manageSubmission(newBlockMessage, channel);
 			} else if(received instanceof BlockRequestMessage){
 				BlockRequestMessage newBlockRequest = (BlockRequestMessage) received;
-				manageBlockRequest(newBlockRequest, sock);
+				manageBlockRequest(newBlockRequest, channel);
 			} else if(received instanceof CommunicationMessage){
 				CommunicationMessage message = (CommunicationMessage) received;
 				if((message.getMessage() == CommunicationMessage.Type.PING_FROM_THICK) || (message.getMessage() == CommunicationMessage.Type.PING_FROM_THIN)){
@@ -872,7 +934,7 @@ public class DefaultThickNode implements ThickNode {
 						 if((message.getAttachment() instanceof InetSocketAddress) && (message.getMessage() == CommunicationMessage.Type.PING_FROM_THICK)){
 							justAdded = addNewThickNodeIfNotPresent((InetSocketAddress) message.getAttachment());
 						}
-						sendPingReply(sock);							
+						sendPingReply(channel);							
 					} else { // the node is up to another chain. delete it.
 						synchronized (otherThickNodes) {							
 							otherThickNodes.remove((InetSocketAddress)message.getAttachment());
@@ -880,16 +942,9 @@ public class DefaultThickNode implements ThickNode {
 						synchronized (maybeOffline) {							
 							maybeOffline.remove((InetSocketAddress)message.getAttachment());
 						}
-						sendRefuse(sock);
+						sendRefuse(channel);
 					}
 					if(justAdded){
-						try {
-							sock.close();
-						} catch (IOException e) {
-							log.exception(e);
-							return;
-						}
-						sock = null;
 						Block lastBlock = getLastBlockInChain();
 						InetSocketAddress newNode = (InetSocketAddress) message.getAttachment();
 						sendLastBlockNotification(lastBlock, newNode);
@@ -908,32 +963,58 @@ public class DefaultThickNode implements ThickNode {
 							}
 							log.verboseDebug("Miner address "+message.getAttachment()+" added to my list");
 						}
-						sendPingReply(sock);
+						sendPingReply(channel);
 					}
 				}
 			} else if(received instanceof LastBlockNotificationMessage){
-				LastBlockNotificationMessage message = (LastBlockNotificationMessage) received;
-				manageLastBlockNotification(message, sock);
+				final LastBlockNotificationMessage message = (LastBlockNotificationMessage) received;
+				// the sender does not wait for a reply: do not hold the connection while (maybe) updating the chain.
+				pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						manageLastBlockNotification(message);
+					}
+				});
+			} else if(received instanceof CompactBlockNotificationMessage){
+				final CompactBlockNotificationMessage message = (CompactBlockNotificationMessage) received;
+				// rebuilding the block may need a request to the sender: do it out of the listener as for whole blocks.
+				pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						manageCompactBlockNotification(message);
+					}
+				});
+			} else if(received instanceof BlockTransactionsRequestMessage){
+				BlockTransactionsRequestMessage message = (BlockTransactionsRequestMessage) received;
+				manageBlockTransactionsRequest(message, channel);
 			} else if(received instanceof ThickNodeAddressMessage || received instanceof MinerNodeAddressMessage){
 				NodeAddressMessage message = (NodeAddressMessage) received;
-				manageNodeAddressRequest(message, sock);
+				manageNodeAddressRequest(message, channel);
 			} else if(received instanceof BlockCompactRepresentationRequestMessage){
 				BlockCompactRepresentationRequestMessage message = (BlockCompactRepresentationRequestMessage) received;
-				manageBlockCompactRepresentationRequest(message, sock);
+				manageBlockCompactRepresentationRequest(message, channel);
 			} else if(received instanceof UpdatingChainBlockRequestMessage){
 				UpdatingChainBlockRequestMessage message = (UpdatingChainBlockRequestMessage) received;
-				manageUpdateChainRequest(message, sock, ois);
+				manageUpdateChainRequest(message, channel);
+			} else if(received instanceof HeaderChainRequestMessage){
+				HeaderChainRequestMessage message = (HeaderChainRequestMessage) received;
+				manageHeaderChainRequest(message, channel);
 			} else if(received instanceof TransactionBlockNumberMessage){
 				TransactionBlockNumberMessage message = (TransactionBlockNumberMessage) received;
-				manageTransactionBlockNumberRequest(message, sock);
+				manageTransactionBlockNumberRequest(message, channel);
 			}
-			closeIfNotNull(sock);
+			return true;
 		}
 		
 		public void stop(){
 			log.verboseDebug("Stop called!");
-			listenerRunning = false;
+			synchronized (this) {
+				listenerRunning = false;
+			}
 			try {
+				if(selectorListener != null){
+					selectorListener.close();
+				}
 				listeningSocket.close();
 				log.verboseDebug("Listening socket closed!");
 			} catch (IOException e) {
@@ -1004,6 +1085,7 @@ public class DefaultThickNode implements ThickNode {
 				if(rand.nextInt(3) == 1){ // with probability 1/3rd ask for a miner contact.
 					askNewMinerNodeAddress(rand);
 				}
+				connections.evictIdle();
 				int sleepTime = PING_MILLISECONDS_INTERTIME + (rand.nextInt(PING_MILLISECONDS_VARIABILITY*2) - PING_MILLISECONDS_VARIABILITY);
 				log.debug("Pinger will sleep for "+sleepTime+" ms.");
 				Thread.sleep(sleepTime);
@@ -1032,47 +1114,12 @@ public class DefaultThickNode implements ThickNode {
 			}
 			log.verboseDebug("Asking "+nodeToAsk.toString()+" a new node contact");
 			ThickNodeAddressMessage requestMessage = new ThickNodeAddressMessage();
-			Socket sock = null;
-			try {
-				sock = new Socket(nodeToAsk.getAddress(), nodeToAsk.getPort());
-			} catch (IOException e) {
-				return;
-			}
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return;
-			}
-			try {
-				oos.writeObject(requestMessage);
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return;
-			}
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-				closeIfNotNull(sock);
-				return;
-			}
-			ObjectInputStream ois = null;
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return;
-			}
 			Object obj = null;
 			try {
-				obj = ois.readObject();
+				obj = connections.request(nodeToAsk, requestMessage);
 			} catch (ClassNotFoundException e) {
-				closeIfNotNull(sock);
 				return;
 			} catch (IOException e) {
-				closeIfNotNull(sock);
 				return;
 			}
 			boolean addedNewNode = false;
@@ -1087,7 +1134,6 @@ public class DefaultThickNode implements ThickNode {
 					}
 				}
 			}
-			closeIfNotNull(sock);
 			if(addedNewNode && (newNode != null)){
 				Block lastBlock = getLastBlockInChain();
 				sendLastBlockNotification(lastBlock, newNode);
@@ -1112,47 +1158,12 @@ public class DefaultThickNode implements ThickNode {
 			}
 			log.verboseDebug("Asking "+nodeToAsk.toString()+" a new miner contact");
 			MinerNodeAddressMessage requestMessage = new MinerNodeAddressMessage();
-			Socket sock = null;
-			try {
-				sock = new Socket(nodeToAsk.getAddress(), nodeToAsk.getPort());
-			} catch (IOException e) {
-				return;
-			}
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return;
-			}
-			try {
-				oos.writeObject(requestMessage);
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return;
-			}
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-				closeIfNotNull(sock);
-				return;
-			}
-			ObjectInputStream ois = null;
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return;
-			}
 			Object obj = null;
 			try {
-				obj = ois.readObject();
+				obj = connections.request(nodeToAsk, requestMessage);
 			} catch (ClassNotFoundException e) {
-				closeIfNotNull(sock);
 				return;
 			} catch (IOException e) {
-				closeIfNotNull(sock);
 				return;
 			}
 			if(obj instanceof MinerNodeAddressMessage){
@@ -1172,7 +1183,6 @@ public class DefaultThickNode implements ThickNode {
 					}
 				}
 			}
-			closeIfNotNull(sock);
 			return;
 		}
 		
@@ -1236,54 +1246,25 @@ public class DefaultThickNode implements ThickNode {
 			
 			CommunicationMessage ping = new CommunicationMessage(Type.PING_FROM_THICK);
 			ping.attachInetSocketAddress(mySocketAddress);
-			Socket sock = null;
+			//send the ping and wait for a pong.
+			Object reply = null;
 			try {
-				sock = new Socket(toBePinged.getAddress(), toBePinged.getPort());
+				try {
+					reply = connections.request(toBePinged, ping);
+				} catch (ClassNotFoundException e) {
+					log.exception(e);
+				}							
 			} catch (IOException e) {
 				return false;
 			}
-			try {
-				ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-				oos.writeObject(ping);						
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return false;
-			}
-
-			//wait for a pong.
-			CommunicationMessage reply = null;
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-			}
-			try {
-				ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
-				try {
-					reply = (CommunicationMessage) ois.readObject();
-				} catch (ClassNotFoundException e) {
-					log.exception(e);
-				}							
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return false;
-			}
-			if(reply == null || reply.getMessage() != Type.PONG){
-				closeIfNotNull(sock);
+			if(!(reply instanceof CommunicationMessage) || ((CommunicationMessage) reply).getMessage() != Type.PONG){
 				return false;
 			} else {
-				InetSocketAddress otherNodeAddress = (InetSocketAddress) reply.getAttachment();
-				if(!otherNodeAddress.equals(toBePinged)){
-					closeIfNotNull(sock);
+				InetSocketAddress otherNodeAddress = (InetSocketAddress) ((CommunicationMessage) reply).getAttachment();
+				if(!toBePinged.equals(otherNodeAddress)){
 					return false;
 				}
 			}
-
-			try {
-				sock.close();
-			} catch (IOException e) {
-				log.exception(e);
-			}
 			return true;
 		}
 		
@@ -1306,29 +1287,31 @@ public class DefaultThickNode implements ThickNode {
 		}
 	}
 	
-	private void manageTransactionBlockNumberRequest(TransactionBlockNumberMessage message, Socket sock){
-		if(message.isRequest()){
-			Transaction transaction = message.getTransaction();
-			long blockNumber = transcationLastOccurrence(transaction);
-			TransactionBlockNumberMessage reply = new TransactionBlockNumberMessage(blockNumber, transaction);
-			ObjectOutputStream oos;
+	private void closeIfNotNull(MessageChannel channel){
+		if(channel != null){
 			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
+				channel.close();
 			} catch (IOException e) {
 				log.exception(e);
-				return;
 			}
+		}
+	}
+	
+	private void manageTransactionBlockNumberRequest(TransactionBlockNumberMessage message, MessageChannel channel){
+		if(message.isRequest()){
+			Transaction transaction = message.getTransaction();
+			long blockNumber = transcationLastOccurrence(transaction);
+			TransactionBlockNumberMessage reply = new TransactionBlockNumberMessage(blockNumber, transaction);
 			try {
-				oos.writeObject(reply);
+				channel.writeMessage(reply);
 			} catch (IOException e) {
 				log.exception(e);
 				return;
 			}
 		}
-		closeIfNotNull(sock);
 	}
 	
-	private void manageNodeAddressRequest(NodeAddressMessage message, Socket sock){
+	private void manageNodeAddressRequest(NodeAddressMessage message, MessageChannel channel){
 		if(message.isRequest()){
 			List<InetSocketAddress> listOfContacts;
 			log.verboseDebug("Received an address request!");
@@ -1350,91 +1333,41 @@ public class DefaultThickNode implements ThickNode {
 					InetSocketAddress selectedAddress = listOfContacts.get(rand.nextInt(listOfContacts.size()));
 					log.verboseDebug("Replying to address request with"+selectedAddress);
 					ThickNodeAddressMessage reply = new ThickNodeAddressMessage(selectedAddress);
-					ObjectOutputStream oos;
 					try {
-						oos = new ObjectOutputStream(sock.getOutputStream());
-					} catch (IOException e) {
-						log.debug("Cannot open stream to send reply to address request. Aborting.");
-						return;
-					}
-					try {
-						oos.writeObject(reply);
+						channel.writeMessage(reply);
 					} catch (IOException e) {
 						log.debug("Cannot send reply to address request. Abort.");
 						return;
 					}					
 				} else {
 					log.verboseDebug("No other nodes of the requested type appears to be online. Sending a refuse message.");
-					sendRefuse(sock);
+					sendRefuse(channel);
 				}
 			} else {
 				log.verboseDebug("Sending a refuse message! Message chain name: "+message.getChainName()+" ; my chain name: "+props.getBlockChainName());
-				sendRefuse(sock);
+				sendRefuse(channel);
 			}
-			closeIfNotNull(sock);
 		}
 	}
 	
-	private void sendRefuse(Socket sock){
+	private void sendRefuse(MessageChannel channel){
 		CommunicationMessage deny = new CommunicationMessage(Type.REFUSED);
-		ObjectOutputStream oos;
-		try {
-			oos = new ObjectOutputStream(sock.getOutputStream());
-		} catch (IOException e) {
-			log.debug("Cannot open refuse message output stream. Aborting.");
-			return;
-		}
 		try {
-			oos.writeObject(deny);
+			channel.writeMessage(deny);
 		} catch (IOException e) {
 			log.debug("Cannot send refuse message. Aborting.");
 			return;
 		}
 	}
 	
-	private void manageLastBlockNotification(LastBlockNotificationMessage message, Socket sock) {
+	private void manageLastBlockNotification(LastBlockNotificationMessage message) {
 		Block myLastBlock = getLastBlockInChain();
 		Block receivedLastBlock = message.getLastBlock();
 		log.debug("Last block notified from the net. (Block: "+receivedLastBlock.getHeader()+")");
-		try {
-			sock.close();
-		} catch (IOException e2) {
-			log.exception(e2);
-		}
-		sock = null;
 		
 		if(myLastBlock.getHeader().getBlockNumber() > receivedLastBlock.getHeader().getBlockNumber()){
 			//my chain is the "good" one.
-			LastBlockNotificationMessage myReply = new LastBlockNotificationMessage(mySocketAddress, myLastBlock);
-			Socket replySocket = null;
-			try {
-				replySocket = new Socket(message.getThickNodeAddress().getAddress(), message.getThickNodeAddress().getPort());
-			} catch (IOException e) {
-				log.exception(e);
-				return;
-			}
-			ObjectOutputStream replyOos = null;
-			try {
-				replyOos = new ObjectOutputStream(replySocket.getOutputStream());
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(replySocket);
-				return;
-			}
-			try {
-				replyOos.writeObject(myReply);
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(replySocket);
-				return;
-			}
-			try {
-				replySocket.close();
-			} catch (IOException e) {
-				log.exception(e);
-				closeIfNotNull(replySocket);
-				return;
-			}
+			sendLastBlockNotification(myLastBlock, message.getThickNodeAddress());
 			log.debug("The notified block is of a shorter chain. Discarded.");
 		} else{
 			if(BlockUtils.nextBlockNumber(myLastBlock.getHeader()) == receivedLastBlock.getHeader().getBlockNumber()){
@@ -1470,6 +1403,95 @@ public class DefaultThickNode implements ThickNode {
 		}
 	}
 	
+	private void manageCompactBlockNotification(CompactBlockNotificationMessage message) {
+		BlockHeader header = message.getHeader();
+		log.debug("Compact block notified from the net. (Block: "+header+")");
+		Block block = getBlockFromHash(header.hash());
+		if(block == null){
+			block = rebuildCompactBlock(message);
+		}
+		if(block == null){
+			log.debug("Cannot rebuild the notified compact block. Requesting the whole block.");
+			block = sendBlockRequest(message.getThickNodeAddress(), new BlockRequestMessage(header.hash()));
+			if(block == null){
+				log.debug("Cannot retrieve the notified block. Discarded.");
+				return;
+			}
+		}
+		manageLastBlockNotification(new LastBlockNotificationMessage(message.getThickNodeAddress(), block));
+	}
+	
+	/**
+	 * Rebuild the {@link Block} announced by <tt>message</tt> from the recently seen
+	 * transactions, requesting the missing ones to the announcing node.
+	 * 
+	 * @return the rebuilt {@link Block} or <tt>null</tt> if it cannot be rebuilt (or it does not match its header)
+	 */
+	private Block rebuildCompactBlock(CompactBlockNotificationMessage message) {
+		BlockHeader header = message.getHeader();
+		ArrayList<Integer> missing = new ArrayList<Integer>();
+		ArrayList<Transaction> transactions = recentTransactions.match(header, message.getShortIds(), missing);
+		if(transactions.isEmpty()){
+			return null;
+		}
+		if(!missing.isEmpty()){
+			log.verboseDebug("Requesting "+missing.size()+" of "+transactions.size()+" transactions of block "+header.hash()+" to "+message.getThickNodeAddress());
+			int[] indexes = new int[missing.size()];
+			for(int i = 0; i < indexes.length; i++){
+				indexes[i] = missing.get(i);
+			}
+			Object obj;
+			try {
+				obj = connections.request(message.getThickNodeAddress(), new BlockTransactionsRequestMessage(header.hash(), indexes));
+			} catch (ClassNotFoundException | IOException e) {
+				log.exception(e);
+				return null;
+			}
+			if(!(obj instanceof BlockTransactionsRequestMessage)){
+				return null;
+			}
+			BlockTransactionsRequestMessage reply = (BlockTransactionsRequestMessage) obj;
+			ArrayList<Transaction> received = reply.getTransactions();
+			if(reply.isRequestMessage() || received == null || received.size() != indexes.length){
+				return null;
+			}
+			for(int i = 0; i < indexes.length; i++){
+				transactions.set(indexes[i], received.get(i));
+			}
+		}
+		Block block = new DefaultBlock(header, transactions);
+		if(!BlockUtils.validateBlockContent(block)){
+			log.debug("Rebuilt block "+header.hash()+" does not match its header.");
+			return null;
+		}
+		return block;
+	}
+	
+	private void manageBlockTransactionsRequest(BlockTransactionsRequestMessage message, MessageChannel channel){
+		if(message.isRequestMessage()){
+			Block found = getBlockFromHash(message.getBlockHash());
+			ArrayList<Transaction> transactions = null;
+			if(found != null){
+				ArrayList<Transaction> blockTransactions = found.getTransactions();
+				transactions = new ArrayList<Transaction>(message.getIndexes().length);
+				for(int index : message.getIndexes()){
+					if(index < 0 || index >= blockTransactions.size()){
+						transactions = null;
+						break;
+					}
+					transactions.add(blockTransactions.get(index));
+				}
+			}
+			BlockTransactionsRequestMessage reply = new BlockTransactionsRequestMessage(message.getBlockHash(), transactions);
+			try {
+				channel.writeMessage(reply);
+			} catch (IOException e) {
+				log.debug("Cannot send reply to block transactions request. Aborting.");
+				return;
+			}
+		}
+	}
+	
 	private void updateMyChain(Block lastBlockReceived, Block myLastBlock, InetAddress queriedThickNodeAddress, int queriedThickNodePort){
 		ArrayList<Block> newBranch = new ArrayList<Block>();
 		newBranch.add(lastBlockReceived);
@@ -1479,74 +1501,34 @@ public class DefaultThickNode implements ThickNode {
 			lastNeededBlock = myLastBlock.getHeader().getBlockNumber();
 		}
 		updatingChain = true;
-
-		Socket updateSocket = null;
-		try {
-			updateSocket = new Socket(queriedThickNodeAddress, queriedThickNodePort);
-		} catch (IOException e1) {
-			log.exception(e1);
-			updatingChain = false;
-			return;
-		}
-		ObjectOutputStream updateOos = null;
-		try {
-			updateOos = new ObjectOutputStream(updateSocket.getOutputStream());
-		} catch (IOException e1) {
-			log.exception(e1);
-			closeIfNotNull(updateSocket);
-			updatingChain = false;
-			return;
+		
+		BlockChainProperties properties = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
+		if(properties.isHeadersFirstSync()){
+			if(updateMyChainHeadersFirst(new InetSocketAddress(queriedThickNodeAddress, queriedThickNodePort), properties.getSyncPeers())){
+				updatingChain = false;
+				return;
+			}
+			log.debug("Headers first update failed. Falling back to block by block update.");
 		}
-		ObjectInputStream updateOis = null;
 
-		while (neededBlock >= lastNeededBlock) {
-			//request blocks
-			UpdatingChainBlockRequestMessage blockRequest = new UpdatingChainBlockRequestMessage(neededBlock);
-			try {
-				updateOos.writeObject(blockRequest);
-			} catch (IOException e1) {
-				log.exception(e1);
-			}
-			if(updateOis == null){						
-				try {
-					updateOis = new ObjectInputStream(updateSocket.getInputStream());
-				} catch (IOException e1) {
-					log.exception(e1);
+		InetSocketAddress queriedThickNode = new InetSocketAddress(queriedThickNodeAddress, queriedThickNodePort);
+		UpdatingChainSession session = null;
+		try {
+			session = new UpdatingChainSession(queriedThickNode);
+			if(neededBlock >= lastNeededBlock){
+				for(Block block : session.requestRange(lastNeededBlock, neededBlock)){
+					log.verboseDebug("Getting blocks to update my chain. Received: "+block.getHeader());
+					newBranch.add(block);
 				}
 			}
-			UpdatingChainBlockRequestMessage blockReply = null;
-			try {
-				blockReply = (UpdatingChainBlockRequestMessage) updateOis.readObject();
-			} catch (ClassNotFoundException e) {
-				log.exception(e);
-			} catch (IOException e) {
-				log.exception(e);
-			}
-			if(blockReply.getMessageType() == raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type.BLOCK_REPLY){
-				log.verboseDebug("Getting blocks to update my chain. Received: "+blockReply.getBlock().getHeader());
-				newBranch.add(blockReply.getBlock());
-			}
-			try {
-				updateOos.flush();
-			} catch (IOException e) {
-				log.exception(e);
-			}
-
-			neededBlock= neededBlock-1;
-		}
-		UpdatingChainBlockRequestMessage updateDone = new UpdatingChainBlockRequestMessage();
-		try {
-			updateOos.writeObject(updateDone);
 		} catch (IOException e) {
 			log.exception(e);
-			closeIfNotNull(updateSocket);
 			updatingChain = false;
 			return;
-		}
-		try {
-			updateSocket.close();
-		} catch (IOException e) {
-			log.exception(e);
+		} finally {
+			if(session != null){
+				session.close();
+			}
 		}
 
 		Collections.sort(newBranch, new BlockNumberComparator());
@@ -1565,96 +1547,30 @@ public class DefaultThickNode implements ThickNode {
 				deletionStartingPoint = 0;
 			} else {
 				//I must find the first common block.
+				//walk back my chain, FORK_SEARCH_RANGE blocks per request, until a block of the other chain equals mine.
+				long forkPoint = -1;
 				try {
-					updateSocket = new Socket(queriedThickNodeAddress, queriedThickNodePort);
-				} catch (IOException e1) {
-					log.exception(e1);
-					updatingChain = false;
-					return;
-				}
-				try {
-					updateOos = new ObjectOutputStream(updateSocket.getOutputStream());
+					session = new UpdatingChainSession(queriedThickNode);
+					forkPoint = session.searchForkPoint(myLastBlock.getHeader().getBlockNumber() - 1, FORK_SEARCH_RANGE, database::getBlockByNumber, newBranch);
 				} catch (IOException e) {
 					log.exception(e);
-					closeIfNotNull(updateSocket);
 					updatingChain = false;
 					return;
-				}
-				long insertionPoint = myLastBlock.getHeader().getBlockNumber() - 1;
-				UpdatingChainBlockRequestMessage blockRequest = new UpdatingChainBlockRequestMessage(insertionPoint);
-				try {
-					updateOos.writeObject(blockRequest);
-				} catch (IOException e1) {
-					log.exception(e1);
-				}
-				try {
-					updateOis = new ObjectInputStream(updateSocket.getInputStream());
-				} catch (IOException e1) {
-					log.exception(e1);
-				}
-				UpdatingChainBlockRequestMessage blockReply = null;
-				try {
-					blockReply = (UpdatingChainBlockRequestMessage) updateOis.readObject();
-				} catch (ClassNotFoundException e) {
-					log.exception(e);
-				} catch (IOException e) {
-					log.exception(e);
-				}
-				Block forkBlock = database.getBlockByNumber(insertionPoint);
-				while(blockReply != null && !blockReply.getBlock().equals(forkBlock) && insertionPoint >= 0){
-					newBranch.add(blockReply.getBlock());
-					log.verboseDebug("This block is not jet the fork point. "+blockReply.getBlock().getHeader());
-					insertionPoint = insertionPoint-1;
-					if(insertionPoint >= 0){								
-						forkBlock = database.getBlockByNumber(insertionPoint);
-						blockRequest = new UpdatingChainBlockRequestMessage(insertionPoint);
-						try {
-							updateOos.writeObject(blockRequest);
-						} catch (IOException e1) {
-							log.exception(e1);
-						}
-						try {
-							blockReply = (UpdatingChainBlockRequestMessage) updateOis.readObject();
-						} catch (ClassNotFoundException e) {
-							log.exception(e);
-						} catch (IOException e) {
-							log.exception(e);
-						}
-					}
-				}
-				if(blockReply != null && blockReply.getBlock().equals(forkBlock)){ // in case loop was never entered
-					if(!newBranch.contains(blockReply.getBlock())){								
-						newBranch.add(blockReply.getBlock());
+				} finally {
+					if(session != null){
+						session.close();
 					}
 				}
-				updateDone = new UpdatingChainBlockRequestMessage();
-				try {
-					updateOos.writeObject(updateDone);
-				} catch (IOException e) {
-					log.exception(e);
-					closeIfNotNull(updateSocket);
-					updatingChain = false;
-					return;
-				}
-				try {
-					updateSocket.close();
-				} catch (IOException e) {
-					log.exception(e);
-				}
-				if(newBranch.size() == 0){
-					log.warning("Something went wrong retrieving the blocks. Aborting this.");
+				if(forkPoint < 0){
+					log.warning("No common block found with the other chain. Aborting this.");
 					updatingChain = false;
 					return;
 				}
 				Collections.sort(newBranch, new BlockNumberComparator());
-				deletionStartingPoint = newBranch.get(0).getHeader().getBlockNumber()-1;
-				if(deletionStartingPoint > 0){							
-					prevBlock = database.getBlockByNumber(deletionStartingPoint);
-					log.debug("Update of my chain will start after "+prevBlock.getHeader());
-				} else {
-					prevBlock = null;
-					log.debug("Update of my chain will start from block ZERO");
-				}
+				//the common block stays in my chain: the new branch starts right after it.
+				deletionStartingPoint = forkPoint;
+				prevBlock = database.getBlockByNumber(forkPoint);
+				log.debug("Update of my chain will start after "+prevBlock.getHeader());
 			}
 		} else {
 			if(lastNeededBlock != 0){				
@@ -1667,18 +1583,7 @@ public class DefaultThickNode implements ThickNode {
 			Collections.sort(newBranch, new BlockNumberComparator());
 		}
 
-		branchIsValid = BlockUtils.validateConsecutiveBlocks(newBranch.get(0), prevBlock, false, 0);
-		prevBlock = newBranch.get(0);
-		if(branchIsValid){				
-			for(int i=1; i < newBranch.size(); i++){
-				branchIsValid = BlockUtils.validateConsecutiveBlocks(newBranch.get(i), prevBlock, false, 0, newBranch);
-				if(!branchIsValid){
-					log.verboseDebug("Validation failed!\nvalidating block: "+newBranch.get(i).getHeader()+"\nvs block: "+prevBlock.getHeader());
-					break;
-				}
-				prevBlock = newBranch.get(i);
-			}
-		}
+		branchIsValid = BranchValidator.getValidator().validateBranch(newBranch, prevBlock);
 
 		if(branchIsValid && deletionStartingPoint >=0){
 			//the branch continue from my last block. update my chain.
@@ -1687,7 +1592,7 @@ public class DefaultThickNode implements ThickNode {
 				ArrayList<Block> originalBlocks = new ArrayList<Block>();
 				Block lastBlock = getLastBlockInChain();
 				long index = lastBlock.getHeader().getBlockNumber();
-				if(deletionStartingPoint > 0){						
+				if(prevBlock != null){						
 					while (lastBlock.getHeader().getBlockNumber() > deletionStartingPoint) {
 						originalBlocks.add(lastBlock);
 						log.verboseDebug("Putting aside "+lastBlock.getHeader());
@@ -1740,6 +1645,61 @@ public class DefaultThickNode implements ThickNode {
 		updatingChain = false;
 	}
 	
+	/**
+	 * Update my chain with {@link HeadersFirstSynchronizer}.
+	 * 
+	 * @return <tt>false</tt> if the branch could not be downloaded (and the update should be tried again in another way)
+	 */
+	private boolean updateMyChainHeadersFirst(InetSocketAddress source, int syncPeers){
+		ArrayList<InetSocketAddress> peers;
+		synchronized (otherThickNodes) {
+			peers = new ArrayList<InetSocketAddress>(otherThickNodes);
+		}
+		HeadersFirstSynchronizer synchronizer = new HeadersFirstSynchronizer(database, pool, syncPeers, connections);
+		HeadersFirstSynchronizer.DownloadedBranch branch = synchronizer.download(source, peers);
+		if(branch == null){
+			return false;
+		}
+		if(!branch.isValid()){
+			log.debug("Branch is not valid. Aborting update.");
+			return true;
+		}
+		
+		long firstBlockNumber = branch.getFirstBlockNumber();
+		BlockHeader myLastHeader = database.getLastBlockHeaderInChain(false);
+		if(myLastHeader != null && myLastHeader.getBlockNumber() >= firstBlockNumber){
+			log.verboseDebug("Starting deletion of \"old\" blocks from my chain.");
+			ArrayList<Block> originalBlocks = new ArrayList<Block>();
+			for(long index = myLastHeader.getBlockNumber(); index >= firstBlockNumber; index--){
+				Block original = database.getBlockByNumber(index);
+				if(original != null){
+					originalBlocks.add(original);
+					log.verboseDebug("Putting aside "+original.getHeader());
+				}
+			}
+			if(!database.deleteBlocksBulk(originalBlocks)){
+				log.warning("Something went wrong deleting blocks! Aborting...");
+				return true;
+			}
+			log.verboseDebug("My original blocks were deleted.");
+		}
+		
+		log.debug("Now I'll insert the "+branch.getBlocks().size()+" blocks received in the DB.");
+		for(Block block : branch.getBlocks()){
+			if(!insertPreValidatedBlock(block)){
+				log.warning("Something went wrong. A block was not inserted: "+block.getHeader());
+				break;
+			}
+		}
+		BlockHeader lastHeader = getLastBlockHeaderInChain();
+		synchronized (registeredListeners) {							
+			for(LocalThickNodeListener listener : registeredListeners){
+				listener.notifyNewBlockHeaderFromNet(lastHeader);
+			}
+		}
+		return true;
+	}
+	
 	private class BlockNumberComparator implements Comparator<Block>{
 		@Override
 		public int compare(Block o1, Block o2) {
@@ -1747,49 +1707,65 @@ public class DefaultThickNode implements ThickNode {
 		}
 	}
 	
-	private void manageUpdateChainRequest(UpdatingChainBlockRequestMessage message, Socket sock, ObjectInputStream ois){
+	private void manageUpdateChainRequest(UpdatingChainBlockRequestMessage message, MessageChannel channel){
 		UpdatingChainBlockRequestMessage receivedMessage = message;
-		ObjectOutputStream oos = null;
 		while (receivedMessage.getMessageType() != raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type.DONE_BYE) {
-			if(receivedMessage.getMessageType() == raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type.BLOCK_REQUEST){
-				log.verboseDebug("Got an update request for blok #"+receivedMessage.getBlockNumber());
-				BlockHeader header = getBlockHeaderByNumber(receivedMessage.getBlockNumber());
-				Block block = null;
-				if(header != null){
-					block = getBlockFromHeader(header);
-				}
-				log.verboseDebug("Reply with block "+block.getHeader());
-				UpdatingChainBlockRequestMessage reply = new UpdatingChainBlockRequestMessage(block);
-				if(oos == null){					
-					try {
-						oos = new ObjectOutputStream(sock.getOutputStream());
-					} catch (IOException e) {
-						log.exception(e);
-					}
-				}
-				try {
-					oos.writeObject(reply);
-					log.verboseDebug("Reply sent.");
-				} catch (IOException e) {
-					log.exception(e);
-				}
-				try {
-					oos.flush();
-				} catch (IOException e1) {
-					log.exception(e1);
-				}
-				try {
-					receivedMessage = (UpdatingChainBlockRequestMessage) ois.readObject();
-				} catch (ClassNotFoundException e) {
-					log.exception(e);
-				} catch (IOException e) {
-					log.exception(e);
+			try {
+				switch (receivedMessage.getMessageType()) {
+				case BLOCK_REQUEST:
+					log.verboseDebug("Got an update request for blok #"+receivedMessage.getBlockNumber());
+					Block block = database.getBlockByNumber(receivedMessage.getBlockNumber());
+					log.verboseDebug("Reply with block "+(block == null ? null : block.getHeader()));
+					channel.writeMessage(new UpdatingChainBlockRequestMessage(block));
+					break;
+				case RANGE_REQUEST:
+					sendBlockRange(receivedMessage, channel);
+					break;
+				default:
+					log.debug("Unexpected update request: "+receivedMessage.getMessageType()+". Closing.");
+					return;
 				}
+				log.verboseDebug("Reply sent.");
+			} catch (IOException e) {
+				log.exception(e);
+				return;
+			}
+			try {
+				receivedMessage = (UpdatingChainBlockRequestMessage) channel.readMessage();
+			} catch (ClassNotFoundException e) {
+				log.exception(e);
+				return;
+			} catch (IOException e) {
+				log.exception(e);
+				return;
 			}
 		}
 		log.debug("The other node is done. Bye bye.");
 	}
 	
+	/**
+	 * Stream the blocks requested by a range request, stopping at the first
+	 * missing block or when the requested amount of bytes has been sent.
+	 */
+	private void sendBlockRange(UpdatingChainBlockRequestMessage request, MessageChannel channel) throws IOException{
+		log.verboseDebug("Got an update request for bloks #"+request.getBlockNumber()+" - #"+request.getToBlockNumber());
+		long sentBytes = channel.getWrittenBytes();
+		long lastSent = request.getBlockNumber() - 1;
+		for(long blockNumber = request.getBlockNumber(); blockNumber <= request.getToBlockNumber(); blockNumber++){
+			Block block = database.getBlockByNumber(blockNumber);
+			if(block == null){
+				break;
+			}
+			channel.writeMessage(new UpdatingChainBlockRequestMessage(block));
+			lastSent = blockNumber;
+			if(channel.getWrittenBytes() - sentBytes >= request.getMaxBytes()){
+				break;
+			}
+		}
+		channel.writeMessage(UpdatingChainBlockRequestMessage.rangeEnd(lastSent));
+		log.verboseDebug("Sent bloks #"+request.getBlockNumber()+" - #"+lastSent);
+	}
+	
 	/**
 	 * Looks up in the list of other {@link ThickNode}s and if
 	 * it is not present then add the address to the list.
@@ -1858,7 +1834,31 @@ public class DefaultThickNode implements ThickNode {
 		}
 	}
 	
-	private void manageBlockRequest(BlockRequestMessage message, Socket sock){
+	private void manageHeaderChainRequest(HeaderChainRequestMessage message, MessageChannel channel){
+		if(message.isRequestMessage()){
+			ArrayList<BlockHeader> headers = new ArrayList<BlockHeader>();
+			long blockNumber = message.getFromBlockNumber();
+			int count = Math.min(message.getCount(), HeaderChainRequestMessage.MAX_HEADERS);
+			while(headers.size() < count){
+				BlockHeader header = getBlockHeaderByNumber(blockNumber);
+				if(header == null){
+					break;
+				}
+				headers.add(header);
+				blockNumber++;
+			}
+			log.verboseDebug("Replying with "+headers.size()+" headers from block #"+message.getFromBlockNumber());
+			HeaderChainRequestMessage reply = new HeaderChainRequestMessage(message.getFromBlockNumber(), headers);
+			try {
+				channel.writeMessage(reply);
+			} catch (IOException e) {
+				log.debug("Cannot send reply to headers request. Aborting.");
+				return;
+			}
+		}
+	}
+	
+	private void manageBlockRequest(BlockRequestMessage message, MessageChannel channel){
 		if(message.isRequestMessage()){
 			Block found;
 			switch (message.getTypeOfRequest()) {
@@ -1901,15 +1901,8 @@ public class DefaultThickNode implements ThickNode {
 					break;
 				}
 			}
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				log.debug("Cannot open stream to reply to block request. Aborting.");
-				return;
-			}
 			try {
-				oos.writeObject(reply);
+				channel.writeMessage(reply);
 			} catch (IOException e) {
 				log.debug("Cannot send reply to block request. Aborting.");
 				return;
@@ -1917,7 +1910,7 @@ public class DefaultThickNode implements ThickNode {
 		}
 	}
 	
-	private void manageBlockCompactRepresentationRequest(BlockCompactRepresentationRequestMessage message, Socket sock){
+	private void manageBlockCompactRepresentationRequest(BlockCompactRepresentationRequestMessage message, MessageChannel channel){
 		if(message.isRequestMessage()){
 			BlockCompactRepresentation found = null;
 			BlockHeader header = null;
@@ -1970,15 +1963,8 @@ public class DefaultThickNode implements ThickNode {
 					break;
 				}
 			}
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				log.exception(e);
-				return;
-			}
 			try {
-				oos.writeObject(reply);
+				channel.writeMessage(reply);
 			} catch (IOException e) {
 				log.exception(e);
 				return;
@@ -1986,18 +1972,11 @@ public class DefaultThickNode implements ThickNode {
 		}
 	}
 
-	private void sendPingReply(Socket sock) {
+	private void sendPingReply(MessageChannel channel) {
 		CommunicationMessage reply = new CommunicationMessage(CommunicationMessage.Type.PONG);
 		reply.attachInetSocketAddress(mySocketAddress);
-		ObjectOutputStream oos;
 		try {
-			oos = new ObjectOutputStream(sock.getOutputStream());
-		} catch (IOException e) {
-			log.debug("Cannot open stream to send pong.");
-			return;
-		}
-		try {
-			oos.writeObject(reply);
+			channel.writeMessage(reply);
 		} catch (IOException e) {
 			log.debug("Exception sending pong.");
 			return;
@@ -2005,7 +1984,7 @@ public class DefaultThickNode implements ThickNode {
 		log.debug("Replyed with Pong");
 	}
 	
-	private void manageSubmission(SubmitNewBlockMessage message, Socket sock){
+	private void manageSubmission(SubmitNewBlockMessage message, MessageChannel channel){
 		Block receivedBlock = message.getBlock();
 		log.verboseDebug("Received a block from "+message.getSenderAddress()+": "+receivedBlock.getHeader());
 		boolean isInserted = false;
@@ -2026,18 +2005,10 @@ public class DefaultThickNode implements ThickNode {
 			reply = new CommunicationMessage(Type.REFUSED);
 			reply.attachBlockHeader(receivedBlock.getHeader());
 		}
-		ObjectOutputStream oos = null;
 		try {
-			oos = new ObjectOutputStream(sock.getOutputStream());
+			channel.writeMessage(reply);
 		} catch (IOException e) {
-			log.debug("Cannot open stream to send reply to the new block notification. Try to proceed anyway.");
-		}
-		if(oos != null){
-			try {
-				oos.writeObject(reply);
-			} catch (IOException e) {
-				log.debug("Cannot send reply to the new block notification. Try to proceed anyway.");
-			}
+			log.debug("Cannot send reply to the new block notification. Try to proceed anyway.");
 		}
 		
 		if(isInserted){
@@ -2074,38 +2045,43 @@ public class DefaultThickNode implements ThickNode {
 			nodesRetrieved.addAll(maybeOffline);
 		}
 		
-		List<InetSocketAddress> nodes = ImmutableList.copyOf(nodesRetrieved);
+		ArrayList<InetSocketAddress> compactNodes = new ArrayList<InetSocketAddress>();
+		ArrayList<InetSocketAddress> fullNodes = new ArrayList<InetSocketAddress>();
+		for(InetSocketAddress node : nodesRetrieved){
+			if(MessageChannel.getKnownVersion(node) >= WireProtocol.COMPACT_BLOCKS_VERSION){
+				compactNodes.add(node);
+			} else {
+				fullNodes.add(node);
+			}
+		}
 		
-		for(InetSocketAddress node : nodes){
-			sendLastBlockNotification(block, node);
+		if(!compactNodes.isEmpty()){
+			broadcaster.broadcast(compactNodes, new CompactBlockNotificationMessage(mySocketAddress, block), thickNodeOutcomes);
+		}
+		if(!fullNodes.isEmpty()){
+			broadcaster.broadcast(fullNodes, new LastBlockNotificationMessage(mySocketAddress, block), thickNodeOutcomes);
 		}
 	}
 	
+	/**
+	 * Notify <tt>block</tt> to <tt>address</tt>: nodes known to understand
+	 * compact blocks receive a {@link CompactBlockNotificationMessage},
+	 * the others the whole block.
+	 */
 	private void sendLastBlockNotification(Block block, InetSocketAddress address){
-		LastBlockNotificationMessage message = new LastBlockNotificationMessage(mySocketAddress, block);
-		try (Socket notificationSocket = new Socket(address.getAddress(), address.getPort())){			
-			ObjectOutputStream notificationOos;
-			try {
-				notificationOos = new ObjectOutputStream(notificationSocket.getOutputStream());
-			} catch (IOException e) {
-				log.debug("Cannot open stream to send last block notification. Aborting.");
-				closeIfNotNull(notificationSocket);
-				return;
-			}
-			try {
-				notificationOos.writeObject(message);
-			} catch (IOException e) {
-				log.debug("Cannot send last block notification. Aborting.");
-			}
-			closeIfNotNull(notificationSocket);
+		ThickNodeMessages message;
+		if(MessageChannel.getKnownVersion(address) >= WireProtocol.COMPACT_BLOCKS_VERSION){
+			message = new CompactBlockNotificationMessage(mySocketAddress, block);
+		} else {
+			message = new LastBlockNotificationMessage(mySocketAddress, block);
+		}
+		try {
+			connections.send(address, message);
 		} catch (ConnectException e) {
 			log.verboseDebug("Connection refused at "+address+". Aborting.");
 			return;
-		} catch (Exception e) {
-			log.exception(e);
-			for(Throwable t : e.getSuppressed()){
-				log.exception(t);
-			}
+		} catch (IOException e) {
+			log.debug("Cannot send last block notification. Aborting.");
 		}
 	}
 	
@@ -2118,30 +2094,8 @@ public class DefaultThickNode implements ThickNode {
 		synchronized (minerNodes) {			
 			miners = ImmutableList.copyOf(minerNodes);
 		}
-		for(InetSocketAddress miner : miners){
-			log.verboseDebug("Notify: @ "+miner+" : "+header);
-			Socket notificationSocket = null;
-			try {
-				notificationSocket = new Socket(miner.getAddress(), miner.getPort());
-			} catch (IOException e) {
-				log.debug("Cannot open socket. Aborting notification.");
-				continue;
-			}
-			ObjectOutputStream notificationOos = null;
-			try {
-				notificationOos = new ObjectOutputStream(notificationSocket.getOutputStream());
-			} catch (IOException e) {
-				log.debug("Cannot open stream. Aborting notification.");
-				continue;
-			}
-			try {
-				notificationOos.writeObject(notification);
-			} catch (IOException e) {
-				log.debug("Cannot send message. Aborting notification.");
-				continue;
-			}
-			closeIfNotNull(notificationSocket);					
-		}
+		log.verboseDebug("Notify: @ "+miners+" : "+header);
+		broadcaster.broadcast(miners, notification, minerOutcomes);
 	}
 
 	/**
@@ -2221,6 +2175,7 @@ public class DefaultThickNode implements ThickNode {
 			}
 		}
 		log.verboseDebug("Pinger stopped.");
+		connections.close();
 		myListener.stop();
 		log.verboseDebug("Stopping listener.");
 		while (!myListener.isStopped()) {
@@ -2262,6 +2217,30 @@ public class DefaultThickNode implements ThickNode {
 		BlockHeader header = database.getBlockHeaderByNumber(blockNumber);
 		return header;
 	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.CommonNode#getBlockHashByNumber(long)
+	 */
+	@Override
+	public HashValue getBlockHashByNumber(long blockNumber) {
+		return database.getBlockHashByNumber(blockNumber);
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.CommonNode#getBlockTimestampByNumber(long)
+	 */
+	@Override
+	public long getBlockTimestampByNumber(long blockNumber) {
+		return database.getBlockTimestampByNumber(blockNumber);
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.CommonNode#getBlockDifficultyByNumber(long)
+	 */
+	@Override
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber) {
+		return database.getBlockDifficultyByNumber(blockNumber);
+	}
 
 	@Override
 	public Block getBlockFromHash(HashValue hash) {
@@ -2315,92 +2294,89 @@ public class DefaultThickNode implements ThickNode {
 	@Override
 	public void submitTransaction(Transaction transaction) {
 		log.verboseDebug("Submitting transaction: "+transaction);
-		SubmitTransactionMessage message = new SubmitTransactionMessage(mySocketAddress, transaction);
+		recentTransactions.add(transaction);
 		if(needsForwarding(transaction)){			
-			sendTransactionSubmission(message);
+			forwardTransactions(Collections.singletonList(transaction));
+		}
+	}
+	
+	/**
+	 * Queue <tt>transactions</tt> to be forwarded. A single task at a time sends
+	 * the queued transactions: the ones queued while it is sending are sent
+	 * together by its next round, so that bursts are forwarded in batches.
+	 */
+	private void forwardTransactions(List<Transaction> transactions){
+		if(transactions.isEmpty()){
+			return;
+		}
+		transactionsToForward.addAll(transactions);
+		if(forwardingTransactions.compareAndSet(false, true)){
+			pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					drainTransactionsToForward();
+				}
+			});
 		}
 	}
 	
-	private void sendTransactionSubmission(SubmitTransactionMessage submission){
+	private void drainTransactionsToForward(){
+		while(true){
+			ArrayList<Transaction> batch = new ArrayList<Transaction>();
+			Transaction next;
+			while(batch.size() < SubmitTransactionMessage.MAX_TRANSACTIONS && (next = transactionsToForward.poll()) != null){
+				batch.add(next);
+			}
+			if(batch.isEmpty()){
+				forwardingTransactions.set(false);
+				// something may have been queued after the last poll, while no other task could be started.
+				if(transactionsToForward.isEmpty() || !forwardingTransactions.compareAndSet(false, true)){
+					return;
+				}
+				continue;
+			}
+			sendTransactionSubmission(batch);
+		}
+	}
+	
+	private void sendTransactionSubmission(List<Transaction> transactions){
 		List<InetSocketAddress> minerNodesCopy;
 		synchronized (minerNodes) {
 			minerNodesCopy = ImmutableList.copyOf(minerNodes);
 		}
+		ArrayList<InetSocketAddress> receivers = new ArrayList<InetSocketAddress>();
 		if(minerNodesCopy.size() > 0){			
-			for(InetSocketAddress miner : minerNodesCopy){
-				try (Socket sock = new Socket(miner.getAddress(), miner.getPort())){				
-					ObjectOutputStream oos = null;
-					try {
-						oos = new ObjectOutputStream(sock.getOutputStream());
-					} catch (IOException e) {
-						log.debug("Cannot open stream to miner node. Aborting submission.");
-						closeIfNotNull(sock);
-						continue;
-					}
-					try {
-						oos.writeObject(submission);
-					} catch (IOException e) {
-						log.exception(e);
-						closeIfNotNull(sock);
-						continue;
-					}
-					log.verboseDebug("Sent transaction "+submission.getTransaction()+" to "+miner);
-					closeIfNotNull(sock);
-				} catch (Exception e) {
-					log.exception(e);
-					for(Throwable t : e.getSuppressed()){
-						log.exception(t);
-					}
-				}
-			}
+			receivers.addAll(minerNodesCopy);
 		} else {
-			ArrayList<InetSocketAddress> allThickNodes = new ArrayList<InetSocketAddress>();
 			synchronized (otherThickNodes) {				
-				allThickNodes.addAll(otherThickNodes);
+				receivers.addAll(otherThickNodes);
 			}
 			synchronized (maybeOffline) {				
-				allThickNodes.addAll(maybeOffline);
+				receivers.addAll(maybeOffline);
 			}
-			for(InetSocketAddress node : allThickNodes){
-				Socket sock = null;
-				try {
-					sock = new Socket(node.getAddress(), node.getPort());
-				} catch (IOException e) {
-					log.verboseDebug("Troubles opening socket to "+node+". Aborting.");
-					continue;
-				}
-				ObjectOutputStream oos = null;
-				try {
-					oos = new ObjectOutputStream(sock.getOutputStream());
-				} catch (IOException e) {
-					log.verboseDebug("Troubles opening OutputStream to "+node+". Aborting.");
-					closeIfNotNull(sock);
-					continue;
-				}
-				try {
-					oos.writeObject(submission);
-				} catch (IOException e) {
-					log.verboseDebug("Troubles writing message in OutputStream to "+node+". Aborting.");
-					closeIfNotNull(sock);
-					continue;
-				}
-				try {
-					sock.close();
-				} catch (IOException e) {
-					log.verboseDebug("Troubles closing socket to "+node+". Aborting.");
-					continue;
-				}
-				log.verboseDebug("Forwarded transaction "+submission.getTransaction()+" to thick node "+node);
+		}
+		ArrayList<InetSocketAddress> batchReceivers = new ArrayList<InetSocketAddress>();
+		ArrayList<InetSocketAddress> singleReceivers = new ArrayList<InetSocketAddress>();
+		for(InetSocketAddress receiver : receivers){
+			if(MessageChannel.getKnownVersion(receiver) >= WireProtocol.BATCHED_TRANSACTIONS_VERSION){
+				batchReceivers.add(receiver);
+			} else {
+				singleReceivers.add(receiver);
 			}
 		}
+		if(!batchReceivers.isEmpty()){
+			broadcaster.broadcast(batchReceivers, new SubmitTransactionMessage(mySocketAddress, transactions), null);
+		}
+		if(!singleReceivers.isEmpty()){
+			for(Transaction transaction : transactions){
+				broadcaster.broadcast(singleReceivers, new SubmitTransactionMessage(mySocketAddress, transaction), null);
+			}
+		}
+		log.verboseDebug("Forwarded "+transactions.size()+" transactions to "+receivers.size()+(minerNodesCopy.size() > 0 ? " miners." : " thick nodes."));
 	}
 	
 	private boolean needsForwarding(Transaction transaction){
-		if(!forwardedTransactions.contains(transaction)){
-			if(forwardedTransactions.size()>20){
-				forwardedTransactions.remove();
-			}
-			forwardedTransactions.add(transaction);
+		if(relayFilter.add(transaction)){
 			log.verboseDebug("Transaction "+transaction+" is to be forwarded, and is added to already-forwarded list.");
 			return true;
 		} else {
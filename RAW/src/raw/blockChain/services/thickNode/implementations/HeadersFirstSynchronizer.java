@@ -0,0 +1,434 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.implementations;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Merkler;
+import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.blockChain.api.implementations.utils.BlockUtils;
+import raw.blockChain.services.dbHelper.BlocksToDataBase;
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.messages.PeerConnectionPool;
+import raw.blockChain.services.thickNode.ThickNode;
+import raw.blockChain.services.thickNode.messages.types.HeaderChainRequestMessage;
+import raw.logger.Log;
+
+/**
+ * Downloads a branch of the chain from other {@link ThickNode}s in two phases:
+ * <ol>
+ * <li>the headers following the last common block are requested (in batches of
+ * {@link HeaderChainRequestMessage#MAX_HEADERS}) to a single node and validated
+ * (proof of work, linkage and difficulty) as they arrive;</li>
+ * <li>the blocks of the validated headers are downloaded in parallel from several
+ * nodes. Each node keeps one range request (of {@link HeadersFirstSynchronizer#RANGE_SIZE}
+ * blocks) in flight over an {@link UpdatingChainSession}; requests never go further than
+ * {@link HeadersFirstSynchronizer#WINDOW_SIZE} blocks beyond the first missing one,
+ * blocks arriving out of order are put back in place and each block is checked
+ * against its (already validated) header and merkle root.</li>
+ * </ol>
+ * 
+ * @author vic
+ *
+ */
+public class HeadersFirstSynchronizer {
+	
+	/**
+	 * The maximum distance between the first missing block
+	 * and the farthest requested one.
+	 */
+	public static final int WINDOW_SIZE = 256;
+	
+	/**
+	 * The number of blocks requested at once to a node.
+	 */
+	public static final int RANGE_SIZE = 16;
+	
+	private BlocksToDataBase database;
+	private ExecutorService pool;
+	private int maxPeers;
+	private PeerConnectionPool connections;
+	
+	private Log log;
+	
+	/**
+	 * @param database the local chain copy
+	 * @param pool the {@link ExecutorService} running the downloads
+	 * @param maxPeers the maximum number of nodes blocks are downloaded from
+	 */
+	public HeadersFirstSynchronizer(BlocksToDataBase database, ExecutorService pool, int maxPeers) {
+		this(database, pool, maxPeers, null);
+	}
+	
+	/**
+	 * @param database the local chain copy
+	 * @param pool the {@link ExecutorService} running the downloads
+	 * @param maxPeers the maximum number of nodes blocks are downloaded from
+	 * @param connections the {@link PeerConnectionPool} headers are requested through (if <tt>null</tt> a connection is opened for each request)
+	 */
+	public HeadersFirstSynchronizer(BlocksToDataBase database, ExecutorService pool, int maxPeers, PeerConnectionPool connections) {
+		this.database = database;
+		this.pool = pool;
+		this.maxPeers = Math.max(1, maxPeers);
+		this.connections = connections;
+		log = Log.getLogger();
+	}
+	
+	/**
+	 * Download from <tt>source</tt> the branch of its chain following the last block
+	 * shared with the local chain. Blocks are downloaded from <tt>source</tt> and
+	 * from up to {@link HeadersFirstSynchronizer#maxPeers} - 1 nodes of <tt>otherPeers</tt>.
+	 * 
+	 * @param source the node whose chain is downloaded
+	 * @param otherPeers other nodes blocks may be downloaded from
+	 * @return the downloaded branch or <tt>null</tt> if it could not be downloaded (e.g. <tt>source</tt> does not answer to headers requests)
+	 */
+	public DownloadedBranch download(InetSocketAddress source, List<InetSocketAddress> otherPeers){
+		BlockHeader myTop = database.getLastBlockHeaderInChain(false);
+		long myTopNumber = myTop == null ? -1 : myTop.getBlockNumber();
+		
+		long firstBlockNumber = findForkPoint(source, myTopNumber + 1);
+		if(firstBlockNumber < 0){
+			return null;
+		}
+		log.debug("Headers first update will start from block #"+firstBlockNumber);
+		
+		ArrayList<BlockHeader> headers = new ArrayList<BlockHeader>();
+		BlockHeader previous = firstBlockNumber > 0 ? database.getBlockHeaderByNumber(firstBlockNumber - 1) : null;
+		long next = firstBlockNumber;
+		while(true){
+			ArrayList<BlockHeader> received = requestHeaders(source, next, HeaderChainRequestMessage.MAX_HEADERS);
+			if(received == null){
+				return null;
+			}
+			for(BlockHeader header : received){
+				if(header.getBlockNumber() != next || !BlockUtils.validateHeaderContent(header) || !BlockUtils.validateHeaderLinkage(header, previous, headers)){
+					log.debug("Invalid header received: "+header);
+					return new DownloadedBranch(firstBlockNumber, null);
+				}
+				headers.add(header);
+				previous = header;
+				next++;
+			}
+			if(received.size() < HeaderChainRequestMessage.MAX_HEADERS){
+				break;
+			}
+		}
+		log.debug("Received and validated "+headers.size()+" headers.");
+		if(firstBlockNumber + headers.size() - 1 <= myTopNumber){
+			// the other chain is not longer than mine.
+			return new DownloadedBranch(firstBlockNumber, null);
+		}
+		
+		ArrayList<InetSocketAddress> peers = new ArrayList<InetSocketAddress>(otherPeers);
+		peers.remove(source);
+		Collections.shuffle(peers);
+		peers.add(0, source);
+		while(peers.size() > maxPeers){
+			peers.remove(peers.size() - 1);
+		}
+		
+		Block[] blocks = downloadBlocks(headers, peers);
+		if(blocks == null){
+			return null;
+		}
+		return new DownloadedBranch(firstBlockNumber, new ArrayList<Block>(Arrays.asList(blocks)));
+	}
+	
+	/**
+	 * Search backwards (doubling the step at each attempt) the first block
+	 * number after which the chain of <tt>source</tt> continues the local one.
+	 * 
+	 * @return the first block number of the branch or -1 if <tt>source</tt> did not reply
+	 */
+	private long findForkPoint(InetSocketAddress source, long candidate){
+		long step = 1;
+		while(candidate > 0){
+			ArrayList<BlockHeader> received = requestHeaders(source, candidate, 1);
+			if(received == null || received.isEmpty()){
+				return -1;
+			}
+			BlockHeader mine = database.getBlockHeaderByNumber(candidate - 1);
+			if(mine != null && received.get(0).previousBlock().equals(mine.hash())){
+				return candidate;
+			}
+			candidate = Math.max(0, candidate - step);
+			step = step * 2;
+		}
+		return 0;
+	}
+	
+	private ArrayList<BlockHeader> requestHeaders(InetSocketAddress peer, long fromBlockNumber, int count){
+		MessageChannel channel = null;
+		try {
+			HeaderChainRequestMessage request = new HeaderChainRequestMessage(fromBlockNumber, count);
+			Object received;
+			if(connections != null){
+				received = connections.request(peer, request);
+			} else {
+				channel = MessageChannel.connect(peer);
+				channel.writeMessage(request);
+				received = channel.readMessage();
+			}
+			if(received instanceof HeaderChainRequestMessage && !((HeaderChainRequestMessage) received).isRequestMessage()){
+				return ((HeaderChainRequestMessage) received).getHeaders();
+			}
+			log.debug("Unexpected reply to headers request from "+peer);
+		} catch (IOException | ClassNotFoundException e) {
+			log.debug("Headers request to "+peer+" failed: "+e.getMessage());
+		} finally {
+			closeIfNotNull(channel);
+		}
+		return null;
+	}
+	
+	private Block[] downloadBlocks(ArrayList<BlockHeader> headers, List<InetSocketAddress> peers){
+		long firstBlockNumber = headers.get(0).getBlockNumber();
+		DownloadWindow window = new DownloadWindow(headers.size(), peers.size());
+		for(InetSocketAddress peer : peers){
+			pool.submit(new BlockDownloader(peer, headers, firstBlockNumber, window));
+		}
+		Block[] blocks = null;
+		try {
+			blocks = window.awaitBlocks();
+		} catch (InterruptedException e) {
+			log.exception(e);
+			window.abort();
+			Thread.currentThread().interrupt();
+		}
+		if(blocks == null){
+			log.debug("Blocks download failed.");
+		}
+		return blocks;
+	}
+	
+	private void closeIfNotNull(MessageChannel channel){
+		if(channel != null){
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.exception(e);
+			}
+		}
+	}
+	
+	/**
+	 * A branch of the chain downloaded by {@link HeadersFirstSynchronizer#download(InetSocketAddress, List)}.
+	 */
+	public static class DownloadedBranch {
+		
+		private long firstBlockNumber;
+		private ArrayList<Block> blocks;
+		
+		private DownloadedBranch(long firstBlockNumber, ArrayList<Block> blocks) {
+			this.firstBlockNumber = firstBlockNumber;
+			this.blocks = blocks;
+		}
+		
+		/**
+		 * @return <tt>true</tt> if a valid branch, longer than the local chain, was downloaded
+		 */
+		public boolean isValid(){
+			return blocks != null;
+		}
+		
+		/**
+		 * @return the block number of the first block of this branch: local blocks from this number on must be replaced
+		 */
+		public long getFirstBlockNumber() {
+			return firstBlockNumber;
+		}
+		
+		/**
+		 * @return the validated blocks of this branch, sorted by block number (<tt>null</tt> if not valid)
+		 */
+		public ArrayList<Block> getBlocks() {
+			return blocks;
+		}
+		
+	}
+	
+	/**
+	 * Hands out the ranges of blocks to download and puts
+	 * downloaded blocks in place.
+	 */
+	private static class DownloadWindow {
+		
+		private Block[] blocks;
+		private ArrayDeque<Integer> retries;
+		private int nextToAssign;
+		private int firstMissing;
+		private int activeDownloaders;
+		private boolean aborted;
+		
+		public DownloadWindow(int size, int downloaders) {
+			blocks = new Block[size];
+			retries = new ArrayDeque<Integer>();
+			nextToAssign = 0;
+			firstMissing = 0;
+			activeDownloaders = downloaders;
+			aborted = false;
+		}
+		
+		/**
+		 * @return the index of the first block of the next range to download or -1 if there is nothing left to do
+		 */
+		public synchronized int next() throws InterruptedException {
+			while(!aborted && firstMissing < blocks.length){
+				if(!retries.isEmpty()){
+					return retries.poll();
+				}
+				if(nextToAssign < blocks.length && nextToAssign < firstMissing + WINDOW_SIZE){
+					int rangeStart = nextToAssign;
+					nextToAssign = Math.min(blocks.length, nextToAssign + RANGE_SIZE);
+					return rangeStart;
+				}
+				wait();
+			}
+			return -1;
+		}
+		
+		/**
+		 * @return the index following the last block of the range starting at <tt>rangeStart</tt>
+		 */
+		public int rangeEnd(int rangeStart){
+			return Math.min(blocks.length, rangeStart + RANGE_SIZE);
+		}
+		
+		public synchronized void deliver(int index, Block block){
+			blocks[index] = block;
+			while(firstMissing < blocks.length && blocks[firstMissing] != null){
+				firstMissing++;
+			}
+			notifyAll();
+		}
+		
+		/**
+		 * Give back the blocks of a range not delivered yet.
+		 */
+		public synchronized void giveBack(int rangeStart){
+			retries.add(rangeStart);
+			notifyAll();
+		}
+		
+		public synchronized void downloaderDone(){
+			activeDownloaders--;
+			notifyAll();
+		}
+		
+		public synchronized void abort(){
+			aborted = true;
+			notifyAll();
+		}
+		
+		/**
+		 * @return all the blocks, or <tt>null</tt> if every downloader gave up before the end
+		 */
+		public synchronized Block[] awaitBlocks() throws InterruptedException {
+			while(!aborted && firstMissing < blocks.length && activeDownloaders > 0){
+				wait();
+			}
+			if(firstMissing < blocks.length){
+				aborted = true;
+				notifyAll();
+				return null;
+			}
+			return blocks;
+		}
+		
+	}
+	
+	/**
+	 * Downloads ranges of blocks from a single node, over a single session,
+	 * until the window is done or the node fails to deliver a valid range.
+	 */
+	private class BlockDownloader implements Callable<Void> {
+		
+		private InetSocketAddress peer;
+		private ArrayList<BlockHeader> headers;
+		private long firstBlockNumber;
+		private DownloadWindow window;
+		
+		public BlockDownloader(InetSocketAddress peer, ArrayList<BlockHeader> headers, long firstBlockNumber, DownloadWindow window) {
+			this.peer = peer;
+			this.headers = headers;
+			this.firstBlockNumber = firstBlockNumber;
+			this.window = window;
+		}
+
+		@Override
+		public Void call() {
+			UpdatingChainSession session = null;
+			int rangeStart = -1;
+			try {
+				session = new UpdatingChainSession(peer);
+				Merkler merkler = new DefaultMerkler(1);
+				rangeStart = window.next();
+				while(rangeStart >= 0){
+					int rangeEnd = window.rangeEnd(rangeStart);
+					ArrayList<Block> range = session.requestRange(firstBlockNumber + rangeStart, firstBlockNumber + rangeEnd - 1);
+					if(range.size() != rangeEnd - rangeStart){
+						log.debug(peer+" did not send blocks #"+(firstBlockNumber + rangeStart)+" - #"+(firstBlockNumber + rangeEnd - 1)+". Dropping it from this update.");
+						break;
+					}
+					boolean valid = true;
+					for(int i = 0; i < range.size() && valid; i++){
+						Block block = range.get(i);
+						BlockHeader expected = headers.get(rangeStart + i);
+						valid = block.getHeader().equals(expected) && merkler.getMerkleRoot(block.getTransactions()).equals(expected.merkleRoot());
+					}
+					if(!valid){
+						log.debug(peer+" did not send valid blocks #"+(firstBlockNumber + rangeStart)+" - #"+(firstBlockNumber + rangeEnd - 1)+". Dropping it from this update.");
+						break;
+					}
+					for(int i = 0; i < range.size(); i++){
+						window.deliver(rangeStart + i, range.get(i));
+					}
+					rangeStart = -1;
+					rangeStart = window.next();
+				}
+			} catch (IOException e) {
+				log.debug("Blocks download from "+peer+" failed: "+e.getMessage());
+			} catch (InterruptedException e) {
+				log.exception(e);
+			} finally {
+				if(rangeStart >= 0){
+					window.giveBack(rangeStart);
+				}
+				window.downloaderDone();
+				if(session != null){
+					session.close();
+				}
+			}
+			return null;
+		}
+		
+	}
+
+}
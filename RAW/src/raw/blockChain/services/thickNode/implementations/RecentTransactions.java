@@ -0,0 +1,163 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.implementations;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.services.thickNode.ThickNode;
+import raw.blockChain.services.thickNode.messages.types.CompactBlockNotificationMessage;
+
+/**
+ * The last {@link Transaction}s seen by a {@link ThickNode}, indexed by the first
+ * 8 bytes of their hash, used to rebuild the {@link Block}s announced by a
+ * {@link CompactBlockNotificationMessage}. Short ids are salted with the header
+ * of the announced {@link Block}, thus every match computes them again for all the
+ * remembered transactions.
+ * When more than <tt>capacity</tt> transactions are added the least recently
+ * added ones are forgotten. The null transaction is always known.
+ * 
+ * @author vic
+ *
+ */
+public class RecentTransactions {
+	
+	/**
+	 * Default number of remembered {@link Transaction}s.
+	 */
+	public static final int DEFAULT_CAPACITY = 50000;
+	
+	private static final Transaction NULL_TRANSACTION = DefaultTransaction.getNullTransaction();
+	
+	private final LinkedHashMap<Long, Transaction> transactions;
+	
+	public RecentTransactions() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param capacity the maximum number of remembered {@link Transaction}s
+	 */
+	public RecentTransactions(final int capacity) {
+		transactions = new LinkedHashMap<Long, Transaction>(Math.min(capacity, 1024), 0.75f, false){
+
+			/**
+			 * random generated UID
+			 */
+			private static final long serialVersionUID = -6406306766929427566L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Transaction> eldest) {
+				return size() > capacity;
+			}
+			
+		};
+	}
+	
+	/**
+	 * @param transaction a {@link Transaction}
+	 * @return the first 8 bytes of the hash of <tt>transaction</tt>
+	 */
+	static long key(Transaction transaction){
+		return ByteBuffer.wrap(DefaultHasher.getHasher().hashTransaction(transaction).toByteArray()).getLong();
+	}
+	
+	/**
+	 * @param transaction a {@link Transaction} just seen
+	 */
+	public synchronized void add(Transaction transaction){
+		transactions.put(key(transaction), transaction);
+	}
+	
+	/**
+	 * @param transaction a {@link Transaction}
+	 * @return <tt>true</tt> if <tt>transaction</tt> is remembered (or it is the null transaction)
+	 */
+	public synchronized boolean contains(Transaction transaction){
+		if(NULL_TRANSACTION.equals(transaction)){
+			return true;
+		}
+		return transaction.equals(transactions.get(key(transaction)));
+	}
+	
+	/**
+	 * Look up the {@link Transaction}s of a compact {@link Block}: short ids are
+	 * salted by the {@link Block} header, thus they are computed again for every
+	 * remembered transaction. Transactions sharing their short id are ambiguous,
+	 * thus they are reported as missing.
+	 * 
+	 * @param header the header of the {@link Block}, salting its short ids
+	 * @param shortIds the short ids of the transactions of the {@link Block}, in order
+	 * @param missing filled with the (increasing) positions of the unknown transactions
+	 * @return the transactions of the {@link Block}, with <tt>null</tt> in place of the unknown ones
+	 */
+	public synchronized ArrayList<Transaction> match(BlockHeader header, long[] shortIds, List<Integer> missing){
+		long[] salt = CompactBlockNotificationMessage.salt(header);
+		HashMap<Long, Transaction> wanted = new HashMap<Long, Transaction>(shortIds.length * 4 / 3 + 1);
+		for(long shortId : shortIds){
+			wanted.put(shortId, null);
+		}
+		HashSet<Long> ambiguous = new HashSet<Long>();
+		find(salt, NULL_TRANSACTION, wanted, ambiguous);
+		for(Transaction transaction : transactions.values()){
+			find(salt, transaction, wanted, ambiguous);
+		}
+		ArrayList<Transaction> matched = new ArrayList<Transaction>(shortIds.length);
+		for(int i = 0; i < shortIds.length; i++){
+			Transaction transaction = ambiguous.contains(shortIds[i]) ? null : wanted.get(shortIds[i]);
+			if(transaction == null){
+				missing.add(i);
+			}
+			matched.add(transaction);
+		}
+		return matched;
+	}
+	
+	private static void find(long[] salt, Transaction transaction, HashMap<Long, Transaction> wanted, HashSet<Long> ambiguous){
+		Long shortId = CompactBlockNotificationMessage.shortId(salt, transaction);
+		if(!wanted.containsKey(shortId)){
+			return;
+		}
+		Transaction found = wanted.get(shortId);
+		if(found == null){
+			wanted.put(shortId, transaction);
+		} else if(!found.equals(transaction)){
+			// leave it to the announcing node.
+			ambiguous.add(shortId);
+		}
+	}
+	
+	/**
+	 * @return the number of remembered {@link Transaction}s (the null transaction excluded)
+	 */
+	public synchronized int size(){
+		return transactions.size();
+	}
+
+}
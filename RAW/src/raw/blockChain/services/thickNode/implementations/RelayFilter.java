@@ -0,0 +1,102 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.implementations;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import raw.blockChain.api.Transaction;
+import raw.blockChain.services.thickNode.ThickNode;
+
+/**
+ * Remembers which {@link Transaction}s a {@link ThickNode} already relayed,
+ * so that a transaction coming back from another node is not forwarded again.
+ * Transactions are keyed by {@link RecentTransactions#key(Transaction)}
+ * (the first 8 bytes of their hash); when more than <tt>capacity</tt> are remembered
+ * the least recently seen ones are forgotten. Every operation takes constant time.
+ * 
+ * @author vic
+ *
+ */
+public class RelayFilter {
+	
+	/**
+	 * Default number of remembered {@link Transaction}s.
+	 */
+	public static final int DEFAULT_CAPACITY = 250000;
+	
+	private final LinkedHashMap<Long, Boolean> seen;
+	
+	public RelayFilter() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	/**
+	 * @param capacity the maximum number of remembered {@link Transaction}s
+	 */
+	public RelayFilter(final int capacity) {
+		seen = new LinkedHashMap<Long, Boolean>(Math.min(capacity, 1024), 0.75f, true){
+
+			/**
+			 * random generated UID
+			 */
+			private static final long serialVersionUID = 4780913306414563620L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+				return size() > capacity;
+			}
+			
+		};
+	}
+	
+	/**
+	 * Remember <tt>transaction</tt>.
+	 * 
+	 * @param transaction a received (or submitted) {@link Transaction}
+	 * @return <tt>true</tt> if <tt>transaction</tt> was not already remembered (and must be relayed)
+	 */
+	public boolean add(Transaction transaction){
+		Long key = RecentTransactions.key(transaction);
+		synchronized (seen) {
+			return seen.put(key, Boolean.TRUE) == null;
+		}
+	}
+	
+	/**
+	 * @param transaction a {@link Transaction}
+	 * @return <tt>true</tt> if <tt>transaction</tt> is remembered
+	 */
+	public boolean contains(Transaction transaction){
+		Long key = RecentTransactions.key(transaction);
+		synchronized (seen) {
+			return seen.containsKey(key);
+		}
+	}
+	
+	/**
+	 * @return the number of remembered {@link Transaction}s
+	 */
+	public int size(){
+		synchronized (seen) {
+			return seen.size();
+		}
+	}
+
+}
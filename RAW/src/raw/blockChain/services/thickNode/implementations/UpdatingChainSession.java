@@ -0,0 +1,222 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.implementations;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.messages.WireProtocol;
+import raw.blockChain.services.thickNode.ThickNode;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type;
+import raw.logger.Log;
+
+/**
+ * A connection to another {@link ThickNode} used to download blocks
+ * by means of {@link UpdatingChainBlockRequestMessage}s. Many requests
+ * can be sent over the same session, which must be {@link UpdatingChainSession#close()}d
+ * when done.
+ * 
+ * @author vic
+ *
+ */
+public class UpdatingChainSession implements Closeable {
+	
+	/**
+	 * The number of bytes the other node may send before waiting
+	 * for the next range request.
+	 */
+	public static final int RANGE_MAX_BYTES = 4 * 1024 * 1024;
+	
+	private InetSocketAddress node;
+	private MessageChannel channel;
+	
+	/**
+	 * Open a session with <tt>node</tt>.
+	 * 
+	 * @param node the address of a {@link ThickNode}
+	 * @throws IOException if a connection cannot be opened
+	 */
+	public UpdatingChainSession(InetSocketAddress node) throws IOException {
+		this.node = node;
+		channel = MessageChannel.connect(node);
+	}
+	
+	/**
+	 * @return the address of the other node
+	 */
+	public InetSocketAddress getNode() {
+		return node;
+	}
+	
+	/**
+	 * Request a single block.
+	 * 
+	 * @param blockNumber the number of the requested {@link Block}
+	 * @return the {@link Block} or <tt>null</tt> if the other node does not have it
+	 * @throws IOException if the communication fails
+	 */
+	public Block requestBlock(long blockNumber) throws IOException {
+		send(new UpdatingChainBlockRequestMessage(blockNumber));
+		UpdatingChainBlockRequestMessage reply = receive();
+		if(reply.getMessageType() != Type.BLOCK_REPLY){
+			throw new IOException("Unexpected reply from "+node+": "+reply.getMessageType());
+		}
+		return reply.getBlock();
+	}
+	
+	/**
+	 * @return <tt>true</tt> if the other node understands range requests
+	 */
+	public boolean supportsRanges() {
+		return channel.isFramed() && channel.getVersion() >= WireProtocol.RANGE_REQUESTS_VERSION;
+	}
+	
+	/**
+	 * Request the blocks from <tt>fromBlockNumber</tt> to <tt>toBlockNumber</tt>
+	 * (both included). Blocks are streamed back by the other node: whenever it
+	 * sent {@link UpdatingChainSession#RANGE_MAX_BYTES} bytes the rest of the range
+	 * is requested again. Nodes not {@link UpdatingChainSession#supportsRanges()}
+	 * are asked one block at a time.
+	 * 
+	 * @param fromBlockNumber the number of the first requested {@link Block}
+	 * @param toBlockNumber the number of the last requested {@link Block}
+	 * @return the consecutive blocks starting from <tt>fromBlockNumber</tt> the other node has, sorted by block number
+	 * @throws IOException if the communication fails
+	 */
+	public ArrayList<Block> requestRange(long fromBlockNumber, long toBlockNumber) throws IOException {
+		ArrayList<Block> blocks = new ArrayList<Block>();
+		if(!supportsRanges()){
+			for(long next = fromBlockNumber; next <= toBlockNumber; next++){
+				Block block;
+				try {
+					block = requestBlock(next);
+				} catch (IOException e) {
+					if(blocks.isEmpty()){
+						throw e;
+					}
+					// older nodes drop the connection when asked for a block they do not have.
+					Log.getLogger().verboseDebug(node+" stopped replying at block #"+next+": "+e.getMessage());
+					break;
+				}
+				if(block == null){
+					break;
+				}
+				blocks.add(block);
+			}
+			return blocks;
+		}
+		long next = fromBlockNumber;
+		while(next <= toBlockNumber){
+			send(new UpdatingChainBlockRequestMessage(next, toBlockNumber, RANGE_MAX_BYTES));
+			long requested = next;
+			UpdatingChainBlockRequestMessage reply = receive();
+			while(reply.getMessageType() == Type.BLOCK_REPLY){
+				Block block = reply.getBlock();
+				if(block == null || block.getHeader().getBlockNumber() != next){
+					throw new IOException("Unexpected block from "+node+" while waiting for block #"+next);
+				}
+				blocks.add(block);
+				next++;
+				reply = receive();
+			}
+			if(reply.getMessageType() != Type.RANGE_END){
+				throw new IOException("Unexpected reply from "+node+": "+reply.getMessageType());
+			}
+			if(next == requested){
+				// the other node has no more blocks.
+				break;
+			}
+		}
+		return blocks;
+	}
+	
+	/**
+	 * Walk back from block <tt>fromBlockNumber</tt>, <tt>rangeLength</tt> blocks per request,
+	 * until a block of the other node equals the one <tt>localChain</tt> has at the same height.
+	 * The blocks of the other node differing from the local ones are added to <tt>differing</tt>,
+	 * the common one is not.
+	 * 
+	 * @param fromBlockNumber the highest block number to compare
+	 * @param rangeLength the number of blocks requested at once
+	 * @param localChain returns the local {@link Block} with a given number
+	 * @param differing where the differing blocks of the other node are added
+	 * @return the number of the last common block, -1 if no common block was found
+	 * @throws IOException if the communication fails
+	 */
+	public long searchForkPoint(long fromBlockNumber, int rangeLength, LongFunction<Block> localChain, List<Block> differing) throws IOException {
+		long insertionPoint = fromBlockNumber;
+		while(insertionPoint >= 0){
+			long rangeStart = Math.max(0, insertionPoint - rangeLength + 1);
+			ArrayList<Block> range = requestRange(rangeStart, insertionPoint);
+			if(range.size() != insertionPoint - rangeStart + 1){
+				Log.getLogger().debug("The other node could not send blocks #"+rangeStart+" - #"+insertionPoint);
+				return -1;
+			}
+			for(int i = range.size() - 1; i >= 0; i--){
+				Block received = range.get(i);
+				if(received.equals(localChain.apply(insertionPoint))){
+					return insertionPoint;
+				}
+				Log.getLogger().verboseDebug("This block is not jet the fork point. "+received.getHeader());
+				if(!differing.contains(received)){
+					differing.add(received);
+				}
+				insertionPoint = insertionPoint - 1;
+			}
+		}
+		return -1;
+	}
+	
+	private void send(UpdatingChainBlockRequestMessage message) throws IOException {
+		channel.writeMessage(message);
+	}
+	
+	private UpdatingChainBlockRequestMessage receive() throws IOException {
+		try {
+			return (UpdatingChainBlockRequestMessage) channel.readMessage();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	/**
+	 * Tell the other node that this session is over and close the connection.
+	 */
+	@Override
+	public void close() {
+		try {
+			send(new UpdatingChainBlockRequestMessage());
+		} catch (IOException e) {
+			Log.getLogger().verboseDebug("Could not say goodbye to "+node+".");
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			Log.getLogger().exception(e);
+		}
+	}
+
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.messages.types;
+
+import java.util.ArrayList;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.services.thickNode.ThickNode;
+import raw.blockChain.services.thickNode.messages.ThickNodeMessages;
+
+/**
+ * This message is meant to be used by {@link ThickNode}s to request some of the
+ * {@link Transaction}s of a {@link Block} (and to reply to such requests)
+ * while rebuilding it from a {@link CompactBlockNotificationMessage}.
+ * 
+ * @author vic
+ *
+ */
+public class BlockTransactionsRequestMessage implements ThickNodeMessages {
+	
+	/**
+	 * random generated UID
+	 */
+	private static final long serialVersionUID = 3318950375226104077L;
+	
+	private boolean isRequest;
+	
+	private HashValue blockHash;
+	private int[] indexes;
+	private ArrayList<Transaction> transactions;
+	
+	/**
+	 * Create a request for the transactions at positions <tt>indexes</tt>
+	 * of the {@link Block} whose hash is <tt>blockHash</tt>.
+	 * 
+	 * @param blockHash the hash of the {@link Block}
+	 * @param indexes the positions of the requested transactions in the {@link Block}
+	 */
+	public BlockTransactionsRequestMessage(HashValue blockHash, int[] indexes) {
+		isRequest = true;
+		this.blockHash = blockHash;
+		this.indexes = indexes;
+	}
+	
+	/**
+	 * Create a reply to a transactions request. <tt>transactions</tt>
+	 * holds the requested transactions in the order of the request:
+	 * it is <tt>null</tt> if the {@link Block} is not known.
+	 * 
+	 * @param blockHash the hash of the {@link Block}
+	 * @param transactions the requested transactions
+	 */
+	public BlockTransactionsRequestMessage(HashValue blockHash, ArrayList<Transaction> transactions) {
+		isRequest = false;
+		this.blockHash = blockHash;
+		this.transactions = transactions;
+	}
+	
+	public boolean isRequestMessage(){
+		return isRequest;
+	}
+
+	/**
+	 * @return the hash of the {@link Block}
+	 */
+	public HashValue getBlockHash() {
+		return blockHash;
+	}
+
+	/**
+	 * @return the positions of the requested transactions, <tt>null</tt> for replies
+	 */
+	public int[] getIndexes() {
+		return indexes;
+	}
+
+	/**
+	 * @return the requested transactions, <tt>null</tt> for requests
+	 * and for replies about an unknown {@link Block}
+	 */
+	public ArrayList<Transaction> getTransactions() {
+		return transactions;
+	}
+
+}
@@ -55,6 +55,14 @@ public class CommunicationMessage implements ThickNodeMessages {
 		chainName = props.getBlockChainName();
 	}
 	
+	/**
+	 * Rebuild a message received from a node of the chain <tt>chainName</tt>.
+	 */
+	CommunicationMessage(Type message, String chainName) {
+		this.message = message;
+		this.chainName = chainName;
+	}
+	
 	public void attachBlock(Block block){
 		attachment = block;
 		attachmentType = Block.class;
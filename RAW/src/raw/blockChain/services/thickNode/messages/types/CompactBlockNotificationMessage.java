@@ -0,0 +1,180 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.messages.types;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.rmi.server.UID;
+import java.util.ArrayList;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.services.thickNode.ThickNode;
+import raw.blockChain.services.thickNode.messages.ThickNodeMessages;
+
+/**
+ * A {@link ThickNode} will send to the other {@link ThickNode}s a
+ * {@link CompactBlockNotificationMessage} instead of a {@link LastBlockNotificationMessage}
+ * to signal the last {@link Block} added to its block chain copy
+ * without sending its transactions: the receiver rebuilds the {@link Block}
+ * from the transactions it already knows, matching them by their
+ * {@link CompactBlockNotificationMessage#shortId(BlockHeader, Transaction)}, and asks
+ * only for the missing ones with a {@link BlockTransactionsRequestMessage}.
+ * 
+ * @author vic
+ *
+ */
+public class CompactBlockNotificationMessage implements ThickNodeMessages {
+
+	/**
+	 * random generated {@link UID}
+	 */
+	private static final long serialVersionUID = 6027398129482160913L;
+	
+	private InetSocketAddress thickNodeAddress;
+	private BlockHeader header;
+	private long[] shortIds;
+	
+	/**
+	 * @param myAddress the address of the notifying {@link ThickNode}
+	 * @param myLastBlock the notified {@link Block}
+	 */
+	public CompactBlockNotificationMessage(InetSocketAddress myAddress, Block myLastBlock) {
+		thickNodeAddress = myAddress;
+		header = myLastBlock.getHeader();
+		ArrayList<Transaction> transactions = myLastBlock.getTransactions();
+		long[] salt = salt(header);
+		shortIds = new long[transactions.size()];
+		for(int i = 0; i < shortIds.length; i++){
+			shortIds[i] = shortId(salt, transactions.get(i));
+		}
+	}
+	
+	/**
+	 * @param myAddress the address of the notifying {@link ThickNode}
+	 * @param header the header of the notified {@link Block}
+	 * @param shortIds the short ids of the transactions of the notified {@link Block}, in order
+	 */
+	public CompactBlockNotificationMessage(InetSocketAddress myAddress, BlockHeader header, long[] shortIds) {
+		thickNodeAddress = myAddress;
+		this.header = header;
+		this.shortIds = shortIds;
+	}
+	
+	/**
+	 * The short id of a {@link Transaction} in a {@link Block} is the SipHash-2-4
+	 * of the transaction hash, keyed with the first 16 bytes of the block header hash
+	 * (see {@link CompactBlockNotificationMessage#salt(BlockHeader)}):
+	 * since the key changes with every {@link Block}, transactions crafted to collide
+	 * in one block do not collide in the next ones. Collisions are harmless anyway:
+	 * a {@link Block} rebuilt with the wrong transactions does not match the merkle
+	 * root of its header.
+	 * 
+	 * @param header the header of the {@link Block} containing <tt>transaction</tt>
+	 * @param transaction a {@link Transaction}
+	 * @return the short id of <tt>transaction</tt> in the {@link Block} of <tt>header</tt>
+	 */
+	public static long shortId(BlockHeader header, Transaction transaction){
+		return shortId(salt(header), transaction);
+	}
+	
+	/**
+	 * @param header the header of a {@link Block}
+	 * @return the SipHash key of the short ids of the transactions of the {@link Block} of <tt>header</tt>
+	 */
+	public static long[] salt(BlockHeader header){
+		ByteBuffer key = ByteBuffer.wrap(header.hash().toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		return new long[]{key.getLong(), key.getLong()};
+	}
+	
+	/**
+	 * @param salt the result of {@link CompactBlockNotificationMessage#salt(BlockHeader)}
+	 * @param transaction a {@link Transaction}
+	 * @return the short id of <tt>transaction</tt> in the {@link Block} <tt>salt</tt> was made for
+	 */
+	public static long shortId(long[] salt, Transaction transaction){
+		return sipHash24(salt[0], salt[1], DefaultHasher.getHasher().hashTransaction(transaction).toByteArray());
+	}
+	
+	/**
+	 * SipHash-2-4 (as in Aumasson and Bernstein's reference implementation)
+	 * without any allocation: a compact block is matched against every
+	 * recently seen transaction.
+	 */
+	static long sipHash24(long k0, long k1, byte[] data){
+		long v0 = 0x736f6d6570736575L ^ k0;
+		long v1 = 0x646f72616e646f6dL ^ k1;
+		long v2 = 0x6c7967656e657261L ^ k0;
+		long v3 = 0x7465646279746573L ^ k1;
+		int words = data.length / 8;
+		for(int i = 0; i <= words; i++){
+			// the last block holds the remaining bytes and the input length.
+			long m = i < words ? littleEndianLong(data, i * 8, 8) : ((long) data.length << 56) | littleEndianLong(data, i * 8, data.length % 8);
+			v3 ^= m;
+			for(int round = 0; round < 2; round++){
+				v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+				v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+				v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+				v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+			}
+			v0 ^= m;
+		}
+		v2 ^= 0xff;
+		for(int round = 0; round < 4; round++){
+			v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+			v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+			v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+			v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+		}
+		return v0 ^ v1 ^ v2 ^ v3;
+	}
+	
+	private static long littleEndianLong(byte[] data, int offset, int length){
+		long value = 0;
+		for(int i = length - 1; i >= 0; i--){
+			value = (value << 8) | (data[offset + i] & 0xffL);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the thickNodeAddress
+	 */
+	public InetSocketAddress getThickNodeAddress() {
+		return thickNodeAddress;
+	}
+
+	/**
+	 * @return the header of the notified {@link Block}
+	 */
+	public BlockHeader getHeader() {
+		return header;
+	}
+
+	/**
+	 * @return the short ids of the transactions of the notified {@link Block}, in order
+	 */
+	public long[] getShortIds() {
+		return shortIds;
+	}
+
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.messages.types;
+
+import java.util.ArrayList;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.services.thickNode.ThickNode;
+import raw.blockChain.services.thickNode.messages.ThickNodeMessages;
+
+/**
+ * This message is meant to be used by {@link ThickNode}s to request a range
+ * of consecutive {@link BlockHeader}s of the chain (and to reply to such requests)
+ * while updating their chain copy.
+ * 
+ * @author vic
+ *
+ */
+public class HeaderChainRequestMessage implements ThickNodeMessages {
+	
+	/**
+	 * random generated UID
+	 */
+	private static final long serialVersionUID = -2911862508474466237L;
+	
+	/**
+	 * The maximum number of headers sent in a single reply.
+	 */
+	public static final int MAX_HEADERS = 2000;
+	
+	private boolean isRequest;
+	
+	private long fromBlockNumber;
+	private int count;
+	private ArrayList<BlockHeader> headers;
+	
+	/**
+	 * Create a request for (at most) <tt>count</tt> headers,
+	 * starting from the one of block number <tt>fromBlockNumber</tt>.
+	 * 
+	 * @param fromBlockNumber the block number of the first requested header
+	 * @param count the number of requested headers (at most {@link HeaderChainRequestMessage#MAX_HEADERS})
+	 */
+	public HeaderChainRequestMessage(long fromBlockNumber, int count) {
+		isRequest = true;
+		this.fromBlockNumber = fromBlockNumber;
+		this.count = Math.min(count, MAX_HEADERS);
+	}
+	
+	/**
+	 * Create a reply to a headers request. <tt>headers</tt>
+	 * holds the consecutive headers found starting from
+	 * <tt>fromBlockNumber</tt>: it is empty if no such header is known.
+	 * 
+	 * @param fromBlockNumber the block number of the first requested header
+	 * @param headers the headers found
+	 */
+	public HeaderChainRequestMessage(long fromBlockNumber, ArrayList<BlockHeader> headers) {
+		isRequest = false;
+		this.fromBlockNumber = fromBlockNumber;
+		this.headers = headers;
+		this.count = headers.size();
+	}
+	
+	public boolean isRequestMessage(){
+		return isRequest;
+	}
+
+	/**
+	 * @return the block number of the first requested header
+	 */
+	public long getFromBlockNumber() {
+		return fromBlockNumber;
+	}
+
+	/**
+	 * @return the number of requested (or replied) headers
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the headers (sorted by block number) of a reply, <tt>null</tt> for requests
+	 */
+	public ArrayList<BlockHeader> getHeaders() {
+		return headers;
+	}
+
+}
@@ -45,5 +45,12 @@ public class MinerNodeAddressMessage extends NodeAddressMessage {
 	public MinerNodeAddressMessage(InetSocketAddress address) {
 		super(address);
 	}
-
+	
+	/**
+	 * Rebuild a message received from a node of the chain <tt>chainName</tt>.
+	 */
+	MinerNodeAddressMessage(InetSocketAddress address, boolean isRequest, String chainName) {
+		super(address, isRequest, chainName);
+	}
+	
 }
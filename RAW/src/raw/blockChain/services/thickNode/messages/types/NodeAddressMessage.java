@@ -60,6 +60,15 @@ public class NodeAddressMessage implements ThickNodeMessages {
 		BlockChainProperties props = (BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN);
 		chainName = props.getBlockChainName();
 	}
+	
+	/**
+	 * Rebuild a message received from a node of the chain <tt>chainName</tt>.
+	 */
+	NodeAddressMessage(InetSocketAddress address, boolean isRequest, String chainName) {
+		this.address = address;
+		this.isRequest = isRequest;
+		this.chainName = chainName;
+	}
 
 	/**
 	 * @return the address
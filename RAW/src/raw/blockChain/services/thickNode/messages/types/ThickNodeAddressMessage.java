@@ -49,4 +49,11 @@ public class ThickNodeAddressMessage extends NodeAddressMessage {
 		super(address);
 	}
 	
+	/**
+	 * Rebuild a message received from a node of the chain <tt>chainName</tt>.
+	 */
+	ThickNodeAddressMessage(InetSocketAddress address, boolean isRequest, String chainName) {
+		super(address, isRequest, chainName);
+	}
+	
 }
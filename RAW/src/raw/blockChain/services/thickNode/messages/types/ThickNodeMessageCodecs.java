@@ -0,0 +1,697 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+/**
+ * 
+ */
+package raw.blockChain.services.thickNode.messages.types;
+
+import static raw.blockChain.services.messages.WireEncoding.readAddress;
+import static raw.blockChain.services.messages.WireEncoding.readBlock;
+import static raw.blockChain.services.messages.WireEncoding.readBlockHeader;
+import static raw.blockChain.services.messages.WireEncoding.readHashValue;
+import static raw.blockChain.services.messages.WireEncoding.readSerialized;
+import static raw.blockChain.services.messages.WireEncoding.readString;
+import static raw.blockChain.services.messages.WireEncoding.readTransaction;
+import static raw.blockChain.services.messages.WireEncoding.writeAddress;
+import static raw.blockChain.services.messages.WireEncoding.writeBlock;
+import static raw.blockChain.services.messages.WireEncoding.writeBlockHeader;
+import static raw.blockChain.services.messages.WireEncoding.writeHashValue;
+import static raw.blockChain.services.messages.WireEncoding.writeSerialized;
+import static raw.blockChain.services.messages.WireEncoding.writeString;
+import static raw.blockChain.services.messages.WireEncoding.writeTransaction;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockCompactRepresentation;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Merkler.IntermediateValues;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlockCompactRepresentation;
+import raw.blockChain.services.messages.MessageCodec;
+import raw.blockChain.services.messages.WireProtocol;
+import raw.blockChain.services.thickNode.messages.ThickNodeMessages;
+
+/**
+ * The {@link MessageCodec}s of the {@link ThickNodeMessages}
+ * used by the {@link WireProtocol}. Type ids 1 to 31 are
+ * reserved to this package.
+ * 
+ * @author vic
+ *
+ */
+public class ThickNodeMessageCodecs {
+	
+	private static final byte REQUEST = 0;
+	private static final byte POSITIVE_REPLY = 1;
+	private static final byte NEGATIVE_REPLY = 2;
+	
+	private ThickNodeMessageCodecs() {
+	}
+	
+	/**
+	 * @return a codec for every {@link ThickNodeMessages} type
+	 */
+	public static List<MessageCodec<?>> getCodecs(){
+		return ImmutableList.<MessageCodec<?>>of(
+				new BlockRequestCodec(),
+				new BlockCompactRepresentationRequestCodec(),
+				new CommunicationCodec(),
+				new HeaderChainRequestCodec(),
+				new LastBlockHeaderNotificationCodec(),
+				new LastBlockNotificationCodec(),
+				new NodeAddressCodec(),
+				new ThickNodeAddressCodec(),
+				new MinerNodeAddressCodec(),
+				new SubmitNewBlockCodec(),
+				new TransactionBlockNumberCodec(),
+				new UpdatingChainBlockRequestCodec(),
+				new CompactBlockNotificationCodec(),
+				new BlockTransactionsRequestCodec());
+	}
+	
+	private static byte kindOf(boolean isRequest, boolean isNegativeReply){
+		if(isRequest){
+			return REQUEST;
+		}
+		return isNegativeReply ? NEGATIVE_REPLY : POSITIVE_REPLY;
+	}
+	
+	private static void writeOrdinal(Enum<?> value, DataOutputStream out) throws IOException {
+		out.writeByte(value == null ? -1 : value.ordinal());
+	}
+	
+	private static <E extends Enum<E>> E readOrdinal(Class<E> type, DataInputStream in) throws IOException {
+		byte ordinal = in.readByte();
+		if(ordinal == -1){
+			return null;
+		}
+		E[] values = type.getEnumConstants();
+		if(ordinal < 0 || ordinal >= values.length){
+			throw new IOException("Invalid "+type.getSimpleName()+" ordinal: "+ordinal);
+		}
+		return values[ordinal];
+	}
+	
+	/**
+	 * Validate a count read from a frame, each counted item
+	 * taking at least <tt>minimumItemLength</tt> bytes.
+	 */
+	private static int checkCount(int count, int minimumItemLength, String what) throws IOException {
+		if(count < 0 || count > WireProtocol.MAX_FRAME_LENGTH / minimumItemLength){
+			throw new IOException("Invalid number of "+what+": "+count);
+		}
+		return count;
+	}
+	
+	private static class BlockRequestCodec implements MessageCodec<BlockRequestMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 1;
+		}
+
+		@Override
+		public Class<BlockRequestMessage> getMessageClass() {
+			return BlockRequestMessage.class;
+		}
+
+		@Override
+		public void encode(BlockRequestMessage message, DataOutputStream out) throws IOException {
+			out.writeByte(kindOf(message.isRequestMessage(), message.isNegativeReply()));
+			writeOrdinal(message.getTypeOfRequest(), out);
+			out.writeLong(message.getBlockNumber());
+			writeHashValue(message.getHash(), out);
+			writeBlock(message.getBlock(), out);
+		}
+
+		@Override
+		public BlockRequestMessage decode(DataInputStream in) throws IOException {
+			byte kind = in.readByte();
+			BlockRequestMessage.RequestType type = readOrdinal(BlockRequestMessage.RequestType.class, in);
+			long blockNumber = in.readLong();
+			HashValue hash = readHashValue(in);
+			Block block = readBlock(in);
+			BlockRequestMessage message;
+			if(kind == POSITIVE_REPLY || type == null){
+				message = new BlockRequestMessage(block);
+			} else {
+				switch (type) {
+				case BY_BLOCK_NUMBER:
+					message = new BlockRequestMessage(blockNumber);
+					break;
+				case BY_HASH:
+					message = new BlockRequestMessage(hash);
+					break;
+				default:
+					message = new BlockRequestMessage();
+					break;
+				}
+			}
+			if(kind == NEGATIVE_REPLY){
+				message.rejectMessage();
+			}
+			return message;
+		}
+		
+	}
+	
+	private static class BlockCompactRepresentationRequestCodec implements MessageCodec<BlockCompactRepresentationRequestMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 2;
+		}
+
+		@Override
+		public Class<BlockCompactRepresentationRequestMessage> getMessageClass() {
+			return BlockCompactRepresentationRequestMessage.class;
+		}
+
+		/**
+		 * The intermediate values can only be read popping them:
+		 * they are the only serialized field.
+		 */
+		@Override
+		public void encode(BlockCompactRepresentationRequestMessage message, DataOutputStream out) throws IOException {
+			out.writeByte(kindOf(message.isRequestMessage(), message.isNegativeReply()));
+			writeOrdinal(message.getTypeOfRequest(), out);
+			out.writeLong(message.getBlockNumber());
+			writeHashValue(message.getHash(), out);
+			writeBlockHeader(message.getHeader(), out);
+			writeTransaction(message.getTransaction(), out);
+			BlockCompactRepresentation compact = message.getBlockCompactRepresentation();
+			out.writeBoolean(compact != null);
+			if(compact != null){
+				writeBlockHeader(compact.getHeader(), out);
+				writeTransaction(compact.getTransaction(), out);
+				writeSerialized(compact.getIntermediateValues(), out);
+			}
+		}
+
+		@Override
+		public BlockCompactRepresentationRequestMessage decode(DataInputStream in) throws IOException {
+			byte kind = in.readByte();
+			BlockCompactRepresentationRequestMessage.RequestType type = readOrdinal(BlockCompactRepresentationRequestMessage.RequestType.class, in);
+			long blockNumber = in.readLong();
+			HashValue hash = readHashValue(in);
+			BlockHeader header = readBlockHeader(in);
+			Transaction transaction = readTransaction(in);
+			BlockCompactRepresentation compact = null;
+			if(in.readBoolean()){
+				BlockHeader compactHeader = readBlockHeader(in);
+				Transaction compactTransaction = readTransaction(in);
+				compact = new DefaultBlockCompactRepresentation(compactHeader, compactTransaction, readSerialized(in, IntermediateValues.class));
+			}
+			BlockCompactRepresentationRequestMessage message;
+			if(kind == POSITIVE_REPLY || type == null){
+				message = new BlockCompactRepresentationRequestMessage(compact);
+			} else {
+				switch (type) {
+				case BY_BLOCK_NUMBER:
+					message = new BlockCompactRepresentationRequestMessage(blockNumber, transaction);
+					break;
+				case BY_HASH:
+					message = new BlockCompactRepresentationRequestMessage(hash, transaction);
+					break;
+				default:
+					message = new BlockCompactRepresentationRequestMessage(header, transaction);
+					break;
+				}
+			}
+			if(kind == NEGATIVE_REPLY){
+				message.rejectMessage();
+			}
+			return message;
+		}
+		
+	}
+	
+	private static class CommunicationCodec implements MessageCodec<CommunicationMessage> {
+		
+		private static final byte NO_ATTACHMENT = 0;
+		private static final byte BLOCK = 1;
+		private static final byte HEADER = 2;
+		private static final byte ADDRESS = 3;
+
+		@Override
+		public int getTypeId() {
+			return 3;
+		}
+
+		@Override
+		public Class<CommunicationMessage> getMessageClass() {
+			return CommunicationMessage.class;
+		}
+
+		@Override
+		public void encode(CommunicationMessage message, DataOutputStream out) throws IOException {
+			writeOrdinal(message.getMessage(), out);
+			writeString(message.getChainName(), out);
+			Class<?> attachmentType = message.getAttachmentType();
+			if(attachmentType == Block.class){
+				out.writeByte(BLOCK);
+				writeBlock((Block) message.getAttachment(), out);
+			} else if(attachmentType == BlockHeader.class){
+				out.writeByte(HEADER);
+				writeBlockHeader((BlockHeader) message.getAttachment(), out);
+			} else if(attachmentType == InetSocketAddress.class){
+				out.writeByte(ADDRESS);
+				writeAddress((InetSocketAddress) message.getAttachment(), out);
+			} else {
+				out.writeByte(NO_ATTACHMENT);
+			}
+		}
+
+		@Override
+		public CommunicationMessage decode(DataInputStream in) throws IOException {
+			CommunicationMessage.Type type = readOrdinal(CommunicationMessage.Type.class, in);
+			CommunicationMessage message = new CommunicationMessage(type, readString(in));
+			byte attachmentType = in.readByte();
+			switch (attachmentType) {
+			case BLOCK:
+				message.attachBlock(readBlock(in));
+				break;
+			case HEADER:
+				message.attachBlockHeader(readBlockHeader(in));
+				break;
+			case ADDRESS:
+				message.attachInetSocketAddress(readAddress(in));
+				break;
+			case NO_ATTACHMENT:
+				break;
+			default:
+				throw new IOException("Unknown attachment type: "+attachmentType);
+			}
+			return message;
+		}
+		
+	}
+	
+	private static class HeaderChainRequestCodec implements MessageCodec<HeaderChainRequestMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 4;
+		}
+
+		@Override
+		public Class<HeaderChainRequestMessage> getMessageClass() {
+			return HeaderChainRequestMessage.class;
+		}
+
+		@Override
+		public void encode(HeaderChainRequestMessage message, DataOutputStream out) throws IOException {
+			out.writeBoolean(message.isRequestMessage());
+			out.writeLong(message.getFromBlockNumber());
+			if(message.isRequestMessage()){
+				out.writeInt(message.getCount());
+				return;
+			}
+			ArrayList<BlockHeader> headers = message.getHeaders();
+			out.writeInt(headers.size());
+			for(BlockHeader header : headers){
+				writeBlockHeader(header, out);
+			}
+		}
+
+		@Override
+		public HeaderChainRequestMessage decode(DataInputStream in) throws IOException {
+			boolean isRequest = in.readBoolean();
+			long fromBlockNumber = in.readLong();
+			int count = in.readInt();
+			if(isRequest){
+				return new HeaderChainRequestMessage(fromBlockNumber, count);
+			}
+			if(count < 0 || count > HeaderChainRequestMessage.MAX_HEADERS){
+				throw new IOException("Invalid number of headers: "+count);
+			}
+			ArrayList<BlockHeader> headers = new ArrayList<BlockHeader>(count);
+			for(int i = 0; i < count; i++){
+				headers.add(readBlockHeader(in));
+			}
+			return new HeaderChainRequestMessage(fromBlockNumber, headers);
+		}
+		
+	}
+	
+	private static class LastBlockHeaderNotificationCodec implements MessageCodec<LastBlockHeaderNotificationMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 5;
+		}
+
+		@Override
+		public Class<LastBlockHeaderNotificationMessage> getMessageClass() {
+			return LastBlockHeaderNotificationMessage.class;
+		}
+
+		@Override
+		public void encode(LastBlockHeaderNotificationMessage message, DataOutputStream out) throws IOException {
+			writeAddress(message.getThickNodeAddress(), out);
+			writeBlockHeader(message.getLastBlockHeader(), out);
+		}
+
+		@Override
+		public LastBlockHeaderNotificationMessage decode(DataInputStream in) throws IOException {
+			InetSocketAddress address = readAddress(in);
+			return new LastBlockHeaderNotificationMessage(address, readBlockHeader(in));
+		}
+		
+	}
+	
+	private static class LastBlockNotificationCodec implements MessageCodec<LastBlockNotificationMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 6;
+		}
+
+		@Override
+		public Class<LastBlockNotificationMessage> getMessageClass() {
+			return LastBlockNotificationMessage.class;
+		}
+
+		@Override
+		public void encode(LastBlockNotificationMessage message, DataOutputStream out) throws IOException {
+			writeAddress(message.getThickNodeAddress(), out);
+			writeBlock(message.getLastBlock(), out);
+		}
+
+		@Override
+		public LastBlockNotificationMessage decode(DataInputStream in) throws IOException {
+			InetSocketAddress address = readAddress(in);
+			return new LastBlockNotificationMessage(address, readBlock(in));
+		}
+		
+	}
+	
+	private static abstract class AbstractNodeAddressCodec<T extends NodeAddressMessage> implements MessageCodec<T> {
+
+		@Override
+		public void encode(T message, DataOutputStream out) throws IOException {
+			out.writeBoolean(message.isRequest());
+			writeString(message.getChainName(), out);
+			writeAddress(message.getAddress(), out);
+		}
+
+		@Override
+		public T decode(DataInputStream in) throws IOException {
+			boolean isRequest = in.readBoolean();
+			String chainName = readString(in);
+			return build(readAddress(in), isRequest, chainName);
+		}
+		
+		protected abstract T build(InetSocketAddress address, boolean isRequest, String chainName);
+		
+	}
+	
+	private static class NodeAddressCodec extends AbstractNodeAddressCodec<NodeAddressMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 7;
+		}
+
+		@Override
+		public Class<NodeAddressMessage> getMessageClass() {
+			return NodeAddressMessage.class;
+		}
+
+		@Override
+		protected NodeAddressMessage build(InetSocketAddress address, boolean isRequest, String chainName) {
+			return new NodeAddressMessage(address, isRequest, chainName);
+		}
+		
+	}
+	
+	private static class ThickNodeAddressCodec extends AbstractNodeAddressCodec<ThickNodeAddressMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 8;
+		}
+
+		@Override
+		public Class<ThickNodeAddressMessage> getMessageClass() {
+			return ThickNodeAddressMessage.class;
+		}
+
+		@Override
+		protected ThickNodeAddressMessage build(InetSocketAddress address, boolean isRequest, String chainName) {
+			return new ThickNodeAddressMessage(address, isRequest, chainName);
+		}
+		
+	}
+	
+	private static class MinerNodeAddressCodec extends AbstractNodeAddressCodec<MinerNodeAddressMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 9;
+		}
+
+		@Override
+		public Class<MinerNodeAddressMessage> getMessageClass() {
+			return MinerNodeAddressMessage.class;
+		}
+
+		@Override
+		protected MinerNodeAddressMessage build(InetSocketAddress address, boolean isRequest, String chainName) {
+			return new MinerNodeAddressMessage(address, isRequest, chainName);
+		}
+		
+	}
+	
+	private static class SubmitNewBlockCodec implements MessageCodec<SubmitNewBlockMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 10;
+		}
+
+		@Override
+		public Class<SubmitNewBlockMessage> getMessageClass() {
+			return SubmitNewBlockMessage.class;
+		}
+
+		@Override
+		public void encode(SubmitNewBlockMessage message, DataOutputStream out) throws IOException {
+			writeBlock(message.getBlock(), out);
+			writeAddress(message.getSenderAddress(), out);
+		}
+
+		@Override
+		public SubmitNewBlockMessage decode(DataInputStream in) throws IOException {
+			Block block = readBlock(in);
+			return new SubmitNewBlockMessage(block, readAddress(in));
+		}
+		
+	}
+	
+	private static class TransactionBlockNumberCodec implements MessageCodec<TransactionBlockNumberMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 11;
+		}
+
+		@Override
+		public Class<TransactionBlockNumberMessage> getMessageClass() {
+			return TransactionBlockNumberMessage.class;
+		}
+
+		@Override
+		public void encode(TransactionBlockNumberMessage message, DataOutputStream out) throws IOException {
+			out.writeBoolean(message.isRequest());
+			out.writeLong(message.getBlockNumber());
+			writeTransaction(message.getTransaction(), out);
+		}
+
+		@Override
+		public TransactionBlockNumberMessage decode(DataInputStream in) throws IOException {
+			boolean isRequest = in.readBoolean();
+			long blockNumber = in.readLong();
+			Transaction transaction = readTransaction(in);
+			if(isRequest){
+				return new TransactionBlockNumberMessage(transaction);
+			}
+			return new TransactionBlockNumberMessage(blockNumber, transaction);
+		}
+		
+	}
+	
+	private static class UpdatingChainBlockRequestCodec implements MessageCodec<UpdatingChainBlockRequestMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 12;
+		}
+
+		@Override
+		public Class<UpdatingChainBlockRequestMessage> getMessageClass() {
+			return UpdatingChainBlockRequestMessage.class;
+		}
+
+		@Override
+		public void encode(UpdatingChainBlockRequestMessage message, DataOutputStream out) throws IOException {
+			writeOrdinal(message.getMessageType(), out);
+			switch (message.getMessageType()) {
+			case BLOCK_REPLY:
+				writeBlock(message.getBlock(), out);
+				break;
+			case RANGE_REQUEST:
+				out.writeLong(message.getBlockNumber());
+				out.writeLong(message.getToBlockNumber());
+				out.writeInt(message.getMaxBytes());
+				break;
+			case BLOCK_REQUEST:
+			case RANGE_END:
+				out.writeLong(message.getBlockNumber());
+				break;
+			default:
+				break;
+			}
+		}
+
+		@Override
+		public UpdatingChainBlockRequestMessage decode(DataInputStream in) throws IOException {
+			UpdatingChainBlockRequestMessage.Type type = readOrdinal(UpdatingChainBlockRequestMessage.Type.class, in);
+			if(type == null){
+				throw new IOException("Missing updating chain message type.");
+			}
+			switch (type) {
+			case BLOCK_REPLY:
+				return new UpdatingChainBlockRequestMessage(readBlock(in));
+			case RANGE_REQUEST:
+				long fromBlockNumber = in.readLong();
+				long toBlockNumber = in.readLong();
+				return new UpdatingChainBlockRequestMessage(fromBlockNumber, toBlockNumber, in.readInt());
+			case BLOCK_REQUEST:
+				return new UpdatingChainBlockRequestMessage(in.readLong());
+			case RANGE_END:
+				return UpdatingChainBlockRequestMessage.rangeEnd(in.readLong());
+			default:
+				return new UpdatingChainBlockRequestMessage();
+			}
+		}
+		
+	}
+
+	private static class CompactBlockNotificationCodec implements MessageCodec<CompactBlockNotificationMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 13;
+		}
+
+		@Override
+		public Class<CompactBlockNotificationMessage> getMessageClass() {
+			return CompactBlockNotificationMessage.class;
+		}
+
+		@Override
+		public void encode(CompactBlockNotificationMessage message, DataOutputStream out) throws IOException {
+			writeAddress(message.getThickNodeAddress(), out);
+			writeBlockHeader(message.getHeader(), out);
+			long[] shortIds = message.getShortIds();
+			out.writeInt(shortIds.length);
+			for(long shortId : shortIds){
+				out.writeLong(shortId);
+			}
+		}
+
+		@Override
+		public CompactBlockNotificationMessage decode(DataInputStream in) throws IOException {
+			InetSocketAddress address = readAddress(in);
+			BlockHeader header = readBlockHeader(in);
+			long[] shortIds = new long[checkCount(in.readInt(), 8, "short ids")];
+			for(int i = 0; i < shortIds.length; i++){
+				shortIds[i] = in.readLong();
+			}
+			return new CompactBlockNotificationMessage(address, header, shortIds);
+		}
+		
+	}
+	
+	private static class BlockTransactionsRequestCodec implements MessageCodec<BlockTransactionsRequestMessage> {
+
+		@Override
+		public int getTypeId() {
+			return 14;
+		}
+
+		@Override
+		public Class<BlockTransactionsRequestMessage> getMessageClass() {
+			return BlockTransactionsRequestMessage.class;
+		}
+
+		@Override
+		public void encode(BlockTransactionsRequestMessage message, DataOutputStream out) throws IOException {
+			ArrayList<Transaction> transactions = message.getTransactions();
+			out.writeByte(kindOf(message.isRequestMessage(), transactions == null));
+			writeHashValue(message.getBlockHash(), out);
+			if(message.isRequestMessage()){
+				int[] indexes = message.getIndexes();
+				out.writeInt(indexes.length);
+				for(int index : indexes){
+					out.writeInt(index);
+				}
+			} else if(transactions != null){
+				out.writeInt(transactions.size());
+				for(Transaction transaction : transactions){
+					writeTransaction(transaction, out);
+				}
+			}
+		}
+
+		@Override
+		public BlockTransactionsRequestMessage decode(DataInputStream in) throws IOException {
+			byte kind = in.readByte();
+			HashValue blockHash = readHashValue(in);
+			switch (kind) {
+			case REQUEST:
+				int[] indexes = new int[checkCount(in.readInt(), 4, "indexes")];
+				for(int i = 0; i < indexes.length; i++){
+					indexes[i] = in.readInt();
+				}
+				return new BlockTransactionsRequestMessage(blockHash, indexes);
+			case POSITIVE_REPLY:
+				int size = checkCount(in.readInt(), 1, "transactions");
+				ArrayList<Transaction> transactions = new ArrayList<Transaction>(Math.min(size, 1024));
+				for(int i = 0; i < size; i++){
+					transactions.add(readTransaction(in));
+				}
+				return new BlockTransactionsRequestMessage(blockHash, transactions);
+			case NEGATIVE_REPLY:
+				return new BlockTransactionsRequestMessage(blockHash, (ArrayList<Transaction>) null);
+			default:
+				throw new IOException("Unknown message kind: "+kind);
+			}
+		}
+		
+	}
+
+}
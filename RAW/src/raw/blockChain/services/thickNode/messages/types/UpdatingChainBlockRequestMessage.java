@@ -35,6 +35,8 @@ public class UpdatingChainBlockRequestMessage implements ThickNodeMessages {
 	private Type messageType;
 	private Block block;
 	private long blockNumber;
+	private long toBlockNumber;
+	private int maxBytes;
 	
 	/**
 	 * Use this constructor build a message
@@ -55,6 +57,39 @@ public class UpdatingChainBlockRequestMessage implements ThickNodeMessages {
 		messageType = Type.BLOCK_REQUEST;
 	}
 	
+	/**
+	 * Use this constructor to build a request for the blocks
+	 * from <tt>fromBlockNumber</tt> to <tt>toBlockNumber</tt> (both included).
+	 * The other node replies with a sequence of {@link Type#BLOCK_REPLY} messages,
+	 * stopping at the first block it does not have or as soon as it sent
+	 * <tt>maxBytes</tt> bytes (at least one block is always sent), followed by
+	 * a {@link Type#RANGE_END} message.
+	 * 
+	 * @param fromBlockNumber the number of the first {@link Block} needed
+	 * @param toBlockNumber the number of the last {@link Block} needed
+	 * @param maxBytes the maximum number of bytes to be sent before {@link Type#RANGE_END}
+	 */
+	public UpdatingChainBlockRequestMessage(long fromBlockNumber, long toBlockNumber, int maxBytes) {
+		this.blockNumber = fromBlockNumber;
+		this.toBlockNumber = toBlockNumber;
+		this.maxBytes = maxBytes;
+		messageType = Type.RANGE_REQUEST;
+	}
+	
+	/**
+	 * Build the message closing the reply to a
+	 * {@link Type#RANGE_REQUEST}.
+	 * 
+	 * @param lastSentBlockNumber the number of the last {@link Block} sent (or the first requested one - 1 if none was sent)
+	 * @return a {@link Type#RANGE_END} message
+	 */
+	public static UpdatingChainBlockRequestMessage rangeEnd(long lastSentBlockNumber) {
+		UpdatingChainBlockRequestMessage message = new UpdatingChainBlockRequestMessage();
+		message.blockNumber = lastSentBlockNumber;
+		message.messageType = Type.RANGE_END;
+		return message;
+	}
+	
 	/**
 	 * Use this constructor to build a reply
 	 * message.
@@ -81,15 +116,31 @@ public class UpdatingChainBlockRequestMessage implements ThickNodeMessages {
 	}
 
 	/**
-	 * @return the blockNumber
+	 * @return the blockNumber (the first requested one for {@link Type#RANGE_REQUEST}, the last sent one for {@link Type#RANGE_END})
 	 */
 	public long getBlockNumber() {
 		return blockNumber;
 	}
 
+	/**
+	 * @return the number of the last requested block of a {@link Type#RANGE_REQUEST}
+	 */
+	public long getToBlockNumber() {
+		return toBlockNumber;
+	}
+
+	/**
+	 * @return the maximum number of bytes to be sent replying to a {@link Type#RANGE_REQUEST}
+	 */
+	public int getMaxBytes() {
+		return maxBytes;
+	}
+
 	public enum Type {
 		BLOCK_REQUEST,
 		BLOCK_REPLY,
+		RANGE_REQUEST,
+		RANGE_END,
 		DONE_BYE;
 	}
 }
@@ -19,12 +19,9 @@
 package raw.blockChain.services.thinNode.implementations;
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.Socket;
-import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
@@ -36,11 +33,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 
 import com.google.common.collect.ImmutableList;
 
 import raw.blockChain.api.Block;
-import raw.blockChain.api.BlockChainConstants;
 import raw.blockChain.api.BlockCompactRepresentation;
 import raw.blockChain.api.BlockHeader;
 import raw.blockChain.api.HashValue;
@@ -50,6 +47,8 @@ import raw.blockChain.api.implementations.DefaultMerkler;
 import raw.blockChain.exceptions.TransactionNotPresentException;
 import raw.blockChain.services.dbHelper.BlocksToDataBase;
 import raw.blockChain.services.dbHelper.implementations.DefaultBlockToDataBase;
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.messages.QuorumQuery;
 import raw.blockChain.services.miner.messages.types.SubmitTransactionMessage;
 import raw.blockChain.services.thickNode.messages.types.BlockCompactRepresentationRequestMessage;
 import raw.blockChain.services.thickNode.messages.types.BlockRequestMessage;
@@ -59,6 +58,7 @@ import raw.blockChain.services.thickNode.messages.types.TransactionBlockNumberMe
 import raw.blockChain.services.thickNode.messages.types.CommunicationMessage.Type;
 import raw.blockChain.services.thinNode.ThinNode;
 import raw.blockChain.services.utils.ThickNodeAddressBookFile;
+import raw.concurrent.RAWExecutors;
 import raw.logger.Log;
 import raw.settings.BlockChainProperties;
 import raw.settings.ModuleProperty;
@@ -85,9 +85,15 @@ public class DefaultThinNode implements ThinNode {
 	
 	private InetSocketAddress myAddress;
 	
+	private ExecutorService queryPool;
+	private QuorumQuery quorumQuery;
+	
 	public DefaultThinNode() {
 		log = Log.getLogger();
 		
+		queryPool = RAWExecutors.newCachedThreadPool();
+		quorumQuery = new QuorumQuery(queryPool);
+		
 		thickNodes = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
 		unresponsiveThickNodes = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
 
@@ -216,54 +222,27 @@ public class DefaultThinNode implements ThinNode {
 	
 	private void askNodeContactToAnotherNode(InetSocketAddress nodeToBeAsked){
 		ThickNodeAddressMessage request = new ThickNodeAddressMessage();
-		Socket sock = null;
+		MessageChannel channel = null;
 		try {
-			sock = new Socket(nodeToBeAsked.getAddress(), nodeToBeAsked.getPort());
+			channel = MessageChannel.connect(nodeToBeAsked);
 		} catch (IOException e5) {
 //			log.exception(e5);
 			log.verboseDebug("IOException creating socket to "+nodeToBeAsked+". Aborting contact.");
 			return;
 		}
-		ObjectOutputStream oos = null;
-		try {
-			oos = new ObjectOutputStream(sock.getOutputStream());
-		} catch (IOException e4) {
-			log.verboseDebug("Cannot establish connection output stream. Aborting request.");
-			closeIfNotNull(sock);
-			return;
-		}
 		try {
-			oos.writeObject(request);
+			channel.writeMessage(request);
 		} catch (IOException e3) {
 			log.verboseDebug("Cannot Send request. Aborting.");
-			closeIfNotNull(sock);
-			return;
-		}
-		try {
-			sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-		} catch (SocketException e1) {
-			log.exception(e1);
-			closeIfNotNull(sock);
-			return;
-		}
-		ObjectInputStream ois = null;
-		try {
-			ois = new ObjectInputStream(sock.getInputStream());
-		} catch (IOException e2) {
-			if(!(e2 instanceof SocketTimeoutException)){				
-				log.verboseDebug("Cannot establish connection input stream. Aborting request.");
-			} else {
-				log.verboseDebug("Socket timeout opening input stream. Aborting request.");;
-			}
-			closeIfNotNull(sock);
+			closeIfNotNull(channel);
 			return;
 		}
 		Object obj = null;
 		try {
-			obj = ois.readObject();
+			obj = channel.readMessage();
 		} catch (ClassNotFoundException e1) {
 			log.exception(e1);
-			closeIfNotNull(sock);
+			closeIfNotNull(channel);
 			return;
 		} catch (IOException e1) {
 			if (!(e1 instanceof SocketTimeoutException)) {
@@ -271,11 +250,11 @@ public class DefaultThinNode implements ThinNode {
 			} else {
 				log.verboseDebug("Read from socket timeout. Aborting request.");;
 			}
-			closeIfNotNull(sock);
+			closeIfNotNull(channel);
 			return;
 		}
 		try {
-			sock.close();
+			channel.close();
 		} catch (IOException e) {
 			log.exception(e);
 		}
@@ -306,46 +285,25 @@ public class DefaultThinNode implements ThinNode {
 	private boolean sendAPing(InetSocketAddress address){
 		CommunicationMessage ping = new CommunicationMessage(Type.PING_FROM_THIN);
 		ping.attachInetSocketAddress(myAddress);
-		try (Socket sock = new Socket(address.getAddress(), address.getPort())){
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return false;
-			}
+		try (MessageChannel channel = MessageChannel.connect(address)){
 			try {
-				oos.writeObject(ping);
+				channel.writeMessage(ping);
 			} catch (IOException e) {
-				closeIfNotNull(sock);
-				return false;
-			}
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-				closeIfNotNull(sock);
-				return false;
-			}
-			ObjectInputStream ois = null;
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (IOException e) {
-				closeIfNotNull(sock);
+				closeIfNotNull(channel);
 				return false;
 			}
 			Object obj = null;
 			try {
-				obj = ois.readObject();
+				obj = channel.readMessage();
 			} catch (ClassNotFoundException e1) {
-				closeIfNotNull(sock);
+				closeIfNotNull(channel);
 				return false;
 			} catch (IOException e1) {
-				closeIfNotNull(sock);
+				closeIfNotNull(channel);
 				return false;
 			}
 			try {
-				sock.close();
+				channel.close();
 			} catch (IOException e) {
 				log.exception(e);
 			}
@@ -368,10 +326,10 @@ public class DefaultThinNode implements ThinNode {
 		}
 	}
 	
-	private void closeIfNotNull(Socket sock){
-		if(sock != null){
+	private void closeIfNotNull(MessageChannel channel){
+		if(channel != null){
 			try {
-				sock.close();
+				channel.close();
 			} catch (IOException e) {
 				log.exception(e);
 			}
@@ -416,14 +374,7 @@ public class DefaultThinNode implements ThinNode {
 		if(block == null){
 			// in the database the block is not found.
 			// BUT. we could ask to thick nodes.
-			ArrayList<InetSocketAddress> nodesToAsk = getNodesToAsk();
-			ArrayList<Block> blocks = new ArrayList<Block>();
-			for(InetSocketAddress node : nodesToAsk){
-				Block received = askBlockByHashToThickNode(node, hash);
-				if(received != null){
-					blocks.add(received);
-				}
-			}
+			ArrayList<Block> blocks = askBlocks(new BlockRequestMessage(hash));
 			block = selectTheGoodBlock(blocks);
 			if(block != null){
 				try {
@@ -540,76 +491,22 @@ public class DefaultThinNode implements ThinNode {
 		return database.getBlockHeaderByNumber(blockNumber);
 	}
 	
-	private Block askBlockByHashToThickNode(InetSocketAddress nodeToAsk, HashValue hash){
-		BlockRequestMessage request = new BlockRequestMessage(hash);
-		return sendBlockRequest(nodeToAsk, request);
-	}
-	
-	private Block sendBlockRequest(InetSocketAddress nodeToAsk, BlockRequestMessage request){
-		log.verboseDebug("Sending Block request to "+nodeToAsk+".");
-		try (Socket sock = new Socket(nodeToAsk.getAddress(), nodeToAsk.getPort())){
-			ObjectOutputStream oos = null;
-			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
-			} catch (IOException e) {
-				log.verboseDebug("Cannot establish connection output stream. Returning.");
-				closeIfNotNull(sock);
-				return null;
-			}
-			try {
-				oos.writeObject(request);
-			} catch (IOException e) {
-				log.verboseDebug("Cannot send request. Returning.");
-				closeIfNotNull(sock);
-				return null;
-			}
-			try {
-				sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			} catch (SocketException e1) {
-				log.exception(e1);
-				closeIfNotNull(sock);
-				return null;
-			}
-			ObjectInputStream ois = null;
-			try {
-				ois = new ObjectInputStream(sock.getInputStream());
-			} catch (IOException e) {
-				log.verboseDebug("Cannot establish connection input stream. Returning.");
-				closeIfNotNull(sock);
-				return null;
-			}
-			Object obj = null;
-			try {
-				obj = ois.readObject();
-			} catch (ClassNotFoundException e) {
-				log.exception(e);
-				closeIfNotNull(sock);
-				return null;
-			} catch (IOException e) {
-				log.verboseDebug("Cannot receive reply. Returning.");
-				closeIfNotNull(sock);
-				return null;
-			}
-			try {
-				sock.close();
-			} catch (IOException e) {
-				log.exception(e);
-			}
-			Block block = null;
-			if(obj instanceof BlockRequestMessage){
-				BlockRequestMessage reply = (BlockRequestMessage) obj;
-				if(reply.isPositiveReply()){
-					block = reply.getBlock();
+	/**
+	 * Ask <tt>request</tt> to (at most) {@link ThinNode#THICK_NODE_CONSENSUS} thick nodes at once,
+	 * stopping as soon as the majority of them agrees on the same block.
+	 */
+	private ArrayList<Block> askBlocks(BlockRequestMessage request){
+		ArrayList<InetSocketAddress> nodesToAsk = getNodesToAsk();
+		log.verboseDebug("Sending Block request to "+nodesToAsk+".");
+		return quorumQuery.ask(nodesToAsk, request, new QuorumQuery.ReplyParser<Block>() {
+			@Override
+			public Block parse(Object reply) {
+				if(reply instanceof BlockRequestMessage && ((BlockRequestMessage) reply).isPositiveReply()){
+					return ((BlockRequestMessage) reply).getBlock();
 				}
+				return null;
 			}
-			return block;
-		} catch (Exception e) {
-			log.exception(e);
-			for(Throwable t : e.getSuppressed()){
-				log.exception(t);
-			}
-			return null;
-		}	
+		}, QuorumQuery.majority(nodesToAsk.size()));
 	}
 
 	/* (non-Javadoc)
@@ -626,14 +523,7 @@ public class DefaultThinNode implements ThinNode {
 	}
 	
 	private Block retrieveLastBlockInChain(){
-		ArrayList<InetSocketAddress> nodesToAsk = getNodesToAsk();
-		ArrayList<Block> blocks = new ArrayList<Block>();
-		for(InetSocketAddress node : nodesToAsk){
-			Block received = askLastBlockInChain(node);
-			if(received != null){
-				blocks.add(received);
-			}
-		}
+		ArrayList<Block> blocks = askBlocks(new BlockRequestMessage());
 		Block block = selectTheGoodBlock(blocks);
 		if(block != null){
 			try {
@@ -649,11 +539,6 @@ public class DefaultThinNode implements ThinNode {
 		return block;
 	}
 	
-	private Block askLastBlockInChain(InetSocketAddress nodeToAsk){
-		BlockRequestMessage request = new BlockRequestMessage();
-		return sendBlockRequest(nodeToAsk, request);
-	}
-	
 	private BlockHeader localGetLastBlockHeaderInChain(){
 		return database.getLastBlockHeaderInChain(false);
 	}
@@ -681,14 +566,7 @@ public class DefaultThinNode implements ThinNode {
 	public BlockHeader getBlockHeaderByNumber(long blockNumber) {
 		BlockHeader header = localGetBlockHeaderByNumber(blockNumber);
 		if(header == null){
-			ArrayList<InetSocketAddress> nodesToAsk = getNodesToAsk();
-			ArrayList<Block> blocks = new ArrayList<Block>();
-			for(InetSocketAddress node : nodesToAsk){
-				Block received = askBlockByBumberToThickNode(node, blockNumber);
-				if(received != null){
-					blocks.add(received);
-				}
-			}
+			ArrayList<Block> blocks = askBlocks(new BlockRequestMessage(blockNumber));
 			Block block = selectTheGoodBlock(blocks);
 			if(block != null){
 				try {
@@ -703,11 +581,51 @@ public class DefaultThinNode implements ThinNode {
 		return header;
 	}
 	
-	private Block askBlockByBumberToThickNode(InetSocketAddress nodeToAsk, long blockNumber){
-		BlockRequestMessage request = new BlockRequestMessage(blockNumber);
-		return sendBlockRequest(nodeToAsk, request);
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.CommonNode#getBlockHashByNumber(long)
+	 */
+	@Override
+	public HashValue getBlockHashByNumber(long blockNumber) {
+		HashValue hash = database.getBlockHashByNumber(blockNumber);
+		if(hash == null){
+			BlockHeader header = getBlockHeaderByNumber(blockNumber);
+			if(header != null){
+				hash = header.hash();
+			}
+		}
+		return hash;
+	}
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.CommonNode#getBlockTimestampByNumber(long)
+	 */
+	@Override
+	public long getBlockTimestampByNumber(long blockNumber) {
+		long timestamp = database.getBlockTimestampByNumber(blockNumber);
+		if(timestamp < 0){
+			BlockHeader header = getBlockHeaderByNumber(blockNumber);
+			if(header != null){
+				timestamp = header.timestamp();
+			}
+		}
+		return timestamp;
 	}
-
+	
+	/* (non-Javadoc)
+	 * @see raw.blockChain.services.CommonNode#getBlockDifficultyByNumber(long)
+	 */
+	@Override
+	public BigDecimal getBlockDifficultyByNumber(long blockNumber) {
+		BigDecimal difficulty = database.getBlockDifficultyByNumber(blockNumber);
+		if(difficulty == null){
+			BlockHeader header = getBlockHeaderByNumber(blockNumber);
+			if(header != null){
+				difficulty = header.currentDifficulty();
+			}
+		}
+		return difficulty;
+	}
+	
 	/* (non-Javadoc)
 	 * @see raw.blockChain.services.thinNode.ThinNode#stopService()
 	 */
@@ -716,6 +634,7 @@ public class DefaultThinNode implements ThinNode {
 		log.verboseDebug("Stop issued.");
 		database.close();
 		running = false;
+		queryPool.shutdown();
 		
 		int thickNodesSize;
 		synchronized (thickNodes) {
@@ -746,14 +665,7 @@ public class DefaultThinNode implements ThinNode {
 		}
 		if(compact == null){
 			BlockCompactRepresentationRequestMessage request = new BlockCompactRepresentationRequestMessage(blockHeader, transaction);
-			ArrayList<InetSocketAddress> nodes = getNodesToAsk();
-			ArrayList<BlockCompactRepresentation> gotCompacts = new ArrayList<BlockCompactRepresentation>();
-			for(InetSocketAddress node : nodes){
-				BlockCompactRepresentation retrieved = askBlockCompactRepresentation(node, request);
-				if(retrieved != null){
-					gotCompacts.add(retrieved);
-				}
-			}
+			ArrayList<BlockCompactRepresentation> gotCompacts = askBlockCompactRepresentations(request);
 			if(gotCompacts.size() == 0){
 				return false;
 			}
@@ -804,34 +716,21 @@ public class DefaultThinNode implements ThinNode {
 		return papabili.get(rand.nextInt(papabili.size()));
 	}
 	
-	private BlockCompactRepresentation askBlockCompactRepresentation(InetSocketAddress nodeAddress, BlockCompactRepresentationRequestMessage requestMessage){
-		Object obj = null;
-		log.verboseDebug("Ready to open socket.");
-		try (Socket sock = new Socket(nodeAddress.getAddress(), nodeAddress.getPort())){
-			log.verboseDebug("Sending request to "+nodeAddress);
-			ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
-			oos.writeObject(requestMessage);
-			sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
-			obj = ois.readObject();
-			log.verboseDebug("Read object reply");
-		} catch (Exception e) {
-			log.exception(e);
-			for(Throwable t : e.getSuppressed()){
-				log.exception(t);
-			}
-		}
-
-		BlockCompactRepresentation retrieved = null;
-		if(obj instanceof BlockCompactRepresentationRequestMessage){
-			log.verboseDebug("Replyed object is a BlockCompactRepresentationRequestMessage.");
-			BlockCompactRepresentationRequestMessage reply = (BlockCompactRepresentationRequestMessage) obj;
-			if(reply.isPositiveReply()){
-				retrieved = reply.getBlockCompactRepresentation();
-				log.verboseDebug("Compact representation retrieved.");
+	/**
+	 * As {@link DefaultThinNode#askBlocks(BlockRequestMessage)} for compact representations.
+	 */
+	private ArrayList<BlockCompactRepresentation> askBlockCompactRepresentations(BlockCompactRepresentationRequestMessage requestMessage){
+		ArrayList<InetSocketAddress> nodesToAsk = getNodesToAsk();
+		log.verboseDebug("Sending compact representation request to "+nodesToAsk+".");
+		return quorumQuery.ask(nodesToAsk, requestMessage, new QuorumQuery.ReplyParser<BlockCompactRepresentation>() {
+			@Override
+			public BlockCompactRepresentation parse(Object reply) {
+				if(reply instanceof BlockCompactRepresentationRequestMessage && ((BlockCompactRepresentationRequestMessage) reply).isPositiveReply()){
+					return ((BlockCompactRepresentationRequestMessage) reply).getBlockCompactRepresentation();
+				}
+				return null;
 			}
-		}
-		return retrieved;
+		}, QuorumQuery.majority(nodesToAsk.size()));
 	}
 
 	/* (non-Javadoc)
@@ -850,14 +749,7 @@ public class DefaultThinNode implements ThinNode {
 		}
 		if(compact == null){
 			BlockCompactRepresentationRequestMessage request = new BlockCompactRepresentationRequestMessage(headerHash, transaction);
-			ArrayList<InetSocketAddress> nodes = getNodesToAsk();
-			ArrayList<BlockCompactRepresentation> gotCompacts = new ArrayList<BlockCompactRepresentation>();
-			for(InetSocketAddress node : nodes){
-				BlockCompactRepresentation retrieved = askBlockCompactRepresentation(node, request);
-				if(retrieved != null){					
-					gotCompacts.add(retrieved);
-				}
-			}
+			ArrayList<BlockCompactRepresentation> gotCompacts = askBlockCompactRepresentations(request);
 			if(gotCompacts.size() == 0){
 				return false;
 			}
@@ -893,16 +785,8 @@ public class DefaultThinNode implements ThinNode {
 		if(compact == null){
 			log.verboseDebug("No db-stored compact representation for "+transaction+" in "+header);
 			BlockCompactRepresentationRequestMessage request = new BlockCompactRepresentationRequestMessage(blockNumber, transaction);
-			ArrayList<InetSocketAddress> nodes = getNodesToAsk();
-			ArrayList<BlockCompactRepresentation> gotCompacts = new ArrayList<BlockCompactRepresentation>();
-			for(InetSocketAddress node : nodes){
-				BlockCompactRepresentation retrieved = askBlockCompactRepresentation(node, request);
-				log.verboseDebug("Completed request to "+node);
-				if(retrieved != null){
-					log.verboseDebug("Compact representation retrieved from "+node);
-					gotCompacts.add(retrieved);
-				}
-			}
+			ArrayList<BlockCompactRepresentation> gotCompacts = askBlockCompactRepresentations(request);
+			log.verboseDebug(gotCompacts.size()+" compact representations retrieved.");
 			if(gotCompacts.size() == 0){
 				return false;
 			}
@@ -937,30 +821,22 @@ public class DefaultThinNode implements ThinNode {
 
 		SubmitTransactionMessage submission = new SubmitTransactionMessage(myAddress, transaction);
 		for(InetSocketAddress node : allThickNodes){
-			Socket sock = null;
-			try {
-				sock = new Socket(node.getAddress(), node.getPort());
-			} catch (IOException e) {
-				log.exception(e);
-				return;
-			}
-			ObjectOutputStream oos = null;
+			MessageChannel channel = null;
 			try {
-				oos = new ObjectOutputStream(sock.getOutputStream());
+				channel = MessageChannel.connect(node);
 			} catch (IOException e) {
 				log.exception(e);
-				closeIfNotNull(sock);
 				return;
 			}
 			try {
-				oos.writeObject(submission);
+				channel.writeMessage(submission);
 			} catch (IOException e) {
 				log.exception(e);
-				closeIfNotNull(sock);
+				closeIfNotNull(channel);
 				return;
 			}
 			try {
-				sock.close();
+				channel.close();
 			} catch (IOException e) {
 				log.exception(e);
 				return;
@@ -1033,13 +909,10 @@ public class DefaultThinNode implements ThinNode {
 	
 	private long askTransactionLastOccurrence(InetSocketAddress node, Transaction transaction){
 		TransactionBlockNumberMessage reply = null;
-		try (Socket sock = new Socket(node.getAddress(), node.getPort());){
-			sock.setSoTimeout(BlockChainConstants.SOCKETS_MILLISECONDS_TIMEOUT);
-			ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+		try (MessageChannel channel = MessageChannel.connect(node)){
 			TransactionBlockNumberMessage request = new TransactionBlockNumberMessage(transaction);
-			oos.writeObject(request);
-			ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
-			Object received = ois.readObject();
+			channel.writeMessage(request);
+			Object received = channel.readMessage();
 			if(received instanceof TransactionBlockNumberMessage){
 				TransactionBlockNumberMessage converted = (TransactionBlockNumberMessage) received;
 				if(!converted.isRequest()){
@@ -18,6 +18,7 @@ package raw.concurrent;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -49,6 +50,22 @@ public class RAWExecutors {
 		return new ThreadPoolExecutorRisingExceptions(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
 	}
 	
+	/**
+	 * Works as {@link Executors#newFixedThreadPool(int)} but returns an {@link ExecutorService}
+	 * which does not swallows exceptions risen while detached executions and whose queue is
+	 * bounded: tasks submitted while <tt>queueCapacity</tt> tasks are already waiting are
+	 * rejected with a {@link java.util.concurrent.RejectedExecutionException}.
+	 * 
+	 * @see Executors#newFixedThreadPool(int)
+	 * 
+	 * @param threads the number of threads
+	 * @param queueCapacity the maximum number of waiting tasks
+	 * @return
+	 */
+	public static ExecutorService newBoundedThreadPool(int threads, int queueCapacity) {
+		return new ThreadPoolExecutorRisingExceptions(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity));
+	}
+	
 	/**
 	 * Works as {@link Executors#newSingleThreadExecutor()} but returns an {@link ExecutorService}
 	 * which does not swallows exceptions risen while detached executions.
@@ -76,6 +93,23 @@ public class RAWExecutors {
              new MyExceptionHandler(), true);
     }
 	
+	/**
+	 * Works as {@link RAWExecutors#newWorkStealingPool()} but returns a {@link ForkJoinPool}
+	 * with the given parallelism, meant to run divide and conquer {@link java.util.concurrent.ForkJoinTask}s
+	 * (thus processing forked tasks in LIFO order).
+	 * 
+	 * @see ForkJoinPool
+	 * 
+	 * @param parallelism the number of worker threads
+	 * @return
+	 */
+	public static ForkJoinPool newForkJoinPool(int parallelism) {
+		return new ForkJoinPool
+			(parallelism,
+			 ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+			 new MyExceptionHandler(), false);
+	}
+	
 	private static class MyExceptionHandler implements Thread.UncaughtExceptionHandler{
 
 		@Override
@@ -296,7 +296,7 @@ public class DefaultDhtCore implements DhtCore {
 	}
 	
 	private DhtNode createDhtNode(DhtAddress address, KeyPair keyPair){
-		DhtHasher hasher = new DefaultDhtHasher();
+		DhtHasher hasher = DefaultDhtHasher.getHasher();
 		byte[] base = new byte[42];
 		Random rand = new Random(System.currentTimeMillis());
 		rand.nextBytes(base);
@@ -496,7 +496,7 @@ public class DefaultDhtCore implements DhtCore {
 		
 //		long seedNumberBeforeUpdate = currentSeedBlockNumber;
 		if(currentSeedAccessedAtBlockNumber != currentSeedBlockNumber() || currentSeed == null){ //if block number changes here it will show up
-			HashValue hash = chainCore.getBlockByNumber(currentSeedBlockNumber()).getHeader().hash();
+			HashValue hash = chainCore.getBlockHashByNumber(currentSeedBlockNumber());
 			currentSeedAccessedAtBlockNumber = currentSeedBlockNumber();
 			currentSeed = hash.toByteArray();
 			log.verboseDebug("New seed is: "+hash.toHexString());
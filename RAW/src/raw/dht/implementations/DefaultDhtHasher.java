@@ -40,6 +40,8 @@ import com.google.common.hash.Hashing;
  */
 public class DefaultDhtHasher implements DhtHasher {
 	
+	private static final DefaultDhtHasher SHARED = new DefaultDhtHasher();
+	
 	private HashFunction digester;
 	private byte[] salt;
 	
@@ -60,6 +62,13 @@ public class DefaultDhtHasher implements DhtHasher {
 		digester = Hashing.sha512();
 		this.salt = salt;
 	}
+	
+	/**
+	 * @return a {@link DhtHasher} without any salt shared by every caller
+	 */
+	public static DefaultDhtHasher getHasher(){
+		return SHARED;
+	}
 
 	/* (non-Javadoc)
 	 * @see raw.dht.interfaces.DhtHasher#hashBytes(byte[])
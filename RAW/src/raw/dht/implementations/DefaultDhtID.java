@@ -58,7 +58,7 @@ public class DefaultDhtID implements DhtID {
 	 * @param idBytes the byte array representation of the id
 	 */
 	private void setId(byte[] idBytes){		
-		if(idBytes == null || (idBytes.length != new DefaultDhtHasher().hashLength())){
+		if(idBytes == null || (idBytes.length != DefaultDhtHasher.getHasher().hashLength())){
 			throw new IllegalArgumentException("Provided raw bites were null or had invalid length.");
 		}
 		myID = idBytes;
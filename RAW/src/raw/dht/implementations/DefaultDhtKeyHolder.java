@@ -61,7 +61,7 @@ public class DefaultDhtKeyHolder implements DhtKeyHolder {
 	
 	public DefaultDhtKeyHolder(DhtCore core) {
 		myCore = core;
-		int hashLength = (new DefaultHasher()).hashLength();
+		int hashLength = DefaultHasher.getHasher().hashLength();
 		currentSeed = new byte[hashLength];
 		Arrays.fill(currentSeed, (byte)0);
 		lastSeed = new byte[hashLength];
@@ -75,6 +75,7 @@ public class DhtNodeAddressBookFile {
 	private final String transactionNonceJSonKey = "transactionNonce";
 	private final String transactionSeedNumberJSonKey = "transactionSeedBlock";
 	private final String transactionBlockNumberJSonKey = "transactionBlockNumber";
+	private final String transactionVersionJSonKey = "transactionVersion";
 	
 	
 	private Log log;
@@ -234,6 +235,8 @@ public class DhtNodeAddressBookFile {
 			long transactionNonce = entry.getJsonNumber(transactionNonceJSonKey).longValue();
 			long transactionCreationSeed = entry.getJsonNumber(transactionSeedNumberJSonKey).longValue();
 			long transactionBlockNumber = entry.getJsonNumber(transactionBlockNumberJSonKey).longValue();
+			// files saved before transactions were versioned only store version 1 transactions.
+			int transactionVersion = entry.getInt(transactionVersionJSonKey, 1);
 			InetAddress ip; 
 			try {
 				ip = InetAddress.getByName(ipString);
@@ -251,7 +254,7 @@ public class DhtNodeAddressBookFile {
 //			retAddresses.add(new DefaultDhtNode(id, pubKeyHex, addres));
 			DefaultDhtNodeExtended reconstructedNode;
 			try {
-				reconstructedNode = new DefaultDhtNodeExtended(id, addres, pubKey, new DefaultTransaction(id, transactionNonce, transactionCreationSeed, pubKey), transactionBlockNumber);
+				reconstructedNode = new DefaultDhtNodeExtended(id, addres, pubKey, new DefaultTransaction(id, transactionNonce, transactionCreationSeed, pubKey, transactionVersion), transactionBlockNumber);
 			} catch (IncoherentTransactionException e) {
 				log.exception(e);
 				continue;
@@ -275,7 +278,8 @@ public class DhtNodeAddressBookFile {
 					add(pubKeyJSonKey, DhtSigningUtils.publicKeyHexRepresentation(node.getPublicKey())).
 					add(transactionNonceJSonKey, node.getTransaction().getTransactionNonce()).
 					add(transactionSeedNumberJSonKey, node.getTransaction().getCreationSeedNumber()).
-					add(transactionBlockNumberJSonKey, node.getTransactionBlockNumber());
+					add(transactionBlockNumberJSonKey, node.getTransactionBlockNumber()).
+					add(transactionVersionJSonKey, node.getTransaction().getVersion());
 			arrayBuilder.add(entry);
 		}
 		
@@ -160,11 +160,10 @@ public class DhtUtils {
 		if(!DhtUtils.isSeedBlockNumber(seedBlockNumber)){
 			throw new IllegalArgumentException("Provided block number ("+seedBlockNumber+") does not identify a SEED block.");
 		}
-		Block retrieved = chainCore.getBlockByNumber(seedBlockNumber);
-		if(retrieved == null){
+		HashValue hash = chainCore.getBlockHashByNumber(seedBlockNumber);
+		if(hash == null){
 			return null;
 		}
-		HashValue hash = retrieved.getHeader().hash();
 		return new DefaultDhtHasher(hash.toByteArray());
 	}
 
@@ -54,6 +54,16 @@ import com.google.common.io.ByteStreams;
  */
 public class UdpDhtMessageMarshaller {
 	
+	/**
+	 * Messages whose transactions are all of version 1: the transaction versions are not sent.
+	 */
+	private static final byte LEGACY_PROTOCOL_VERSION = 1;
+	
+	/**
+	 * Messages carrying the version of each of their transactions.
+	 */
+	private static final byte VERSIONED_TRANSACTIONS_PROTOCOL_VERSION = 2;
+	
 	private static UdpDhtMessageMarshaller singleton = new UdpDhtMessageMarshaller();
 	
 	private static int bufferSize;
@@ -68,7 +78,7 @@ public class UdpDhtMessageMarshaller {
 
 	private UdpDhtMessageMarshaller() {
 		ArrayList<Integer> sizes = new ArrayList<Integer>();
-		DhtHasher hasher = new DefaultDhtHasher();
+		DhtHasher hasher = DefaultDhtHasher.getHasher();
 		DhtID probeId = hasher.hashString("probe");
 		byte[] ipBytes = {10, 0, 0, 1};
 		DhtAddress probeAddress = null;
@@ -88,7 +98,7 @@ public class UdpDhtMessageMarshaller {
 		}
 		byte[] probeSignature = DhtSigningUtils.signDhtAddress(probeAddress, probeKeyPair.getPrivate());
 		
-		hashSize = new DefaultDhtHasher().hashLength();
+		hashSize = DefaultDhtHasher.getHasher().hashLength();
 		pubKeySize = probeKeyPair.getPublic().getEncoded().length;
 		signatureSize = probeSignature.length;
 		
@@ -139,7 +149,8 @@ public class UdpDhtMessageMarshaller {
 	public DhtMessage datagramToMessage(DatagramPacket packet) { 
 		ByteArrayDataInput badi = ByteStreams.newDataInput(packet.getData());
 		byte dhtProtocolVersion = badi.readByte();
-		if(dhtProtocolVersion == 1){
+		if(dhtProtocolVersion == LEGACY_PROTOCOL_VERSION || dhtProtocolVersion == VERSIONED_TRANSACTIONS_PROTOCOL_VERSION){
+			boolean versioned = dhtProtocolVersion == VERSIONED_TRANSACTIONS_PROTOCOL_VERSION;
 			int ordinal = badi.readInt();
 			MessageType type = MessageType.values()[ordinal];
 			
@@ -147,13 +158,13 @@ public class UdpDhtMessageMarshaller {
 			
 			if(type == MessageType.PING || type == MessageType.PONG){
 				try {
-					message = singleton.decodePingMessage(type, badi);
+					message = singleton.decodePingMessage(type, badi, versioned);
 				} catch (UnknownHostException | IllegalArgumentException e) {
 					log.exception(e);
 				}
 			} else if (type == MessageType.FIND_NODE || type == MessageType.FIND_NODE_REPLY) {
 				try {
-					message = singleton.decodeFindNodeMessa(type, badi);
+					message = singleton.decodeFindNodeMessa(type, badi, versioned);
 				} catch (IllegalArgumentException | UnknownHostException e) {
 					log.exception(e);
 				}
@@ -168,19 +179,45 @@ public class UdpDhtMessageMarshaller {
 	
 	private byte[] convertMessageToByteArray(DhtMessage message) {
 		ByteArrayDataOutput bado = ByteStreams.newDataOutput();
-		byte dhtProtocolVersion = 1;
+		// nodes not knowing transaction versions still understand messages about version 1 transactions.
+		boolean versioned = carriesNewerTransactions(message);
+		byte dhtProtocolVersion = versioned ? VERSIONED_TRANSACTIONS_PROTOCOL_VERSION : LEGACY_PROTOCOL_VERSION;
 		bado.write(dhtProtocolVersion);
 		if(message instanceof PingMessage){
-			bado = writePing(bado, (PingMessage) message);
+			bado = writePing(bado, (PingMessage) message, versioned);
 		} else {
 			if(message instanceof FindNodeMessage){
-				bado = writeFindNode(bado, (FindNodeMessage) message);
+				bado = writeFindNode(bado, (FindNodeMessage) message, versioned);
 			}
 		}
 		return bado.toByteArray();		
 	}
 	
-	private ByteArrayDataOutput writePing(ByteArrayDataOutput bado, PingMessage message){
+	/**
+	 * @param message a {@link DhtMessage}
+	 * @return <tt>true</tt> if any {@link Transaction} in <tt>message</tt> is newer than version 1
+	 */
+	private boolean carriesNewerTransactions(DhtMessage message){
+		if(message instanceof PingMessage){
+			return ((PingMessage) message).getSender().getTransaction().getVersion() > 1;
+		}
+		if(message instanceof FindNodeMessage){
+			FindNodeMessage findNode = (FindNodeMessage) message;
+			if(findNode.getSender().getTransaction().getVersion() > 1){
+				return true;
+			}
+			if(findNode.getMessageType() != MessageType.FIND_NODE){
+				for(DhtNodeExtended node : findNode.getReplyNodes()){
+					if(node.getTransaction().getVersion() > 1){
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	private ByteArrayDataOutput writePing(ByteArrayDataOutput bado, PingMessage message, boolean versioned){
 		MessageType type = message.getMessageType();
 		bado.writeInt(type.ordinal());
 		byte[] idBytes = message.getSender().getID().toByteArray();
@@ -195,12 +232,15 @@ public class UdpDhtMessageMarshaller {
 		Transaction transaction = message.getSender().getTransaction();
 		bado.writeLong(transaction.getCreationSeedNumber());
 		bado.writeLong(transaction.getTransactionNonce());
+		if(versioned){
+			bado.writeInt(transaction.getVersion());
+		}
 		byte[] signature = message.getSignature();
 		bado.write(signature);
 		return bado;
 	}
 	
-	private PingMessage decodePingMessage(MessageType type, ByteArrayDataInput badi) throws UnknownHostException, IllegalArgumentException{
+	private PingMessage decodePingMessage(MessageType type, ByteArrayDataInput badi, boolean versioned) throws UnknownHostException, IllegalArgumentException{
 		if(!(type == MessageType.PING || type == MessageType.PONG)){
 			throw new IllegalArgumentException();
 		}
@@ -215,6 +255,7 @@ public class UdpDhtMessageMarshaller {
 		long transactionNumber = badi.readLong();
 		long creationSeedNumber = badi.readLong();
 		long transactionNonce = badi.readLong();
+		int transactionVersion = versioned ? badi.readInt() : 1;
 		byte[] signature = new byte[signatureSize];
 		badi.readFully(signature);
 		
@@ -224,7 +265,7 @@ public class UdpDhtMessageMarshaller {
 		addr = new DefaultDhtAddress(ipBytes, udpPort, tcpPort);
 				
 		DhtNode node = new DefaultDhtNode(id, pubKeyBytes, addr);
-		Transaction transaction = new DefaultTransaction(id, transactionNonce, creationSeedNumber, pubKeyBytes);
+		Transaction transaction = new DefaultTransaction(id, transactionNonce, creationSeedNumber, pubKeyBytes, transactionVersion);
 		
 		DhtNodeExtended nodeExtended = null;
 		try {
@@ -244,7 +285,7 @@ public class UdpDhtMessageMarshaller {
 		return message;
 	}
 	
-	private ByteArrayDataOutput writeFindNode(ByteArrayDataOutput bado, FindNodeMessage message){
+	private ByteArrayDataOutput writeFindNode(ByteArrayDataOutput bado, FindNodeMessage message, boolean versioned){
 		MessageType type = message.getMessageType();
 		bado.writeInt(type.ordinal());
 		byte[] senderID = message.getSender().getID().toByteArray();
@@ -258,6 +299,9 @@ public class UdpDhtMessageMarshaller {
 		bado.writeLong(message.getSender().getTransactionBlockNumber());
 		bado.writeLong(message.getSender().getTransaction().getCreationSeedNumber());
 		bado.writeLong(message.getSender().getTransaction().getTransactionNonce());
+		if(versioned){
+			bado.writeInt(message.getSender().getTransaction().getVersion());
+		}
 		byte[] senderPubKey = message.getSender().getPublicKey().getEncoded();
 		bado.write(senderPubKey);
 		byte[] idBytes = message.getTargetId().toByteArray();
@@ -285,12 +329,15 @@ public class UdpDhtMessageMarshaller {
 				bado.writeLong(nodeTransactionBlockNumber);
 				bado.writeLong(nodeTransactionCreationSeedNumber);
 				bado.writeLong(nodeTransactionNonce);
+				if(versioned){
+					bado.writeInt(node.getTransaction().getVersion());
+				}
 			}			
 		}
 		return bado;
 	}
 
-	private FindNodeMessage decodeFindNodeMessa(MessageType type, ByteArrayDataInput badi) throws IllegalArgumentException, UnknownHostException {
+	private FindNodeMessage decodeFindNodeMessa(MessageType type, ByteArrayDataInput badi, boolean versioned) throws IllegalArgumentException, UnknownHostException {
 		FindNodeMessage message;
 		byte[] senderId = new byte[hashSize];
 		badi.readFully(senderId);
@@ -302,11 +349,12 @@ public class UdpDhtMessageMarshaller {
 		long transactionBlockNumber = badi.readLong();
 		long transactionCreationSeedNumber = badi.readLong();
 		long transactionNonce = badi.readLong();
+		int transactionVersion = versioned ? badi.readInt() : 1;
 		byte[] senderPubKey = new byte[pubKeySize];
 		badi.readFully(senderPubKey);
 		DhtID senderDhtId = new DefaultDhtID(senderId);
 		DhtNode senderNode = new DefaultDhtNode(senderDhtId, senderPubKey, new DefaultDhtAddress(senderAddress, udpSenderPort, tcpSenderPort));
-		Transaction senderTransaction = new DefaultTransaction(senderDhtId, transactionNonce, transactionCreationSeedNumber, senderPubKey);
+		Transaction senderTransaction = new DefaultTransaction(senderDhtId, transactionNonce, transactionCreationSeedNumber, senderPubKey, transactionVersion);
 		DhtNodeExtended senderNodeExtended = null;
 		try {
 			senderNodeExtended = new DefaultDhtNodeExtended(senderNode, senderTransaction, transactionBlockNumber);
@@ -332,10 +380,11 @@ public class UdpDhtMessageMarshaller {
 				long nodeTransactionBlockNumber = badi.readLong();
 				long nodeTransactionCreationSeedNumber = badi.readLong();
 				long nodeTransactionNonce = badi.readLong();
+				int nodeTransactionVersion = versioned ? badi.readInt() : 1;
 				
 				DhtID nodeDhtId = new DefaultDhtID(nodeId);
 				DhtNode node = new DefaultDhtNode(nodeDhtId, nodePubKey, new DefaultDhtAddress(nodeIP, udpPort, tcpPort));
-				Transaction nodeTransaction = new DefaultTransaction(nodeDhtId, nodeTransactionNonce, nodeTransactionCreationSeedNumber, nodePubKey);
+				Transaction nodeTransaction = new DefaultTransaction(nodeDhtId, nodeTransactionNonce, nodeTransactionCreationSeedNumber, nodePubKey, nodeTransactionVersion);
 				DhtNodeExtended nodeExtended = null;
 				try {
 					nodeExtended = new DefaultDhtNodeExtended(node, nodeTransaction, nodeTransactionBlockNumber);
@@ -56,6 +56,27 @@ public class BlockChainProperties implements Properties {
 	private int blocksCheckedOnShortCheck;
 	private String blocksCheckedOnShortCheckJsonKey = "Number of blocks checked during short startup check";
 	
+	private int minerWorkers;
+	private String minerWorkersJsonKey = "Number of parallel mining workers";
+	
+	private int parallelMerkleThreshold;
+	private String parallelMerkleThresholdJsonKey = "Minimum number of transactions for a parallel merkle tree computation";
+	
+	private boolean headersFirstSync;
+	private String headersFirstSyncJsonKey = "Download headers first while updating the chain";
+	
+	private int syncPeers;
+	private String syncPeersJsonKey = "Number of thick nodes blocks are downloaded from while updating the chain";
+	
+	private boolean selectorListener;
+	private String selectorListenerJsonKey = "Serve incoming connections with a non blocking selector";
+	
+	private int listenerWorkers;
+	private String listenerWorkersJsonKey = "Number of threads serving incoming messages with the non blocking selector";
+	
+	private int minerMetricsPort;
+	private String minerMetricsPortJsonKey = "Miner metrics HTTP port (0 to disable)";
+	
 	public BlockChainProperties() {
 		blockChainName = "RAW_STD_BLOCKCHAIN";
 		
@@ -80,6 +101,20 @@ public class BlockChainProperties implements Properties {
 		defaultShortCheckOnStartup();
 		
 		defaultBlocksCheckedOnShortCheck();
+		
+		defaultMinerWorkers();
+		
+		defaultParallelMerkleThreshold();
+		
+		defaultHeadersFirstSync();
+		
+		defaultSyncPeers();
+		
+		defaultSelectorListener();
+		
+		defaultListenerWorkers();
+		
+		defaultMinerMetricsPort();
 	}
 	
 	public BlockChainProperties(JsonObject json) {
@@ -138,6 +173,55 @@ public class BlockChainProperties implements Properties {
 			updatedSettings = true;
 		}
 		
+		try {
+			minerWorkers = json.getInt(minerWorkersJsonKey);
+		} catch (NullPointerException e) {
+			defaultMinerWorkers();
+			updatedSettings = true;
+		}
+		
+		try {
+			parallelMerkleThreshold = json.getInt(parallelMerkleThresholdJsonKey);
+		} catch (NullPointerException e) {
+			defaultParallelMerkleThreshold();
+			updatedSettings = true;
+		}
+		
+		try {
+			headersFirstSync = json.getBoolean(headersFirstSyncJsonKey);
+		} catch (NullPointerException e) {
+			defaultHeadersFirstSync();
+			updatedSettings = true;
+		}
+		
+		try {
+			syncPeers = json.getInt(syncPeersJsonKey);
+		} catch (NullPointerException e) {
+			defaultSyncPeers();
+			updatedSettings = true;
+		}
+		
+		try {
+			selectorListener = json.getBoolean(selectorListenerJsonKey);
+		} catch (NullPointerException e) {
+			defaultSelectorListener();
+			updatedSettings = true;
+		}
+		
+		try {
+			listenerWorkers = json.getInt(listenerWorkersJsonKey);
+		} catch (NullPointerException e) {
+			defaultListenerWorkers();
+			updatedSettings = true;
+		}
+		
+		try {
+			minerMetricsPort = json.getInt(minerMetricsPortJsonKey);
+		} catch (NullPointerException e) {
+			defaultMinerMetricsPort();
+			updatedSettings = true;
+		}
+		
 		if(updatedSettings){
 			notifyChanged();
 		}
@@ -158,6 +242,13 @@ public class BlockChainProperties implements Properties {
 				add(minerListeningSocketJsonKey, minerListeningSocket).
 				add(shortCheckOnStartupJsonKey, shortCheckOnStartup).
 				add(blocksCheckedOnShortCheckJsonKey, blocksCheckedOnShortCheck).
+				add(minerWorkersJsonKey, minerWorkers).
+				add(parallelMerkleThresholdJsonKey, parallelMerkleThreshold).
+				add(headersFirstSyncJsonKey, headersFirstSync).
+				add(syncPeersJsonKey, syncPeers).
+				add(selectorListenerJsonKey, selectorListener).
+				add(listenerWorkersJsonKey, listenerWorkers).
+				add(minerMetricsPortJsonKey, minerMetricsPort).
 				build();
 		return jsObj;
 	}
@@ -185,6 +276,34 @@ public class BlockChainProperties implements Properties {
 	private void defaultBlocksCheckedOnShortCheck(){
 		blocksCheckedOnShortCheck = 200;
 	}
+	
+	private void defaultMinerWorkers(){
+		minerWorkers = 1;
+	}
+	
+	private void defaultParallelMerkleThreshold(){
+		parallelMerkleThreshold = 4096;
+	}
+	
+	private void defaultHeadersFirstSync(){
+		headersFirstSync = true;
+	}
+	
+	private void defaultSyncPeers(){
+		syncPeers = 4;
+	}
+	
+	private void defaultSelectorListener(){
+		selectorListener = false;
+	}
+	
+	private void defaultListenerWorkers(){
+		listenerWorkers = 16;
+	}
+	
+	private void defaultMinerMetricsPort(){
+		minerMetricsPort = 0;
+	}
 
 	/**
 	 * @return the blockChainName
@@ -371,4 +490,109 @@ public class BlockChainProperties implements Properties {
 		notifyChanged();
 	}
 
+	/**
+	 * @return the number of parallel workers searching for a new block
+	 */
+	public int getMinerWorkers() {
+		return minerWorkers;
+	}
+
+	/**
+	 * @param minerWorkers the number of parallel workers searching for a new block
+	 */
+	public void setMinerWorkers(int minerWorkers) {
+		this.minerWorkers = minerWorkers;
+		notifyChanged();
+	}
+
+	/**
+	 * @return the minimum number of transactions whose merkle tree is computed in parallel
+	 */
+	public int getParallelMerkleThreshold() {
+		return parallelMerkleThreshold;
+	}
+
+	/**
+	 * @param parallelMerkleThreshold the minimum number of transactions whose merkle tree is computed in parallel
+	 */
+	public void setParallelMerkleThreshold(int parallelMerkleThreshold) {
+		this.parallelMerkleThreshold = parallelMerkleThreshold;
+		notifyChanged();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the chain is updated downloading and validating headers before blocks
+	 */
+	public boolean isHeadersFirstSync() {
+		return headersFirstSync;
+	}
+
+	/**
+	 * @param headersFirstSync <tt>true</tt> to update the chain downloading and validating headers before blocks
+	 */
+	public void setHeadersFirstSync(boolean headersFirstSync) {
+		this.headersFirstSync = headersFirstSync;
+		notifyChanged();
+	}
+
+	/**
+	 * @return the maximum number of thick nodes blocks are downloaded from while updating the chain
+	 */
+	public int getSyncPeers() {
+		return syncPeers;
+	}
+
+	/**
+	 * @param syncPeers the maximum number of thick nodes blocks are downloaded from while updating the chain
+	 */
+	public void setSyncPeers(int syncPeers) {
+		this.syncPeers = syncPeers;
+		notifyChanged();
+	}
+
+	/**
+	 * @return <tt>true</tt> if incoming connections are served by a non blocking selector and a bounded number of threads
+	 */
+	public boolean isSelectorListener() {
+		return selectorListener;
+	}
+
+	/**
+	 * @param selectorListener <tt>true</tt> to serve incoming connections by a non blocking selector and a bounded number of threads
+	 */
+	public void setSelectorListener(boolean selectorListener) {
+		this.selectorListener = selectorListener;
+		notifyChanged();
+	}
+
+	/**
+	 * @return the number of threads serving incoming messages with the non blocking selector
+	 */
+	public int getListenerWorkers() {
+		return listenerWorkers;
+	}
+
+	/**
+	 * @param listenerWorkers the number of threads serving incoming messages with the non blocking selector
+	 */
+	public void setListenerWorkers(int listenerWorkers) {
+		this.listenerWorkers = listenerWorkers;
+		notifyChanged();
+	}
+
+	/**
+	 * @return the port the miner publishes its metrics on over HTTP, 0 if they are not published
+	 */
+	public int getMinerMetricsPort() {
+		return minerMetricsPort;
+	}
+
+	/**
+	 * @param minerMetricsPort the port the miner publishes its metrics on over HTTP, 0 not to publish them
+	 */
+	public void setMinerMetricsPort(int minerMetricsPort) {
+		this.minerMetricsPort = minerMetricsPort;
+		notifyChanged();
+	}
+
 }
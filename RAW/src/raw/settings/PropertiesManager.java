@@ -333,6 +333,14 @@ public class PropertiesManager {
 	 */
 	private void checkForChanges(){
 		if(changedProperties != null){
+			if(needsToBeLoadedFromFile(changedProperties)){
+				/*
+				 * the module is still being loaded (e.g. some settings were
+				 * missing and got their defaults). loadFromFile() will persist
+				 * it as soon as it is available.
+				 */
+				return;
+			}
 			switch (changedProperties) {
 			case GENERAL:
 				writePropertyFile(general, getPropertyFileName(changedProperties));
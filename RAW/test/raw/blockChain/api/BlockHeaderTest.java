@@ -15,8 +15,10 @@
  *******************************************************************************/
 package raw.blockChain.api;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -261,4 +263,107 @@ public class BlockHeaderTest {
 		
 		assertEquals("The hash codes should be different!!!", headerUnderTest.hashCode(), anotherHeader.hashCode());
 	}
+	
+	private DefaultBlockHeader.Builder version2Builder(BigDecimal version2Difficulty) {
+		DefaultBlockHeader.Builder builder = new DefaultBlockHeader.Builder();
+		builder.setHeaderVersion(DefaultBlockHeader.CURRENT_VERSION).
+		setBlockChainName(blockChainName).
+		setPrevBlockHash(prevBlockHash).
+		setMerkleRoot(merkleRoot).
+		setBlockNumber(blockNumber).
+		setTimestamp(timestamp).
+		setDifficulty(version2Difficulty).
+		setNonce(nonce).
+		setMinerSignature(signature);
+		return builder;
+	}
+	
+	@Test
+	public void testVersionForChain() throws Exception {
+		long activation = BlockChainConstants.FIXED_LAYOUT_ACTIVATION_BLOCK;
+		assertEquals(DefaultBlockHeader.CURRENT_VERSION, DefaultBlockHeader.versionForChain("RAW_STD_BLOCKCHAIN", activation));
+		// not activated yet: old nodes would reject the block.
+		assertEquals(DefaultBlockHeader.FIXED_LAYOUT_VERSION - 1, DefaultBlockHeader.versionForChain("RAW_STD_BLOCKCHAIN", activation - 1));
+		assertEquals(DefaultBlockHeader.FIXED_LAYOUT_VERSION - 1, DefaultBlockHeader.maxVersionAt(activation - 1));
+		
+		String longName = "A_BLOCKCHAIN_NAME_TOO_LONG_FOR_THE_FIXED_LAYOUT";
+		int version = DefaultBlockHeader.versionForChain(longName, activation);
+		assertEquals(DefaultBlockHeader.FIXED_LAYOUT_VERSION - 1, version);
+		// headers of chains with long names can still be built.
+		BlockHeader header = version2Builder(difficulty).setHeaderVersion(version).setBlockChainName(longName).build();
+		assertEquals(longName, header.getBlockChainName());
+	}
+	
+	@Test
+	public void testVersion2FixedLayout() throws Exception {
+		BlockHeader version2 = version2Builder(new BigDecimal("424242.123456789012")).build();
+		
+		assertEquals(DefaultBlockHeader.CURRENT_VERSION, version2.getVersion());
+		assertEquals(DefaultBlockHeader.HASHABLE_LENGTH, version2.getHashableBytes().length);
+		assertEquals(DefaultBlockHeader.ENCODED_LENGTH, version2.getBytes().length);
+		// the difficulty is stored with a fixed number of decimal digits.
+		assertEquals(new BigDecimal("424242.12345679"), version2.currentDifficulty());
+		assertEquals(hasher.hashBytes(version2.getHashableBytes()), version2.hash());
+		
+		byte[] hashable = version2.getHashableBytes();
+		int readNonce = ((hashable[DefaultBlockHeader.NONCE_OFFSET] & 0xff) << 24) | ((hashable[DefaultBlockHeader.NONCE_OFFSET + 1] & 0xff) << 16) |
+				((hashable[DefaultBlockHeader.NONCE_OFFSET + 2] & 0xff) << 8) | (hashable[DefaultBlockHeader.NONCE_OFFSET + 3] & 0xff);
+		assertEquals(nonce, readNonce);
+		
+		// every version 2 header has the same size.
+		BlockHeader other = version2Builder(new BigDecimal(1)).setMinerSignature("").setBlockNumber(Long.MAX_VALUE).build();
+		assertEquals(version2.getBytes().length, other.getBytes().length);
+		assertNotEquals(version2, other);
+	}
+	
+	@Test
+	public void testVersion2BuildFromBytes() throws Exception {
+		BlockHeader version2 = version2Builder(difficulty).build();
+		byte[] bytes = version2.getBytes();
+		
+		BlockHeader built = new DefaultBlockHeader.Builder(bytes).build();
+		
+		assertEquals(version2, built);
+		assertEquals(version2.getVersion(), built.getVersion());
+		assertEquals(version2.getBlockChainName(), built.getBlockChainName());
+		assertEquals(version2.previousBlock(), built.previousBlock());
+		assertEquals(version2.merkleRoot(), built.merkleRoot());
+		assertEquals(version2.getBlockNumber(), built.getBlockNumber());
+		assertEquals(version2.timestamp(), built.timestamp());
+		assertEquals(version2.currentDifficulty(), built.currentDifficulty());
+		assertEquals(version2.nonce(), built.nonce());
+		assertEquals(version2.getMinerSignature(), built.getMinerSignature());
+		assertArrayEquals(bytes, built.getBytes());
+		
+		// a tampered field does not match the hash anymore.
+		bytes[DefaultBlockHeader.NONCE_OFFSET]++;
+		try {
+			new DefaultBlockHeader.Builder(bytes).build();
+			fail("A tampered header was built.");
+		} catch (IllegalBlockHeaderBytesRepresentation e) {
+			// expected.
+		}
+		
+		// version 1 bytes are still understood.
+		BlockHeader version1 = new DefaultBlockHeader.Builder(headerUnderTest.getBytes()).build();
+		assertEquals(1, version1.getVersion());
+		assertEquals(headerUnderTest, version1);
+	}
+	
+	@Test
+	public void testVersion2Serializableness() throws Exception {
+		BlockHeader version2 = version2Builder(difficulty).build();
+		
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(version2);
+		oos.close();
+		
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		BlockHeader deserialized = (BlockHeader) ois.readObject();
+		ois.close();
+		
+		assertEquals(version2, deserialized);
+		assertEquals(version2.currentDifficulty(), deserialized.currentDifficulty());
+	}
 }
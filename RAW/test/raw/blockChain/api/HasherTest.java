@@ -19,6 +19,7 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +31,8 @@ import com.google.common.hash.Hashing;
 import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Hasher;
 import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.transactionGenerators.RandomTransactionsGenerator;
 
 public class HasherTest {
 	
@@ -155,6 +158,49 @@ public class HasherTest {
 		assertArrayEquals("The result is not the desired one", expected, result.toByteArray());
 	}
 	
+	@Test
+	public void testHashTransactions() throws Exception {
+		ArrayList<Transaction> transactions = new RandomTransactionsGenerator().getTransactions(5);
+		transactions.add(DefaultTransaction.getNullTransaction());
+		
+		ArrayList<HashValue> hashes = hasherUnderTest.hashTransactions(transactions);
+		
+		assertEquals(transactions.size(), hashes.size());
+		for (int i = 0; i < transactions.size(); i++) {
+			byte[] expected = testerDigester.hashBytes(transactions.get(i).getBytes()).asBytes();
+			expected = testerDigester.hashBytes(expected).asBytes();
+			assertArrayEquals(expected, hashes.get(i).toByteArray());
+			// the cached hash is returned from now on.
+			assertSame(hashes.get(i), hasherUnderTest.hashTransaction(transactions.get(i)));
+			assertSame(hashes.get(i), new DefaultHasher().hashTransaction(transactions.get(i)));
+		}
+	}
+	
+	@Test
+	public void testHashByteRanges() {
+		byte[] padded = new byte[sourceBytes.length + 7];
+		System.arraycopy(sourceBytes, 0, padded, 3, sourceBytes.length);
+		
+		assertEquals(hasherUnderTest.hashBytes(sourceBytes), hasherUnderTest.hashBytes(padded, 3, sourceBytes.length));
+		
+		HashValue left = hasherUnderTest.hashBytes(sourceBytes);
+		HashValue right = hasherUnderTest.hashBytes(left.toByteArray());
+		byte[] pair = new byte[2 * 64];
+		System.arraycopy(left.toByteArray(), 0, pair, 0, 64);
+		System.arraycopy(right.toByteArray(), 0, pair, 64, 64);
+		
+		byte[] output = new byte[64 + 5];
+		hasherUnderTest.hashHashes(pair, 0, pair, 64, output, 5);
+		byte[] result = new byte[64];
+		System.arraycopy(output, 5, result, 0, 64);
+		assertArrayEquals(hasherUnderTest.hashHashes(left, right).toByteArray(), result);
+		
+		// the output may overwrite the inputs.
+		hasherUnderTest.hashHashes(pair, 0, pair, 64, pair, 0);
+		System.arraycopy(pair, 0, result, 0, 64);
+		assertArrayEquals(hasherUnderTest.hashHashes(left, right).toByteArray(), result);
+	}
+	
 	@Test
 	public void testHashLength(){
 		int lenght = hasherUnderTest.hashLength();
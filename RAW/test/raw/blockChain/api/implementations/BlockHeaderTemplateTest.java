@@ -0,0 +1,78 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+
+public class BlockHeaderTemplateTest {
+
+	Builder builder;
+
+	Hasher hasher;
+
+	@Before
+	public void setUp() throws Exception {
+		hasher = new DefaultHasher();
+
+		byte[] bytearr1 = {1, 2, 3, 4, 5, 'a', 'b', 'c', 'd', 'e'};
+		byte[] bytearr2 = {'a', 'b', 'c', 'd', 'e', 1, 2, 3, 4, 5};
+
+		builder = new Builder();
+		builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setPrevBlockHash(hasher.hashBytes(bytearr1)).
+		setMerkleRoot(hasher.hashBytes(bytearr2)).
+		setBlockNumber(42L).
+		setTimestamp(System.currentTimeMillis()).
+		setDifficulty(new BigDecimal("424242.4242")).
+		setMinerSignature("Signature for tests");
+	}
+
+	@Test
+	public void testHashWithNonce() throws Exception {
+		checkHashWithNonce(new BlockHeaderTemplate(builder));
+	}
+	
+	@Test
+	public void testHashWithNonceVersion2() throws Exception {
+		builder.setHeaderVersion(DefaultBlockHeader.CURRENT_VERSION);
+		checkHashWithNonce(new BlockHeaderTemplate(builder));
+	}
+	
+	private void checkHashWithNonce(BlockHeaderTemplate template) throws Exception {
+
+		Random rand = new Random();
+		int[] nonces = {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, rand.nextInt(), rand.nextInt()};
+		for(int nonce : nonces){
+			byte[] computed = template.hashWithNonce(nonce);
+			BlockHeader header = template.buildHeader(nonce);
+			assertEquals(nonce, header.nonce());
+			assertArrayEquals(hasher.hashBlockHeader(header).toByteArray(), computed);
+			assertArrayEquals(header.hash().toByteArray(), computed);
+		}
+	}
+
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.concurrent.RAWExecutors;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.DefaultDhtID;
+
+public class DefaultBlockMinerTaskTest {
+	
+	private static final long TIMEOUT_MILLISECONDS = 10000;
+	
+	ExecutorService pool;
+	
+	BlockHeader firstHeader;
+	BlockHeader secondHeader;
+
+	@Before
+	public void setUp() throws Exception {
+		pool = RAWExecutors.newCachedThreadPool();
+		firstHeader = header(10L, "first");
+		secondHeader = header(11L, "second");
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		pool.shutdownNow();
+	}
+	
+	private static BlockHeader header(long blockNumber, String seed) throws Exception {
+		Hasher hasher = new DefaultHasher();
+		Builder builder = new Builder();
+		builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setPrevBlockHash(hasher.hashBytes(seed.getBytes())).
+		setMerkleRoot(hasher.hashBytes(seed.getBytes())).
+		setBlockNumber(blockNumber).
+		setTimestamp(System.currentTimeMillis()).
+		setDifficulty(new BigDecimal("1")).
+		setNonce(0).
+		setMinerSignature("Signature for tests");
+		return builder.build();
+	}
+	
+	private static ArrayList<Transaction> transactions(int from, int to){
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		for(int i = from; i < to; i++){
+			byte[] id = new byte[DefaultDhtHasher.getHasher().hashLength()];
+			id[0] = (byte) (i + 1);
+			transactions.add(new DefaultTransaction(new DefaultDhtID(id), i, 0, DefaultTransaction.getNullTransaction().getPublicKey()));
+		}
+		return transactions;
+	}
+	
+	private static void awaitAdopted(MiningTemplate template, int workers) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLISECONDS;
+		while(template.getAdopters() < workers && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertEquals(workers, template.getAdopters());
+	}
+
+	@Test
+	public void testRunningTasksSwitchTemplate() throws Exception {
+		int workers = 2;
+		MiningTemplate first = new MiningTemplate(firstHeader, transactions(0, 3));
+		MiningTemplateSlot slot = new MiningTemplateSlot(first, workers, true);
+		AtomicBoolean compute = new AtomicBoolean(true);
+		ArrayList<DefaultBlockMinerTask> tasks = new ArrayList<DefaultBlockMinerTask>();
+		ArrayList<Future<Block>> futures = new ArrayList<Future<Block>>();
+		for(int i = 0; i < workers; i++){
+			DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, null, "Test signature", i, workers, compute);
+			tasks.add(task);
+			futures.add(pool.submit(task));
+		}
+		awaitAdopted(first, workers);
+		
+		// more transactions on the same header.
+		MiningTemplate second = new MiningTemplate(firstHeader, transactions(0, 7));
+		slot.set(second);
+		awaitAdopted(second, workers);
+		
+		// a new previous header.
+		MiningTemplate third = new MiningTemplate(secondHeader, transactions(3, 5));
+		slot.set(third);
+		awaitAdopted(third, workers);
+		assertTrue(slot.getLastSwitchNanos() >= 0);
+		
+		for(DefaultBlockMinerTask task : tasks){
+			task.stop();
+		}
+		for(Future<Block> future : futures){
+			future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+			assertTrue(future.isDone());
+		}
+	}
+	
+	@Test
+	public void testMetricsAreReported() throws Exception {
+		DefaultBlockMiner father = new DefaultBlockMiner(pool, "Test signature");
+		MiningTemplate first = new MiningTemplate(firstHeader, transactions(0, 3));
+		MiningTemplateSlot slot = new MiningTemplateSlot(first, 1, true);
+		DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, father, "Test signature", 0, 1, new AtomicBoolean(true));
+		Future<Block> future = pool.submit(task);
+		awaitAdopted(first, 1);
+		MiningTemplate second = new MiningTemplate(firstHeader, transactions(0, 5));
+		slot.set(second);
+		awaitAdopted(second, 1);
+		// hashes are reported when the worker leaves a template: let it compute some first.
+		Thread.sleep(200);
+		task.stop();
+		future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS);
+		
+		MiningMetrics.Snapshot snapshot = father.getMetrics().snapshot();
+		assertEquals(2, snapshot.getTemplatesBuilt());
+		assertTrue(snapshot.getLastTemplateSwitchNanos() >= 0);
+		assertEquals(1, snapshot.getWorkers());
+		assertTrue(snapshot.getWorkerHashes(0) > 0);
+	}
+	
+	@Test
+	public void testIdleTaskStops() throws Exception {
+		MiningTemplate solved = new MiningTemplate(firstHeader, transactions(0, 3));
+		assertTrue(solved.solve());
+		MiningTemplateSlot slot = new MiningTemplateSlot(solved, 1, true);
+		DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, null, "Test signature", 0, 1, new AtomicBoolean(true));
+		Future<Block> future = pool.submit(task);
+		awaitAdopted(solved, 1);
+		
+		// the task waits for a new template until stopped.
+		Thread.sleep(50);
+		assertTrue(!future.isDone());
+		task.stop();
+		assertNull(future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS));
+	}
+	
+	@Test
+	public void testNonceRangesAreDisjoint() throws Exception {
+		MiningTemplateSlot slot = new MiningTemplateSlot(new MiningTemplate(firstHeader, transactions(0, 3)), 1, false);
+		for(int workers : new int[]{1, 2, 3, 7, 8, 64}){
+			// ranges follow one another and cover the whole 32 bit nonce space.
+			long next = Integer.MIN_VALUE;
+			for(int i = 0; i < workers; i++){
+				DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, null, "Test signature", i, workers, new AtomicBoolean(true));
+				assertEquals(next, task.getNonceRangeStart());
+				assertTrue(task.getNonceRangeLength() > 0);
+				next = task.getNonceRangeStart() + task.getNonceRangeLength();
+			}
+			assertEquals((long) Integer.MAX_VALUE + 1, next);
+		}
+	}
+	
+	@Test
+	public void testFirstFinderHaltsTheOthers() throws Exception {
+		final int workers = 4;
+		final MiningTemplate template = new MiningTemplate(firstHeader, transactions(0, 3));
+		MiningTemplateSlot slot = new MiningTemplateSlot(template, workers, false);
+		AtomicBoolean compute = new AtomicBoolean(true);
+		ArrayList<DefaultBlockMinerTask> tasks = new ArrayList<DefaultBlockMinerTask>();
+		ArrayList<Future<Block>> futures = new ArrayList<Future<Block>>();
+		for(int i = 0; i < workers; i++){
+			DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, null, "Test signature", i, workers, compute);
+			tasks.add(task);
+			futures.add(pool.submit(task));
+		}
+		awaitAdopted(template, workers);
+		
+		// all the workers find a block at once: exactly one wins.
+		final CountDownLatch start = new CountDownLatch(1);
+		ArrayList<Future<Boolean>> claims = new ArrayList<Future<Boolean>>();
+		for(final DefaultBlockMinerTask task : tasks){
+			claims.add(pool.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					start.await();
+					return task.claim(template);
+				}
+			}));
+		}
+		start.countDown();
+		int winners = 0;
+		for(Future<Boolean> claim : claims){
+			if(claim.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS)){
+				winners++;
+			}
+		}
+		assertEquals(1, winners);
+		assertFalse(compute.get());
+		
+		// the other workers stop searching.
+		for(Future<Block> future : futures){
+			assertNull(future.get(TIMEOUT_MILLISECONDS, TimeUnit.MILLISECONDS));
+		}
+	}
+	
+	@Test
+	public void testNullTransactionIsDropped() {
+		ArrayList<Transaction> candidates = transactions(0, 2);
+		candidates.add(DefaultTransaction.getNullTransaction());
+		assertEquals(transactions(0, 2), new MiningTemplate(firstHeader, candidates).getTransactions());
+		assertEquals(1, new MiningTemplate(firstHeader, new ArrayList<Transaction>()).getTransactions().size());
+		assertTrue(new MiningTemplate(firstHeader, candidates).solve());
+	}
+
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import raw.blockChain.api.Merkler.IntermediateValues;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.transactionGenerators.RandomTransactionsGenerator;
+
+public class IncrementalMerkleTreeTest {
+	
+	static ArrayList<Transaction> pool;
+	
+	Random rand = new Random();
+	
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		pool = new RandomTransactionsGenerator().getTransactions(40);
+	}
+	
+	@Test
+	public void testSameRootAsMerkleTree() throws Exception {
+		for (int size = 1; size <= pool.size(); size++) {
+			ArrayList<Transaction> transactions = new ArrayList<Transaction>(pool.subList(0, size));
+			IncrementalMerkleTree tree = new IncrementalMerkleTree(transactions);
+			assertEquals("Wrong root for "+size+" transactions", new DefaultMerkleTree(transactions).root(), tree.root());
+		}
+	}
+	
+	@Test
+	public void testAppend() throws Exception {
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		transactions.add(pool.get(0));
+		IncrementalMerkleTree tree = new IncrementalMerkleTree(transactions);
+		for (int i = 1; i < pool.size(); i++) {
+			transactions.add(pool.get(i));
+			tree.append(pool.get(i));
+			assertEquals("Wrong root after appending to "+i+" transactions", new DefaultMerkleTree(transactions).root(), tree.root());
+		}
+	}
+	
+	@Test
+	public void testReplaceAndSwap() throws Exception {
+		for (int size = 1; size <= 17; size++) {
+			ArrayList<Transaction> transactions = new ArrayList<Transaction>(pool.subList(0, size));
+			IncrementalMerkleTree tree = new IncrementalMerkleTree(transactions);
+			for (int i = 0; i < 10; i++) {
+				int first = rand.nextInt(size);
+				int second = rand.nextInt(size);
+				Collections.swap(transactions, first, second);
+				tree.swap(first, second);
+				assertEquals(new DefaultMerkleTree(transactions).root(), tree.root());
+				
+				int replaced = rand.nextInt(size);
+				Transaction replacement = pool.get(size + rand.nextInt(pool.size() - size));
+				transactions.set(replaced, replacement);
+				tree.replace(replaced, replacement);
+				assertEquals(new DefaultMerkleTree(transactions).root(), tree.root());
+			}
+			// the last transaction fills the padding leaves.
+			transactions.set(size - 1, pool.get(pool.size() - 1));
+			tree.replace(size - 1, pool.get(pool.size() - 1));
+			assertEquals(transactions, tree.getTransactions());
+			assertEquals(new DefaultMerkleTree(transactions).root(), tree.root());
+		}
+	}
+	
+	@Test
+	public void testIndexOfAfterSwaps() throws Exception {
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>(pool.subList(0, 21));
+		IncrementalMerkleTree tree = new IncrementalMerkleTree(transactions);
+		// build the leaf indexes, then keep them up to date while swapping.
+		assertEquals(0, tree.indexOf(transactions.get(0)));
+		for (int i = 0; i < 50; i++) {
+			int first = rand.nextInt(transactions.size());
+			int second = rand.nextInt(transactions.size());
+			Collections.swap(transactions, first, second);
+			tree.swap(first, second);
+			assertEquals(first, tree.indexOf(transactions.get(first)));
+			assertEquals(second, tree.indexOf(transactions.get(second)));
+		}
+		for (int i = 0; i < transactions.size(); i++) {
+			assertEquals(i, tree.indexOf(transactions.get(i)));
+		}
+		assertEquals(-1, tree.indexOf(pool.get(pool.size() - 1)));
+		
+		// transactions sharing a DhtID: the leftmost one is found.
+		tree.append(transactions.get(3));
+		tree.swap(3, transactions.size());
+		assertEquals(3, tree.indexOf(transactions.get(3)));
+		tree.swap(0, 3);
+		assertEquals(0, tree.indexOf(transactions.get(3)));
+	}
+	
+	@Test
+	public void testIntermediateValues() throws Exception {
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>(pool.subList(0, 13));
+		IncrementalMerkleTree tree = new IncrementalMerkleTree(transactions);
+		tree.append(pool.get(13));
+		tree.swap(0, 13);
+		DefaultMerkler merkler = new DefaultMerkler(1);
+		for (Transaction transaction : tree.getTransactions()) {
+			IntermediateValues values = tree.getIntermediateValues(transaction, 42);
+			assertEquals(tree.root(), merkler.getMerkleRootByIntermediate(transaction, values));
+		}
+	}
+
+}
@@ -17,19 +17,26 @@ package raw.blockChain.api.implementations;
 
 import static org.junit.Assert.assertEquals;
 
+import java.math.BigDecimal;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import raw.blockChain.api.Block;
 import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Hasher;
+import raw.blockChain.api.Merkler;
 import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
 import raw.blockChain.api.implementations.DefaultHasher;
 import raw.blockChain.api.implementations.DefaultMerkleTree;
 import raw.blockChain.transactionGenerators.RandomTransactionsGenerator;
+import raw.concurrent.RAWExecutors;
 
 public class MerkleTreeTest {
 
@@ -564,5 +571,106 @@ public class MerkleTreeTest {
 		
 		assertEquals("Wrong Root hash", expectedRoot, tree.root());
 	}
+	
+	@Test
+	public void testParallelConstruction() throws Exception {
+		RandomTransactionsGenerator gen = new RandomTransactionsGenerator();
+		ArrayList<Transaction> generated = gen.getTransactions(37);
+		
+		ForkJoinPool pool = RAWExecutors.newForkJoinPool(4);
+		for (int size = 1; size <= generated.size(); size++) {
+			ArrayList<Transaction> transactions = new ArrayList<Transaction>(generated.subList(0, size));
+			HashValue expectedRoot = new DefaultMerkleTree(transactions).root();
+			for (int threshold = 1; threshold <= 8; threshold *= 2) {
+				DefaultMerkleTree tree = new DefaultMerkleTree(transactions, pool, threshold);
+				assertEquals("Wrong Root hash with "+size+" transactions", expectedRoot, tree.root());
+			}
+		}
+		pool.shutdown();
+	}
+	
+	@Test
+	public void testProofs() throws Exception {
+		RandomTransactionsGenerator gen = new RandomTransactionsGenerator();
+		ArrayList<Transaction> generated = gen.getTransactions(33);
+		// odd sizes pad the last leaf, 2^k+1 ones open a whole new level for a single transaction.
+		for (int size : new int[]{1, 3, 5, 9, 17, 33}) {
+			assertProofs(new ArrayList<Transaction>(generated.subList(0, size)));
+		}
+	}
+	
+	@Test
+	public void testDuplicateTransactions() throws Exception {
+		RandomTransactionsGenerator gen = new RandomTransactionsGenerator();
+		ArrayList<Transaction> transactions = gen.getTransactions(5);
+		transactions.add(transactions.get(1));
+		transactions.add(transactions.get(4));
+		
+		DefaultMerkleTree tree = new DefaultMerkleTree(transactions);
+		assertEquals(referenceRoot(transactions), tree.root());
+		// the leftmost leaf storing a transaction is its position.
+		assertEquals(1, tree.indexOf(transactions.get(1)));
+		assertEquals(4, tree.indexOf(transactions.get(6)));
+		assertProofs(transactions);
+	}
+	
+	@Test
+	public void testRootsMatchMerkler() throws Exception {
+		RandomTransactionsGenerator gen = new RandomTransactionsGenerator();
+		ArrayList<Transaction> generated = gen.getTransactions(33);
+		Merkler merkler = new DefaultMerkler(5);
+		for (int size = 1; size <= generated.size(); size++) {
+			ArrayList<Transaction> transactions = new ArrayList<Transaction>(generated.subList(0, size));
+			HashValue expectedRoot = referenceRoot(transactions);
+			assertEquals("Wrong Root hash with "+size+" transactions", expectedRoot, new DefaultMerkleTree(transactions).root());
+			assertEquals("Wrong Merkler root with "+size+" transactions", expectedRoot, merkler.getMerkleRoot(transactions));
+		}
+	}
+	
+	/**
+	 * Check that the proof of every transaction of <tt>transactions</tt> leads to the root of their tree.
+	 */
+	private static void assertProofs(ArrayList<Transaction> transactions) throws Exception {
+		HashValue root = referenceRoot(transactions);
+		Builder blockHeaderBuilder = new Builder();
+		blockHeaderBuilder.setBlockChainName("RAW_STD_BLOCKCHAIN")
+		.setBlockNumber(42)
+		.setDifficulty(new BigDecimal(42))
+		.setNonce(42)
+		.setPrevBlockHash(root)
+		.setTimestamp(42L)
+		.setMerkleRoot(root).
+		setMinerSignature("Signature for tests");
+		Block block = new DefaultBlock(blockHeaderBuilder.build(), transactions);
+		
+		Merkler merkler = new DefaultMerkler(5);
+		for (Transaction transaction : transactions) {
+			HashValue proven = merkler.getMerkleRootByIntermediate(transaction, merkler.getIntermediateValues(transaction, block));
+			assertEquals("Wrong proof with "+transactions.size()+" transactions", root, proven);
+		}
+	}
+	
+	/**
+	 * The root as defined by the protocol: leaves padded with the last transaction
+	 * up to a power of two (at least two), then hashed pairwise up to the root.
+	 */
+	private static HashValue referenceRoot(List<Transaction> transactions) {
+		Hasher hasher = new DefaultHasher();
+		ArrayList<HashValue> level = new ArrayList<HashValue>();
+		for (Transaction transaction : transactions) {
+			level.add(hasher.hashTransaction(transaction));
+		}
+		while (level.size() < 2 || Integer.bitCount(level.size()) != 1) {
+			level.add(level.get(level.size() - 1));
+		}
+		while (level.size() > 1) {
+			ArrayList<HashValue> fathers = new ArrayList<HashValue>();
+			for (int i = 0; i < level.size(); i += 2) {
+				fathers.add(hasher.hashHashes(level.get(i), level.get(i + 1)));
+			}
+			level = fathers;
+		}
+		return level.get(0);
+	}
 
 }
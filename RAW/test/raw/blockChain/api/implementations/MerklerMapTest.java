@@ -20,11 +20,13 @@ import static org.junit.Assert.assertTrue;
 
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import raw.blockChain.api.HashValue;
 import raw.blockChain.api.Transaction;
 import raw.blockChain.api.implementations.DefaultMerkleTree;
 import raw.blockChain.api.implementations.DefaultMerklerMap;
@@ -886,5 +888,50 @@ public class MerklerMapTest {
 		tree = new DefaultMerkleTree(transactions);
 		assertEquals("Retrieved wrong tree!", tree, mapUnderTest.search(transactions));
 	}
+	
+	@Test
+	public void testHitAndMissCounts() throws IllegalArgumentException, UnknownHostException {
+		ArrayList<ArrayList<Transaction>> lists = twoTransactionsLists();
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>(lists.get(0));
+		transactions.addAll(lists.get(1));
+		
+		assertTrue(mapUnderTest.search(transactions) == null);
+		mapUnderTest.put(transactions, new DefaultMerkleTree(transactions));
+		assertTrue(mapUnderTest.search(transactions) != null);
+		// an equal list (not the same object) must hit too.
+		assertTrue(mapUnderTest.search(new ArrayList<Transaction>(transactions)) != null);
+		
+		// same size, first and last transactions: a different list must miss.
+		ArrayList<Transaction> swapped = new ArrayList<Transaction>(transactions);
+		Collections.swap(swapped, 1, 2);
+		assertTrue(mapUnderTest.search(swapped) == null);
+		
+		assertEquals(2, mapUnderTest.getHitCount());
+		assertEquals(2, mapUnderTest.getMissCount());
+		assertEquals(0, mapUnderTest.getEvictionCount());
+	}
+	
+	@Test
+	public void testPreviousBlockIndex() throws IllegalArgumentException, UnknownHostException {
+		ArrayList<ArrayList<Transaction>> lists = twoTransactionsLists();
+		HashValue previousBlock = new DefaultHasher().hashBytes(new byte[]{4, 2});
+		DefaultMerkleTree tree = new DefaultMerkleTree(lists.get(0));
+		mapUnderTest.put(previousBlock, lists.get(0), tree);
+		
+		assertTrue(mapUnderTest.search(previousBlock, lists.get(0)) == tree);
+		assertTrue(mapUnderTest.search(lists.get(0)) == tree);
+		// the index only picks a candidate: other transactions are still looked up by fingerprint.
+		assertTrue(mapUnderTest.search(previousBlock, lists.get(1)) == null);
+		mapUnderTest.put(lists.get(1), new DefaultMerkleTree(lists.get(1)));
+		assertTrue(mapUnderTest.search(previousBlock, lists.get(1)) != null);
+		
+		// evicted records leave the index too.
+		for(int i = 2; i < lists.size(); i++){
+			mapUnderTest.put(lists.get(i), new DefaultMerkleTree(lists.get(i)));
+		}
+		assertEquals(size, mapUnderTest.size());
+		assertEquals(3, mapUnderTest.getEvictionCount());
+		assertTrue(mapUnderTest.search(previousBlock, lists.get(0)) == null);
+	}
 
 }
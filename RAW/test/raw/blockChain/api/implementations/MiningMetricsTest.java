@@ -0,0 +1,107 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.json.JsonObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.implementations.MiningMetrics.Snapshot;
+
+public class MiningMetricsTest {
+	
+	MiningMetrics metrics;
+
+	@Before
+	public void setUp() throws Exception {
+		metrics = new MiningMetrics();
+	}
+
+	@Test
+	public void testEmptySnapshot() {
+		Snapshot snapshot = metrics.snapshot();
+		assertEquals(0, snapshot.getWorkers());
+		assertEquals(0, snapshot.getHashRate());
+		assertEquals(-1, snapshot.getLastTemplateSwitchNanos());
+		assertEquals(-1, snapshot.getLastTimeToBlockNanos());
+		assertEquals(0, snapshot.getAverageAcceptanceNanos());
+		assertEquals(0, snapshot.getStaleBlockRate(), 0);
+	}
+	
+	@Test
+	public void testHashRates() {
+		metrics.hashesComputed(1, 1000, 1000000000L);
+		metrics.hashesComputed(1, 3000, 1000000000L);
+		metrics.hashesComputed(0, 500, 500000000L);
+		Snapshot snapshot = metrics.snapshot();
+		assertEquals(2, snapshot.getWorkers());
+		assertEquals(500, snapshot.getWorkerHashes(0));
+		assertEquals(1000, snapshot.getWorkerHashRate(0));
+		assertEquals(4000, snapshot.getWorkerHashes(1));
+		assertEquals(3000, snapshot.getWorkerHashRate(1));
+		assertEquals(2000, snapshot.getWorkerAverageHashRate(1));
+		assertEquals(4000, snapshot.getHashRate());
+	}
+	
+	@Test
+	public void testEvents() {
+		metrics.nonceRangeExhausted();
+		metrics.nonceRangeExhausted();
+		metrics.templateBuilt(100);
+		metrics.templateBuilt(300);
+		metrics.templateSwitched(42);
+		metrics.blockFound(1000);
+		metrics.blockFound(3000);
+		metrics.blockAccepted(10);
+		metrics.blockAccepted(30);
+		metrics.blockAccepted(50);
+		metrics.blockStale();
+		Snapshot snapshot = metrics.snapshot();
+		assertEquals(2, snapshot.getNonceRangesExhausted());
+		assertEquals(2, snapshot.getTemplatesBuilt());
+		assertEquals(200, snapshot.getAverageTemplateBuildNanos());
+		assertEquals(300, snapshot.getMaxTemplateBuildNanos());
+		assertEquals(42, snapshot.getLastTemplateSwitchNanos());
+		assertEquals(2, snapshot.getBlocksFound());
+		assertEquals(2000, snapshot.getAverageTimeToBlockNanos());
+		assertEquals(3000, snapshot.getLastTimeToBlockNanos());
+		assertEquals(3, snapshot.getBlocksAccepted());
+		assertEquals(30, snapshot.getAverageAcceptanceNanos());
+		assertEquals(50, snapshot.getLastAcceptanceNanos());
+		assertEquals(1, snapshot.getStaleBlocks());
+		assertEquals(0.25, snapshot.getStaleBlockRate(), 0);
+		
+		// later events do not change a snapshot.
+		metrics.blockStale();
+		assertEquals(1, snapshot.getStaleBlocks());
+	}
+	
+	@Test
+	public void testJson() {
+		metrics.hashesComputed(0, 1000, 1000000000L);
+		metrics.blockStale();
+		JsonObject json = metrics.snapshot().toJsonObject();
+		assertEquals(1000, json.getJsonNumber("hashRate").longValue());
+		assertEquals(1, json.getJsonArray("workers").size());
+		assertEquals(1000, json.getJsonArray("workers").getJsonObject(0).getJsonNumber("hashes").longValue());
+		assertEquals(1, json.getJsonNumber("staleBlocks").longValue());
+		assertEquals(1.0, json.getJsonNumber("staleBlockRate").doubleValue(), 0);
+	}
+
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.implementations.utils.BlockUtils;
+import raw.blockChain.api.implementations.utils.TransactionUtils;
+
+public class TargetTest {
+
+	@Test
+	public void testMeets() {
+		byte[] mask = {0x00, 0x0f, (byte) 0xff, (byte) 0xff};
+		Target target = new Target(new DefaultHashValue(mask));
+
+		byte[] good = {0x00, 0x0a, 0x12, (byte) 0xf0};
+		byte[] bad = {0x01, 0x0a, 0x12, (byte) 0xf0};
+		byte[] alsoBad = {0x00, 0x1a, 0x12, (byte) 0xf0};
+
+		assertTrue(target.meets(good));
+		assertFalse(target.meets(bad));
+		assertFalse(target.meets(alsoBad));
+	}
+
+	@Test
+	public void testMeetsAsMaskWith() {
+		Random rand = new Random();
+		Target[] targets = {
+				BlockUtils.targetFromDifficulty(new BigDecimal(1)),
+				BlockUtils.targetFromDifficulty(new BigDecimal("424242.4242")),
+				new Target(TransactionUtils.getTarget()),
+				new Target(new DefaultHashValue(new byte[]{0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x7f, (byte) 0xff})),
+		};
+		for(Target target : targets){
+			HashValue mask = target.getMask();
+			for(int i = 0; i < 5000; i++){
+				byte[] hash = new byte[64];
+				rand.nextBytes(hash);
+				// make some hashes meet the target.
+				int zeros = rand.nextInt(12);
+				for(int j = 0; j < zeros; j++){
+					hash[j] = 0;
+				}
+				HashValue hashValue = new DefaultHashValue(hash);
+				assertEquals(hashValue.equals(hashValue.maskWith(mask)), target.meets(hash));
+			}
+		}
+	}
+
+	@Test
+	public void testTargetsAreCached() {
+		Target target = BlockUtils.targetFromDifficulty(new BigDecimal(42));
+		assertTrue(target == BlockUtils.targetFromDifficulty(new BigDecimal(42)));
+		assertEquals(BlockUtils.targetMaskFromDifficulty(new BigDecimal(42)), target.getMask());
+	}
+
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.utils.TransactionUtils;
+import raw.dht.DhtHasher;
+import raw.dht.DhtID;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.utils.DhtSigningUtils;
+
+public class TransactionCodecTest {
+
+	Transaction transaction;
+
+	@Before
+	public void setUp() throws Exception {
+		Random rand = new Random();
+		byte[] plainID = new byte[64];
+		rand.nextBytes(plainID);
+		DhtHasher dhtHasher = new DefaultDhtHasher();
+		DhtID id = dhtHasher.hashBytes(plainID);
+		transaction = new DefaultTransaction(id, rand.nextLong(), rand.nextInt(1000), DhtSigningUtils.getSignKeyPair().getPublic(), DefaultTransaction.CURRENT_VERSION);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] bytes = transaction.getBytes();
+		assertArrayEquals(TransactionCodec.encode(transaction), bytes);
+
+		Transaction decoded = TransactionCodec.decode(bytes);
+		assertEquals(transaction, decoded);
+		assertEquals(transaction.getVersion(), decoded.getVersion());
+		assertArrayEquals(bytes, decoded.getBytes());
+	}
+
+	@Test
+	public void testNullTransaction() throws Exception {
+		Transaction legacyNull = DefaultTransaction.getNullTransaction();
+		Transaction nullTransaction = new DefaultTransaction(legacyNull.getDhtID(), legacyNull.getTransactionNonce(),
+				legacyNull.getCreationSeedNumber(), legacyNull.getPublicKey(), DefaultTransaction.CURRENT_VERSION);
+		Transaction decoded = TransactionCodec.decode(nullTransaction.getBytes());
+		assertNull(decoded.getPublicKey());
+		assertEquals(nullTransaction, decoded);
+	}
+
+	@Test(expected=IOException.class)
+	public void testTruncatedBytes() throws Exception {
+		byte[] bytes = transaction.getBytes();
+		TransactionCodec.decode(Arrays.copyOf(bytes, bytes.length - 1));
+	}
+
+	@Test(expected=IOException.class)
+	public void testMissingBytes() throws Exception {
+		TransactionCodec.decode(null);
+	}
+
+	@Test(expected=IOException.class)
+	public void testInvalidDhtIDLength() throws Exception {
+		ByteBuffer bytes = ByteBuffer.allocate(4 + 2 + 3 + 8 + 8 + 2);
+		bytes.putInt(DefaultTransaction.BINARY_ENCODING_VERSION);
+		bytes.putShort((short) 3);
+		bytes.put(new byte[]{1, 2, 3});
+		bytes.putLong(42L);
+		bytes.putLong(7L);
+		bytes.putShort((short) 0);
+		TransactionCodec.decode(bytes.array());
+	}
+
+	@Test(expected=IOException.class)
+	public void testInvalidPublicKey() throws Exception {
+		byte[] bytes = transaction.getBytes();
+		// the key is the last field: garble its X.509 header.
+		int keyLength = transaction.getPublicKey().getEncoded().length;
+		Arrays.fill(bytes, bytes.length - keyLength, bytes.length - keyLength + 8, (byte) 0x7f);
+		TransactionCodec.decode(bytes);
+	}
+
+	@Test
+	public void testLegacyVersion() throws Exception {
+		Transaction legacy = new DefaultTransaction(transaction.getDhtID(), transaction.getTransactionNonce(),
+				transaction.getCreationSeedNumber(), transaction.getPublicKey(), DefaultTransaction.LEGACY_VERSION);
+
+		// version 1 transactions keep their java serialization form (and thus their hash).
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(legacy);
+		oos.close();
+		assertArrayEquals(baos.toByteArray(), legacy.getBytes());
+		assertEquals(legacy, serializeAndBack(legacy));
+		assertEquals(1, serializeAndBack(legacy).getVersion());
+	}
+
+	@Test
+	public void testLegacyVersionUntilActivation() throws Exception {
+		// the binary encoding activation is not scheduled: new transactions are version 1 ones.
+		Transaction created = new DefaultTransaction(transaction.getDhtID(), transaction.getTransactionNonce(),
+				transaction.getCreationSeedNumber(), transaction.getPublicKey());
+		assertEquals(DefaultTransaction.LEGACY_VERSION, created.getVersion());
+		assertEquals(DefaultTransaction.LEGACY_VERSION, DefaultTransaction.maxVersionAt(transaction.getCreationSeedNumber()));
+		assertEquals(DefaultTransaction.LEGACY_VERSION, DefaultTransaction.getNullTransaction().getVersion());
+		assertFalse(TransactionUtils.isValid(transaction, new DefaultDhtHasher()));
+	}
+
+	@Test
+	public void testVersionsAreNotEqual() throws Exception {
+		Transaction legacy = new DefaultTransaction(transaction.getDhtID(), transaction.getTransactionNonce(),
+				transaction.getCreationSeedNumber(), transaction.getPublicKey(), DefaultTransaction.LEGACY_VERSION);
+
+		// copies of different versions are hashed differently, thus they are different transactions.
+		assertFalse(transaction.equals(legacy));
+		assertFalse(legacy.equals(transaction));
+		HashSet<Transaction> set = new HashSet<Transaction>();
+		set.add(transaction);
+		assertFalse(set.contains(legacy));
+		assertTrue(set.contains(new DefaultTransaction(transaction.getDhtID(), transaction.getTransactionNonce(),
+				transaction.getCreationSeedNumber(), transaction.getPublicKey(), transaction.getVersion())));
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		// the serialized form is the plain one, readable by nodes not knowing the binary encoding.
+		Transaction deserialized = serializeAndBack(transaction);
+		assertEquals(transaction, deserialized);
+		assertEquals(transaction.getVersion(), deserialized.getVersion());
+		assertArrayEquals(transaction.getBytes(), deserialized.getBytes());
+	}
+
+	private Transaction serializeAndBack(Transaction serialized) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(serialized);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		Transaction retVal = (Transaction) ois.readObject();
+		ois.close();
+		return retVal;
+	}
+
+}
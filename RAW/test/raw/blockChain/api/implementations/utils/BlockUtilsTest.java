@@ -42,6 +42,7 @@ import raw.blockChain.api.implementations.DefaultHashValue;
 import raw.blockChain.api.implementations.DefaultHasher;
 import raw.blockChain.api.implementations.DefaultMerkler;
 import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.Target;
 import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
 import raw.blockChain.api.implementations.utils.BlockUtils;
 import raw.dht.DhtAddress;
@@ -107,6 +108,20 @@ public class BlockUtilsTest {
 		assertEquals("Masks differ!!!", maxTargetHash, gotMask);
 	}
 	
+	@Test
+	public void testTargetsCache() throws Exception {
+		// the scale of a difficulty does not matter.
+		assertSame(BlockUtils.targetFromDifficulty(new BigDecimal("1")), BlockUtils.targetFromDifficulty(new BigDecimal("1.0")));
+		assertSame(BlockUtils.targetFromDifficulty(new BigDecimal("3")), BlockUtils.targetFromDifficulty(new BigDecimal("3.50000000000000000000")));
+		// many difficulties do not evict the entries in use.
+		Target one = BlockUtils.targetFromDifficulty(BigDecimal.ONE);
+		for(int i = 1; i < 1000; i++){
+			BlockUtils.targetFromDifficulty(new BigDecimal(i).add(new BigDecimal("0.123456789")));
+		}
+		assertSame(one, BlockUtils.targetFromDifficulty(BigDecimal.ONE));
+		assertEquals(new Target(BlockUtils.targetMaskFromDifficulty(new BigDecimal("5.5"))), BlockUtils.targetFromDifficulty(new BigDecimal("5.5")));
+	}
+	
 	@Test
 	public void testWrongMask() throws Exception {
 		int hashLenght = new DefaultHasher().hashLength();
@@ -1327,4 +1342,20 @@ public class BlockUtilsTest {
 		assertFalse("The block should be valid!!", BlockUtils.validateBlock(genesis, timestamp, coreMock));
 	}
 	
+	@Test
+	public void testFixedLayoutBeforeActivation() throws Exception {
+		HashValue hash = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		BlockHeader version2 = new Builder().setHeaderVersion(DefaultBlockHeader.FIXED_LAYOUT_VERSION).
+		setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setBlockNumber(BlockChainConstants.FIXED_LAYOUT_ACTIVATION_BLOCK - 1).
+		setDifficulty(new BigDecimal(1)).
+		setMerkleRoot(hash).
+		setNonce(1).
+		setPrevBlockHash(hash).
+		setTimestamp(System.currentTimeMillis()).
+		setMinerSignature("Test signature").build();
+		
+		assertFalse("Version 2 headers are not valid before their activation!", BlockUtils.validateHeaderContent(version2));
+	}
+	
 }
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.api.implementations.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.concurrent.RAWExecutors;
+import raw.settings.BlockChainProperties;
+import raw.settings.ModuleProperty;
+import raw.settings.PropertiesManager;
+
+public class BranchValidatorTest {
+	
+	ExecutorService executor;
+	
+	ArrayList<Block> branch;
+	
+	@Before
+	public void setUp() throws Exception {
+		executor = RAWExecutors.newForkJoinPool(4);
+		
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		transactions.add(DefaultTransaction.getNullTransaction());
+		HashValue root = new DefaultMerkler(1).getMerkleRoot(transactions);
+		String chainName = ((BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN)).getBlockChainName();
+		
+		// consecutive blocks which are never mined: they do not meet their target.
+		branch = new ArrayList<Block>();
+		HashValue previous = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		for(long i = 0; i < 64; i++){
+			Builder builder = new Builder();
+			builder.setBlockChainName(chainName).
+			setBlockNumber(i).
+			setDifficulty(new BigDecimal(1)).
+			setMerkleRoot(root).
+			setNonce(1).
+			setPrevBlockHash(previous).
+			setTimestamp(1000L * i).
+			setMinerSignature("Test signature");
+			Block block = new DefaultBlock(builder.build(), transactions);
+			branch.add(block);
+			previous = block.getHeader().hash();
+		}
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testEmptyBranch() {
+		assertTrue(new BranchValidator(executor, 4).validateBranch(new ArrayList<Block>(), null));
+	}
+	
+	@Test
+	public void testInvalidBranch() {
+		assertFalse(BlockUtils.validateConsecutiveBlocks(branch.get(0), null, false, 0));
+		assertFalse(new BranchValidator(executor, 1).validateBranch(branch, null));
+		assertFalse(new BranchValidator(executor, 4).validateBranch(branch, null));
+		assertFalse(BranchValidator.getValidator().validateBranch(branch, null));
+	}
+	
+	@Test
+	public void testRepeatedValidations() {
+		BranchValidator validator = new BranchValidator(executor, 4);
+		for(int i = 0; i < 16; i++){
+			assertFalse(validator.validateBranch(branch, null));
+		}
+		// a failed validation leaves the executor usable.
+		assertTrue(validator.validateBranch(new ArrayList<Block>(), null));
+		assertFalse(executor.isShutdown());
+	}
+
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.dbHelper.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+
+public class HeaderChainIndexTest {
+	
+	HeaderChainIndex indexUnderTest;
+	
+	ArrayList<BlockHeader> chain;
+
+	@Before
+	public void setUp() throws Exception {
+		indexUnderTest = new HeaderChainIndex();
+		chain = new ArrayList<BlockHeader>();
+		
+		Hasher hasher = DefaultHasher.getHasher();
+		byte[] seed = {1, 2, 3, 4, 5};
+		long timestamp = 1500000000000L;
+		for(int i = 0; i < 3000; i++){
+			BigDecimal difficulty = new BigDecimal(i < 1500 ? 1 : 2);
+			Builder builder = new Builder();
+			builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+			setPrevBlockHash(i == 0 ? hasher.hashBytes(seed) : chain.get(i - 1).hash()).
+			setMerkleRoot(hasher.hashBytes(seed)).
+			setBlockNumber(i).
+			setTimestamp(timestamp + i * 1000L).
+			setDifficulty(difficulty).
+			setNonce(i).
+			setMinerSignature("Signature for tests");
+			chain.add(builder.build());
+		}
+	}
+	
+	@Test
+	public void testPutAndLookup() {
+		for(BlockHeader header : chain){
+			indexUnderTest.put(header);
+		}
+		
+		assertEquals(chain.size(), indexUnderTest.size());
+		assertEquals(chain.size() - 1, indexUnderTest.getTopBlockNumber());
+		assertSame(chain.get(chain.size() - 1), indexUnderTest.getTopHeader());
+		for(BlockHeader header : chain){
+			long number = header.getBlockNumber();
+			assertTrue(indexUnderTest.contains(number));
+			assertEquals(header.hash(), indexUnderTest.getHash(number));
+			assertSame(header, indexUnderTest.getHeader(number));
+		}
+		assertFalse(indexUnderTest.contains(chain.size()));
+		assertNull(indexUnderTest.getHash(chain.size()));
+		assertNull(indexUnderTest.getHash(-1));
+	}
+	
+	@Test
+	public void testOnlyRecentHeadersAreKept() {
+		ArrayList<BlockHeader> longChain = new ArrayList<BlockHeader>(chain);
+		while(longChain.size() <= HeaderChainIndex.RECENT_HEADERS){
+			longChain.addAll(chain);
+		}
+		// block numbers only matter to the index.
+		for(int i = 0; i < longChain.size(); i++){
+			indexUnderTest.put(renumber(longChain.get(i), i));
+		}
+		long top = indexUnderTest.getTopBlockNumber();
+		assertEquals(longChain.size() - 1, top);
+		assertTrue(indexUnderTest.getHeader(top - HeaderChainIndex.RECENT_HEADERS + 1) != null);
+		assertNull(indexUnderTest.getHeader(top - HeaderChainIndex.RECENT_HEADERS));
+		// the hashes are still there.
+		assertEquals(longChain.get(0).hash(), indexUnderTest.getHash(0));
+
+		// storing again an old header does not evict the recent one sharing its slot.
+		long old = top - HeaderChainIndex.RECENT_HEADERS;
+		BlockHeader recent = indexUnderTest.getHeader(top);
+		indexUnderTest.put(renumber(longChain.get((int) old), old));
+		assertSame(recent, indexUnderTest.getHeader(top));
+		assertNull(indexUnderTest.getHeader(old));
+	}
+	
+	@Test
+	public void testRemoveAndReplace() {
+		for(BlockHeader header : chain){
+			indexUnderTest.put(header);
+		}
+		// a reorganization cuts the last 10 blocks and stores a different branch.
+		for(int i = chain.size() - 1; i >= chain.size() - 10; i--){
+			indexUnderTest.remove(i);
+		}
+		assertEquals(chain.size() - 11, indexUnderTest.getTopBlockNumber());
+		assertEquals(chain.size() - 10, indexUnderTest.size());
+		assertNull(indexUnderTest.getHeader(chain.size() - 1));
+		assertSame(chain.get(chain.size() - 11), indexUnderTest.getTopHeader());
+		
+		BlockHeader replacement = renumber(chain.get(0), chain.size() - 10);
+		indexUnderTest.put(replacement);
+		assertSame(replacement, indexUnderTest.getTopHeader());
+		assertEquals(replacement.hash(), indexUnderTest.getHash(chain.size() - 10));
+		
+		indexUnderTest.clear();
+		assertEquals(-1, indexUnderTest.getTopBlockNumber());
+		assertEquals(0, indexUnderTest.size());
+		assertNull(indexUnderTest.getTopHeader());
+	}
+	
+	@Test
+	public void testKnownHashes() {
+		// as loaded from the database: old blocks by summary only, recent ones with their header.
+		int firstRecent = chain.size() - 10;
+		for(BlockHeader header : chain){
+			if(header.getBlockNumber() < firstRecent){
+				indexUnderTest.putSummary(header, header.hash());
+			} else {
+				indexUnderTest.put(header, header.hash());
+			}
+		}
+		assertEquals(chain.size(), indexUnderTest.size());
+		assertEquals(chain.get(0).hash(), indexUnderTest.getHash(0));
+		assertNull(indexUnderTest.getHeader(firstRecent - 1));
+		assertSame(chain.get(firstRecent), indexUnderTest.getHeader(firstRecent));
+		for(BlockHeader header : chain){
+			assertEquals(header.timestamp(), indexUnderTest.getTimestamp(header.getBlockNumber()));
+			assertEquals(header.currentDifficulty(), indexUnderTest.getDifficulty(header.getBlockNumber()));
+		}
+		// consecutive equal difficulties share one instance.
+		assertSame(indexUnderTest.getDifficulty(0), indexUnderTest.getDifficulty(1499));
+		assertSame(indexUnderTest.getDifficulty(1500), indexUnderTest.getDifficulty(firstRecent - 1));
+		assertEquals(-1, indexUnderTest.getTimestamp(chain.size()));
+		assertNull(indexUnderTest.getDifficulty(chain.size()));
+		
+		// a new summary for a block number drops its header.
+		BlockHeader replacement = renumber(chain.get(0), firstRecent);
+		indexUnderTest.putSummary(replacement, replacement.hash());
+		assertEquals(replacement.hash(), indexUnderTest.getHash(firstRecent));
+		assertEquals(replacement.timestamp(), indexUnderTest.getTimestamp(firstRecent));
+		assertNull(indexUnderTest.getHeader(firstRecent));
+		assertSame(chain.get(chain.size() - 1), indexUnderTest.getTopHeader());
+	}
+	
+	private BlockHeader renumber(BlockHeader header, long blockNumber) {
+		Builder builder = new Builder();
+		builder.setBlockChainName(header.getBlockChainName()).
+		setPrevBlockHash(header.previousBlock()).
+		setMerkleRoot(header.merkleRoot()).
+		setBlockNumber(blockNumber).
+		setTimestamp(header.timestamp()).
+		setDifficulty(header.currentDifficulty()).
+		setNonce(header.nonce()).
+		setMinerSignature(header.getMinerSignature());
+		try {
+			return builder.build();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
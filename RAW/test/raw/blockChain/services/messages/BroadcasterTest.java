@@ -0,0 +1,195 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static raw.blockChain.peers.TestPeers.startSilentServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.concurrent.RAWExecutors;
+
+public class BroadcasterTest {
+	
+	static final int DEADLINE = 1000;
+	
+	ArrayList<ServerSocket> servers;
+	ExecutorService pool;
+	PeerConnectionPool connections;
+	Broadcaster broadcaster;
+	CountDownLatch received;
+	
+	@Before
+	public void setUp() throws Exception {
+		servers = new ArrayList<ServerSocket>();
+		pool = RAWExecutors.newCachedThreadPool();
+		connections = new PeerConnectionPool();
+		broadcaster = new Broadcaster(connections, pool, DEADLINE);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		connections.close();
+		for(ServerSocket server : servers){
+			server.close();
+		}
+		pool.shutdownNow();
+	}
+	
+	/**
+	 * A node which accepts connections and negotiates the framing,
+	 * then reads messages (if <tt>reading</tt>) counting them down on {@link BroadcasterTest#received}.
+	 */
+	private InetSocketAddress startServer(final boolean reading) throws IOException {
+		final ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		servers.add(server);
+		pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				while(!server.isClosed()){
+					final Socket sock;
+					try {
+						sock = server.accept();
+					} catch (SocketException e) {
+						// the test is over.
+						return null;
+					}
+					pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							MessageChannel channel = MessageChannel.accept(sock);
+							try {
+								while(reading){
+									channel.readMessage();
+									received.countDown();
+								}
+								Thread.sleep(Long.MAX_VALUE);
+							} catch (IOException | InterruptedException e) {
+								// the other side closed the connection (or the test is over).
+							} finally {
+								channel.close();
+							}
+							return null;
+						}
+					});
+				}
+				return null;
+			}
+		});
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+	}
+	
+	private static class RecordingOutcomes implements Broadcaster.Outcomes {
+		
+		final List<InetSocketAddress> delivered = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
+		final List<InetSocketAddress> failed = Collections.synchronizedList(new ArrayList<InetSocketAddress>());
+		final List<IOException> causes = Collections.synchronizedList(new ArrayList<IOException>());
+		final CountDownLatch done;
+		
+		RecordingOutcomes(int expected) {
+			done = new CountDownLatch(expected);
+		}
+
+		@Override
+		public void delivered(InetSocketAddress address) {
+			delivered.add(address);
+			done.countDown();
+		}
+
+		@Override
+		public void failed(InetSocketAddress address, IOException cause) {
+			failed.add(address);
+			causes.add(cause);
+			done.countDown();
+		}
+		
+	}
+
+	@Test
+	public void testSilentNodeDoesNotDelayTheOthers() throws Exception {
+		received = new CountDownLatch(3);
+		ArrayList<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		nodes.add(startSilentServer(servers));
+		for(int i = 0; i < 3; i++){
+			nodes.add(startServer(true));
+		}
+		RecordingOutcomes outcomes = new RecordingOutcomes(nodes.size());
+		
+		long start = System.currentTimeMillis();
+		assertEquals(nodes.size(), broadcaster.broadcast(nodes, new UpdatingChainBlockRequestMessage(7), outcomes));
+		assertTrue("Broadcast waited for the sends.", System.currentTimeMillis() - start < DEADLINE);
+		
+		assertTrue(received.await(10, TimeUnit.SECONDS));
+		assertTrue(outcomes.done.await(10, TimeUnit.SECONDS));
+		assertEquals(nodes.subList(1, nodes.size()).size(), outcomes.delivered.size());
+		assertTrue(outcomes.delivered.containsAll(nodes.subList(1, nodes.size())));
+		assertEquals(Collections.singletonList(nodes.get(0)), outcomes.failed);
+		assertTrue(outcomes.causes.get(0) instanceof SocketTimeoutException);
+	}
+	
+	@Test
+	public void testDeadlineStopsStalledWrites() throws Exception {
+		InetSocketAddress notReading = startServer(false);
+		// far more than the socket buffers can hold.
+		byte[] big = new byte[32 * 1024 * 1024];
+		long start = System.currentTimeMillis();
+		try {
+			connections.send(notReading, big, DEADLINE);
+			fail("The write should have been stopped.");
+		} catch (SocketTimeoutException e) {
+			// expected.
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("Deadline not respected: "+elapsed+" ms", elapsed < 5 * DEADLINE);
+		assertEquals(0, connections.getIdleConnections());
+	}
+	
+	@Test
+	public void testDeliveredConnectionsAreReused() throws Exception {
+		received = new CountDownLatch(2);
+		InetSocketAddress node = startServer(true);
+		RecordingOutcomes first = new RecordingOutcomes(1);
+		broadcaster.broadcast(Collections.singletonList(node), new UpdatingChainBlockRequestMessage(1), first);
+		assertTrue(first.done.await(10, TimeUnit.SECONDS));
+		assertEquals(1, connections.getIdleConnections());
+		RecordingOutcomes second = new RecordingOutcomes(1);
+		broadcaster.broadcast(Collections.singletonList(node), new UpdatingChainBlockRequestMessage(2), second);
+		assertTrue(received.await(10, TimeUnit.SECONDS));
+		assertTrue(second.done.await(10, TimeUnit.SECONDS));
+		assertEquals(Collections.singletonList(node), second.delivered);
+	}
+
+}
@@ -0,0 +1,214 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.concurrent.RAWExecutors;
+
+public class MessageChannelTest {
+	
+	ServerSocket server;
+	ExecutorService pool;
+	InetSocketAddress serverAddress;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		pool = RAWExecutors.newCachedThreadPool();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		server.close();
+		pool.shutdownNow();
+		MessageChannel.legacyRetryMillis = MessageChannel.LEGACY_RETRY_MILLISECONDS;
+	}
+	
+	private Future<Boolean> echoWithChannels(final int connections) {
+		return pool.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				boolean allFramed = true;
+				for(int i = 0; i < connections; i++){
+					MessageChannel channel = MessageChannel.accept(server.accept());
+					try {
+						allFramed &= channel.isFramed();
+						UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) channel.readMessage();
+						channel.writeMessage(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+					} finally {
+						channel.close();
+					}
+				}
+				return allFramed;
+			}
+		});
+	}
+	
+	private static long exchange(MessageChannel channel, int blockNumber) throws Exception {
+		try {
+			channel.writeMessage(new UpdatingChainBlockRequestMessage(blockNumber));
+			return ((UpdatingChainBlockRequestMessage) channel.readMessage()).getBlockNumber();
+		} finally {
+			channel.close();
+		}
+	}
+
+	@Test
+	public void testFramedPeers() throws Exception {
+		Future<Boolean> serverSide = echoWithChannels(2);
+		MessageChannel first = MessageChannel.connect(serverAddress);
+		assertTrue(first.isFramed());
+		assertEquals(WireProtocol.VERSION, first.getVersion());
+		assertEquals(4, exchange(first, 3));
+		MessageChannel second = MessageChannel.connect(serverAddress);
+		assertTrue(second.isFramed());
+		assertEquals(8, exchange(second, 7));
+		assertTrue(serverSide.get(10, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testLegacyClient() throws Exception {
+		Future<Boolean> serverSide = echoWithChannels(1);
+		Socket sock = new Socket(serverAddress.getAddress(), serverAddress.getPort());
+		try {
+			ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+			oos.writeObject(new UpdatingChainBlockRequestMessage(10));
+			oos.flush();
+			ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+			assertEquals(11, ((UpdatingChainBlockRequestMessage) ois.readObject()).getBlockNumber());
+		} finally {
+			sock.close();
+		}
+		assertFalse(serverSide.get(10, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testLegacyServer() throws Exception {
+		Future<Void> serverSide = pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				for(int i = 0; i < 3; i++){
+					Socket sock = server.accept();
+					try {
+						ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+						UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) ois.readObject();
+						ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+						oos.writeObject(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+						oos.flush();
+					} catch (Exception e) {
+						// a framing preamble is not a valid serialization stream
+					} finally {
+						sock.close();
+					}
+				}
+				return null;
+			}
+		});
+		MessageChannel first = MessageChannel.connect(serverAddress);
+		assertFalse(first.isFramed());
+		assertEquals(21, exchange(first, 20));
+		MessageChannel second = MessageChannel.connect(serverAddress);
+		assertFalse(second.isFramed());
+		assertEquals(31, exchange(second, 30));
+		server.close();
+		serverSide.cancel(true);
+	}
+	
+	@Test
+	public void testDroppedNegotiationIsRetried() throws Exception {
+		MessageChannel.legacyRetryMillis = 0;
+		Future<Boolean> serverSide = pool.submit(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				// restarting: the first connection is dropped, and so is its legacy retry.
+				server.accept().close();
+				server.accept().close();
+				MessageChannel channel = MessageChannel.accept(server.accept());
+				try {
+					UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) channel.readMessage();
+					channel.writeMessage(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+				} finally {
+					channel.close();
+				}
+				return channel.isFramed();
+			}
+		});
+		MessageChannel first = MessageChannel.connect(serverAddress);
+		assertFalse(first.isFramed());
+		first.close();
+		MessageChannel second = MessageChannel.connect(serverAddress);
+		assertTrue(second.isFramed());
+		assertEquals(6, exchange(second, 5));
+		assertTrue(serverSide.get(10, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testSerializedReplyIsLegacy() throws Exception {
+		MessageChannel.legacyRetryMillis = 0;
+		Future<Void> serverSide = pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				for(int i = 0; i < 3; i++){
+					Socket sock = server.accept();
+					try {
+						// this peer writes its serialization stream header first.
+						ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+						oos.flush();
+						ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+						UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) ois.readObject();
+						oos.writeObject(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+						oos.flush();
+					} catch (Exception e) {
+						// a framing preamble is not a valid serialization stream
+					} finally {
+						sock.close();
+					}
+				}
+				return null;
+			}
+		});
+		MessageChannel first = MessageChannel.connect(serverAddress);
+		assertFalse(first.isFramed());
+		assertEquals(41, exchange(first, 40));
+		// no retry expiry for a definite answer: no negotiation this time.
+		MessageChannel second = MessageChannel.connect(serverAddress);
+		assertFalse(second.isFramed());
+		assertEquals(51, exchange(second, 50));
+		server.close();
+		serverSide.cancel(true);
+	}
+
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.concurrent.RAWExecutors;
+
+public class PeerConnectionPoolTest {
+	
+	ServerSocket server;
+	ExecutorService pool;
+	InetSocketAddress serverAddress;
+	AtomicInteger accepted;
+	AtomicInteger received;
+	volatile boolean dropLastRequest;
+	PeerConnectionPool connections;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+		pool = RAWExecutors.newCachedThreadPool();
+		accepted = new AtomicInteger();
+		received = new AtomicInteger();
+		dropLastRequest = false;
+		connections = new PeerConnectionPool();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		connections.close();
+		server.close();
+		pool.shutdownNow();
+	}
+	
+	/**
+	 * Serve connections replying to each request with the next block number.
+	 * Each connection is closed after <tt>messagesPerConnection</tt> messages
+	 * (the last one without a reply if <tt>dropLastRequest</tt>).
+	 */
+	private void startServer(final boolean legacy, final int messagesPerConnection) {
+		pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				while(!server.isClosed()){
+					final Socket sock;
+					try {
+						sock = server.accept();
+					} catch (SocketException e) {
+						// the test is over.
+						return null;
+					}
+					accepted.incrementAndGet();
+					pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							if(legacy){
+								serveLegacy(sock);
+							} else {
+								serveFramed(sock, messagesPerConnection);
+							}
+							return null;
+						}
+					});
+				}
+				return null;
+			}
+		});
+	}
+	
+	private void serveFramed(Socket sock, int messagesPerConnection) throws Exception {
+		MessageChannel channel = MessageChannel.accept(sock);
+		try {
+			for(int i = 0; i < messagesPerConnection; i++){
+				UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) channel.readMessage();
+				received.incrementAndGet();
+				if(dropLastRequest && i == messagesPerConnection - 1){
+					break;
+				}
+				if(request.getMessageType() == UpdatingChainBlockRequestMessage.Type.BLOCK_REQUEST){
+					channel.writeMessage(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+				}
+				if(!channel.isPersistent()){
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// the other side closed the connection.
+		} finally {
+			channel.close();
+		}
+	}
+	
+	private static void serveLegacy(Socket sock) throws Exception {
+		try {
+			ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+			UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) ois.readObject();
+			ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+			oos.writeObject(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+			oos.flush();
+		} catch (IOException e) {
+			// a framing preamble is not a valid serialization stream.
+		} finally {
+			sock.close();
+		}
+	}
+	
+	private long request(long blockNumber) throws Exception {
+		return ((UpdatingChainBlockRequestMessage) connections.request(serverAddress, new UpdatingChainBlockRequestMessage(blockNumber))).getBlockNumber();
+	}
+
+	@Test
+	public void testConnectionsAreReused() throws Exception {
+		startServer(false, Integer.MAX_VALUE);
+		for(int i = 0; i < 10; i++){
+			assertEquals(i + 1, request(i));
+		}
+		connections.send(serverAddress, new UpdatingChainBlockRequestMessage());
+		assertEquals(43, request(42));
+		assertEquals(1, accepted.get());
+		assertEquals(1, connections.getIdleConnections());
+	}
+	
+	@Test
+	public void testReconnectAfterPeerClosed() throws Exception {
+		startServer(false, 1);
+		assertEquals(2, request(1));
+		assertEquals(1, connections.getIdleConnections());
+		// let the reused connections be checked before the exchanges.
+		Thread.sleep(1100);
+		assertEquals(3, request(2));
+		Thread.sleep(1100);
+		assertEquals(4, request(3));
+		assertEquals(3, accepted.get());
+	}
+	
+	@Test
+	public void testNoResendOnceWritten() throws Exception {
+		dropLastRequest = true;
+		startServer(false, 2);
+		assertEquals(2, request(1));
+		try {
+			request(2);
+			fail("The peer closed the connection without replying.");
+		} catch (IOException e) {
+			// expected
+		}
+		// the request reached the peer: it must not be repeated on a new connection.
+		assertEquals(2, received.get());
+		assertEquals(1, accepted.get());
+	}
+	
+	@Test
+	public void testSendWithDeadlineAfterClose() throws Exception {
+		startServer(false, Integer.MAX_VALUE);
+		connections.send(serverAddress, new UpdatingChainBlockRequestMessage(), 1000);
+		connections.close();
+		try {
+			connections.send(serverAddress, new UpdatingChainBlockRequestMessage(), 1000);
+			fail("The pool is closed.");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testLegacyPeersAreNotPooled() throws Exception {
+		startServer(true, 1);
+		assertEquals(6, request(5));
+		assertEquals(7, request(6));
+		assertEquals(0, connections.getIdleConnections());
+	}
+	
+	@Test
+	public void testIdleConnectionsAreEvicted() throws Exception {
+		connections = new PeerConnectionPool(PeerConnectionPool.DEFAULT_MAX_IDLE_PER_PEER, 50);
+		startServer(false, Integer.MAX_VALUE);
+		assertEquals(2, request(1));
+		assertEquals(1, connections.getIdleConnections());
+		Thread.sleep(100);
+		connections.evictIdle();
+		assertEquals(0, connections.getIdleConnections());
+		assertEquals(3, request(2));
+		assertEquals(2, accepted.get());
+	}
+	
+	@Test
+	public void testBackoffAfterFailedConnection() throws Exception {
+		server.close();
+		try {
+			request(1);
+			fail("Nobody is listening.");
+		} catch (ConnectException e) {
+			// expected
+		}
+		try {
+			request(1);
+			fail("The peer should be backed off.");
+		} catch (ConnectException e) {
+			assertTrue(e.getMessage().startsWith("Backing off"));
+		}
+		connections.forget(serverAddress);
+		try {
+			request(1);
+			fail("Nobody is listening.");
+		} catch (ConnectException e) {
+			assertTrue(!e.getMessage().startsWith("Backing off"));
+		}
+	}
+
+}
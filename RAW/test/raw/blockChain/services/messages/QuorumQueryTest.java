@@ -0,0 +1,162 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static raw.blockChain.peers.TestPeers.startSilentServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.concurrent.RAWExecutors;
+
+public class QuorumQueryTest {
+	
+	static final int DEADLINE = 1000;
+	
+	ArrayList<ServerSocket> servers;
+	ExecutorService pool;
+	QuorumQuery query;
+	QuorumQuery.ReplyParser<String> parser;
+	
+	@Before
+	public void setUp() throws Exception {
+		servers = new ArrayList<ServerSocket>();
+		pool = RAWExecutors.newCachedThreadPool();
+		query = new QuorumQuery(pool, DEADLINE);
+		parser = new QuorumQuery.ReplyParser<String>() {
+			@Override
+			public String parse(Object reply) {
+				return (String) reply;
+			}
+		};
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		for(ServerSocket server : servers){
+			server.close();
+		}
+		pool.shutdownNow();
+	}
+	
+	/**
+	 * A node which reads a request and replies <tt>answer</tt> after <tt>delay</tt> milliseconds.
+	 */
+	private InetSocketAddress startServer(final String answer, final long delay) throws IOException {
+		final ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		servers.add(server);
+		pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() throws Exception {
+				while(!server.isClosed()){
+					final Socket sock;
+					try {
+						sock = server.accept();
+					} catch (SocketException e) {
+						// the test is over.
+						return null;
+					}
+					pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							MessageChannel channel = MessageChannel.accept(sock);
+							try {
+								channel.readMessage();
+								Thread.sleep(delay);
+								channel.writeMessage(answer);
+							} catch (IOException | InterruptedException e) {
+								// the other side closed the connection (or the test is over).
+							} finally {
+								channel.abort();
+							}
+							return null;
+						}
+					});
+				}
+				return null;
+			}
+		});
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+	}
+
+	@Test
+	public void testMajority() {
+		assertEquals(1, QuorumQuery.majority(1));
+		assertEquals(2, QuorumQuery.majority(2));
+		assertEquals(2, QuorumQuery.majority(3));
+		assertEquals(3, QuorumQuery.majority(5));
+	}
+	
+	@Test
+	public void testQuorumDoesNotWaitStragglers() throws Exception {
+		ArrayList<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		nodes.add(startServer("block", 0));
+		nodes.add(startSilentServer(servers));
+		nodes.add(startServer("block", 0));
+		
+		long start = System.currentTimeMillis();
+		ArrayList<String> answers = query.ask(nodes, "request", parser, QuorumQuery.majority(nodes.size()));
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertEquals(2, answers.size());
+		assertEquals("block", answers.get(0));
+		assertEquals("block", answers.get(1));
+		assertTrue("Waited "+elapsed+" ms", elapsed < DEADLINE);
+	}
+	
+	@Test
+	public void testDisagreementWaitsForAllReplies() throws Exception {
+		ArrayList<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		nodes.add(startServer("fork", 0));
+		nodes.add(startServer("block", 100));
+		nodes.add(startServer("block", 200));
+		
+		ArrayList<String> answers = query.ask(nodes, "request", parser, QuorumQuery.majority(nodes.size()));
+		
+		assertEquals(3, answers.size());
+		assertEquals("fork", answers.get(0));
+		assertEquals("block", answers.get(2));
+	}
+	
+	@Test
+	public void testDeadlineBoundsSilentNodes() throws Exception {
+		ArrayList<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
+		nodes.add(startSilentServer(servers));
+		nodes.add(startSilentServer(servers));
+		nodes.add(startServer("block", 0));
+		
+		long start = System.currentTimeMillis();
+		ArrayList<String> answers = query.ask(nodes, "request", parser, QuorumQuery.majority(nodes.size()));
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertEquals(1, answers.size());
+		assertTrue("Waited "+elapsed+" ms", elapsed < 2 * DEADLINE);
+	}
+
+}
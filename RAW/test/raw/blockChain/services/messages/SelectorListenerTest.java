@@ -0,0 +1,249 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.messages;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.services.miner.messages.types.SubmitTransactionMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type;
+import raw.concurrent.RAWExecutors;
+import raw.dht.DhtHasher;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.utils.DhtSigningUtils;
+
+public class SelectorListenerTest {
+	
+	ServerSocketChannel server;
+	InetSocketAddress serverAddress;
+	ExecutorService pool;
+	ExecutorService workers;
+	SelectorListener listener;
+	AtomicInteger notifications;
+	
+	@Before
+	public void setUp() throws Exception {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+		serverAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.socket().getLocalPort());
+		pool = RAWExecutors.newCachedThreadPool();
+		workers = RAWExecutors.newBoundedThreadPool(4, 1024);
+		notifications = new AtomicInteger();
+		listener = new SelectorListener(server, new SelectorListener.MessageHandler() {
+			@Override
+			public boolean serve(Object message, MessageChannel channel) {
+				UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) message;
+				try {
+					switch (request.getMessageType()) {
+					case BLOCK_REQUEST:
+						channel.writeMessage(new UpdatingChainBlockRequestMessage(request.getBlockNumber() + 1));
+						break;
+					case RANGE_REQUEST:
+						// a streamed reply.
+						for(long i = request.getBlockNumber(); i <= request.getToBlockNumber(); i++){
+							channel.writeMessage(new UpdatingChainBlockRequestMessage(i));
+						}
+						channel.writeMessage(UpdatingChainBlockRequestMessage.rangeEnd(request.getToBlockNumber()));
+						break;
+					case DONE_BYE:
+						notifications.incrementAndGet();
+						break;
+					case BLOCK_REPLY:
+						channel.writeMessage(new UpdatingChainBlockRequestMessage(request.getBlock().getTransactions().size()));
+						break;
+					default:
+						return false;
+					}
+				} catch (IOException e) {
+					return false;
+				}
+				return true;
+			}
+		}, 2, workers);
+		pool.submit(listener);
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		listener.close();
+		workers.shutdownNow();
+		pool.shutdownNow();
+	}
+	
+	private static long exchange(MessageChannel channel, long blockNumber) throws Exception {
+		channel.writeMessage(new UpdatingChainBlockRequestMessage(blockNumber));
+		return ((UpdatingChainBlockRequestMessage) channel.readMessage()).getBlockNumber();
+	}
+
+	@Test
+	public void testPersistentConnection() throws Exception {
+		try (MessageChannel channel = MessageChannel.connect(serverAddress)) {
+			for(int i = 0; i < 20; i++){
+				assertEquals(i + 1, exchange(channel, i));
+			}
+			assertTrue(channel.isPersistent());
+			assertEquals(1, listener.getOpenConnections());
+		}
+	}
+	
+	@Test
+	public void testPipelinedAndStreamedMessages() throws Exception {
+		try (MessageChannel channel = MessageChannel.connect(serverAddress)) {
+			// one way messages sent back to back end up in the same read.
+			for(int i = 0; i < 5; i++){
+				channel.writeMessage(new UpdatingChainBlockRequestMessage());
+			}
+			channel.writeMessage(new UpdatingChainBlockRequestMessage(10, 14, Integer.MAX_VALUE));
+			for(long i = 10; i <= 14; i++){
+				assertEquals(i, ((UpdatingChainBlockRequestMessage) channel.readMessage()).getBlockNumber());
+			}
+			assertEquals(Type.RANGE_END, ((UpdatingChainBlockRequestMessage) channel.readMessage()).getMessageType());
+			assertEquals(8, exchange(channel, 7));
+			assertEquals(5, notifications.get());
+		}
+	}
+	
+	@Test
+	public void testMalformedFrame() throws Exception {
+		// the first connection is served by the accepting I/O thread.
+		try (MessageChannel channel = MessageChannel.connect(serverAddress)) {
+			DataOutputStream out = new DataOutputStream(channel.getSocket().getOutputStream());
+			out.writeInt(6);
+			out.writeShort(WireProtocol.getCodec(SubmitTransactionMessage.class).getTypeId());
+			out.writeByte(0); // no address
+			out.writeByte(1); // binary transaction...
+			out.writeInt(-1); // ...with a negative length
+			out.flush();
+			try {
+				channel.readMessage();
+				fail("The connection should be closed.");
+			} catch (IOException e) {
+				// expected
+			}
+		}
+		try (MessageChannel channel = MessageChannel.connect(serverAddress)) {
+			assertEquals(8, exchange(channel, 7));
+		}
+	}
+	
+	@Test
+	public void testBigFrame() throws Exception {
+		// one key pair for all the transactions: generating a pair per transaction is slow.
+		PublicKey key = DhtSigningUtils.getSignKeyPair().getPublic();
+		DhtHasher dhtHasher = new DefaultDhtHasher();
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		for(int i = 0; i < 300; i++){
+			transactions.add(new DefaultTransaction(dhtHasher.hashBytes(ByteBuffer.allocate(4).putInt(i).array()), i, 0L, key));
+		}
+		HashValue hash = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		Builder builder = new Builder();
+		builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setBlockNumber(1).
+		setDifficulty(new BigDecimal(1)).
+		setMerkleRoot(hash).
+		setNonce(1).
+		setPrevBlockHash(hash).
+		setTimestamp(1000L).
+		setMinerSignature("Test signature");
+		Block block = new DefaultBlock(builder.build(), transactions);
+		try (MessageChannel channel = MessageChannel.connect(serverAddress)) {
+			// many times the initial buffer of a connection, received in many reads.
+			channel.writeMessage(new UpdatingChainBlockRequestMessage(block));
+			assertEquals(transactions.size(), ((UpdatingChainBlockRequestMessage) channel.readMessage()).getBlockNumber());
+			assertTrue(channel.getWrittenBytes() > 16 * 4096);
+			assertEquals(8, exchange(channel, 7));
+		}
+	}
+	
+	@Test
+	public void testLegacyClient() throws Exception {
+		try (Socket sock = new Socket(serverAddress.getAddress(), serverAddress.getPort())) {
+			ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+			oos.writeObject(new UpdatingChainBlockRequestMessage(41));
+			oos.flush();
+			ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+			assertEquals(42, ((UpdatingChainBlockRequestMessage) ois.readObject()).getBlockNumber());
+			// legacy connections serve a single message.
+			try {
+				ois.readObject();
+				fail("The connection should be closed.");
+			} catch (EOFException e) {
+				// expected
+			}
+		}
+	}
+	
+	@Test
+	public void testConcurrentConnections() throws Exception {
+		final int connections = 300;
+		ArrayList<MessageChannel> channels = new ArrayList<MessageChannel>();
+		try {
+			for(int i = 0; i < connections; i++){
+				channels.add(MessageChannel.connect(serverAddress));
+			}
+			ArrayList<Future<Long>> replies = new ArrayList<Future<Long>>();
+			for(final MessageChannel channel : channels){
+				replies.add(pool.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						return exchange(channel, channel.getSocket().getLocalPort());
+					}
+				}));
+			}
+			for(int i = 0; i < connections; i++){
+				assertEquals(channels.get(i).getSocket().getLocalPort() + 1, (long) replies.get(i).get(30, TimeUnit.SECONDS));
+			}
+			assertEquals(connections, listener.getOpenConnections());
+		} finally {
+			for(MessageChannel channel : channels){
+				channel.close();
+			}
+		}
+	}
+
+}
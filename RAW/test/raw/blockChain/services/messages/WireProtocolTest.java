@@ -0,0 +1,333 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.messages;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockCompactRepresentation;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockCompactRepresentation;
+import raw.blockChain.api.implementations.DefaultBlockHeader;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultIntermediateValue;
+import raw.blockChain.api.implementations.DefaultIntermediateValuesBuilder;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.services.miner.messages.types.MinerAddressNotification;
+import raw.blockChain.services.miner.messages.types.SubmitTransactionMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockCompactRepresentationRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockTransactionsRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.CommunicationMessage;
+import raw.blockChain.services.thickNode.messages.types.CompactBlockNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.HeaderChainRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.LastBlockHeaderNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.LastBlockNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.MinerNodeAddressMessage;
+import raw.blockChain.services.thickNode.messages.types.SubmitNewBlockMessage;
+import raw.blockChain.services.thickNode.messages.types.ThickNodeAddressMessage;
+import raw.blockChain.services.thickNode.messages.types.TransactionBlockNumberMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type;
+import raw.dht.implementations.DefaultDhtID;
+
+public class WireProtocolTest {
+	
+	Transaction transaction;
+	Transaction legacyTransaction;
+	Block block;
+	InetSocketAddress address;
+	
+	@Before
+	public void setUp() throws Exception {
+		transaction = DefaultTransaction.getNullTransaction();
+		legacyTransaction = new DefaultTransaction((DefaultDhtID) transaction.getDhtID(), 3L, 5L, transaction.getPublicKey(), 1);
+		
+		HashValue previous = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		Builder builder = new Builder();
+		builder.setHeaderVersion(DefaultBlockHeader.CURRENT_VERSION).
+		setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setBlockNumber(7).
+		setDifficulty(new BigDecimal(1)).
+		setMerkleRoot(previous).
+		setNonce(11).
+		setPrevBlockHash(previous).
+		setTimestamp(1000L).
+		setMinerSignature("Test signature");
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		transactions.add(transaction);
+		transactions.add(legacyTransaction);
+		block = new DefaultBlock(builder.build(), transactions);
+		
+		address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4242);
+	}
+	
+	private static byte[] frame(Object message) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		WireProtocol.writeFrame(message, new DataOutputStream(baos));
+		return baos.toByteArray();
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T roundTrip(T message) throws IOException {
+		byte[] bytes = frame(message);
+		assertEquals(bytes.length - 6, ByteBuffer.wrap(bytes).getInt());
+		assertNotEquals("No codec for "+message.getClass(), WireProtocol.SERIALIZED_TYPE_ID, ByteBuffer.wrap(bytes).getShort(4));
+		T decoded = (T) WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes)));
+		assertEquals(message.getClass(), decoded.getClass());
+		return decoded;
+	}
+
+	@Test
+	public void testBlockMessages() throws Exception {
+		BlockRequestMessage byNumber = roundTrip(new BlockRequestMessage(7));
+		assertTrue(byNumber.isRequestMessage());
+		assertEquals(BlockRequestMessage.RequestType.BY_BLOCK_NUMBER, byNumber.getTypeOfRequest());
+		assertEquals(7, byNumber.getBlockNumber());
+		
+		BlockRequestMessage rejected = new BlockRequestMessage(block.getHeader().hash());
+		rejected.rejectMessage();
+		rejected = roundTrip(rejected);
+		assertTrue(rejected.isNegativeReply());
+		assertEquals(block.getHeader().hash(), rejected.getHash());
+		
+		BlockRequestMessage reply = roundTrip(new BlockRequestMessage(block));
+		assertTrue(reply.isPositiveReply());
+		assertEquals(block, reply.getBlock());
+		assertEquals(block.getTransactions(), reply.getBlock().getTransactions());
+		
+		assertEquals(block, roundTrip(new SubmitNewBlockMessage(block, address)).getBlock());
+		assertEquals(address, roundTrip(new LastBlockNotificationMessage(address, block)).getThickNodeAddress());
+		assertEquals(block.getHeader(), roundTrip(new LastBlockHeaderNotificationMessage(address, block.getHeader())).getLastBlockHeader());
+		
+		ArrayList<raw.blockChain.api.BlockHeader> headers = new ArrayList<raw.blockChain.api.BlockHeader>();
+		headers.add(block.getHeader());
+		HeaderChainRequestMessage headersReply = roundTrip(new HeaderChainRequestMessage(7, headers));
+		assertFalse(headersReply.isRequestMessage());
+		assertEquals(headers, headersReply.getHeaders());
+		assertEquals(300, roundTrip(new HeaderChainRequestMessage(7, 300)).getCount());
+	}
+	
+	@Test
+	public void testCompactBlockMessages() throws Exception {
+		CompactBlockNotificationMessage compact = roundTrip(new CompactBlockNotificationMessage(address, block));
+		assertEquals(address, compact.getThickNodeAddress());
+		assertEquals(block.getHeader(), compact.getHeader());
+		assertArrayEquals(new long[]{CompactBlockNotificationMessage.shortId(block.getHeader(), transaction), CompactBlockNotificationMessage.shortId(block.getHeader(), legacyTransaction)}, compact.getShortIds());
+		assertNotEquals(compact.getShortIds()[0], compact.getShortIds()[1]);
+		// short ids are salted by the block header
+		HashValue previous = block.getHeader().previousBlock();
+		Builder builder = new Builder();
+		builder.setHeaderVersion(DefaultBlockHeader.CURRENT_VERSION).
+		setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setBlockNumber(7).
+		setDifficulty(new BigDecimal(1)).
+		setMerkleRoot(previous).
+		setNonce(12).
+		setPrevBlockHash(previous).
+		setTimestamp(1000L).
+		setMinerSignature("Test signature");
+		assertNotEquals(compact.getShortIds()[0], CompactBlockNotificationMessage.shortId(builder.build(), transaction));
+		long[] salt = CompactBlockNotificationMessage.salt(block.getHeader());
+		HashFunction sipHash = Hashing.sipHash24(salt[0], salt[1]);
+		assertEquals(sipHash.hashBytes(DefaultHasher.getHasher().hashTransaction(transaction).toByteArray()).asLong(), compact.getShortIds()[0]);
+		assertTrue(frame(compact).length < frame(new LastBlockNotificationMessage(address, block)).length);
+		
+		BlockTransactionsRequestMessage request = roundTrip(new BlockTransactionsRequestMessage(block.getHeader().hash(), new int[]{1, 0}));
+		assertTrue(request.isRequestMessage());
+		assertEquals(block.getHeader().hash(), request.getBlockHash());
+		assertArrayEquals(new int[]{1, 0}, request.getIndexes());
+		
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		transactions.add(legacyTransaction);
+		BlockTransactionsRequestMessage reply = roundTrip(new BlockTransactionsRequestMessage(block.getHeader().hash(), transactions));
+		assertFalse(reply.isRequestMessage());
+		assertEquals(transactions, reply.getTransactions());
+		
+		BlockTransactionsRequestMessage unknown = roundTrip(new BlockTransactionsRequestMessage(block.getHeader().hash(), (ArrayList<Transaction>) null));
+		assertFalse(unknown.isRequestMessage());
+		assertNull(unknown.getTransactions());
+	}
+	
+	@Test
+	public void testUpdatingChainMessages() throws Exception {
+		assertEquals(Type.DONE_BYE, roundTrip(new UpdatingChainBlockRequestMessage()).getMessageType());
+		assertEquals(5, roundTrip(new UpdatingChainBlockRequestMessage(5)).getBlockNumber());
+		assertEquals(block, roundTrip(new UpdatingChainBlockRequestMessage(block)).getBlock());
+		assertNull(roundTrip(new UpdatingChainBlockRequestMessage((Block) null)).getBlock());
+		UpdatingChainBlockRequestMessage range = roundTrip(new UpdatingChainBlockRequestMessage(3, 9, 1024));
+		assertEquals(Type.RANGE_REQUEST, range.getMessageType());
+		assertEquals(3, range.getBlockNumber());
+		assertEquals(9, range.getToBlockNumber());
+		assertEquals(1024, range.getMaxBytes());
+		UpdatingChainBlockRequestMessage end = roundTrip(UpdatingChainBlockRequestMessage.rangeEnd(8));
+		assertEquals(Type.RANGE_END, end.getMessageType());
+		assertEquals(8, end.getBlockNumber());
+	}
+	
+	@Test
+	public void testNodeMessages() throws Exception {
+		CommunicationMessage ping = new CommunicationMessage(CommunicationMessage.Type.PING_FROM_THICK);
+		ping.attachInetSocketAddress(address);
+		CommunicationMessage decodedPing = roundTrip(ping);
+		assertEquals(CommunicationMessage.Type.PING_FROM_THICK, decodedPing.getMessage());
+		assertEquals(ping.getChainName(), decodedPing.getChainName());
+		assertEquals(address, decodedPing.getAttachment());
+		assertEquals(InetSocketAddress.class, decodedPing.getAttachmentType());
+		
+		CommunicationMessage refused = new CommunicationMessage(CommunicationMessage.Type.REFUSED);
+		refused.attachBlockHeader(block.getHeader());
+		assertEquals(block.getHeader(), roundTrip(refused).getAttachment());
+		assertNull(roundTrip(new CommunicationMessage(CommunicationMessage.Type.PONG)).getAttachment());
+		
+		assertTrue(roundTrip(new ThickNodeAddressMessage()).isRequest());
+		ThickNodeAddressMessage addressReply = roundTrip(new ThickNodeAddressMessage(address));
+		assertFalse(addressReply.isRequest());
+		assertEquals(address, addressReply.getAddress());
+		assertEquals(ping.getChainName(), addressReply.getChainName());
+		assertEquals(address, roundTrip(new MinerNodeAddressMessage(address)).getAddress());
+		
+		InetSocketAddress unresolved = InetSocketAddress.createUnresolved("raw.example", 4000);
+		assertEquals(unresolved, roundTrip(new MinerAddressNotification(unresolved)).getAddress());
+	}
+	
+	@Test
+	public void testTransactionMessages() throws Exception {
+		SubmitTransactionMessage submission = roundTrip(new SubmitTransactionMessage(address, transaction));
+		assertEquals(transaction, submission.getTransaction());
+		assertEquals(address, submission.getAddress());
+		assertEquals(legacyTransaction, roundTrip(new SubmitTransactionMessage(address, legacyTransaction)).getTransaction());
+		
+		ArrayList<Transaction> batch = new ArrayList<Transaction>();
+		batch.add(transaction);
+		assertArrayEquals(frame(new SubmitTransactionMessage(address, transaction)), frame(new SubmitTransactionMessage(address, batch)));
+		batch.add(legacyTransaction);
+		SubmitTransactionMessage decodedBatch = roundTrip(new SubmitTransactionMessage(address, batch));
+		assertEquals(batch, decodedBatch.getTransactions());
+		assertEquals(transaction, decodedBatch.getTransaction());
+		
+		TransactionBlockNumberMessage request = roundTrip(new TransactionBlockNumberMessage(transaction));
+		assertTrue(request.isRequest());
+		assertEquals(transaction, request.getTransaction());
+		assertEquals(42, roundTrip(new TransactionBlockNumberMessage(42, transaction)).getBlockNumber());
+		
+		BlockCompactRepresentationRequestMessage compactRequest = roundTrip(new BlockCompactRepresentationRequestMessage(block.getHeader(), transaction));
+		assertTrue(compactRequest.isRequestMessage());
+		assertEquals(block.getHeader(), compactRequest.getHeader());
+		assertEquals(transaction, compactRequest.getTransaction());
+		
+		DefaultIntermediateValuesBuilder values = new DefaultIntermediateValuesBuilder(transaction, 7);
+		values.pushNextHash(new DefaultIntermediateValue(block.getHeader().hash(), true));
+		BlockCompactRepresentation compact = new DefaultBlockCompactRepresentation(block.getHeader(), transaction, values.build());
+		BlockCompactRepresentationRequestMessage compactReply = roundTrip(new BlockCompactRepresentationRequestMessage(compact));
+		assertTrue(compactReply.isPositiveReply());
+		assertEquals(compact.getHeader(), compactReply.getBlockCompactRepresentation().getHeader());
+		assertEquals(compact.getTransaction(), compactReply.getBlockCompactRepresentation().getTransaction());
+	}
+	
+	@Test
+	public void testSerializedFallback() throws Exception {
+		byte[] bytes = frame("not a message");
+		assertEquals(WireProtocol.SERIALIZED_TYPE_ID, ByteBuffer.wrap(bytes).getShort(4));
+		assertEquals("not a message", WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes))));
+	}
+	
+	@Test(expected=IOException.class)
+	public void testUnknownTypeId() throws Exception {
+		byte[] bytes = frame(new UpdatingChainBlockRequestMessage());
+		ByteBuffer.wrap(bytes).putShort(4, Short.MAX_VALUE);
+		WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes)));
+	}
+
+	@Test(expected=IOException.class)
+	public void testMissingBinaryTransaction() throws Exception {
+		ByteBuffer bytes = ByteBuffer.allocate(12);
+		bytes.putInt(6);
+		bytes.putShort((short) WireProtocol.getCodec(SubmitTransactionMessage.class).getTypeId());
+		bytes.put((byte) 0); // no address
+		bytes.put((byte) 1); // binary transaction...
+		bytes.putInt(-1); // ...with a negative length
+		WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+	}
+	
+	@Test(expected=IOException.class)
+	public void testMalformedLegacyHeader() throws Exception {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		try (ObjectOutputStream oos = new ObjectOutputStream(header)){
+			oos.writeObject("not a hash");
+		}
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(payload);
+		WireEncoding.writeAddress(address, out);
+		WireEncoding.writeBytes(header.toByteArray(), out);
+		ByteBuffer bytes = ByteBuffer.allocate(6 + payload.size());
+		bytes.putInt(payload.size());
+		bytes.putShort((short) WireProtocol.getCodec(LastBlockHeaderNotificationMessage.class).getTypeId());
+		bytes.put(payload.toByteArray());
+		WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+	}
+	
+	@Test(expected=IOException.class)
+	public void testBlockWithoutHeader() throws Exception {
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(payload);
+		out.writeBoolean(true);
+		WireEncoding.writeBlockHeader(null, out);
+		out.writeInt(0);
+		WireEncoding.writeAddress(address, out);
+		ByteBuffer bytes = ByteBuffer.allocate(6 + payload.size());
+		bytes.putInt(payload.size());
+		bytes.putShort((short) WireProtocol.getCodec(SubmitNewBlockMessage.class).getTypeId());
+		bytes.put(payload.toByteArray());
+		WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+	}
+
+	@Test(expected=EOFException.class)
+	public void testTruncatedBigFrame() throws Exception {
+		ByteBuffer bytes = ByteBuffer.allocate(16);
+		bytes.putInt(WireProtocol.MAX_FRAME_LENGTH);
+		bytes.putShort((short) WireProtocol.SERIALIZED_TYPE_ID);
+		WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes.array())));
+	}
+
+}
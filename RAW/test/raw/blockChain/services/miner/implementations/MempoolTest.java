@@ -0,0 +1,128 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.miner.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Predicate;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.dht.DhtID;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.DefaultDhtID;
+
+public class MempoolTest {
+	
+	PublicKey publicKey;
+	Predicate<Transaction> acceptAll;
+	
+	@Before
+	public void setUp() throws Exception {
+		publicKey = DefaultTransaction.getNullTransaction().getPublicKey();
+	}
+	
+	private static DhtID id(int i){
+		byte[] bytes = new byte[DefaultDhtHasher.getHasher().hashLength()];
+		bytes[0] = (byte) i;
+		return new DefaultDhtID(bytes);
+	}
+	
+	private Transaction transaction(int id, long seed){
+		return new DefaultTransaction(id(id), 42, seed, publicKey);
+	}
+
+	@Test
+	public void testDuplicatesAreDropped() {
+		Mempool mempool = new Mempool(null);
+		assertTrue(mempool.add(transaction(1, 0)));
+		assertFalse(mempool.add(transaction(1, 0)));
+		assertTrue(mempool.add(transaction(2, 0)));
+		assertEquals(2, mempool.size());
+		assertFalse(mempool.add(null));
+	}
+	
+	@Test
+	public void testNewestSeedIsKept() {
+		Mempool mempool = new Mempool(null);
+		assertTrue(mempool.add(transaction(1, 100)));
+		assertFalse(mempool.add(transaction(1, 50)));
+		assertTrue(mempool.add(transaction(1, 200)));
+		assertEquals(1, mempool.size());
+		assertTrue(mempool.contains(transaction(1, 200)));
+		assertFalse(mempool.contains(transaction(1, 100)));
+	}
+	
+	@Test
+	public void testInvalidTransactionsAreRejected() {
+		final Transaction invalid = transaction(3, 0);
+		Mempool mempool = new Mempool(new Predicate<Transaction>() {
+			@Override
+			public boolean test(Transaction transaction) {
+				return !transaction.equals(invalid);
+			}
+		});
+		assertFalse(mempool.add(invalid));
+		assertTrue(mempool.add(transaction(4, 0)));
+		assertEquals(1, mempool.size());
+	}
+	
+	@Test
+	public void testSizeAndAgeLimits() {
+		Mempool mempool = new Mempool(3, 1000, null);
+		for(int i = 1; i <= 4; i++){
+			assertTrue(mempool.add(transaction(i, 0), i * 100));
+		}
+		// the oldest has been evicted to make room.
+		assertEquals(Arrays.asList(transaction(2, 0), transaction(3, 0), transaction(4, 0)), mempool.getTemplate(10, 400));
+		assertEquals(1, mempool.evictExpired(1250));
+		assertEquals(Arrays.asList(transaction(3, 0), transaction(4, 0)), mempool.getTemplate(10, 1250));
+		assertEquals(Collections.emptyList(), mempool.getTemplate(10, 2000));
+	}
+	
+	@Test
+	public void testTemplateIsInArrivalOrder() {
+		Mempool mempool = new Mempool(null);
+		ArrayList<Transaction> added = new ArrayList<Transaction>();
+		for(int i = 10; i > 0; i--){
+			added.add(transaction(i, 0));
+			mempool.add(transaction(i, 0));
+		}
+		assertEquals(added.subList(0, 4), mempool.getTemplate(4));
+		assertEquals(added, mempool.getTemplate(100));
+	}
+	
+	@Test
+	public void testConfirmedAreRemoved() {
+		Mempool mempool = new Mempool(null);
+		mempool.add(transaction(1, 100));
+		mempool.add(transaction(2, 100));
+		mempool.add(transaction(3, 100));
+		// the same transaction, an older one of the same id, a newer one of the same id.
+		assertEquals(2, mempool.removeConfirmed(Arrays.asList(transaction(1, 100), transaction(2, 50), transaction(3, 200))));
+		assertEquals(Collections.singletonList(transaction(2, 100)), mempool.getTemplate(10));
+	}
+
+}
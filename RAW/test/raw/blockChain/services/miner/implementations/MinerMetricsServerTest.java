@@ -0,0 +1,91 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.miner.implementations;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.implementations.MiningMetrics;
+import raw.concurrent.RAWExecutors;
+
+public class MinerMetricsServerTest {
+	
+	ExecutorService pool;
+	MiningMetrics metrics;
+	MinerMetricsServer server;
+
+	@Before
+	public void setUp() throws Exception {
+		pool = RAWExecutors.newCachedThreadPool();
+		metrics = new MiningMetrics();
+		server = new MinerMetricsServer(0, pool, metrics);
+		server.start();
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		server.stop();
+		pool.shutdownNow();
+	}
+	
+	private HttpURLConnection open(String method) throws Exception {
+		URL url = new URL("http://127.0.0.1:"+server.getPort()+MinerMetricsServer.CONTEXT);
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setRequestMethod(method);
+		return connection;
+	}
+
+	@Test
+	public void testMetricsArePulled() throws Exception {
+		metrics.hashesComputed(0, 2000, 1000000000L);
+		metrics.blockFound(5);
+		
+		HttpURLConnection connection = open("GET");
+		assertEquals(200, connection.getResponseCode());
+		JsonObject json;
+		try (InputStream in = connection.getInputStream(); JsonReader reader = Json.createReader(in)){
+			json = reader.readObject();
+		}
+		assertEquals(2000, json.getJsonNumber("hashRate").longValue());
+		assertEquals(1, json.getJsonNumber("blocksFound").longValue());
+		
+		// every request sees the current values.
+		metrics.blockFound(5);
+		connection = open("GET");
+		try (InputStream in = connection.getInputStream(); JsonReader reader = Json.createReader(in)){
+			json = reader.readObject();
+		}
+		assertEquals(2, json.getJsonNumber("blocksFound").longValue());
+	}
+	
+	@Test
+	public void testOnlyGetIsServed() throws Exception {
+		assertEquals(405, open("DELETE").getResponseCode());
+	}
+
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.thickNode.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.services.dbHelper.BlocksToDataBase;
+import raw.blockChain.services.thickNode.messages.types.HeaderChainRequestMessage;
+import raw.concurrent.RAWExecutors;
+import raw.settings.BlockChainProperties;
+import raw.settings.ModuleProperty;
+import raw.settings.PropertiesManager;
+
+public class HeadersFirstSynchronizerTest {
+	
+	ExecutorService pool;
+	BlocksToDataBase emptyDatabase;
+	
+	ServerSocket fakeNode;
+	ArrayList<BlockHeader> fakeChain;
+	AtomicInteger headersRequests;
+	
+	@Before
+	public void setUp() throws Exception {
+		pool = RAWExecutors.newCachedThreadPool();
+		
+		emptyDatabase = EasyMock.createNiceMock(BlocksToDataBase.class);
+		EasyMock.replay(emptyDatabase);
+		
+		// a chain of headers which are never mined.
+		String chainName = ((BlockChainProperties) PropertiesManager.getManager().getProperties(ModuleProperty.BLOCK_CHAIN)).getBlockChainName();
+		fakeChain = new ArrayList<BlockHeader>();
+		HashValue previous = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		for(long i = 0; i < 10; i++){
+			BlockHeader header = new Builder().setBlockChainName(chainName).
+					setBlockNumber(i).
+					setDifficulty(new BigDecimal(1)).
+					setMerkleRoot(previous).
+					setNonce(1).
+					setPrevBlockHash(previous).
+					setTimestamp(1000L * i).
+					setMinerSignature("Test signature").build();
+			fakeChain.add(header);
+			previous = header.hash();
+		}
+		
+		headersRequests = new AtomicInteger(0);
+		fakeNode = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				while(!fakeNode.isClosed()){
+					try (Socket sock = fakeNode.accept()) {
+						ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+						HeaderChainRequestMessage request = (HeaderChainRequestMessage) ois.readObject();
+						headersRequests.incrementAndGet();
+						ArrayList<BlockHeader> headers = new ArrayList<BlockHeader>();
+						for(long i = request.getFromBlockNumber(); i < fakeChain.size() && headers.size() < request.getCount(); i++){
+							headers.add(fakeChain.get((int) i));
+						}
+						ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+						oos.writeObject(new HeaderChainRequestMessage(request.getFromBlockNumber(), headers));
+						oos.flush();
+					} catch (IOException | ClassNotFoundException e) {
+						// the fake node was closed.
+					}
+				}
+				return null;
+			}
+		});
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		fakeNode.close();
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testUnreachableSource() throws Exception {
+		InetSocketAddress unreachable;
+		try (ServerSocket closed = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			unreachable = new InetSocketAddress(closed.getInetAddress(), closed.getLocalPort());
+		}
+		HeadersFirstSynchronizer synchronizer = new HeadersFirstSynchronizer(emptyDatabase, pool, 4);
+		assertNull(synchronizer.download(unreachable, new ArrayList<InetSocketAddress>()));
+	}
+	
+	@Test
+	public void testInvalidHeadersAreRejected() throws Exception {
+		InetSocketAddress source = new InetSocketAddress(fakeNode.getInetAddress(), fakeNode.getLocalPort());
+		HeadersFirstSynchronizer synchronizer = new HeadersFirstSynchronizer(emptyDatabase, pool, 4);
+		HeadersFirstSynchronizer.DownloadedBranch branch = synchronizer.download(source, new ArrayList<InetSocketAddress>());
+		assertNotNull(branch);
+		assertFalse(branch.isValid());
+		// no block is requested once headers are found to be invalid.
+		assertEquals(1, headersRequests.get());
+	}
+
+}
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.thickNode.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlockHeader;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.services.thickNode.messages.types.CompactBlockNotificationMessage;
+import raw.dht.implementations.DefaultDhtID;
+
+public class RecentTransactionsTest {
+	
+	Transaction nullTransaction;
+	ArrayList<Transaction> transactions;
+	BlockHeader header;
+	BlockHeader otherHeader;
+	
+	@Before
+	public void setUp() throws Exception {
+		nullTransaction = DefaultTransaction.getNullTransaction();
+		transactions = new ArrayList<Transaction>();
+		for(long nonce = 1; nonce <= 4; nonce++){
+			transactions.add(new DefaultTransaction((DefaultDhtID) nullTransaction.getDhtID(), nonce, 5L, nullTransaction.getPublicKey(), 1));
+		}
+		header = header(11);
+		otherHeader = header(12);
+	}
+	
+	private static BlockHeader header(int nonce) throws Exception {
+		HashValue previous = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		return new DefaultBlockHeader.Builder().
+				setBlockChainName("RAW_STD_BLOCKCHAIN").
+				setBlockNumber(7).
+				setDifficulty(new BigDecimal(1)).
+				setMerkleRoot(previous).
+				setNonce(nonce).
+				setPrevBlockHash(previous).
+				setTimestamp(1000L).
+				setMinerSignature("Test signature").
+				build();
+	}
+	
+	private static long[] shortIds(BlockHeader header, Transaction... transactions){
+		long[] shortIds = new long[transactions.length];
+		for(int i = 0; i < shortIds.length; i++){
+			shortIds[i] = CompactBlockNotificationMessage.shortId(header, transactions[i]);
+		}
+		return shortIds;
+	}
+
+	@Test
+	public void testMatch() {
+		RecentTransactions recent = new RecentTransactions();
+		recent.add(transactions.get(0));
+		recent.add(transactions.get(2));
+		
+		ArrayList<Integer> missing = new ArrayList<Integer>();
+		ArrayList<Transaction> matched = recent.match(header, shortIds(header, nullTransaction, transactions.get(0), transactions.get(1), transactions.get(2), transactions.get(3)), missing);
+		assertEquals(5, matched.size());
+		assertEquals(nullTransaction, matched.get(0));
+		assertEquals(transactions.get(0), matched.get(1));
+		assertNull(matched.get(2));
+		assertEquals(transactions.get(2), matched.get(3));
+		assertNull(matched.get(4));
+		
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+		expected.add(2);
+		expected.add(4);
+		assertEquals(expected, missing);
+	}
+	
+	@Test
+	public void testShortIdsAreSaltedByTheHeader() {
+		RecentTransactions recent = new RecentTransactions();
+		recent.add(transactions.get(0));
+		
+		ArrayList<Integer> missing = new ArrayList<Integer>();
+		ArrayList<Transaction> matched = recent.match(otherHeader, shortIds(header, transactions.get(0)), missing);
+		assertNull(matched.get(0));
+		assertEquals(1, missing.size());
+		
+		missing.clear();
+		matched = recent.match(otherHeader, shortIds(otherHeader, transactions.get(0)), missing);
+		assertEquals(transactions.get(0), matched.get(0));
+		assertTrue(missing.isEmpty());
+	}
+	
+	@Test
+	public void testEviction() {
+		RecentTransactions recent = new RecentTransactions(2);
+		for(Transaction transaction : transactions){
+			recent.add(transaction);
+		}
+		assertEquals(2, recent.size());
+		assertFalse(recent.contains(transactions.get(0)));
+		assertFalse(recent.contains(transactions.get(1)));
+		assertTrue(recent.contains(transactions.get(3)));
+		assertTrue(recent.contains(nullTransaction));
+	}
+
+}
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.thickNode.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.dht.implementations.DefaultDhtID;
+
+public class RelayFilterTest {
+	
+	ArrayList<Transaction> transactions;
+	
+	@Before
+	public void setUp() throws Exception {
+		Transaction nullTransaction = DefaultTransaction.getNullTransaction();
+		transactions = new ArrayList<Transaction>();
+		for(long nonce = 1; nonce <= 4; nonce++){
+			transactions.add(new DefaultTransaction((DefaultDhtID) nullTransaction.getDhtID(), nonce, 5L, nullTransaction.getPublicKey(), 1));
+		}
+	}
+
+	@Test
+	public void testAddOnlyOnce() {
+		RelayFilter filter = new RelayFilter();
+		for(Transaction transaction : transactions){
+			assertTrue(filter.add(transaction));
+		}
+		for(Transaction transaction : transactions){
+			assertFalse(filter.add(transaction));
+			assertTrue(filter.contains(transaction));
+		}
+		assertEquals(transactions.size(), filter.size());
+	}
+	
+	@Test
+	public void testLeastRecentlySeenAreForgotten() {
+		RelayFilter filter = new RelayFilter(3);
+		filter.add(transactions.get(0));
+		filter.add(transactions.get(1));
+		filter.add(transactions.get(2));
+		// seen again: the least recently seen is now the second one.
+		assertFalse(filter.add(transactions.get(0)));
+		filter.add(transactions.get(3));
+		assertEquals(3, filter.size());
+		assertTrue(filter.contains(transactions.get(0)));
+		assertFalse(filter.contains(transactions.get(1)));
+		assertTrue(filter.contains(transactions.get(2)));
+		assertTrue(filter.contains(transactions.get(3)));
+	}
+
+}
@@ -0,0 +1,270 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.services.thickNode.implementations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage.Type;
+import raw.concurrent.RAWExecutors;
+
+public class UpdatingChainSessionTest {
+	
+	/**
+	 * The fake node sends at most this number of blocks per range request.
+	 */
+	private static final int BLOCKS_PER_REPLY = 3;
+	
+	ExecutorService pool;
+	ServerSocket fakeNode;
+	ArrayList<Block> fakeChain;
+	AtomicInteger rangeRequests;
+	AtomicInteger blockRequests;
+	volatile boolean legacyNode;
+	
+	@Before
+	public void setUp() throws Exception {
+		pool = RAWExecutors.newCachedThreadPool();
+		
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		transactions.add(DefaultTransaction.getNullTransaction());
+		fakeChain = new ArrayList<Block>();
+		HashValue previous = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		for(long i = 0; i < 10; i++){
+			Builder builder = new Builder();
+			builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+			setBlockNumber(i).
+			setDifficulty(new BigDecimal(1)).
+			setMerkleRoot(previous).
+			setNonce(1).
+			setPrevBlockHash(previous).
+			setTimestamp(1000L * i).
+			setMinerSignature("Test signature");
+			Block block = new DefaultBlock(builder.build(), transactions);
+			fakeChain.add(block);
+			previous = block.getHeader().hash();
+		}
+		
+		rangeRequests = new AtomicInteger(0);
+		blockRequests = new AtomicInteger(0);
+		legacyNode = false;
+		fakeNode = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		pool.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				while(!fakeNode.isClosed()){
+					try (Socket sock = fakeNode.accept()) {
+						serve(sock);
+					} catch (IOException | ClassNotFoundException e) {
+						// the fake node was closed.
+					}
+				}
+				return null;
+			}
+		});
+	}
+	
+	private void serve(Socket sock) throws IOException, ClassNotFoundException {
+		if(legacyNode){
+			serveLegacy(sock);
+			return;
+		}
+		MessageChannel channel = MessageChannel.accept(sock);
+		UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) channel.readMessage();
+		while(request.getMessageType() != Type.DONE_BYE){
+			if(request.getMessageType() == Type.BLOCK_REQUEST){
+				blockRequests.incrementAndGet();
+				Block block = request.getBlockNumber() < fakeChain.size() ? fakeChain.get((int) request.getBlockNumber()) : null;
+				channel.writeMessage(new UpdatingChainBlockRequestMessage(block));
+			} else {
+				rangeRequests.incrementAndGet();
+				long last = request.getBlockNumber() - 1;
+				for(long i = request.getBlockNumber(); i <= request.getToBlockNumber() && i < fakeChain.size() && i - request.getBlockNumber() < BLOCKS_PER_REPLY; i++){
+					channel.writeMessage(new UpdatingChainBlockRequestMessage(fakeChain.get((int) i)));
+					last = i;
+				}
+				channel.writeMessage(UpdatingChainBlockRequestMessage.rangeEnd(last));
+			}
+			request = (UpdatingChainBlockRequestMessage) channel.readMessage();
+		}
+	}
+	
+	/**
+	 * As a node predating range requests (and the framed protocol): one block per request,
+	 * dropping the connection when asked for a block it does not have.
+	 */
+	private void serveLegacy(Socket sock) throws IOException, ClassNotFoundException {
+		ObjectInputStream ois = new ObjectInputStream(sock.getInputStream());
+		ObjectOutputStream oos = new ObjectOutputStream(sock.getOutputStream());
+		UpdatingChainBlockRequestMessage request = (UpdatingChainBlockRequestMessage) ois.readObject();
+		while(request.getMessageType() != Type.DONE_BYE){
+			if(request.getMessageType() != Type.BLOCK_REQUEST){
+				rangeRequests.incrementAndGet();
+				return;
+			}
+			blockRequests.incrementAndGet();
+			if(request.getBlockNumber() >= fakeChain.size()){
+				return;
+			}
+			oos.writeObject(new UpdatingChainBlockRequestMessage(fakeChain.get((int) request.getBlockNumber())));
+			oos.flush();
+			request = (UpdatingChainBlockRequestMessage) ois.readObject();
+		}
+	}
+	
+	@After
+	public void tearDown() throws Exception {
+		fakeNode.close();
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void testRequestRange() throws Exception {
+		UpdatingChainSession session = new UpdatingChainSession(new InetSocketAddress(fakeNode.getInetAddress(), fakeNode.getLocalPort()));
+		try {
+			assertTrue(session.supportsRanges());
+			ArrayList<Block> range = session.requestRange(2, 8);
+			assertEquals(fakeChain.subList(2, 9), range);
+			// 7 blocks, 3 per reply.
+			assertEquals(3, rangeRequests.get());
+			
+			// same session, range going beyond the fake chain.
+			range = session.requestRange(7, 20);
+			assertEquals(fakeChain.subList(7, 10), range);
+			
+			assertEquals(fakeChain.get(4), session.requestBlock(4));
+			assertNull(session.requestBlock(42));
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testRequestRangeFromLegacyNode() throws Exception {
+		legacyNode = true;
+		UpdatingChainSession session = new UpdatingChainSession(new InetSocketAddress(fakeNode.getInetAddress(), fakeNode.getLocalPort()));
+		try {
+			assertFalse(session.supportsRanges());
+			ArrayList<Block> range = session.requestRange(2, 5);
+			assertEquals(fakeChain.subList(2, 6), range);
+			assertEquals(0, rangeRequests.get());
+			assertEquals(4, blockRequests.get());
+			
+			// the legacy node drops the connection after the last block it has.
+			range = session.requestRange(8, 20);
+			assertEquals(fakeChain.subList(8, 10), range);
+		} finally {
+			session.close();
+		}
+	}
+
+	@Test
+	public void testForkPointAtBlockOne() throws Exception {
+		assertForkPoint(1, 32);
+	}
+
+	@Test
+	public void testDeepForkPoint() throws Exception {
+		// many range requests, the last one stopping at the genesis block.
+		assertForkPoint(0, 2);
+		assertForkPoint(4, 2);
+		assertForkPoint(7, 3);
+	}
+
+	@Test
+	public void testNoForkPoint() throws Exception {
+		ArrayList<Block> localChain = forkedChain(-1);
+		ArrayList<Block> differing = new ArrayList<Block>();
+		UpdatingChainSession session = new UpdatingChainSession(new InetSocketAddress(fakeNode.getInetAddress(), fakeNode.getLocalPort()));
+		try {
+			assertEquals(-1, session.searchForkPoint(8, 4, blockNumber -> localChain.get((int) blockNumber), differing));
+		} finally {
+			session.close();
+		}
+		assertEquals(fakeChain.subList(0, 9), sorted(differing));
+	}
+
+	private void assertForkPoint(long forkPoint, int rangeLength) throws Exception {
+		ArrayList<Block> localChain = forkedChain(forkPoint);
+		ArrayList<Block> differing = new ArrayList<Block>();
+		UpdatingChainSession session = new UpdatingChainSession(new InetSocketAddress(fakeNode.getInetAddress(), fakeNode.getLocalPort()));
+		try {
+			assertEquals(forkPoint, session.searchForkPoint(8, rangeLength, blockNumber -> localChain.get((int) blockNumber), differing));
+		} finally {
+			session.close();
+		}
+		// the common block is not part of the new branch, which starts right after it.
+		assertEquals(fakeChain.subList((int) forkPoint + 1, 9), sorted(differing));
+	}
+
+	/**
+	 * @return a copy of the fake chain whose blocks after <tt>forkPoint</tt> were mined by someone else
+	 */
+	private ArrayList<Block> forkedChain(long forkPoint) throws Exception {
+		ArrayList<Block> chain = new ArrayList<Block>(fakeChain.subList(0, (int) forkPoint + 1));
+		HashValue previous = forkPoint >= 0 ? chain.get((int) forkPoint).getHeader().hash() : DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		for(long i = forkPoint + 1; i < fakeChain.size(); i++){
+			Builder builder = new Builder();
+			builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+			setBlockNumber(i).
+			setDifficulty(new BigDecimal(1)).
+			setMerkleRoot(previous).
+			setNonce(2).
+			setPrevBlockHash(previous).
+			setTimestamp(1000L * i + 1).
+			setMinerSignature("Forked signature");
+			Block block = new DefaultBlock(builder.build(), fakeChain.get(0).getTransactions());
+			chain.add(block);
+			previous = block.getHeader().hash();
+		}
+		return chain;
+	}
+
+	private ArrayList<Block> sorted(ArrayList<Block> blocks) {
+		Collections.sort(blocks, (first, second) -> Long.compare(first.getHeader().getBlockNumber(), second.getHeader().getBlockNumber()));
+		return blocks;
+	}
+
+}
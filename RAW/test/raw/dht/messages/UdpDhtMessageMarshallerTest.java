@@ -185,4 +185,29 @@ public class UdpDhtMessageMarshallerTest {
 		assertTrue("Second compare of nodes set failing!", deserialized.getReplyNodes().containsAll(reply.getReplyNodes()));		
 	}
 
+	@Test
+	public void testTransactionVersions() throws Exception {
+		UdpDhtMessageMarshaller marshaller = UdpDhtMessageMarshaller.getMarshaller();
+		KeyPair keyPair = DhtSigningUtils.getSignKeyPair();
+		DhtNodeExtended original = moreNodes.get(0);
+		for(int version = 1; version <= DefaultTransaction.CURRENT_VERSION; version++){
+			Transaction transaction = new DefaultTransaction(original.getTransaction().getDhtID(), original.getTransaction().getTransactionNonce(), original.getTransaction().getCreationSeedNumber(), keyPair.getPublic(), version);
+			DhtNodeExtended node = new DefaultDhtNodeExtended(original.getID(), original.getAddress(), keyPair.getPublic(), transaction, original.getTransactionBlockNumber());
+			byte[] signature = DhtSigningUtils.signDhtAddress(original.getAddress(), keyPair.getPrivate());
+			
+			DatagramPacket datagram = marshaller.messageToDatagram(new PingMessage(false, node, signature));
+			datagram.setSocketAddress(address);
+			PingMessage deserialized = (PingMessage) marshaller.datagramToMessage(datagram);
+			assertEquals("Wrong transaction version!", version, deserialized.getSender().getTransaction().getVersion());
+			
+			ArrayList<DhtNodeExtended> replyNodes = new ArrayList<DhtNodeExtended>();
+			replyNodes.add(node);
+			datagram = marshaller.messageToDatagram(new FindNodeMessage(node, nodes.get(2).getID(), replyNodes));
+			datagram.setSocketAddress(address);
+			FindNodeMessage deserializedReply = (FindNodeMessage) marshaller.datagramToMessage(datagram);
+			assertEquals("Wrong transaction version!", version, deserializedReply.getSender().getTransaction().getVersion());
+			assertEquals("Wrong transaction version!", version, deserializedReply.getReplyNodes().iterator().next().getTransaction().getVersion());
+		}
+	}
+
 }
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.implementations.DefaultHashValue;
+import raw.blockChain.api.implementations.DefaultHasher;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Compare the bytes allocated (and the time spent) hashing pairs of hashes
+ * as done while building merkle trees: "legacy" reproduces the
+ * former {@link DefaultHasher} (a new hasher per call, a {@link ByteArrayOutputStream}
+ * per pair and two intermediate arrays per digest), "hashHashes" is the
+ * current {@link Hasher#hashHashes(HashValue...)} on the shared instance and
+ * "in place" is {@link Hasher#hashHashes(byte[], int, byte[], int, byte[], int)}
+ * writing in a reused buffer.
+ * Run it as a plain java application on a HotSpot JVM: the optional argument
+ * is the number of pairs hashed in every measured round.
+ *
+ * @author vic
+ *
+ */
+public class HashingAllocationBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws IOException {
+		int pairs = 200000;
+		if(args.length > 0){
+			pairs = Integer.parseInt(args[0]);
+		}
+
+		byte[] left = new byte[64];
+		byte[] right = new byte[64];
+		new Random().nextBytes(left);
+		new Random().nextBytes(right);
+		HashValue leftHash = new DefaultHashValue(left);
+		HashValue rightHash = new DefaultHashValue(right);
+
+		for(int round = 0; round < ROUNDS; round++){
+			long allocated = allocatedBytes();
+			long start = System.nanoTime();
+			for(int i = 0; i < pairs; i++){
+				legacyHashHashes(leftHash, rightHash);
+			}
+			print("legacy     ", round, pairs, System.nanoTime() - start, allocatedBytes() - allocated);
+
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			for(int i = 0; i < pairs; i++){
+				DefaultHasher.getHasher().hashHashes(leftHash, rightHash);
+			}
+			print("hashHashes ", round, pairs, System.nanoTime() - start, allocatedBytes() - allocated);
+
+			byte[] output = new byte[64];
+			allocated = allocatedBytes();
+			start = System.nanoTime();
+			for(int i = 0; i < pairs; i++){
+				DefaultHasher.getHasher().hashHashes(left, 0, right, 0, output, 0);
+			}
+			print("in place   ", round, pairs, System.nanoTime() - start, allocatedBytes() - allocated);
+		}
+	}
+
+	private static HashValue legacyHashHashes(HashValue first, HashValue second) throws IOException{
+		HashFunction digester = Hashing.sha512();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(first.toByteArray());
+		baos.write(second.toByteArray());
+		byte[] digest = digester.hashBytes(baos.toByteArray()).asBytes();
+		return new DefaultHashValue(digester.hashBytes(digest).asBytes());
+	}
+
+	private static long allocatedBytes(){
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static void print(String name, int round, int pairs, long nanos, long bytes){
+		System.out.println("Round "+round+" "+name+": "+(nanos / pairs)+" ns/pair, "+(bytes / pairs)+" bytes/pair");
+	}
+
+}
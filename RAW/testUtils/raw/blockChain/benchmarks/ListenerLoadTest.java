@@ -0,0 +1,177 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import raw.blockChain.services.messages.MessageChannel;
+import raw.blockChain.services.messages.SelectorListener;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+import raw.concurrent.RAWExecutors;
+
+/**
+ * Open thousands of concurrent persistent connections to a listener and
+ * exchange some requests over each of them, reporting the time spent, the
+ * failed exchanges and the peak number of threads of the process.
+ * "selector" serves the connections with a {@link SelectorListener}, "blocking"
+ * as the default thick node listener does (a thread per connection).
+ * Run it as a plain java application: the optional arguments are the listener
+ * ("selector" or "blocking"), the number of connections and the number of
+ * requests sent over each of them. Mind the limit on open files.
+ *
+ * @author vic
+ *
+ */
+public class ListenerLoadTest {
+
+	private static final int CLIENT_THREADS = 16;
+	private static final int SELECTOR_THREADS = 2;
+	private static final int WORKER_THREADS = 16;
+
+	public static void main(String[] args) throws Exception {
+		String mode = args.length > 0 ? args[0] : "selector";
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+		int requests = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		ExecutorService serverPool = RAWExecutors.newCachedThreadPool();
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), connections);
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), serverChannel.socket().getLocalPort());
+		final SelectorListener.MessageHandler handler = new SelectorListener.MessageHandler() {
+			@Override
+			public boolean serve(Object message, MessageChannel channel) {
+				try {
+					channel.writeMessage(new UpdatingChainBlockRequestMessage(((UpdatingChainBlockRequestMessage) message).getBlockNumber() + 1));
+					return true;
+				} catch (IOException e) {
+					return false;
+				}
+			}
+		};
+		SelectorListener listener = null;
+		ExecutorService workers = null;
+		if(mode.equals("selector")){
+			workers = RAWExecutors.newBoundedThreadPool(WORKER_THREADS, connections);
+			listener = new SelectorListener(serverChannel, handler, SELECTOR_THREADS, workers);
+			serverPool.submit(listener);
+		} else {
+			final ServerSocket server = serverChannel.socket();
+			final ExecutorService perConnection = serverPool;
+			serverPool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					while(!server.isClosed()){
+						final Socket sock;
+						try {
+							sock = server.accept();
+						} catch (IOException e) {
+							// the test is over.
+							return null;
+						}
+						perConnection.submit(new Callable<Void>() {
+							@Override
+							public Void call() throws Exception {
+								try (MessageChannel channel = MessageChannel.accept(sock)) {
+									while(handler.serve(channel.readMessage(), channel));
+								} catch (IOException e) {
+									// the client is done.
+								}
+								return null;
+							}
+						});
+					}
+					return null;
+				}
+			});
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		threads.resetPeakThreadCount();
+		long start = System.nanoTime();
+		List<MessageChannel> channels = new ArrayList<MessageChannel>();
+		for(int i = 0; i < connections; i++){
+			channels.add(MessageChannel.connect(address));
+		}
+		long connected = System.nanoTime();
+		System.out.println(mode+": "+connections+" connections opened in "+((connected - start) / 1000000)+" ms");
+
+		ExecutorService clients = RAWExecutors.newCachedThreadPool();
+		final AtomicInteger failures = new AtomicInteger();
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		int slice = (connections + CLIENT_THREADS - 1) / CLIENT_THREADS;
+		for(int t = 0; t < CLIENT_THREADS; t++){
+			final List<MessageChannel> mine = channels.subList(Math.min(t * slice, connections), Math.min((t + 1) * slice, connections));
+			final int rounds = requests;
+			done.add(clients.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					for(int round = 0; round < rounds; round++){
+						// every connection has a request in flight before the replies are read.
+						for(MessageChannel channel : mine){
+							try {
+								channel.writeMessage(new UpdatingChainBlockRequestMessage(round));
+							} catch (IOException e) {
+								failures.incrementAndGet();
+							}
+						}
+						for(MessageChannel channel : mine){
+							try {
+								if(((UpdatingChainBlockRequestMessage) channel.readMessage()).getBlockNumber() != round + 1){
+									failures.incrementAndGet();
+								}
+							} catch (IOException e) {
+								failures.incrementAndGet();
+							}
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for(Future<?> future : done){
+			future.get();
+		}
+		long end = System.nanoTime();
+		System.out.println(mode+": "+((long) connections * requests)+" requests in "+((end - connected) / 1000000)+" ms ("
+				+(((long) connections * requests) * 1000000000L / (end - connected))+" requests/s), "+failures.get()+" failed");
+		System.out.println(mode+": peak threads "+threads.getPeakThreadCount()+(listener != null ? ", open connections "+listener.getOpenConnections() : ""));
+
+		for(MessageChannel channel : channels){
+			channel.close();
+		}
+		clients.shutdownNow();
+		if(listener != null){
+			listener.close();
+			workers.shutdownNow();
+		}
+		serverChannel.close();
+		serverPool.shutdownNow();
+	}
+
+}
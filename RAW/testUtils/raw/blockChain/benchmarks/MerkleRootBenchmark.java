@@ -0,0 +1,115 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Random;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.dht.DhtHasher;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.utils.DhtSigningUtils;
+
+/**
+ * Measure the computation of the merkle root of a block of transactions
+ * serialized with java serialization (version 1 transactions) and with
+ * the binary encoding (current version transactions).
+ * Transactions are copied before every "cold" measurement, as their hashes
+ * are cached once computed: the "warm" measurement builds another tree
+ * over the very same (already hashed) transactions.
+ * Run it as a plain java application: the optional argument is the number
+ * of transactions in the block (10000 by default).
+ *
+ * @author vic
+ *
+ */
+public class MerkleRootBenchmark {
+
+	private static final int ROUNDS = 5;
+	private static final int KEYS = 16;
+
+	public static void main(String[] args) {
+		int transactionsNumber = 10000;
+		if(args.length > 0){
+			transactionsNumber = Integer.parseInt(args[0]);
+		}
+
+		// generating RSA keys is slow: a few are shared among transactions.
+		PublicKey[] keys = new PublicKey[KEYS];
+		for(int i = 0; i < KEYS; i++){
+			keys[i] = DhtSigningUtils.getSignKeyPair().getPublic();
+		}
+
+		Random rand = new Random();
+		DhtHasher dhtHasher = new DefaultDhtHasher();
+		ArrayList<Transaction> legacy = new ArrayList<Transaction>();
+		ArrayList<Transaction> binary = new ArrayList<Transaction>();
+		for(int i = 0; i < transactionsNumber; i++){
+			byte[] plainID = new byte[64];
+			rand.nextBytes(plainID);
+			long nonce = rand.nextLong();
+			long seed = rand.nextInt(100000);
+			PublicKey key = keys[i % KEYS];
+			legacy.add(new DefaultTransaction(dhtHasher.hashBytes(plainID), nonce, seed, key, 1));
+			binary.add(new DefaultTransaction(dhtHasher.hashBytes(plainID), nonce, seed, key, DefaultTransaction.CURRENT_VERSION));
+		}
+
+		try {
+			System.out.println("Bytes per transaction: version 1 = "+legacy.get(0).getBytes().length+
+					", version "+DefaultTransaction.CURRENT_VERSION+" = "+binary.get(0).getBytes().length);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+
+		for(int round = 0; round < ROUNDS; round++){
+			long legacyNanos = time(copy(legacy));
+			ArrayList<Transaction> binaryCopy = copy(binary);
+			long binaryNanos = time(binaryCopy);
+			long warmNanos = time(binaryCopy);
+			System.out.println("Round "+round+" ("+transactionsNumber+" transactions): version 1 = "+
+					(legacyNanos / 1000000)+" ms, version "+DefaultTransaction.CURRENT_VERSION+" = "+
+					(binaryNanos / 1000000)+" ms, "+String.format("%.1f", ((double) legacyNanos) / binaryNanos)+
+					"x, warm = "+(warmNanos / 1000000)+" ms");
+		}
+	}
+
+	private static ArrayList<Transaction> copy(ArrayList<Transaction> transactions){
+		ArrayList<Transaction> copy = new ArrayList<Transaction>(transactions.size());
+		for(Transaction transaction : transactions){
+			copy.add(new DefaultTransaction(transaction.getDhtID(), transaction.getTransactionNonce(),
+					transaction.getCreationSeedNumber(), transaction.getPublicKey(), transaction.getVersion()));
+		}
+		return copy;
+	}
+
+	private static long time(ArrayList<Transaction> transactions){
+		// a fresh merkler each time: cached trees must not be reused.
+		DefaultMerkler merkler = new DefaultMerkler(1);
+		long start = System.nanoTime();
+		HashValue root = merkler.getMerkleRoot(transactions);
+		long elapsed = System.nanoTime() - start;
+		if(root == null){
+			throw new IllegalStateException("No merkle root computed.");
+		}
+		return elapsed;
+	}
+
+}
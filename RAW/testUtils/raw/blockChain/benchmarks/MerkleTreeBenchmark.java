@@ -0,0 +1,130 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.math.BigDecimal;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Random;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Merkler;
+import raw.blockChain.api.Merkler.IntermediateValues;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.dht.DhtHasher;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.utils.DhtSigningUtils;
+
+/**
+ * Measure time and retained memory of the merkle trees built by
+ * {@link DefaultMerkler} and the time needed to extract a compact
+ * representation (a merkle proof) from them.
+ * Run it as a plain java application: the optional arguments are the
+ * numbers of transactions to be tested (1000, 10000 and 100000 by default).
+ * Memory figures are estimates taken from {@link Runtime} after a gc.
+ *
+ * @author vic
+ *
+ */
+public class MerkleTreeBenchmark {
+
+	private static final int ROUNDS = 3;
+	private static final int KEYS = 16;
+	private static final int PROOFS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		int[] sizes = {1000, 10000, 100000};
+		if(args.length > 0){
+			sizes = new int[args.length];
+			for(int i = 0; i < args.length; i++){
+				sizes[i] = Integer.parseInt(args[i]);
+			}
+		}
+
+		PublicKey[] keys = new PublicKey[KEYS];
+		for(int i = 0; i < KEYS; i++){
+			keys[i] = DhtSigningUtils.getSignKeyPair().getPublic();
+		}
+
+		for(int size : sizes){
+			for(int round = 0; round < ROUNDS; round++){
+				measure(generate(size, keys), round);
+			}
+		}
+	}
+
+	private static void measure(ArrayList<Transaction> transactions, int round) throws Exception {
+		Random rand = new Random();
+		Merkler merkler = new DefaultMerkler(1);
+
+		long before = usedMemory();
+		long start = System.nanoTime();
+		HashValue root = merkler.getMerkleRoot(transactions);
+		long buildNanos = System.nanoTime() - start;
+		// the tree is retained by the merkler cache.
+		long retained = usedMemory() - before;
+
+		Builder builder = new Builder();
+		builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setBlockNumber(42).
+		setDifficulty(new BigDecimal(42)).
+		setNonce(42).
+		setPrevBlockHash(root).
+		setTimestamp(42L).
+		setMerkleRoot(root).
+		setMinerSignature("benchmark");
+		Block block = new DefaultBlock(builder.build(), transactions);
+
+		start = System.nanoTime();
+		for(int i = 0; i < PROOFS; i++){
+			Transaction transaction = transactions.get(rand.nextInt(transactions.size()));
+			IntermediateValues proof = merkler.getIntermediateValues(transaction, block);
+			if(proof.getBaseTransaction() == null){
+				throw new IllegalStateException("No proof computed.");
+			}
+		}
+		long proofNanos = (System.nanoTime() - start) / PROOFS;
+
+		System.out.println(transactions.size()+" transactions, round "+round+": tree built in "+(buildNanos / 1000000)+
+				" ms, ~"+(retained / 1024)+" KiB retained, "+(proofNanos / 1000)+" us per proof");
+	}
+
+	private static ArrayList<Transaction> generate(int size, PublicKey[] keys){
+		Random rand = new Random();
+		DhtHasher dhtHasher = new DefaultDhtHasher();
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>(size);
+		for(int i = 0; i < size; i++){
+			byte[] plainID = new byte[64];
+			rand.nextBytes(plainID);
+			transactions.add(new DefaultTransaction(dhtHasher.hashBytes(plainID), rand.nextLong(), rand.nextInt(100000), keys[i % KEYS]));
+		}
+		return transactions;
+	}
+
+	private static long usedMemory(){
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 3; i++){
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.math.BigDecimal;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.implementations.BlockHeaderTemplate;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultHasher;
+
+/**
+ * Compare the hash rate of the old nonce loop (building a new header
+ * and hashing it for every nonce) with the one of {@link BlockHeaderTemplate}.
+ * Run it as a plain java application: the optional argument is the number
+ * of nonces tried in every measured round.
+ *
+ * @author vic
+ *
+ */
+public class MinerHashRateBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int nonces = 500000;
+		if(args.length > 0){
+			nonces = Integer.parseInt(args[0]);
+		}
+
+		Hasher hasher = new DefaultHasher();
+
+		Builder builder = new Builder();
+		builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setPrevBlockHash(hasher.hashBytes("previous".getBytes())).
+		setMerkleRoot(hasher.hashBytes("root".getBytes())).
+		setBlockNumber(42L).
+		setTimestamp(System.currentTimeMillis()).
+		setDifficulty(new BigDecimal("424242.4242")).
+		setMinerSignature("Benchmark signature");
+
+		for(int round = 0; round < ROUNDS; round++){
+			long start = System.nanoTime();
+			long sink = 0;
+			for(int nonce = 0; nonce < nonces; nonce++){
+				builder.setNonce(nonce);
+				HashValue hash = hasher.hashBlockHeader(builder.build());
+				sink += hash.toByteArray()[0];
+			}
+			long builderNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			BlockHeaderTemplate template = new BlockHeaderTemplate(builder);
+			for(int nonce = 0; nonce < nonces; nonce++){
+				sink += template.hashWithNonce(nonce)[0];
+			}
+			long templateNanos = System.nanoTime() - start;
+
+			System.out.println("Round "+round+" ("+sink+")"+
+					": builder = "+hashRate(nonces, builderNanos)+" H/s"+
+					", template = "+hashRate(nonces, templateNanos)+" H/s"+
+					", speedup = "+String.format("%.2f", ((double) builderNanos) / templateNanos)+"x");
+		}
+	}
+
+	private static long hashRate(int hashes, long nanos){
+		return (long) (hashes / (nanos / 1e9));
+	}
+
+}
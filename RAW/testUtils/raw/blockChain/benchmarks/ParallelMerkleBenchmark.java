@@ -0,0 +1,115 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultMerkler;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.concurrent.RAWExecutors;
+import raw.dht.DhtHasher;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.utils.DhtSigningUtils;
+
+/**
+ * Measure how the computation of a merkle root (as done while validating
+ * a block) scales with the number of threads of the {@link ForkJoinPool}
+ * used by {@link DefaultMerkler}: 1, 2, 4... up to the available processors.
+ * Run it as a plain java application: the optional arguments are the
+ * number of transactions (50000 by default), the parallel threshold
+ * (4096 by default) and the maximum parallelism to be tested.
+ *
+ * @author vic
+ *
+ */
+public class ParallelMerkleBenchmark {
+
+	private static final int ROUNDS = 5;
+	private static final int KEYS = 16;
+
+	public static void main(String[] args) {
+		int transactionsNumber = 50000;
+		int threshold = 4096;
+		int maxParallelism = Runtime.getRuntime().availableProcessors();
+		if(args.length > 0){
+			transactionsNumber = Integer.parseInt(args[0]);
+		}
+		if(args.length > 1){
+			threshold = Integer.parseInt(args[1]);
+		}
+		if(args.length > 2){
+			maxParallelism = Integer.parseInt(args[2]);
+		}
+
+		PublicKey[] keys = new PublicKey[KEYS];
+		for(int i = 0; i < KEYS; i++){
+			keys[i] = DhtSigningUtils.getSignKeyPair().getPublic();
+		}
+		Random rand = new Random();
+		DhtHasher dhtHasher = new DefaultDhtHasher();
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>(transactionsNumber);
+		for(int i = 0; i < transactionsNumber; i++){
+			byte[] plainID = new byte[64];
+			rand.nextBytes(plainID);
+			transactions.add(new DefaultTransaction(dhtHasher.hashBytes(plainID), rand.nextLong(), rand.nextInt(100000), keys[i % KEYS]));
+		}
+
+		System.out.println(transactionsNumber+" transactions, threshold "+threshold+", "+
+				Runtime.getRuntime().availableProcessors()+" available processors");
+		HashValue expected = new DefaultMerkler(1, null, Integer.MAX_VALUE).getMerkleRoot(copy(transactions));
+		long sequential = best(transactions, null, threshold, expected);
+		System.out.println("sequential: "+(sequential / 1000000)+" ms");
+		for(int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2){
+			ForkJoinPool pool = RAWExecutors.newForkJoinPool(parallelism);
+			long nanos = best(transactions, pool, threshold, expected);
+			pool.shutdown();
+			System.out.println(parallelism+" threads: "+(nanos / 1000000)+" ms, speedup "+
+					String.format("%.2f", ((double) sequential) / nanos)+"x");
+		}
+	}
+
+	private static long best(ArrayList<Transaction> transactions, ForkJoinPool pool, int threshold, HashValue expected){
+		long best = Long.MAX_VALUE;
+		for(int round = 0; round < ROUNDS; round++){
+			// copies are not hashed yet: transactions cache their hash.
+			ArrayList<Transaction> copy = copy(transactions);
+			DefaultMerkler merkler = new DefaultMerkler(1, pool, threshold);
+			long start = System.nanoTime();
+			HashValue root = merkler.getMerkleRoot(copy);
+			long elapsed = System.nanoTime() - start;
+			if(!expected.equals(root)){
+				throw new IllegalStateException("Parallel and sequential roots differ!");
+			}
+			best = Math.min(best, elapsed);
+		}
+		return best;
+	}
+
+	private static ArrayList<Transaction> copy(ArrayList<Transaction> transactions){
+		ArrayList<Transaction> copy = new ArrayList<Transaction>(transactions.size());
+		for(Transaction transaction : transactions){
+			copy.add(new DefaultTransaction(transaction.getDhtID(), transaction.getTransactionNonce(),
+					transaction.getCreationSeedNumber(), transaction.getPublicKey(), transaction.getVersion()));
+		}
+		return copy;
+	}
+
+}
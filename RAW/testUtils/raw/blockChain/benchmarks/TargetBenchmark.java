@@ -0,0 +1,96 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.implementations.DefaultHashValue;
+import raw.blockChain.api.implementations.Target;
+import raw.blockChain.api.implementations.utils.BlockUtils;
+
+/**
+ * Compare the cost of a proof of work check done with
+ * {@link HashValue#maskWith(HashValue)} and equals with the one of
+ * {@link Target#meets(byte[])}. The "mining" case uses random hashes
+ * (almost never meeting the target), the "validation" case uses
+ * hashes meeting it (the whole mask has to be checked).
+ * Run it as a plain java application: the optional argument is the number
+ * of checks in every measured round.
+ *
+ * @author vic
+ *
+ */
+public class TargetBenchmark {
+
+	private static final int ROUNDS = 5;
+	private static final int HASHES = 1024;
+
+	public static void main(String[] args) {
+		int checks = 5000000;
+		if(args.length > 0){
+			checks = Integer.parseInt(args[0]);
+		}
+
+		HashValue mask = BlockUtils.targetMaskFromDifficulty(new BigDecimal(1));
+		Target target = BlockUtils.targetFromDifficulty(new BigDecimal(1));
+
+		Random rand = new Random();
+		HashValue[] mining = new HashValue[HASHES];
+		HashValue[] validation = new HashValue[HASHES];
+		for(int i = 0; i < HASHES; i++){
+			byte[] hash = new byte[64];
+			rand.nextBytes(hash);
+			mining[i] = new DefaultHashValue(hash);
+			byte[] valid = hash.clone();
+			valid[0] = 0;
+			valid[1] = 0;
+			valid[2] = 0;
+			validation[i] = new DefaultHashValue(valid);
+		}
+
+		for(int round = 0; round < ROUNDS; round++){
+			System.out.println("Round "+round+
+					": mining "+compare(mining, mask, target, checks)+
+					" / validation "+compare(validation, mask, target, checks));
+		}
+	}
+
+	private static String compare(HashValue[] hashes, HashValue mask, Target target, int checks){
+		int sink = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < checks; i++){
+			HashValue hash = hashes[i % HASHES];
+			if(hash.equals(hash.maskWith(mask))){
+				sink++;
+			}
+		}
+		long maskNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for(int i = 0; i < checks; i++){
+			if(target.meets(hashes[i % HASHES].toByteArray())){
+				sink--;
+			}
+		}
+		long targetNanos = System.nanoTime() - start;
+
+		return "(maskWith = "+(maskNanos / checks)+" ns/op, Target = "+(targetNanos / checks)+" ns/op, "+
+				String.format("%.1f", ((double) maskNanos) / targetNanos)+"x, check "+sink+")";
+	}
+
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.Hasher;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlockHeader.Builder;
+import raw.blockChain.api.implementations.DefaultBlockMinerTask;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.MiningTemplate;
+import raw.blockChain.api.implementations.MiningTemplateSlot;
+import raw.concurrent.RAWExecutors;
+import raw.dht.implementations.DefaultDhtHasher;
+import raw.dht.implementations.DefaultDhtID;
+
+/**
+ * Compare the latency of moving the mining workers to a new template by
+ * halting and resubmitting them with the one of a {@link MiningTemplateSlot}
+ * update. Latency is measured from the creation of the new template to its
+ * adoption by the last worker. Run it as a plain java application: the optional
+ * arguments are the number of workers and the number of transactions.
+ *
+ * @author vic
+ *
+ */
+public class TemplateSwitchBenchmark {
+
+	private static final int ROUNDS = 10;
+
+	public static void main(String[] args) throws Exception {
+		int workers = Runtime.getRuntime().availableProcessors();
+		int transactionsNumber = 1000;
+		if(args.length > 0){
+			workers = Integer.parseInt(args[0]);
+		}
+		if(args.length > 1){
+			transactionsNumber = Integer.parseInt(args[1]);
+		}
+
+		ExecutorService pool = RAWExecutors.newCachedThreadPool();
+		BlockHeader header = header();
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		for(int i = 0; i < transactionsNumber + ROUNDS; i++){
+			byte[] id = new byte[DefaultDhtHasher.getHasher().hashLength()];
+			id[0] = (byte) (i >>> 24);
+			id[1] = (byte) (i >>> 16);
+			id[2] = (byte) (i >>> 8);
+			id[3] = (byte) (i + 1);
+			transactions.add(new DefaultTransaction(new DefaultDhtID(id), i, 0, DefaultTransaction.getNullTransaction().getPublicKey()));
+		}
+
+		long restartNanos = 0;
+		for(int round = 0; round < ROUNDS; round++){
+			AtomicBoolean compute = new AtomicBoolean(true);
+			MiningTemplate template = new MiningTemplate(header, transactions.subList(0, transactionsNumber + round));
+			MiningTemplateSlot slot = new MiningTemplateSlot(template, workers, true);
+			ArrayList<DefaultBlockMinerTask> tasks = new ArrayList<DefaultBlockMinerTask>();
+			for(int i = 0; i < workers; i++){
+				DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, null, "Benchmark signature", i, workers, compute);
+				tasks.add(task);
+				pool.submit(task);
+			}
+			restartNanos += awaitAdoption(template, workers);
+			for(DefaultBlockMinerTask task : tasks){
+				task.stop();
+			}
+		}
+
+		AtomicBoolean compute = new AtomicBoolean(true);
+		MiningTemplateSlot slot = new MiningTemplateSlot(new MiningTemplate(header, transactions.subList(0, transactionsNumber)), workers, true);
+		ArrayList<DefaultBlockMinerTask> tasks = new ArrayList<DefaultBlockMinerTask>();
+		for(int i = 0; i < workers; i++){
+			DefaultBlockMinerTask task = new DefaultBlockMinerTask(slot, null, "Benchmark signature", i, workers, compute);
+			tasks.add(task);
+			pool.submit(task);
+		}
+		awaitAdoption(slot.get(), workers);
+		long switchNanos = 0;
+		for(int round = 0; round < ROUNDS; round++){
+			MiningTemplate template = new MiningTemplate(header, transactions.subList(0, transactionsNumber + round + 1));
+			slot.set(template);
+			switchNanos += awaitAdoption(template, workers);
+		}
+		for(DefaultBlockMinerTask task : tasks){
+			task.stop();
+		}
+		pool.shutdown();
+
+		System.out.println(workers+" workers, "+transactionsNumber+" transactions"+
+				": restart = "+(restartNanos / ROUNDS / 1000)+" us"+
+				", hot swap = "+(switchNanos / ROUNDS / 1000)+" us");
+	}
+
+	private static long awaitAdoption(MiningTemplate template, int workers){
+		while(template.getAdopters() < workers){
+			Thread.yield();
+		}
+		return System.nanoTime() - template.getCreationNanos();
+	}
+
+	private static BlockHeader header() throws Exception {
+		Hasher hasher = new DefaultHasher();
+		Builder builder = new Builder();
+		builder.setBlockChainName("RAW_STD_BLOCKCHAIN").
+		setPrevBlockHash(hasher.hashBytes("previous".getBytes())).
+		setMerkleRoot(hasher.hashBytes("root".getBytes())).
+		setBlockNumber(42L).
+		setTimestamp(System.currentTimeMillis()).
+		setDifficulty(new BigDecimal("1")).
+		setNonce(0).
+		setMinerSignature("Benchmark signature");
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+
+import raw.blockChain.api.Block;
+import raw.blockChain.api.BlockHeader;
+import raw.blockChain.api.HashValue;
+import raw.blockChain.api.Transaction;
+import raw.blockChain.api.implementations.DefaultBlock;
+import raw.blockChain.api.implementations.DefaultBlockCompactRepresentation;
+import raw.blockChain.api.implementations.DefaultBlockHeader;
+import raw.blockChain.api.implementations.DefaultHasher;
+import raw.blockChain.api.implementations.DefaultTransaction;
+import raw.blockChain.api.implementations.IncrementalMerkleTree;
+import raw.blockChain.services.messages.WireProtocol;
+import raw.blockChain.services.miner.messages.types.MinerAddressNotification;
+import raw.blockChain.services.miner.messages.types.SubmitTransactionMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockCompactRepresentationRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.BlockTransactionsRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.CommunicationMessage;
+import raw.blockChain.services.thickNode.messages.types.CommunicationMessage.Type;
+import raw.blockChain.services.thickNode.messages.types.CompactBlockNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.HeaderChainRequestMessage;
+import raw.blockChain.services.thickNode.messages.types.LastBlockHeaderNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.LastBlockNotificationMessage;
+import raw.blockChain.services.thickNode.messages.types.MinerNodeAddressMessage;
+import raw.blockChain.services.thickNode.messages.types.SubmitNewBlockMessage;
+import raw.blockChain.services.thickNode.messages.types.ThickNodeAddressMessage;
+import raw.blockChain.services.thickNode.messages.types.TransactionBlockNumberMessage;
+import raw.blockChain.services.thickNode.messages.types.UpdatingChainBlockRequestMessage;
+
+/**
+ * Compare, for every message family (block propagation, header chain,
+ * thin node and quorum queries, miners), the bytes on the wire and the
+ * time spent encoding and decoding them with "serialized" (a fresh
+ * {@link ObjectOutputStream} per message, as every legacy connection does)
+ * and "framed" ({@link WireProtocol} frames).
+ * Headers and transactions are of their current (binary encoded) versions,
+ * but for one legacy block, whose header and transactions are framed as serialized blobs.
+ * Run it as a plain java application: the optional argument is the number
+ * of messages encoded and decoded in every measured round.
+ *
+ * @author vic
+ *
+ */
+public class WireProtocolBenchmark {
+
+	private static final int ROUNDS = 5;
+
+	public static void main(String[] args) throws Exception {
+		int messages = 20000;
+		if(args.length > 0){
+			messages = Integer.parseInt(args[0]);
+		}
+
+		InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4242);
+		HashValue hash = DefaultHasher.getHasher().hashBytes(new byte[]{4, 2});
+		ArrayList<BlockHeader> headers = new ArrayList<BlockHeader>();
+		for(int i = 0; i < 16; i++){
+			headers.add(header(DefaultBlockHeader.CURRENT_VERSION, 7 + i, i == 0 ? hash : headers.get(i - 1).hash(), hash));
+		}
+		BlockHeader header = headers.get(0);
+		Transaction nullTransaction = DefaultTransaction.getNullTransaction();
+		ArrayList<Transaction> transactions = new ArrayList<Transaction>();
+		ArrayList<Transaction> legacyTransactions = new ArrayList<Transaction>();
+		for(int i = 0; i < 16; i++){
+			transactions.add(new DefaultTransaction(nullTransaction.getDhtID(), i, 0L, nullTransaction.getPublicKey(), DefaultTransaction.CURRENT_VERSION));
+			legacyTransactions.add(new DefaultTransaction(nullTransaction.getDhtID(), i, 0L, nullTransaction.getPublicKey(), DefaultTransaction.LEGACY_VERSION));
+		}
+		Block block = new DefaultBlock(header, transactions);
+		Block legacyBlock = new DefaultBlock(header(DefaultBlockHeader.FIXED_LAYOUT_VERSION - 1, 7, hash, hash), legacyTransactions);
+		Transaction transaction = transactions.get(0);
+		IncrementalMerkleTree tree = new IncrementalMerkleTree(transactions);
+		DefaultBlockCompactRepresentation compactBlock = new DefaultBlockCompactRepresentation(header, transaction, tree.getIntermediateValues(transaction, header.getBlockNumber()));
+
+		Object[] samples = new Object[]{
+				// block propagation
+				new LastBlockHeaderNotificationMessage(address, header),
+				new LastBlockNotificationMessage(address, block),
+				new LastBlockNotificationMessage(address, legacyBlock),
+				new CompactBlockNotificationMessage(address, block),
+				new BlockTransactionsRequestMessage(header.hash(), new int[]{1, 5, 9}),
+				new BlockTransactionsRequestMessage(header.hash(), transactions),
+				new UpdatingChainBlockRequestMessage(block),
+				// header chain
+				new HeaderChainRequestMessage(7, 16),
+				new HeaderChainRequestMessage(7, headers),
+				// thin nodes and quorum queries
+				new CommunicationMessage(Type.PING_FROM_THIN),
+				new ThickNodeAddressMessage(address),
+				new BlockRequestMessage(header.hash()),
+				new BlockRequestMessage(block),
+				new BlockCompactRepresentationRequestMessage(header, transaction),
+				new BlockCompactRepresentationRequestMessage(compactBlock),
+				new TransactionBlockNumberMessage(transaction),
+				new TransactionBlockNumberMessage(7, transaction),
+				// miners
+				new SubmitTransactionMessage(address, transaction),
+				new SubmitTransactionMessage(address, transactions),
+				new MinerAddressNotification(address),
+				new MinerNodeAddressMessage(address),
+				new SubmitNewBlockMessage(block, address)
+		};
+
+		for(int round = 0; round < ROUNDS; round++){
+			for(int s = 0; s < samples.length; s++){
+				Object sample = samples[s];
+				// requests and replies share their class
+				String name = s+" "+sample.getClass().getSimpleName();
+				long bytes = 0;
+				long start = System.nanoTime();
+				for(int i = 0; i < messages; i++){
+					bytes += serializedRoundTrip(sample);
+				}
+				print(name, "serialized", round, messages, System.nanoTime() - start, bytes);
+
+				bytes = 0;
+				start = System.nanoTime();
+				for(int i = 0; i < messages; i++){
+					bytes += framedRoundTrip(sample);
+				}
+				print(name, "framed    ", round, messages, System.nanoTime() - start, bytes);
+			}
+		}
+	}
+
+	private static BlockHeader header(int version, long blockNumber, HashValue prevBlockHash, HashValue merkleRoot) throws Exception{
+		return new DefaultBlockHeader.Builder().
+				setHeaderVersion(version).
+				setBlockChainName("RAW_STD_BLOCKCHAIN").
+				setBlockNumber(blockNumber).
+				setDifficulty(new BigDecimal(1)).
+				setMerkleRoot(merkleRoot).
+				setNonce(11).
+				setPrevBlockHash(prevBlockHash).
+				setTimestamp(System.currentTimeMillis()).
+				setMinerSignature("Benchmark").
+				build();
+	}
+
+	private static int serializedRoundTrip(Object message) throws IOException, ClassNotFoundException{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos);
+		oos.writeObject(message);
+		oos.flush();
+		byte[] bytes = baos.toByteArray();
+		new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+		return bytes.length;
+	}
+
+	private static int framedRoundTrip(Object message) throws IOException{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		WireProtocol.writeFrame(message, new DataOutputStream(baos));
+		byte[] bytes = baos.toByteArray();
+		WireProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(bytes)));
+		return bytes.length;
+	}
+
+	private static void print(String message, String name, int round, int messages, long nanos, long bytes){
+		System.out.println("Round "+round+" "+message+" "+name+": "+(nanos / messages / 1000)+" us/message, "+(bytes / messages)+" bytes/message");
+	}
+
+}
@@ -0,0 +1,48 @@
+/*******************************************************************************
+ *  Copyright 2017 Vincenzo-Maria Cappelleri <vincenzo.cappelleri@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package raw.blockChain.peers;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+/**
+ * Loopback peers for the tests of the messaging layer.
+ * 
+ * @author vic
+ *
+ */
+public class TestPeers {
+
+	private TestPeers() {
+	}
+	
+	/**
+	 * A node whose connections are never accepted: the framing negotiation never ends.
+	 * 
+	 * @param servers the list of sockets closed by the test on tear down: the new one is added to it
+	 * @return the address of the silent node
+	 * @throws IOException if the server socket can not be bound
+	 */
+	public static InetSocketAddress startSilentServer(List<ServerSocket> servers) throws IOException {
+		ServerSocket server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+		servers.add(server);
+		return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getLocalPort());
+	}
+
+}